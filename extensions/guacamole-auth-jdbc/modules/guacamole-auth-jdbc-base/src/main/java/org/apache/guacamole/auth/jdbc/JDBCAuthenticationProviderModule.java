@@ -44,7 +44,6 @@ import org.apache.guacamole.auth.jdbc.security.SaltService;
 import org.apache.guacamole.auth.jdbc.security.SecureRandomSaltService;
 import org.apache.guacamole.auth.jdbc.permission.SystemPermissionService;
 import org.apache.guacamole.auth.jdbc.user.UserService;
-import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.apache.guacamole.auth.jdbc.permission.ConnectionGroupPermissionMapper;
 import org.apache.guacamole.auth.jdbc.permission.ConnectionGroupPermissionService;
 import org.apache.guacamole.auth.jdbc.permission.ConnectionGroupPermissionSet;
@@ -113,7 +112,7 @@ public class JDBCAuthenticationProviderModule extends MyBatisModule {
         bindDataSourceProviderType(PooledDataSourceProvider.class);
         
         // Transaction factory
-        bindTransactionFactoryType(JdbcTransactionFactory.class);
+        bindTransactionFactoryType(JDBCTransactionFactory.class);
         
         // Add MyBatis mappers
         addMapperClass(ConnectionMapper.class);
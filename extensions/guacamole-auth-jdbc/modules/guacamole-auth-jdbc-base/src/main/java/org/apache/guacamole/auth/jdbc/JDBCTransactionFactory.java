@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+/**
+ * JDBC transaction factory which allows work to be deferred until the
+ * transaction of the current thread has completed. Caches of database
+ * contents use this to invalidate themselves once changes have actually
+ * been committed (or rolled back), as values read by other threads before
+ * the commit would otherwise be cached after an invalidation performed
+ * within the transaction.
+ */
+public class JDBCTransactionFactory extends JdbcTransactionFactory {
+
+    /**
+     * The transaction currently open within each thread, if any.
+     */
+    private static final ThreadLocal<CompletionAwareTransaction> currentTransaction =
+            new ThreadLocal<CompletionAwareTransaction>();
+
+    /**
+     * JDBC transaction which runs a set of tasks once closed, regardless of
+     * whether the transaction was committed or rolled back.
+     */
+    private static class CompletionAwareTransaction extends JdbcTransaction {
+
+        /**
+         * The transaction which was open within the current thread before
+         * this transaction was created, if any.
+         */
+        private final CompletionAwareTransaction previous = currentTransaction.get();
+
+        /**
+         * The tasks to run once this transaction has completed.
+         */
+        private final List<Runnable> completionTasks = new ArrayList<Runnable>();
+
+        /**
+         * Creates a new transaction which uses a connection from the given
+         * DataSource, becoming the current transaction of this thread.
+         *
+         * @param dataSource
+         *     The DataSource from which a connection should be obtained.
+         *
+         * @param level
+         *     The desired transaction isolation level.
+         *
+         * @param autoCommit
+         *     Whether the connection should be in auto-commit mode.
+         */
+        public CompletionAwareTransaction(DataSource dataSource,
+                TransactionIsolationLevel level, boolean autoCommit) {
+            super(dataSource, level, autoCommit);
+            currentTransaction.set(this);
+        }
+
+        /**
+         * Creates a new transaction which uses the given connection, becoming
+         * the current transaction of this thread.
+         *
+         * @param connection
+         *     The connection to use.
+         */
+        public CompletionAwareTransaction(Connection connection) {
+            super(connection);
+            currentTransaction.set(this);
+        }
+
+        @Override
+        public void close() throws SQLException {
+
+            try {
+                super.close();
+            }
+
+            // Restore previous transaction and run deferred tasks, even if
+            // the connection could not be closed cleanly
+            finally {
+
+                if (currentTransaction.get() == this) {
+                    if (previous != null)
+                        currentTransaction.set(previous);
+                    else
+                        currentTransaction.remove();
+                }
+
+                for (Runnable task : completionTasks)
+                    task.run();
+
+            }
+
+        }
+
+    }
+
+    @Override
+    public Transaction newTransaction(Connection connection) {
+        return new CompletionAwareTransaction(connection);
+    }
+
+    @Override
+    public Transaction newTransaction(DataSource dataSource,
+            TransactionIsolationLevel level, boolean autoCommit) {
+        return new CompletionAwareTransaction(dataSource, level, autoCommit);
+    }
+
+    /**
+     * Runs the given task once the transaction open within the current
+     * thread has completed. If no transaction is open, the task is run
+     * immediately.
+     *
+     * @param task
+     *     The task to run.
+     */
+    public static void afterCompletion(Runnable task) {
+
+        CompletionAwareTransaction transaction = currentTransaction.get();
+        if (transaction == null)
+            task.run();
+        else
+            transaction.completionTasks.add(task);
+
+    }
+
+}
@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.auth.jdbc.base;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.auth.jdbc.JDBCTransactionFactory;
+import org.apache.guacamole.auth.jdbc.connection.ConnectionParameterMapper;
+import org.apache.guacamole.auth.jdbc.connection.ConnectionParameterModel;
+import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterMapper;
+import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterModel;
+
+/**
+ * Application-wide cache of rarely-changing data read from the database,
+ * such as the models of connections, connection groups, and sharing
+ * profiles, the sets of identifiers of such objects, and the parameters of
+ * connections and sharing profiles. As the
+ * contents of a model may depend on the permissions of the user reading it,
+ * each cached value is associated with the ID of the user it was read for,
+ * or with no user if it was read without regard to permissions.
+ *
+ * The cache is bounded by weight rather than by number of values, such that
+ * a value containing the models of an entire tree counts for as much as the
+ * models it contains. The least-recently used values are evicted as
+ * necessary. All cached values are invalidated whenever any such data is
+ * created, updated, or deleted. As data may also be changed by other
+ * instances sharing the same database, cached values additionally expire
+ * after a short time.
+ */
+@Singleton
+public class ModelCache {
+
+    /**
+     * The maximum total weight of all values which may be cached at any one
+     * time. Collections and maps weigh as much as the number of elements
+     * they contain, while all other values have a weight of one.
+     */
+    static final int MAX_WEIGHT = 200000;
+
+    /**
+     * The number of milliseconds after which a cached value expires, even if
+     * never invalidated.
+     */
+    private static final long VALUE_LIFETIME = 30000;
+
+    /**
+     * The type key for cached connection parameters.
+     */
+    private static final Object CONNECTION_PARAMETERS = ConnectionParameterMapper.class;
+
+    /**
+     * The type key for cached sharing profile parameters.
+     */
+    private static final Object SHARING_PROFILE_PARAMETERS = SharingProfileParameterMapper.class;
+
+    /**
+     * Mapper for retrieving connection parameters.
+     */
+    @Inject
+    private ConnectionParameterMapper connectionParameterMapper;
+
+    /**
+     * Mapper for retrieving sharing profile parameters.
+     */
+    @Inject
+    private SharingProfileParameterMapper sharingProfileParameterMapper;
+
+    /**
+     * The key under which a value is cached.
+     */
+    private static class Key {
+
+        /**
+         * An arbitrary object uniquely identifying the type of value cached.
+         */
+        private final Object type;
+
+        /**
+         * The ID of the user that the value was read for, or null if the
+         * value was read without regard to permissions.
+         */
+        private final Integer userID;
+
+        /**
+         * The identifier of the object that the value relates to, or null if
+         * the value relates to all objects of its type.
+         */
+        private final String identifier;
+
+        /**
+         * Creates a new Key from the given type, user ID, and identifier.
+         *
+         * @param type
+         *     An arbitrary object uniquely identifying the type of value
+         *     cached.
+         *
+         * @param userID
+         *     The ID of the user that the value was read for, or null if the
+         *     value was read without regard to permissions.
+         *
+         * @param identifier
+         *     The identifier of the object that the value relates to, or null
+         *     if the value relates to all objects of its type.
+         */
+        public Key(Object type, Integer userID, String identifier) {
+            this.type = type;
+            this.userID = userID;
+            this.identifier = identifier;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = type.hashCode();
+            hash = 31 * hash + (userID == null ? 0 : userID.hashCode());
+            hash = 31 * hash + (identifier == null ? 0 : identifier.hashCode());
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof Key))
+                return false;
+
+            Key key = (Key) object;
+            return type.equals(key.type)
+                && (userID == null ? key.userID == null : userID.equals(key.userID))
+                && (identifier == null ? key.identifier == null : identifier.equals(key.identifier));
+
+        }
+
+    }
+
+    /**
+     * A cached value, along with the time it was cached.
+     */
+    private static class Entry {
+
+        /**
+         * The cached value.
+         */
+        private final Object value;
+
+        /**
+         * The time the value was cached, in milliseconds since midnight,
+         * January 1, 1970 UTC.
+         */
+        private final long creationTime = System.currentTimeMillis();
+
+        /**
+         * The weight of the cached value.
+         */
+        private final int weight;
+
+        /**
+         * Creates a new Entry containing the given value.
+         *
+         * @param value
+         *     The value to cache.
+         */
+        public Entry(Object value) {
+            this.value = value;
+            this.weight = getWeight(value);
+        }
+
+    }
+
+    /**
+     * All cached values, in order of least-recent use. All access to this
+     * map must be synchronized on the map.
+     */
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /**
+     * The total weight of all cached values. All access to this value must be
+     * synchronized on the entries map.
+     */
+    private long totalWeight = 0;
+
+    /**
+     * Counter which is incremented upon each invalidation, such that values
+     * read prior to an invalidation are not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The number of lookups which found a cached value.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups which found no cached value.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the weight of the given value for the purposes of bounding the
+     * size of this cache. Collections and maps weigh as much as the number
+     * of elements they contain, while all other values have a weight of one.
+     *
+     * @param value
+     *     The value to weigh.
+     *
+     * @return
+     *     The weight of the given value.
+     */
+    private static int getWeight(Object value) {
+
+        if (value instanceof Collection)
+            return Math.max(1, ((Collection<?>) value).size());
+
+        if (value instanceof Map)
+            return Math.max(1, ((Map<?, ?>) value).size());
+
+        return 1;
+
+    }
+
+    /**
+     * Returns the current generation of this cache. This value must be
+     * retrieved before any value to be cached is read from the database.
+     *
+     * @return
+     *     The current generation of this cache.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the cached value having the given type, user ID, and
+     * identifier, if any.
+     *
+     * @param type
+     *     An arbitrary object uniquely identifying the type of value cached.
+     *
+     * @param userID
+     *     The ID of the user that the value was read for, or null if the
+     *     value was read without regard to permissions.
+     *
+     * @param identifier
+     *     The identifier of the object that the value relates to, or null if
+     *     the value relates to all objects of its type.
+     *
+     * @return
+     *     The cached value, or null if no unexpired value is cached.
+     */
+    public Object get(Object type, Integer userID, String identifier) {
+
+        Key key = new Key(type, userID, identifier);
+        synchronized (entries) {
+
+            Entry entry = entries.get(key);
+
+            // Drop expired values
+            if (entry != null
+                    && System.currentTimeMillis() - entry.creationTime >= VALUE_LIFETIME) {
+                entries.remove(key);
+                totalWeight -= entry.weight;
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            hits.incrementAndGet();
+            return entry.value;
+
+        }
+
+    }
+
+    /**
+     * Caches the given value under the given type, user ID, and identifier.
+     * If the cache has been invalidated since the given generation, the value
+     * is not cached. Cached values must not be modified.
+     *
+     * @param type
+     *     An arbitrary object uniquely identifying the type of value cached.
+     *
+     * @param userID
+     *     The ID of the user that the value was read for, or null if the
+     *     value was read without regard to permissions.
+     *
+     * @param identifier
+     *     The identifier of the object that the value relates to, or null if
+     *     the value relates to all objects of its type.
+     *
+     * @param generation
+     *     The generation of this cache, as returned by getGeneration(),
+     *     prior to reading the given value from the database.
+     *
+     * @param value
+     *     The value to cache.
+     */
+    public void put(Object type, Integer userID, String identifier,
+            long generation, Object value) {
+
+        synchronized (entries) {
+
+            // Do not cache values which may predate an invalidation
+            if (generation != this.generation.get())
+                return;
+
+            Entry entry = new Entry(value);
+            Entry replaced = entries.put(new Key(type, userID, identifier), entry);
+            totalWeight += entry.weight;
+            if (replaced != null)
+                totalWeight -= replaced.weight;
+
+            // Evict least-recently used values until within bounds, always
+            // retaining the value just cached
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalWeight > MAX_WEIGHT && entries.size() > 1) {
+                totalWeight -= eldest.next().weight;
+                eldest.remove();
+            }
+
+        }
+
+    }
+
+    /**
+     * Immediately removes all cached values, preventing any values read
+     * beforehand from being cached.
+     */
+    private void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    /**
+     * Invalidates all cached values. If called within a transaction, values
+     * are invalidated both immediately and once that transaction has
+     * completed, as values read by other threads before the change is
+     * committed would otherwise be cached.
+     */
+    public void invalidateAll() {
+        clear();
+        JDBCTransactionFactory.afterCompletion(new Runnable() {
+
+            @Override
+            public void run() {
+                clear();
+            }
+
+        });
+    }
+
+    /**
+     * Returns the number of lookups which have found a cached value.
+     *
+     * @return
+     *     The number of cache hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which have found no cached value.
+     *
+     * @return
+     *     The number of cache misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of values currently cached.
+     *
+     * @return
+     *     The number of values currently cached.
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns all parameters associated with the connection having the given
+     * identifier, reading those parameters from the database only if not
+     * already cached. Permission to read the parameters is NOT checked.
+     *
+     * @param identifier
+     *     The identifier of the connection whose parameters should be
+     *     returned.
+     *
+     * @return
+     *     An unmodifiable map of all parameter name/value pairs associated
+     *     with the given connection.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getConnectionParameters(String identifier) {
+
+        // Use cached parameters, if available
+        Map<String, String> parameters =
+                (Map<String, String>) get(CONNECTION_PARAMETERS, null, identifier);
+        if (parameters != null)
+            return parameters;
+
+        // Otherwise, read and cache parameters
+        long currentGeneration = getGeneration();
+        parameters = new HashMap<String, String>();
+        for (ConnectionParameterModel parameter : connectionParameterMapper.select(identifier))
+            parameters.put(parameter.getName(), parameter.getValue());
+
+        parameters = Collections.unmodifiableMap(parameters);
+        put(CONNECTION_PARAMETERS, null, identifier, currentGeneration, parameters);
+        return parameters;
+
+    }
+
+    /**
+     * Returns all parameters associated with the sharing profile having the
+     * given identifier, reading those parameters from the database only if
+     * not already cached. Permission to read the parameters is NOT checked.
+     *
+     * @param identifier
+     *     The identifier of the sharing profile whose parameters should be
+     *     returned.
+     *
+     * @return
+     *     An unmodifiable map of all parameter name/value pairs associated
+     *     with the given sharing profile.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getSharingProfileParameters(String identifier) {
+
+        // Use cached parameters, if available
+        Map<String, String> parameters =
+                (Map<String, String>) get(SHARING_PROFILE_PARAMETERS, null, identifier);
+        if (parameters != null)
+            return parameters;
+
+        // Otherwise, read and cache parameters
+        long currentGeneration = getGeneration();
+        parameters = new HashMap<String, String>();
+        for (SharingProfileParameterModel parameter : sharingProfileParameterMapper.select(identifier))
+            parameters.put(parameter.getName(), parameter.getValue());
+
+        parameters = Collections.unmodifiableMap(parameters);
+        put(SHARING_PROFILE_PARAMETERS, null, identifier, currentGeneration, parameters);
+        return parameters;
+
+    }
+
+}
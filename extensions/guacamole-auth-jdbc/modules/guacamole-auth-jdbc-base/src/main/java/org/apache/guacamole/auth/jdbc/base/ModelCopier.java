@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.base;
+
+/**
+ * Produces independent copies of models, such that models may be cached and
+ * shared without modifications to one copy affecting another.
+ *
+ * @param <ModelType>
+ *     The type of model copied.
+ */
+public interface ModelCopier<ModelType> {
+
+    /**
+     * Returns a copy of the given model which may be freely modified without
+     * affecting the original.
+     *
+     * @param model
+     *     The model to copy.
+     *
+     * @return
+     *     A copy of the given model.
+     */
+    ModelType copy(ModelType model);
+
+}
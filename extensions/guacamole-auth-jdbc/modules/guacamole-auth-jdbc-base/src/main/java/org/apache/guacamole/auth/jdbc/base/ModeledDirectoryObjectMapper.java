@@ -20,6 +20,7 @@
 package org.apache.guacamole.auth.jdbc.base;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import org.apache.guacamole.auth.jdbc.user.UserModel;
 import org.apache.ibatis.annotations.Param;
@@ -62,6 +63,61 @@ public interface ModeledDirectoryObjectMapper<ModelType> {
      *     A Set containing all identifiers of all readable objects.
      */
     Set<String> selectReadableIdentifiers(@Param("user") UserModel user);
+
+    /**
+     * Selects the identifiers of the objects following the given identifier,
+     * in order, regardless of whether they are readable by any particular
+     * user. This should only be called on behalf of a system administrator.
+     * If identifiers are needed by a non-administrative user who must have
+     * explicit read rights, use selectReadableIdentifiersPage() instead.
+     *
+     * @param after
+     *     The identifier that all returned identifiers must follow, or null
+     *     to select identifiers starting with the first.
+     *
+     * @param pattern
+     *     A case-insensitive LIKE pattern, using "!" as its escape character,
+     *     which the names of all objects whose identifiers are returned must
+     *     match, or null if names should not be filtered.
+     *
+     * @param limit
+     *     The maximum number of identifiers to return.
+     *
+     * @return
+     *     A List containing the selected identifiers, in order.
+     */
+    List<String> selectIdentifiersPage(@Param("after") String after,
+            @Param("pattern") String pattern, @Param("limit") int limit);
+
+    /**
+     * Selects the identifiers of the objects following the given identifier,
+     * in order, including only objects that are explicitly readable by the
+     * given user. If identifiers are needed by a system administrator (who,
+     * by definition, does not need explicit read rights), use
+     * selectIdentifiersPage() instead.
+     *
+     * @param user
+     *    The user whose permissions should determine whether an identifier
+     *    is returned.
+     *
+     * @param after
+     *     The identifier that all returned identifiers must follow, or null
+     *     to select identifiers starting with the first.
+     *
+     * @param pattern
+     *     A case-insensitive LIKE pattern, using "!" as its escape character,
+     *     which the names of all objects whose identifiers are returned must
+     *     match, or null if names should not be filtered.
+     *
+     * @param limit
+     *     The maximum number of identifiers to return.
+     *
+     * @return
+     *     A List containing the selected identifiers, in order.
+     */
+    List<String> selectReadableIdentifiersPage(@Param("user") UserModel user,
+            @Param("after") String after, @Param("pattern") String pattern,
+            @Param("limit") int limit);
     
     /**
      * Selects all objects which have the given identifiers. If an identifier
@@ -19,13 +19,20 @@
 
 package org.apache.guacamole.auth.jdbc.base;
 
+import com.google.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
+import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleSecurityException;
+import org.apache.guacamole.auth.jdbc.permission.ObjectPermissionCache;
 import org.apache.guacamole.auth.jdbc.permission.ObjectPermissionMapper;
 import org.apache.guacamole.auth.jdbc.permission.ObjectPermissionModel;
 import org.apache.guacamole.auth.jdbc.user.UserModel;
@@ -65,6 +72,34 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
         ObjectPermission.Type.DELETE,
         ObjectPermission.Type.ADMINISTER
     };
+
+    /**
+     * Cache of the object permissions granted to each user, which must be
+     * invalidated whenever permissions are implicitly granted or removed.
+     */
+    @Inject
+    private ObjectPermissionCache permissionCache;
+
+    /**
+     * Application-wide cache of models read from the database, which must be
+     * invalidated whenever any object is created, updated, or deleted.
+     */
+    @Inject
+    private ModelCache modelCache;
+
+    /**
+     * Returns the type under which the models of all objects readable by a
+     * user are cached within the ModelCache, as a single map of identifier to
+     * model. The identifiers of those objects are cached separately, under
+     * the class of this service.
+     *
+     * @return
+     *     The type under which the models of all objects readable by a user
+     *     are cached.
+     */
+    private Object getReadableModelsType() {
+        return getClass().getName() + "#models";
+    }
     
     /**
      * Returns an instance of a mapper for the type of object used by this
@@ -186,6 +221,20 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
     protected abstract ObjectPermissionSet getPermissionSet(ModeledAuthenticatedUser user)
             throws GuacamoleException;
 
+    /**
+     * Returns the ModelCopier which should be used to copy the models of the
+     * objects managed by this service, allowing those models to be cached
+     * across requests. Models are only cached if a ModelCopier is provided.
+     * By default, models are never cached.
+     *
+     * @return
+     *     The ModelCopier which copies the models of objects managed by this
+     *     service, or null if those models must not be cached.
+     */
+    protected ModelCopier<ModelType> getModelCopier() {
+        return null;
+    }
+
     /**
      * Returns a collection of objects which are backed by the models in the
      * given collection.
@@ -381,19 +430,109 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
         if (identifiers.isEmpty())
             return Collections.<InternalType>emptyList();
 
-        Collection<ModelType> objects;
+        // Query the database directly if models cannot be cached
+        ModelCopier<ModelType> copier = getModelCopier();
+        if (copier == null)
+            return getObjectInstances(user, selectModels(user, identifiers));
+
+        Integer viewerID = getViewerID(user);
+
+        // Use the cached models of all readable objects, if available
+        @SuppressWarnings("unchecked")
+        Map<String, ModelType> readable = (Map<String, ModelType>)
+                modelCache.get(getReadableModelsType(), viewerID, null);
+
+        if (readable != null) {
+            Collection<ModelType> objects = new ArrayList<ModelType>(identifiers.size());
+            for (String identifier : identifiers) {
+                ModelType cached = readable.get(identifier);
+                if (cached != null)
+                    objects.add(copier.copy(cached));
+            }
+            return getObjectInstances(user, objects);
+        }
+
+        // Otherwise, read the requested models from the database
+        long generation = modelCache.getGeneration();
+        Collection<ModelType> objects = selectModels(user, identifiers);
+
+        // If every readable object was requested, as when an entire tree is
+        // loaded, cache all of those models together as a single value
+        @SuppressWarnings("unchecked")
+        Set<String> readableIdentifiers = (Set<String>) modelCache.get(getClass(), viewerID, null);
+        if (readableIdentifiers != null
+                && new HashSet<String>(identifiers).containsAll(readableIdentifiers)) {
+
+            Map<String, ModelType> models = new HashMap<String, ModelType>(objects.size() * 2);
+            for (ModelType model : objects)
+                models.put(model.getIdentifier(), copier.copy(model));
+
+            modelCache.put(getReadableModelsType(), viewerID, null, generation,
+                    Collections.unmodifiableMap(models));
+
+        }
+
+        // Return collection of requested objects
+        return getObjectInstances(user, objects);
+        
+    }
+
+    /**
+     * Returns the user ID under which data read by the given user should be
+     * cached. Data read by administrators is read without regard to
+     * permissions and is cached under no particular user, while all other
+     * data is specific to the user reading it.
+     *
+     * @param user
+     *     The user reading the data being cached.
+     *
+     * @return
+     *     The ID of the given user, or null if the given user is a system
+     *     administrator.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while determining whether the user is a system
+     *     administrator.
+     */
+    private Integer getViewerID(ModeledAuthenticatedUser user)
+            throws GuacamoleException {
+
+        if (user.getUser().isAdministrator())
+            return null;
+
+        return user.getUser().getModel().getObjectID();
+
+    }
+
+    /**
+     * Reads the models of all objects having the given identifiers from the
+     * database, excluding any objects which the given user does not have
+     * permission to read.
+     *
+     * @param user
+     *     The user retrieving the models.
+     *
+     * @param identifiers
+     *     The identifiers of the models to read.
+     *
+     * @return
+     *     The models of all readable objects having the given identifiers.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while determining whether the user is a system
+     *     administrator.
+     */
+    private Collection<ModelType> selectModels(ModeledAuthenticatedUser user,
+            Collection<String> identifiers) throws GuacamoleException {
 
         // Bypass permission checks if the user is a system admin
         if (user.getUser().isAdministrator())
-            objects = getObjectMapper().select(identifiers);
+            return getObjectMapper().select(identifiers);
 
         // Otherwise only return explicitly readable identifiers
         else
-            objects = getObjectMapper().selectReadable(user.getUser().getModel(), identifiers);
-        
-        // Return collection of requested objects
-        return getObjectInstances(user, objects);
-        
+            return getObjectMapper().selectReadable(user.getUser().getModel(), identifiers);
+
     }
 
     /**
@@ -452,6 +591,8 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
 
         // Add implicit permissions
         getPermissionMapper().insert(getImplicitPermissions(user, model));
+        permissionCache.invalidate(user.getUser().getModel().getObjectID());
+        modelCache.invalidateAll();
 
         return getObjectInstance(user, model);
 
@@ -466,6 +607,10 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
         // Delete object
         getObjectMapper().delete(identifier);
 
+        // Permissions affecting the deleted object are deleted with it
+        permissionCache.invalidateAll();
+        modelCache.invalidateAll();
+
     }
 
     @Override
@@ -477,6 +622,7 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
         
         // Update object
         getObjectMapper().update(model);
+        modelCache.invalidateAll();
 
     }
 
@@ -484,6 +630,123 @@ public abstract class ModeledDirectoryObjectService<InternalType extends Modeled
     public Set<String> getIdentifiers(ModeledAuthenticatedUser user)
         throws GuacamoleException {
 
+        // Query the database directly if identifiers cannot be cached
+        if (getModelCopier() == null)
+            return selectIdentifiers(user);
+
+        // Use cached identifiers, if available
+        Integer viewerID = getViewerID(user);
+        @SuppressWarnings("unchecked")
+        Set<String> identifiers = (Set<String>) modelCache.get(getClass(), viewerID, null);
+        if (identifiers != null)
+            return new HashSet<String>(identifiers);
+
+        // Otherwise, read and cache identifiers
+        long generation = modelCache.getGeneration();
+        identifiers = selectIdentifiers(user);
+        modelCache.put(getClass(), viewerID, null, generation,
+                Collections.unmodifiableSet(new HashSet<String>(identifiers)));
+
+        return identifiers;
+
+    }
+
+    /**
+     * Returns the identifiers of the objects that the given user has
+     * permission to read which follow the given identifier, in order. Only
+     * one page of identifiers is returned, as limited by the given maximum.
+     *
+     * @param user
+     *     The user retrieving the identifiers.
+     *
+     * @param after
+     *     The identifier that all returned identifiers must follow, or null
+     *     to return identifiers starting with the first.
+     *
+     * @param prefix
+     *     The value that the names of all objects whose identifiers are
+     *     returned must begin with, or null if names should not be filtered.
+     *
+     * @param limit
+     *     The maximum number of identifiers to return.
+     *
+     * @return
+     *     The identifiers of the requested page of readable objects, in
+     *     order.
+     *
+     * @throws GuacamoleException
+     *     If the given identifier is not a valid identifier, or an error
+     *     occurs while reading identifiers.
+     */
+    public List<String> getIdentifiers(ModeledAuthenticatedUser user,
+            String after, String prefix, int limit) throws GuacamoleException {
+
+        // Reject cursors which cannot be compared with stored identifiers
+        if (after != null && !isValidIdentifier(after))
+            throw new GuacamoleClientException("Invalid identifier: \"" + after + "\"");
+
+        // Names are matched against a LIKE pattern
+        String pattern = null;
+        if (prefix != null)
+            pattern = getPrefixPattern(prefix);
+
+        // Bypass permission checks if the user is a system admin
+        if (user.getUser().isAdministrator())
+            return getObjectMapper().selectIdentifiersPage(after, pattern, limit);
+
+        // Otherwise only return explicitly readable identifiers
+        else
+            return getObjectMapper().selectReadableIdentifiersPage(
+                    user.getUser().getModel(), after, pattern, limit);
+
+    }
+
+    /**
+     * Returns a LIKE pattern which matches any value beginning with the given
+     * prefix. Characters within the prefix which are special within LIKE
+     * patterns are escaped using "!", which must be declared as the escape
+     * character of the LIKE expression using the pattern.
+     *
+     * @param prefix
+     *     The prefix that matching values must begin with.
+     *
+     * @return
+     *     A LIKE pattern matching any value beginning with the given prefix.
+     */
+    static String getPrefixPattern(String prefix) {
+
+        StringBuilder pattern = new StringBuilder(prefix.length() + 8);
+        for (int i = 0; i < prefix.length(); i++) {
+
+            char c = prefix.charAt(i);
+            if (c == '!' || c == '%' || c == '_')
+                pattern.append('!');
+
+            pattern.append(c);
+
+        }
+
+        return pattern.append('%').toString();
+
+    }
+
+    /**
+     * Reads the identifiers of all objects that the given user has permission
+     * to read from the database.
+     *
+     * @param user
+     *     The user retrieving the identifiers.
+     *
+     * @return
+     *     The identifiers of all objects readable by the given user.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while determining whether the user is a system
+     *     administrator.
+     */
+    private Set<String> selectIdentifiers(ModeledAuthenticatedUser user)
+        throws GuacamoleException {
+
         // Bypass permission checks if the user is a system admin
         if (user.getUser().isAdministrator())
             return getObjectMapper().selectIdentifiers();
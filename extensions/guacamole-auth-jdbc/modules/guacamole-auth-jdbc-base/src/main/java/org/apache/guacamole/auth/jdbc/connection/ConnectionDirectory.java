@@ -23,11 +23,12 @@ package org.apache.guacamole.auth.jdbc.connection;
 import com.google.inject.Inject;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.jdbc.base.RestrictedObject;
 import org.apache.guacamole.net.auth.Connection;
-import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.PageableDirectory;
 import org.mybatis.guice.transactional.Transactional;
 
 /**
@@ -38,7 +39,7 @@ import org.mybatis.guice.transactional.Transactional;
  * @author Michael Jumper
  */
 public class ConnectionDirectory extends RestrictedObject
-    implements Directory<Connection> {
+    implements PageableDirectory<Connection> {
 
     /**
      * Service for managing connection objects.
@@ -64,6 +65,13 @@ public class ConnectionDirectory extends RestrictedObject
         return connectionService.getIdentifiers(getCurrentUser());
     }
 
+    @Override
+    @Transactional
+    public List<String> getIdentifiers(String after, String prefix, int limit)
+            throws GuacamoleException {
+        return connectionService.getIdentifiers(getCurrentUser(), after, prefix, limit);
+    }
+
     @Override
     @Transactional
     public void add(Connection object) throws GuacamoleException {
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.connection;
+
+import java.util.Date;
+import org.apache.guacamole.GuacamoleClientException;
+
+/**
+ * The position of a connection record within the results of a connection
+ * history search, consisting of the start date and ID of that record. As
+ * search results are ordered by start date, with records having identical
+ * start dates ordered by ID, only records following this position need be
+ * retrieved to continue a search.
+ */
+public class ConnectionRecordCursor {
+
+    /**
+     * The character separating the start date from the record ID within the
+     * string form of a cursor.
+     */
+    private static final char SEPARATOR = ':';
+
+    /**
+     * The start date of the connection record at this position.
+     */
+    private final Date startDate;
+
+    /**
+     * The database ID of the connection record at this position.
+     */
+    private final int recordID;
+
+    /**
+     * Whether the search results are in descending order, such that records
+     * following this position have earlier start dates (true), or in
+     * ascending order, such that records following this position have later
+     * start dates (false).
+     */
+    private final boolean descending;
+
+    /**
+     * Creates a new ConnectionRecordCursor representing the position of the
+     * connection record having the given start date and ID.
+     *
+     * @param startDate
+     *     The start date of the connection record at this position.
+     *
+     * @param recordID
+     *     The database ID of the connection record at this position.
+     *
+     * @param descending
+     *     Whether the search results are in descending order (true) or
+     *     ascending order (false).
+     */
+    public ConnectionRecordCursor(Date startDate, int recordID,
+            boolean descending) {
+        this.startDate = startDate;
+        this.recordID = recordID;
+        this.descending = descending;
+    }
+
+    /**
+     * Parses the given string form of a cursor, as produced by toString(),
+     * returning the corresponding ConnectionRecordCursor.
+     *
+     * @param value
+     *     The string form of the cursor to parse.
+     *
+     * @param descending
+     *     Whether the search results are in descending order (true) or
+     *     ascending order (false).
+     *
+     * @return
+     *     The ConnectionRecordCursor represented by the given string.
+     *
+     * @throws GuacamoleClientException
+     *     If the given string is not a valid cursor.
+     */
+    public static ConnectionRecordCursor parse(String value, boolean descending)
+            throws GuacamoleClientException {
+
+        int separator = value.indexOf(SEPARATOR);
+        if (separator == -1)
+            throw new GuacamoleClientException("Invalid history cursor.");
+
+        try {
+            Date startDate = new Date(Long.parseLong(value.substring(0, separator)));
+            int recordID = Integer.parseInt(value.substring(separator + 1));
+            return new ConnectionRecordCursor(startDate, recordID, descending);
+        }
+        catch (NumberFormatException e) {
+            throw new GuacamoleClientException("Invalid history cursor.", e);
+        }
+
+    }
+
+    /**
+     * Returns the start date of the connection record at this position.
+     *
+     * @return
+     *     The start date of the connection record at this position.
+     */
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * Returns the database ID of the connection record at this position.
+     *
+     * @return
+     *     The database ID of the connection record at this position.
+     */
+    public int getRecordID() {
+        return recordID;
+    }
+
+    /**
+     * Returns whether the search results are in descending order, such that
+     * records following this position have earlier start dates.
+     *
+     * @return
+     *     true if the search results are in descending order, false if the
+     *     search results are in ascending order.
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(startDate.getTime()) + SEPARATOR + recordID;
+    }
+
+}
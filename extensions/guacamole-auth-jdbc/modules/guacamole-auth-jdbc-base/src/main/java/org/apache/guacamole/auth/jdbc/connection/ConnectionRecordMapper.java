@@ -56,6 +56,40 @@ public interface ConnectionRecordMapper {
      */
     int insert(@Param("record") ConnectionRecordModel record);
 
+    /**
+     * Returns the IDs of up to <code>limit</code> users whose usernames
+     * contain the given search term.
+     *
+     * @param term
+     *     The search term that usernames must contain.
+     *
+     * @param limit
+     *     The maximum number of IDs that should be returned.
+     *
+     * @return
+     *     The IDs of up to <code>limit</code> users whose usernames contain
+     *     the given term.
+     */
+    List<Integer> selectUserIDsMatching(@Param("term") String term,
+            @Param("limit") int limit);
+
+    /**
+     * Returns the IDs of up to <code>limit</code> connections whose names
+     * contain the given search term.
+     *
+     * @param term
+     *     The search term that connection names must contain.
+     *
+     * @param limit
+     *     The maximum number of IDs that should be returned.
+     *
+     * @return
+     *     The IDs of up to <code>limit</code> connections whose names contain
+     *     the given term.
+     */
+    List<Integer> selectConnectionIDsMatching(@Param("term") String term,
+            @Param("limit") int limit);
+
     /**
      * Searches for up to <code>limit</code> connection records that contain
      * the given terms, sorted by the given predicates, regardless of whether
@@ -65,20 +99,26 @@ public interface ConnectionRecordMapper {
      * read rights, use searchReadable() instead.
      *
      * @param terms
-     *     The search terms that must match the returned records.
+     *     The resolved search terms that must match the returned records.
      *
      * @param sortPredicates
      *     A list of predicates to sort the returned records by, in order of
      *     priority.
      *
+     * @param after
+     *     The position of the last record already retrieved, such that only
+     *     records following that record are returned, or null if records
+     *     should be returned starting with the first.
+     *
      * @param limit
      *     The maximum number of records that should be returned.
      *
      * @return
      *     The results of the search performed with the given parameters.
      */
-    List<ConnectionRecordModel> search(@Param("terms") Collection<ConnectionRecordSearchTerm> terms,
+    List<ConnectionRecordModel> search(@Param("terms") Collection<ResolvedConnectionRecordSearchTerm> terms,
             @Param("sortPredicates") List<ConnectionRecordSortPredicate> sortPredicates,
+            @Param("after") ConnectionRecordCursor after,
             @Param("limit") int limit);
 
     /**
@@ -93,12 +133,17 @@ public interface ConnectionRecordMapper {
      *    returned.
      *
      * @param terms
-     *     The search terms that must match the returned records.
+     *     The resolved search terms that must match the returned records.
      *
      * @param sortPredicates
      *     A list of predicates to sort the returned records by, in order of
      *     priority.
      *
+     * @param after
+     *     The position of the last record already retrieved, such that only
+     *     records following that record are returned, or null if records
+     *     should be returned starting with the first.
+     *
      * @param limit
      *     The maximum number of records that should be returned.
      *
@@ -106,8 +151,9 @@ public interface ConnectionRecordMapper {
      *     The results of the search performed with the given parameters.
      */
     List<ConnectionRecordModel> searchReadable(@Param("user") UserModel user,
-            @Param("terms") Collection<ConnectionRecordSearchTerm> terms,
+            @Param("terms") Collection<ResolvedConnectionRecordSearchTerm> terms,
             @Param("sortPredicates") List<ConnectionRecordSortPredicate> sortPredicates,
+            @Param("after") ConnectionRecordCursor after,
             @Param("limit") int limit);
 
 }
@@ -30,6 +30,12 @@ import java.util.Date;
  */
 public class ConnectionRecordModel {
 
+    /**
+     * The database ID of this connection record, or null if this record has
+     * not yet been inserted into the database.
+     */
+    private Integer recordID;
+
     /**
      * The identifier of the connection associated with this connection record.
      */
@@ -76,6 +82,27 @@ public class ConnectionRecordModel {
      */
     private Date endDate;
 
+    /**
+     * Returns the database ID of this connection record.
+     *
+     * @return
+     *     The database ID of this connection record, or null if this record
+     *     has not yet been inserted into the database.
+     */
+    public Integer getRecordID() {
+        return recordID;
+    }
+
+    /**
+     * Sets the database ID of this connection record.
+     *
+     * @param recordID
+     *     The database ID of this connection record.
+     */
+    public void setRecordID(Integer recordID) {
+        this.recordID = recordID;
+    }
+
     /**
      * Returns the identifier of the connection associated with this connection
      * record.
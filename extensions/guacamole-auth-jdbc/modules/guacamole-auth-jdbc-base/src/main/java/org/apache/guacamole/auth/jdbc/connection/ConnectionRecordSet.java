@@ -22,12 +22,14 @@ package org.apache.guacamole.auth.jdbc.connection;
 import com.google.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.jdbc.base.RestrictedObject;
 import org.apache.guacamole.net.auth.ConnectionRecord;
+import org.apache.guacamole.net.auth.PageableConnectionRecordSet;
 
 /**
  * A JDBC implementation of ConnectionRecordSet. Calls to asCollection() will 
@@ -37,7 +39,7 @@ import org.apache.guacamole.net.auth.ConnectionRecord;
  * @author James Muehlner
  */
 public class ConnectionRecordSet extends RestrictedObject
-        implements org.apache.guacamole.net.auth.ConnectionRecordSet {
+        implements PageableConnectionRecordSet {
 
     /**
      * Service for managing connection objects.
@@ -68,12 +70,39 @@ public class ConnectionRecordSet extends RestrictedObject
      */
     private final List<ConnectionRecordSortPredicate> connectionRecordSortPredicates =
             new ArrayList<ConnectionRecordSortPredicate>();
+
+    /**
+     * The cursor of the last connection history record already retrieved,
+     * such that only records following that record are returned by a call
+     * to asCollection(), or null if records should be returned starting with
+     * the first.
+     */
+    private String after;
     
     @Override
     public Collection<ConnectionRecord> asCollection()
             throws GuacamoleException {
+
+        // Sort by start date, with the most recent records first, if no other
+        // order is specified, such that records can be continued from a
+        // cursor and pages are stable
+        List<ConnectionRecordSortPredicate> sortPredicates = connectionRecordSortPredicates;
+        if (sortPredicates.isEmpty())
+            sortPredicates = Collections.singletonList(new ConnectionRecordSortPredicate(
+                    SortableProperty.START_DATE, true));
+
+        // Retrieve records starting with the first if no cursor is given
+        if (after == null)
+            return connectionService.retrieveHistory(getCurrentUser(),
+                    requiredContents, sortPredicates, null, limit);
+
+        // Continue in the direction of the primary sort order
+        ConnectionRecordCursor cursor = ConnectionRecordCursor.parse(after,
+                sortPredicates.get(0).isDescending());
+
         return connectionService.retrieveHistory(getCurrentUser(),
-                requiredContents, connectionRecordSortPredicates, limit);
+                requiredContents, sortPredicates, cursor, limit);
+
     }
 
     @Override
@@ -83,6 +112,29 @@ public class ConnectionRecordSet extends RestrictedObject
         return this;
     }
 
+    @Override
+    public ConnectionRecordSet after(String cursor) throws GuacamoleException {
+        this.after = cursor;
+        return this;
+    }
+
+    @Override
+    public String getCursor(ConnectionRecord record) {
+
+        // Only records read from the database have cursors
+        if (!(record instanceof ModeledConnectionRecord))
+            return null;
+
+        Integer recordID = ((ModeledConnectionRecord) record).getRecordID();
+        if (recordID == null)
+            return null;
+
+        // The direction of the search is irrelevant to the cursor itself
+        return new ConnectionRecordCursor(record.getStartDate(), recordID,
+                true).toString();
+
+    }
+
     @Override
     public ConnectionRecordSet limit(int limit) throws GuacamoleException {
         this.limit = Math.min(this.limit, limit);
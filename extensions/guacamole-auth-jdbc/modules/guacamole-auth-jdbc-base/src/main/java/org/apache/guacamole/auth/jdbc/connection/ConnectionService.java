@@ -25,10 +25,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
+import org.apache.guacamole.auth.jdbc.base.ModelCache;
+import org.apache.guacamole.auth.jdbc.base.ModelCopier;
 import org.apache.guacamole.auth.jdbc.base.ModeledDirectoryObjectMapper;
 import org.apache.guacamole.auth.jdbc.tunnel.GuacamoleTunnelService;
 import org.apache.guacamole.GuacamoleClientException;
@@ -72,6 +75,12 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
     @Inject
     private ConnectionParameterMapper parameterMapper;
 
+    /**
+     * Application-wide cache of connection models and parameters.
+     */
+    @Inject
+    private ModelCache modelCache;
+
     /**
      * Mapper for accessing connection history.
      */
@@ -126,6 +135,30 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
         
     }
 
+    @Override
+    protected ModelCopier<ConnectionModel> getModelCopier() {
+        return new ModelCopier<ConnectionModel>() {
+
+            @Override
+            public ConnectionModel copy(ConnectionModel model) {
+
+                // The identifier of a connection is derived from its object ID
+                ConnectionModel copy = new ConnectionModel();
+                copy.setObjectID(model.getObjectID());
+                copy.setParentIdentifier(model.getParentIdentifier());
+                copy.setName(model.getName());
+                copy.setProtocol(model.getProtocol());
+                copy.setMaxConnections(model.getMaxConnections());
+                copy.setMaxConnectionsPerUser(model.getMaxConnectionsPerUser());
+                copy.setSharingProfileIdentifiers(new HashSet<String>(model.getSharingProfileIdentifiers()));
+
+                return copy;
+
+            }
+
+        };
+    }
+
     @Override
     protected boolean hasCreatePermission(ModeledAuthenticatedUser user)
             throws GuacamoleException {
@@ -252,6 +285,7 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
         if (!parameterModels.isEmpty())
             parameterMapper.insert(parameterModels);
 
+        modelCache.invalidateAll();
         return connection;
 
     }
@@ -268,6 +302,8 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
         parameterMapper.delete(object.getIdentifier());
         if (!parameterModels.isEmpty())
             parameterMapper.insert(parameterModels);
+
+        modelCache.invalidateAll();
         
     }
 
@@ -342,10 +378,8 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
         }
 
         // Populate parameter map if we have permission to do so
-        if (canRetrieveParameters) {
-            for (ConnectionParameterModel parameter : parameterMapper.select(identifier))
-                parameterMap.put(parameter.getName(), parameter.getValue());
-        }
+        if (canRetrieveParameters)
+            parameterMap.putAll(modelCache.getConnectionParameters(identifier));
 
         return parameterMap;
 
@@ -451,6 +485,11 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
      *     A list of predicates to sort the returned records by, in order of
      *     priority.
      *
+     * @param after
+     *     The position of the last record already retrieved, such that only
+     *     records following that record are returned, or null if records
+     *     should be returned starting with the first.
+     *
      * @param limit
      *     The maximum number of records that should be returned.
      *
@@ -463,20 +502,41 @@ public class ConnectionService extends ModeledChildDirectoryObjectService<Modele
      */
     public List<ConnectionRecord> retrieveHistory(ModeledAuthenticatedUser user,
             Collection<ConnectionRecordSearchTerm> requiredContents,
-            List<ConnectionRecordSortPredicate> sortPredicates, int limit)
+            List<ConnectionRecordSortPredicate> sortPredicates,
+            ConnectionRecordCursor after, int limit)
             throws GuacamoleException {
 
+        // Determine the users and connections matching each term up front,
+        // such that records can be matched by their indexed IDs (retrieving
+        // one extra ID to detect terms matching too many to list)
+        int maxIDs = ResolvedConnectionRecordSearchTerm.MAX_RESOLVED_IDS + 1;
+        List<ResolvedConnectionRecordSearchTerm> terms =
+                new ArrayList<ResolvedConnectionRecordSearchTerm>(requiredContents.size());
+        for (ConnectionRecordSearchTerm term : requiredContents) {
+
+            ResolvedConnectionRecordSearchTerm resolved = new ResolvedConnectionRecordSearchTerm(term,
+                    connectionRecordMapper.selectUserIDsMatching(term.getTerm(), maxIDs),
+                    connectionRecordMapper.selectConnectionIDsMatching(term.getTerm(), maxIDs));
+
+            // No records can match if any one term matches nothing
+            if (!resolved.isSatisfiable())
+                return Collections.<ConnectionRecord>emptyList();
+
+            terms.add(resolved);
+
+        }
+
         List<ConnectionRecordModel> searchResults;
 
         // Bypass permission checks if the user is a system admin
         if (user.getUser().isAdministrator())
-            searchResults = connectionRecordMapper.search(requiredContents,
-                    sortPredicates, limit);
+            searchResults = connectionRecordMapper.search(terms,
+                    sortPredicates, after, limit);
 
         // Otherwise only return explicitly readable history records
         else
             searchResults = connectionRecordMapper.searchReadable(user.getUser().getModel(),
-                    requiredContents, sortPredicates, limit);
+                    terms, sortPredicates, after, limit);
 
         return getObjectInstances(searchResults);
 
@@ -93,4 +93,15 @@ public class ModeledConnectionRecord implements ConnectionRecord {
         return false;
     }
 
+    /**
+     * Returns the database ID of this connection record.
+     *
+     * @return
+     *     The database ID of this connection record, or null if this record
+     *     has not yet been inserted into the database.
+     */
+    public Integer getRecordID() {
+        return model.getRecordID();
+    }
+
 }
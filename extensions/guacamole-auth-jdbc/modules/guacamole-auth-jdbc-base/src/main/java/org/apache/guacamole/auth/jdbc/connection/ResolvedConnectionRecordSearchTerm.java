@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.connection;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * A ConnectionRecordSearchTerm whose matching users and connections have
+ * already been determined, such that connection records can be matched by the
+ * indexed user and connection IDs of each record rather than by searching the
+ * names of related users and connections for every record. If a term matches
+ * more than MAX_RESOLVED_IDS users or connections, those users or connections
+ * are not listed, and must instead be matched by searching their names
+ * within the query for connection records, as listing them would exceed the
+ * number of parameters the database allows within a single statement.
+ */
+public class ResolvedConnectionRecordSearchTerm {
+
+    /**
+     * The maximum number of user or connection IDs which may be listed for a
+     * single search term.
+     */
+    public static final int MAX_RESOLVED_IDS = 1000;
+
+    /**
+     * The search term that was resolved.
+     */
+    private final ConnectionRecordSearchTerm term;
+
+    /**
+     * The IDs of all users whose usernames contain the search term, or null
+     * if too many users match.
+     */
+    private final Collection<Integer> userIDs;
+
+    /**
+     * The IDs of all connections whose names contain the search term, or null
+     * if too many connections match.
+     */
+    private final Collection<Integer> connectionIDs;
+
+    /**
+     * Creates a new ResolvedConnectionRecordSearchTerm which matches records
+     * associated with any of the given users or connections, or which fall
+     * within the date range of the given term.
+     *
+     * @param term
+     *     The search term that was resolved.
+     *
+     * @param userIDs
+     *     The IDs of all users whose usernames contain the search term. If
+     *     more than MAX_RESOLVED_IDS IDs are given, users are instead matched
+     *     by username. The IDs of more than MAX_RESOLVED_IDS + 1 users need
+     *     not be retrieved.
+     *
+     * @param connectionIDs
+     *     The IDs of all connections whose names contain the search term. If
+     *     more than MAX_RESOLVED_IDS IDs are given, connections are instead
+     *     matched by name. The IDs of more than MAX_RESOLVED_IDS + 1
+     *     connections need not be retrieved.
+     */
+    public ResolvedConnectionRecordSearchTerm(ConnectionRecordSearchTerm term,
+            Collection<Integer> userIDs, Collection<Integer> connectionIDs) {
+        this.term = term;
+        this.userIDs = userIDs.size() > MAX_RESOLVED_IDS ? null : userIDs;
+        this.connectionIDs = connectionIDs.size() > MAX_RESOLVED_IDS ? null : connectionIDs;
+    }
+
+    /**
+     * Returns the search term that was resolved, which must be searched for
+     * within the names of users or connections if too many match to be
+     * listed.
+     *
+     * @return
+     *     The search term that was resolved.
+     */
+    public String getTerm() {
+        return term.getTerm();
+    }
+
+    /**
+     * Returns the start of the date range for records that should be
+     * retrieved, if the search term appears to be a date.
+     *
+     * @return
+     *     The start of the date range, or null if the search term is not a
+     *     date.
+     */
+    public Date getStartDate() {
+        return term.getStartDate();
+    }
+
+    /**
+     * Returns the end of the date range for records that should be
+     * retrieved, if the search term appears to be a date.
+     *
+     * @return
+     *     The end of the date range, or null if the search term is not a
+     *     date.
+     */
+    public Date getEndDate() {
+        return term.getEndDate();
+    }
+
+    /**
+     * Returns the IDs of all users whose usernames contain the search term,
+     * if few enough users match to be listed.
+     *
+     * @return
+     *     The IDs of all users whose usernames contain the search term, or
+     *     null if more than MAX_RESOLVED_IDS users match.
+     */
+    public Collection<Integer> getUserIDs() {
+        return userIDs;
+    }
+
+    /**
+     * Returns the IDs of all connections whose names contain the search term,
+     * if few enough connections match to be listed.
+     *
+     * @return
+     *     The IDs of all connections whose names contain the search term, or
+     *     null if more than MAX_RESOLVED_IDS connections match.
+     */
+    public Collection<Integer> getConnectionIDs() {
+        return connectionIDs;
+    }
+
+    /**
+     * Returns whether any connection record could possibly match this search
+     * term.
+     *
+     * @return
+     *     true if this search term matches at least one user or connection,
+     *     or matches a date range, false otherwise.
+     */
+    public boolean isSatisfiable() {
+        return userIDs == null || !userIDs.isEmpty()
+                || connectionIDs == null || !connectionIDs.isEmpty()
+                || (term.getStartDate() != null && term.getEndDate() != null);
+    }
+
+}
@@ -22,10 +22,12 @@ package org.apache.guacamole.auth.jdbc.connectiongroup;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
 import org.apache.guacamole.auth.jdbc.base.ModeledDirectoryObjectMapper;
+import org.apache.guacamole.auth.jdbc.base.ModelCopier;
 import org.apache.guacamole.auth.jdbc.tunnel.GuacamoleTunnelService;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleException;
@@ -111,6 +113,32 @@ public class ConnectionGroupService extends ModeledChildDirectoryObjectService<M
         
     }
 
+    @Override
+    protected ModelCopier<ConnectionGroupModel> getModelCopier() {
+        return new ModelCopier<ConnectionGroupModel>() {
+
+            @Override
+            public ConnectionGroupModel copy(ConnectionGroupModel model) {
+
+                // The identifier of a connection group is derived from its object ID
+                ConnectionGroupModel copy = new ConnectionGroupModel();
+                copy.setObjectID(model.getObjectID());
+                copy.setParentIdentifier(model.getParentIdentifier());
+                copy.setName(model.getName());
+                copy.setType(model.getType());
+                copy.setMaxConnections(model.getMaxConnections());
+                copy.setMaxConnectionsPerUser(model.getMaxConnectionsPerUser());
+                copy.setSessionAffinityEnabled(model.isSessionAffinityEnabled());
+                copy.setConnectionIdentifiers(new HashSet<String>(model.getConnectionIdentifiers()));
+                copy.setConnectionGroupIdentifiers(new HashSet<String>(model.getConnectionGroupIdentifiers()));
+
+                return copy;
+
+            }
+
+        };
+    }
+
     @Override
     protected boolean hasCreatePermission(ModeledAuthenticatedUser user)
             throws GuacamoleException {
@@ -19,9 +19,11 @@
 
 package org.apache.guacamole.auth.jdbc.permission;
 
+import com.google.inject.Inject;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import org.apache.guacamole.auth.jdbc.base.ModelCache;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
 import org.apache.guacamole.auth.jdbc.user.ModeledUser;
 import org.apache.guacamole.GuacamoleException;
@@ -40,9 +42,55 @@ public abstract class ModeledObjectPermissionService
     extends ModeledPermissionService<ObjectPermissionSet, ObjectPermission, ObjectPermissionModel>
     implements ObjectPermissionService {
 
+    /**
+     * Cache of the object permissions granted to each user.
+     */
+    @Inject
+    private ObjectPermissionCache permissionCache;
+
+    /**
+     * Application-wide cache of models read from the database, the contents
+     * of which may depend on the permissions of the user reading them.
+     */
+    @Inject
+    private ModelCache modelCache;
+
     @Override
     protected abstract ObjectPermissionMapper getPermissionMapper();
 
+    /**
+     * Returns a snapshot of all permissions of the type managed by this
+     * service which are granted to the given user, retrieving all such
+     * permissions from the database with a single query if no snapshot is
+     * cached.
+     *
+     * @param targetUser
+     *     The user whose permissions should be returned.
+     *
+     * @return
+     *     A snapshot of all permissions of the type managed by this service
+     *     which are granted to the given user.
+     */
+    private ObjectPermissionSnapshot getSnapshot(ModeledUser targetUser) {
+
+        Integer userID = targetUser.getModel().getObjectID();
+        Object objectType = getClass();
+
+        // Use cached snapshot, if available
+        ObjectPermissionSnapshot snapshot = permissionCache.get(userID, objectType);
+        if (snapshot != null)
+            return snapshot;
+
+        // Otherwise, retrieve and cache all permissions at once
+        long generation = permissionCache.getGeneration();
+        snapshot = new ObjectPermissionSnapshot(generation,
+                getPermissionMapper().select(targetUser.getModel()));
+        permissionCache.put(userID, objectType, snapshot);
+
+        return snapshot;
+
+    }
+
     @Override
     protected ObjectPermission getPermissionInstance(ObjectPermissionModel model) {
         return new ObjectPermission(model.getType(), model.getObjectIdentifier());
@@ -131,6 +179,8 @@ public abstract class ModeledObjectPermissionService
         if (canAlterPermissions(user, targetUser, permissions)) {
             Collection<ObjectPermissionModel> models = getModelInstances(targetUser, permissions);
             getPermissionMapper().insert(models);
+            permissionCache.invalidate(targetUser.getModel().getObjectID());
+            modelCache.invalidateAll();
             return;
         }
         
@@ -148,6 +198,8 @@ public abstract class ModeledObjectPermissionService
         if (canAlterPermissions(user, targetUser, permissions)) {
             Collection<ObjectPermissionModel> models = getModelInstances(targetUser, permissions);
             getPermissionMapper().delete(models);
+            permissionCache.invalidate(targetUser.getModel().getObjectID());
+            modelCache.invalidateAll();
             return;
         }
         
@@ -164,12 +216,11 @@ public abstract class ModeledObjectPermissionService
         // Retrieve permissions only if allowed
         if (canReadPermissions(user, targetUser)) {
 
-            // Read permission from database, return null if not found
-            ObjectPermissionModel model = getPermissionMapper().selectOne(targetUser.getModel(), type, identifier);
-            if (model == null)
+            // Check snapshot of all permissions, return null if not found
+            if (!getSnapshot(targetUser).hasPermission(type, identifier))
                 return null;
 
-            return getPermissionInstance(model);
+            return new ObjectPermission(type, identifier);
 
         }
 
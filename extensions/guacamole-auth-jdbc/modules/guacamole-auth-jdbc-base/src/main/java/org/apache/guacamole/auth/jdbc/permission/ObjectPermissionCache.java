@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.auth.jdbc.permission;
+
+import com.google.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.auth.jdbc.JDBCTransactionFactory;
+
+/**
+ * Cache of the object permissions granted to each user, such that checks of
+ * individual permissions need not query the database. The permissions of
+ * each user are cached as one snapshot per type of object, and all
+ * snapshots of a user are invalidated whenever that user's permissions
+ * change. As permissions may also be changed by other instances sharing the
+ * same database, snapshots additionally expire after a short time.
+ */
+@Singleton
+public class ObjectPermissionCache {
+
+    /**
+     * The number of milliseconds after which a snapshot expires, even if
+     * never invalidated.
+     */
+    private static final long SNAPSHOT_LIFETIME = 30000;
+
+    /**
+     * The maximum number of users whose snapshots may be cached at any one
+     * time. The snapshots of the least recently checked users are dropped
+     * first.
+     */
+    private static final int MAX_USERS = 1000;
+
+    /**
+     * All cached snapshots, indexed by the ID of the user to whom the
+     * permissions are granted, and then by type of object, in order of
+     * least-recent use. All access to this map must be synchronized on the
+     * map.
+     */
+    private final Map<Integer, ConcurrentMap<Object, ObjectPermissionSnapshot>> snapshots =
+            new LinkedHashMap<Integer, ConcurrentMap<Object, ObjectPermissionSnapshot>>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ConcurrentMap<Object, ObjectPermissionSnapshot>> eldest) {
+            return size() > MAX_USERS;
+        }
+
+    };
+
+    /**
+     * Counter which is incremented upon each invalidation, such that
+     * snapshots retrieved prior to an invalidation are not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Returns the current generation of this cache. This value must be
+     * retrieved before the permissions within a new snapshot are read from
+     * the database.
+     *
+     * @return
+     *     The current generation of this cache.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the cached snapshot of the permissions of the given type
+     * granted to the given user, if any.
+     *
+     * @param userID
+     *     The ID of the user to whom the permissions are granted.
+     *
+     * @param objectType
+     *     An arbitrary object uniquely identifying the type of object that
+     *     the permissions affect.
+     *
+     * @return
+     *     The cached snapshot, or null if no unexpired snapshot is cached.
+     */
+    public ObjectPermissionSnapshot get(Integer userID, Object objectType) {
+
+        ConcurrentMap<Object, ObjectPermissionSnapshot> userSnapshots;
+        synchronized (snapshots) {
+            userSnapshots = snapshots.get(userID);
+        }
+
+        if (userSnapshots == null)
+            return null;
+
+        ObjectPermissionSnapshot snapshot = userSnapshots.get(objectType);
+        if (snapshot == null)
+            return null;
+
+        // Drop expired snapshots
+        if (System.currentTimeMillis() - snapshot.getCreationTime() >= SNAPSHOT_LIFETIME) {
+            userSnapshots.remove(objectType, snapshot);
+            return null;
+        }
+
+        return snapshot;
+
+    }
+
+    /**
+     * Caches the given snapshot of the permissions of the given type granted
+     * to the given user. If the cache has been invalidated since the
+     * snapshot's permissions were retrieved, the snapshot is not cached.
+     *
+     * @param userID
+     *     The ID of the user to whom the permissions are granted.
+     *
+     * @param objectType
+     *     An arbitrary object uniquely identifying the type of object that
+     *     the permissions affect.
+     *
+     * @param snapshot
+     *     The snapshot to cache.
+     */
+    public void put(Integer userID, Object objectType,
+            ObjectPermissionSnapshot snapshot) {
+
+        ConcurrentMap<Object, ObjectPermissionSnapshot> userSnapshots;
+        synchronized (snapshots) {
+            userSnapshots = snapshots.get(userID);
+            if (userSnapshots == null) {
+                userSnapshots = new ConcurrentHashMap<Object, ObjectPermissionSnapshot>();
+                snapshots.put(userID, userSnapshots);
+            }
+        }
+
+        userSnapshots.put(objectType, snapshot);
+
+        // Do not retain snapshots which may predate an invalidation
+        if (snapshot.getGeneration() != generation.get())
+            userSnapshots.remove(objectType, snapshot);
+
+    }
+
+    /**
+     * Immediately removes all cached snapshots of the permissions granted to
+     * the given user, preventing any snapshots retrieved beforehand from
+     * being cached.
+     *
+     * @param userID
+     *     The ID of the user whose snapshots should be removed.
+     */
+    private void remove(Integer userID) {
+        generation.incrementAndGet();
+        synchronized (snapshots) {
+            snapshots.remove(userID);
+        }
+    }
+
+    /**
+     * Immediately removes all cached snapshots, preventing any snapshots
+     * retrieved beforehand from being cached.
+     */
+    private void clear() {
+        generation.incrementAndGet();
+        synchronized (snapshots) {
+            snapshots.clear();
+        }
+    }
+
+    /**
+     * Invalidates all cached snapshots of the permissions granted to the
+     * given user. If called within a transaction, the snapshots are
+     * invalidated both immediately and once that transaction has completed,
+     * as snapshots retrieved by other threads before the change is committed
+     * would otherwise be cached.
+     *
+     * @param userID
+     *     The ID of the user whose permissions have changed.
+     */
+    public void invalidate(final Integer userID) {
+        remove(userID);
+        JDBCTransactionFactory.afterCompletion(new Runnable() {
+
+            @Override
+            public void run() {
+                remove(userID);
+            }
+
+        });
+    }
+
+    /**
+     * Invalidates all cached snapshots of the permissions granted to all
+     * users. If called within a transaction, the snapshots are invalidated
+     * both immediately and once that transaction has completed.
+     */
+    public void invalidateAll() {
+        clear();
+        JDBCTransactionFactory.afterCompletion(new Runnable() {
+
+            @Override
+            public void run() {
+                clear();
+            }
+
+        });
+    }
+
+}
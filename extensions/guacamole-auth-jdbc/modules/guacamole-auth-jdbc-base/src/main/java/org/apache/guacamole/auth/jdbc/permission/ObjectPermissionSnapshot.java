@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.auth.jdbc.permission;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.net.auth.permission.ObjectPermission;
+
+/**
+ * An immutable snapshot of all object permissions of a single type (such as
+ * connection permissions) granted to a particular user, organized by
+ * permission type such that individual permissions can be checked without
+ * querying the database.
+ */
+public class ObjectPermissionSnapshot {
+
+    /**
+     * The identifiers of all objects for which each type of permission is
+     * granted.
+     */
+    private final Map<ObjectPermission.Type, Set<String>> identifiers =
+            new EnumMap<ObjectPermission.Type, Set<String>>(ObjectPermission.Type.class);
+
+    /**
+     * The cache generation in effect when the data within this snapshot was
+     * retrieved.
+     */
+    private final long generation;
+
+    /**
+     * The time this snapshot was created, in milliseconds since midnight,
+     * January 1, 1970 UTC.
+     */
+    private final long creationTime = System.currentTimeMillis();
+
+    /**
+     * Creates a new ObjectPermissionSnapshot containing the given
+     * permissions.
+     *
+     * @param generation
+     *     The cache generation in effect when the given permissions were
+     *     retrieved, as returned by ObjectPermissionCache.getGeneration().
+     *
+     * @param models
+     *     All object permissions granted to the user, as retrieved from the
+     *     database.
+     */
+    public ObjectPermissionSnapshot(long generation,
+            Collection<ObjectPermissionModel> models) {
+
+        this.generation = generation;
+
+        for (ObjectPermissionModel model : models) {
+
+            // Create identifier set for each type only as needed
+            Set<String> typeIdentifiers = identifiers.get(model.getType());
+            if (typeIdentifiers == null) {
+                typeIdentifiers = new HashSet<String>();
+                identifiers.put(model.getType(), typeIdentifiers);
+            }
+
+            typeIdentifiers.add(model.getObjectIdentifier());
+
+        }
+
+    }
+
+    /**
+     * Returns the cache generation in effect when the data within this
+     * snapshot was retrieved.
+     *
+     * @return
+     *     The cache generation in effect when this snapshot was retrieved.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the time this snapshot was created.
+     *
+     * @return
+     *     The time this snapshot was created, in milliseconds since midnight,
+     *     January 1, 1970 UTC.
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Returns whether the given permission is granted for the object having
+     * the given identifier.
+     *
+     * @param type
+     *     The type of permission to check.
+     *
+     * @param identifier
+     *     The identifier of the object to check.
+     *
+     * @return
+     *     true if the permission is granted, false otherwise.
+     */
+    public boolean hasPermission(ObjectPermission.Type type, String identifier) {
+        Set<String> typeIdentifiers = identifiers.get(type);
+        return typeIdentifiers != null && typeIdentifiers.contains(identifier);
+    }
+
+}
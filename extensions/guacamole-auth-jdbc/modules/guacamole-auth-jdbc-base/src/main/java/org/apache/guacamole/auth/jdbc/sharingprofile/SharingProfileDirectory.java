@@ -22,10 +22,11 @@ package org.apache.guacamole.auth.jdbc.sharingprofile;
 import com.google.inject.Inject;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.jdbc.base.RestrictedObject;
-import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.PageableDirectory;
 import org.apache.guacamole.net.auth.SharingProfile;
 import org.mybatis.guice.transactional.Transactional;
 
@@ -36,7 +37,7 @@ import org.mybatis.guice.transactional.Transactional;
  * @author Michael Jumper
  */
 public class SharingProfileDirectory extends RestrictedObject
-    implements Directory<SharingProfile> {
+    implements PageableDirectory<SharingProfile> {
 
     /**
      * Service for managing sharing profile objects.
@@ -63,6 +64,13 @@ public class SharingProfileDirectory extends RestrictedObject
         return sharingProfileService.getIdentifiers(getCurrentUser());
     }
 
+    @Override
+    @Transactional
+    public List<String> getIdentifiers(String after, String prefix, int limit)
+            throws GuacamoleException {
+        return sharingProfileService.getIdentifiers(getCurrentUser(), after, prefix, limit);
+    }
+
     @Override
     @Transactional
     public void add(SharingProfile object) throws GuacamoleException {
@@ -26,6 +26,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
+import org.apache.guacamole.auth.jdbc.base.ModelCache;
+import org.apache.guacamole.auth.jdbc.base.ModelCopier;
 import org.apache.guacamole.auth.jdbc.base.ModeledDirectoryObjectMapper;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleException;
@@ -66,6 +68,12 @@ public class SharingProfileService
     @Inject
     private SharingProfileParameterMapper parameterMapper;
 
+    /**
+     * Application-wide cache of sharing profile models and parameters.
+     */
+    @Inject
+    private ModelCache modelCache;
+
     /**
      * Provider for creating sharing profiles.
      */
@@ -109,6 +117,26 @@ public class SharingProfileService
         
     }
 
+    @Override
+    protected ModelCopier<SharingProfileModel> getModelCopier() {
+        return new ModelCopier<SharingProfileModel>() {
+
+            @Override
+            public SharingProfileModel copy(SharingProfileModel model) {
+
+                // The identifier of a sharing profile is derived from its object ID
+                SharingProfileModel copy = new SharingProfileModel();
+                copy.setObjectID(model.getObjectID());
+                copy.setParentIdentifier(model.getParentIdentifier());
+                copy.setName(model.getName());
+
+                return copy;
+
+            }
+
+        };
+    }
+
     @Override
     protected boolean hasCreatePermission(ModeledAuthenticatedUser user)
             throws GuacamoleException {
@@ -235,6 +263,7 @@ public class SharingProfileService
         if (!parameterModels.isEmpty())
             parameterMapper.insert(parameterModels);
 
+        modelCache.invalidateAll();
         return sharingProfile;
 
     }
@@ -251,6 +280,8 @@ public class SharingProfileService
         parameterMapper.delete(object.getIdentifier());
         if (!parameterModels.isEmpty())
             parameterMapper.insert(parameterModels);
+
+        modelCache.invalidateAll();
         
     }
 
@@ -289,10 +320,8 @@ public class SharingProfileService
         }
 
         // Populate parameter map if we have permission to do so
-        if (canRetrieveParameters) {
-            for (SharingProfileParameterModel parameter : parameterMapper.select(identifier))
-                parameterMap.put(parameter.getName(), parameter.getValue());
-        }
+        if (canRetrieveParameters)
+            parameterMap.putAll(modelCache.getSharingProfileParameters(identifier));
 
         return parameterMap;
 
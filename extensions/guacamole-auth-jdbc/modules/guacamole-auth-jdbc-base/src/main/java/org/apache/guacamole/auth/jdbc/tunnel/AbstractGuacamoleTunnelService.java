@@ -31,13 +31,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.guacamole.auth.jdbc.base.ModelCache;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
 import org.apache.guacamole.auth.jdbc.connection.ModeledConnection;
 import org.apache.guacamole.auth.jdbc.connectiongroup.ModeledConnectionGroup;
 import org.apache.guacamole.auth.jdbc.connection.ConnectionRecordMapper;
 import org.apache.guacamole.auth.jdbc.connection.ConnectionModel;
 import org.apache.guacamole.auth.jdbc.connection.ConnectionRecordModel;
-import org.apache.guacamole.auth.jdbc.connection.ConnectionParameterModel;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.GuacamoleSecurityException;
@@ -54,11 +54,8 @@ import org.apache.guacamole.protocol.GuacamoleConfiguration;
 import org.apache.guacamole.token.StandardTokens;
 import org.apache.guacamole.token.TokenFilter;
 import org.mybatis.guice.transactional.Transactional;
-import org.apache.guacamole.auth.jdbc.connection.ConnectionParameterMapper;
 import org.apache.guacamole.auth.jdbc.sharing.connection.SharedConnectionDefinition;
 import org.apache.guacamole.auth.jdbc.sharingprofile.ModeledSharingProfile;
-import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterMapper;
-import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterModel;
 import org.apache.guacamole.auth.jdbc.user.RemoteAuthenticatedUser;
 
 
@@ -90,16 +87,10 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
     private Provider<ModeledConnection> connectionProvider;
 
     /**
-     * Mapper for accessing connection parameters.
+     * Application-wide cache of connection and sharing profile parameters.
      */
     @Inject
-    private ConnectionParameterMapper connectionParameterMapper;
-
-    /**
-     * Mapper for accessing sharing profile parameters.
-     */
-    @Inject
-    private SharingProfileParameterMapper sharingProfileParameterMapper;
+    private ModelCache modelCache;
 
     /**
      * Mapper for accessing connection history.
@@ -234,9 +225,9 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
         config.setProtocol(model.getProtocol());
 
         // Set parameters from associated data
-        Collection<ConnectionParameterModel> parameters = connectionParameterMapper.select(connection.getIdentifier());
-        for (ConnectionParameterModel parameter : parameters)
-            config.setParameter(parameter.getName(), parameter.getValue());
+        Map<String, String> parameters = modelCache.getConnectionParameters(connection.getIdentifier());
+        for (Map.Entry<String, String> parameter : parameters.entrySet())
+            config.setParameter(parameter.getKey(), parameter.getValue());
 
         // Build token filter containing credential tokens
         TokenFilter tokenFilter = new TokenFilter();
@@ -280,9 +271,9 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
         config.setConnectionID(connectionID);
 
         // Set parameters from associated data
-        Collection<SharingProfileParameterModel> parameters = sharingProfileParameterMapper.select(sharingProfile.getIdentifier());
-        for (SharingProfileParameterModel parameter : parameters)
-            config.setParameter(parameter.getName(), parameter.getValue());
+        Map<String, String> parameters = modelCache.getSharingProfileParameters(sharingProfile.getIdentifier());
+        for (Map.Entry<String, String> parameter : parameters.entrySet())
+            config.setParameter(parameter.getKey(), parameter.getValue());
 
         // Build token filter containing credential tokens
         TokenFilter tokenFilter = new TokenFilter();
@@ -338,6 +329,17 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
         // Use SSL if requested
         if (environment.getProperty(Environment.GUACD_SSL, false))
             return new ManagedSSLGuacamoleSocket(
+                environment.getProperty(Environment.GUACD_HOSTNAME, DEFAULT_GUACD_HOSTNAME),
+                environment.getProperty(Environment.GUACD_PORT,     DEFAULT_GUACD_PORT),
+                environment.getProperty(Environment.GUACD_COALESCE_WINDOW, 0),
+                environment.getProperty(Environment.GUACD_COALESCE_THRESHOLD, Environment.DEFAULT_GUACD_COALESCE_THRESHOLD),
+                socketClosedCallback
+            );
+
+        // Share threads between connections using non-blocking I/O if
+        // requested
+        if (environment.getProperty(Environment.GUACD_MULTIPLEXED, false))
+            return new ManagedChannelGuacamoleSocket(
                 environment.getProperty(Environment.GUACD_HOSTNAME, DEFAULT_GUACD_HOSTNAME),
                 environment.getProperty(Environment.GUACD_PORT,     DEFAULT_GUACD_PORT),
                 socketClosedCallback
@@ -347,6 +349,8 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
         return new ManagedInetGuacamoleSocket(
             environment.getProperty(Environment.GUACD_HOSTNAME, DEFAULT_GUACD_HOSTNAME),
             environment.getProperty(Environment.GUACD_PORT,     DEFAULT_GUACD_PORT),
+            environment.getProperty(Environment.GUACD_COALESCE_WINDOW, 0),
+            environment.getProperty(Environment.GUACD_COALESCE_THRESHOLD, Environment.DEFAULT_GUACD_COALESCE_THRESHOLD),
             socketClosedCallback
         );
 
@@ -45,6 +45,15 @@ public class ManagedSSLGuacamoleSocket extends SSLGuacamoleSocket {
      * @param port
      *     The port of the Guacamole proxy server to connect to.
      *
+     * @param coalesceWindow
+     *     The maximum number of milliseconds to hold data written to the
+     *     Guacamole proxy server before sending, or zero if writes should not
+     *     be coalesced.
+     *
+     * @param coalesceThreshold
+     *     The number of bytes of pending data which causes that data to be
+     *     sent immediately.
+     *
      * @param socketClosedTask
      *     The task to run when the socket is closed. This task will NOT be
      *     run if an exception occurs during connection, and this
@@ -54,8 +63,9 @@ public class ManagedSSLGuacamoleSocket extends SSLGuacamoleSocket {
      *     If an error occurs while connecting to the Guacamole proxy server.
      */
     public ManagedSSLGuacamoleSocket(String hostname, int port,
+            int coalesceWindow, int coalesceThreshold,
             Runnable socketClosedTask) throws GuacamoleException {
-        super(hostname, port);
+        super(hostname, port, coalesceWindow, coalesceThreshold);
         this.socketClosedTask = socketClosedTask;
     }
 
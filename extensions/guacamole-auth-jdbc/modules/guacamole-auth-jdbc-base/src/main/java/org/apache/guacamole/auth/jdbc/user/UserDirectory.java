@@ -23,10 +23,11 @@ package org.apache.guacamole.auth.jdbc.user;
 import com.google.inject.Inject;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.jdbc.base.RestrictedObject;
-import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.PageableDirectory;
 import org.apache.guacamole.net.auth.User;
 import org.mybatis.guice.transactional.Transactional;
 
@@ -38,7 +39,7 @@ import org.mybatis.guice.transactional.Transactional;
  * @author Michael Jumper
  */
 public class UserDirectory extends RestrictedObject
-    implements Directory<User> {
+    implements PageableDirectory<User> {
 
     /**
      * Service for managing user objects.
@@ -64,6 +65,13 @@ public class UserDirectory extends RestrictedObject
         return userService.getIdentifiers(getCurrentUser());
     }
 
+    @Override
+    @Transactional
+    public List<String> getIdentifiers(String after, String prefix, int limit)
+            throws GuacamoleException {
+        return userService.getIdentifiers(getCurrentUser(), after, prefix, limit);
+    }
+
     @Override
     @Transactional
     public void add(User object) throws GuacamoleException {
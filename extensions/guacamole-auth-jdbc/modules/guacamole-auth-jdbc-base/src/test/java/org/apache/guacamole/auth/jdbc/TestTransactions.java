@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ * Utility for tests which must run code within a transaction created by
+ * JDBCTransactionFactory, without requiring a database.
+ */
+public class TestTransactions {
+
+    /**
+     * Begins a new transaction on the current thread, as would occur when a
+     * MyBatis session is opened. The transaction is backed by a stub
+     * Connection which does nothing. Tasks passed to
+     * JDBCTransactionFactory.afterCompletion() run once the returned
+     * transaction is closed.
+     *
+     * @return
+     *     A new transaction, which must be committed or rolled back and then
+     *     closed.
+     */
+    public static Transaction begin() {
+
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                // Report manual commit, such that commit() and rollback()
+                // are passed through
+                if (method.getReturnType() == boolean.class)
+                    return false;
+
+                return null;
+
+            }
+
+        });
+
+        return new JDBCTransactionFactory().newTransaction(connection);
+
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.base;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import org.apache.guacamole.auth.jdbc.TestTransactions;
+import org.apache.ibatis.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ModelCache never retains values which may predate
+ * a change to the data cached.
+ */
+public class ModelCacheTest {
+
+    /**
+     * The type key under which test values are cached.
+     */
+    private static final Object TYPE = ModelCacheTest.class;
+
+    /**
+     * The cache under test.
+     */
+    private ModelCache cache;
+
+    /**
+     * Creates a new, empty cache.
+     */
+    @Before
+    public void setUp() {
+        cache = new ModelCache();
+    }
+
+    /**
+     * Verifies that a value read before the cache was invalidated is not
+     * cached, as it may predate the change.
+     */
+    @Test
+    public void testStaleValue() {
+
+        // Read of value begins
+        long generation = cache.getGeneration();
+
+        // Concurrent change to data
+        cache.invalidateAll();
+
+        cache.put(TYPE, null, "1", generation, "stale");
+        assertNull(cache.get(TYPE, null, "1"));
+
+        // Values read after the change are cached
+        cache.put(TYPE, null, "1", cache.getGeneration(), "current");
+        assertEquals("current", cache.get(TYPE, null, "1"));
+
+    }
+
+    /**
+     * Verifies that invalidating the cache within a transaction invalidates
+     * it again once that transaction completes, discarding any value which
+     * another thread read before the change was committed or rolled back.
+     *
+     * @param commit
+     *     Whether the transaction should be committed (true) or rolled back
+     *     (false).
+     *
+     * @throws SQLException
+     *     If the transaction cannot be completed.
+     */
+    private void testInvalidateInTransaction(boolean commit) throws SQLException {
+
+        Transaction transaction = TestTransactions.begin();
+        try {
+
+            cache.invalidateAll();
+
+            // Value read by another thread, seeing only the state of the
+            // database prior to the change
+            cache.put(TYPE, null, "1", cache.getGeneration(), "uncommitted");
+            assertEquals("uncommitted", cache.get(TYPE, null, "1"));
+
+            if (commit)
+                transaction.commit();
+            else
+                transaction.rollback();
+
+        }
+        finally {
+            transaction.close();
+        }
+
+        assertNull(cache.get(TYPE, null, "1"));
+        assertEquals(0, cache.getSize());
+
+    }
+
+    /**
+     * Verifies that the cache is invalidated again after a transaction which
+     * invalidated the cache is committed.
+     *
+     * @throws SQLException
+     *     If the transaction cannot be completed.
+     */
+    @Test
+    public void testInvalidateAfterCommit() throws SQLException {
+        testInvalidateInTransaction(true);
+    }
+
+    /**
+     * Verifies that the cache is invalidated again after a transaction which
+     * invalidated the cache is rolled back.
+     *
+     * @throws SQLException
+     *     If the transaction cannot be completed.
+     */
+    @Test
+    public void testInvalidateAfterRollback() throws SQLException {
+        testInvalidateInTransaction(false);
+    }
+
+    /**
+     * Verifies that values are evicted in order of least-recent use once the
+     * total weight of all values exceeds the maximum, and that the value
+     * just cached is retained even if it alone exceeds the maximum.
+     */
+    @Test
+    public void testWeightEviction() {
+
+        long generation = cache.getGeneration();
+        cache.put(TYPE, null, "a", generation, "a");
+        cache.put(TYPE, null, "b", generation, "b");
+
+        // Use "a", such that "b" is least recently used
+        assertNotNull(cache.get(TYPE, null, "a"));
+
+        // Exceed maximum weight by one
+        cache.put(TYPE, null, "tree", generation,
+                Collections.nCopies(ModelCache.MAX_WEIGHT - 1, "model"));
+        assertNull(cache.get(TYPE, null, "b"));
+        assertNotNull(cache.get(TYPE, null, "a"));
+        assertNotNull(cache.get(TYPE, null, "tree"));
+
+        // A value heavier than the maximum replaces all others
+        cache.put(TYPE, 1, "tree", generation,
+                Collections.nCopies(ModelCache.MAX_WEIGHT + 1, "model"));
+        assertEquals(1, cache.getSize());
+        assertNotNull(cache.get(TYPE, 1, "tree"));
+
+    }
+
+}
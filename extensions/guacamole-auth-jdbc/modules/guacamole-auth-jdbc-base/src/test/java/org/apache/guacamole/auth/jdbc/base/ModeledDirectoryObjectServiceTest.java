@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.base;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies the LIKE patterns used by ModeledDirectoryObjectService
+ * to filter objects by name.
+ */
+public class ModeledDirectoryObjectServiceTest {
+
+    /**
+     * Verifies that prefixes without special characters are matched as-is.
+     */
+    @Test
+    public void testPrefixPattern() {
+        assertEquals("%", ModeledDirectoryObjectService.getPrefixPattern(""));
+        assertEquals("web-01%", ModeledDirectoryObjectService.getPrefixPattern("web-01"));
+    }
+
+    /**
+     * Verifies that characters which are special within LIKE patterns,
+     * including the "!" escape character itself, are escaped such that they
+     * are matched literally.
+     */
+    @Test
+    public void testPrefixPatternEscaping() {
+        assertEquals("!%%", ModeledDirectoryObjectService.getPrefixPattern("%"));
+        assertEquals("a!_b%", ModeledDirectoryObjectService.getPrefixPattern("a_b"));
+        assertEquals("!!!!%", ModeledDirectoryObjectService.getPrefixPattern("!!"));
+        assertEquals("50!% off!!!_%", ModeledDirectoryObjectService.getPrefixPattern("50% off!_"));
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.connection;
+
+import java.util.Date;
+import org.apache.guacamole.GuacamoleClientException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ConnectionRecordCursor correctly parses the string
+ * form of cursors produced by toString(), rejecting anything else.
+ */
+public class ConnectionRecordCursorTest {
+
+    /**
+     * Verifies that a cursor parsed from the string form of another cursor
+     * refers to the same position.
+     *
+     * @throws GuacamoleClientException
+     *     If the string form of the cursor cannot be parsed.
+     */
+    @Test
+    public void testRoundTrip() throws GuacamoleClientException {
+
+        ConnectionRecordCursor cursor = new ConnectionRecordCursor(new Date(1483228800123L), 42, true);
+        assertEquals("1483228800123:42", cursor.toString());
+
+        // Parsed cursor must match original, other than in ordering
+        ConnectionRecordCursor parsed = ConnectionRecordCursor.parse(cursor.toString(), false);
+        assertEquals(1483228800123L, parsed.getStartDate().getTime());
+        assertEquals(42, parsed.getRecordID());
+        assertFalse(parsed.isDescending());
+
+        assertTrue(ConnectionRecordCursor.parse(cursor.toString(), true).isDescending());
+
+    }
+
+    /**
+     * Verifies that parse() rejects strings which are not valid cursors.
+     */
+    @Test
+    public void testInvalid() {
+
+        String[] invalid = {
+            "",
+            "1483228800123",
+            "1483228800123:",
+            ":42",
+            "start:42",
+            "1483228800123:id",
+            "1483228800123:42:7",
+            "1483228800123:99999999999"
+        };
+
+        for (String value : invalid) {
+            try {
+                ConnectionRecordCursor.parse(value, true);
+                fail("Invalid cursor \"" + value + "\" was accepted.");
+            }
+            catch (GuacamoleClientException e) {
+                // Expected
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.connection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import com.google.inject.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.auth.jdbc.base.ModelCache;
+import org.apache.guacamole.auth.jdbc.base.ModeledDirectoryObjectService;
+import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
+import org.apache.guacamole.auth.jdbc.user.ModeledUser;
+import org.apache.guacamole.auth.jdbc.user.UserModel;
+import org.apache.guacamole.net.auth.Credentials;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ConnectionService avoids searching connection
+ * history for terms which cannot match any record, and that the connections
+ * it caches for one user are never returned to another.
+ */
+public class ConnectionServiceTest {
+
+    /**
+     * The identifiers of the connections readable by each non-administrative
+     * test user, indexed by user ID.
+     */
+    private static final Map<Integer, Set<String>> READABLE = new HashMap<Integer, Set<String>>();
+
+    static {
+        READABLE.put(1, new HashSet<String>(Arrays.asList("1", "2")));
+        READABLE.put(2, new HashSet<String>(Arrays.asList("3")));
+    }
+
+    /**
+     * Sets the given field, declared by the given class, of the given object,
+     * as would occur through injection.
+     *
+     * @param object
+     *     The object whose field should be set.
+     *
+     * @param declaringClass
+     *     The class declaring the field.
+     *
+     * @param name
+     *     The name of the field.
+     *
+     * @param value
+     *     The value to assign to the field.
+     *
+     * @throws Exception
+     *     If the field cannot be set.
+     */
+    private static void inject(Object object, Class<?> declaringClass,
+            String name, Object value) throws Exception {
+        Field field = declaringClass.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /**
+     * Returns a new non-administrative user having the given ID.
+     *
+     * @param userID
+     *     The ID of the user.
+     *
+     * @return
+     *     A new non-administrative user having the given ID.
+     */
+    private static ModeledAuthenticatedUser getUser(int userID) {
+
+        UserModel model = new UserModel();
+        model.setObjectID(userID);
+        model.setIdentifier("user" + userID);
+
+        ModeledUser user = new ModeledUser() {
+
+            @Override
+            public boolean isAdministrator() {
+                return false;
+            }
+
+        };
+        user.setModel(model);
+
+        // Authenticated users require a request to determine their address
+        Credentials credentials = new Credentials();
+        credentials.setRequest((HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+
+        }));
+
+        return new ModeledAuthenticatedUser(null, user, credentials);
+
+    }
+
+    /**
+     * Returns the identifiers of the given connections.
+     *
+     * @param connections
+     *     The connections whose identifiers should be returned.
+     *
+     * @return
+     *     The identifiers of the given connections.
+     */
+    private static Set<String> getIdentifiers(Collection<ModeledConnection> connections) {
+        Set<String> identifiers = new HashSet<String>();
+        for (ModeledConnection connection : connections)
+            identifiers.add(connection.getIdentifier());
+        return identifiers;
+    }
+
+    /**
+     * Verifies that the models of all connections readable by one user,
+     * which are cached together once that user has loaded every readable
+     * connection, are never used to satisfy the requests of another user.
+     *
+     * @throws Exception
+     *     If the ConnectionService cannot be created, or an error occurs
+     *     while retrieving connections.
+     */
+    @Test
+    public void testReadableModelsPerUser() throws Exception {
+
+        final int[] queries = { 0 };
+
+        // Mapper which returns only the connections readable by each user
+        ConnectionMapper mapper = (ConnectionMapper) Proxy.newProxyInstance(
+                ConnectionMapper.class.getClassLoader(),
+                new Class<?>[] { ConnectionMapper.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("selectReadableIdentifiers"))
+                    return new HashSet<String>(READABLE.get(((UserModel) args[0]).getObjectID()));
+
+                if (name.equals("selectReadable")) {
+
+                    queries[0]++;
+                    Set<String> readable = READABLE.get(((UserModel) args[0]).getObjectID());
+
+                    List<ConnectionModel> models = new ArrayList<ConnectionModel>();
+                    for (Object identifier : (Collection<?>) args[1]) {
+                        if (readable.contains(identifier)) {
+                            ConnectionModel model = new ConnectionModel();
+                            model.setObjectID(Integer.valueOf((String) identifier));
+                            model.setSharingProfileIdentifiers(new HashSet<String>());
+                            models.add(model);
+                        }
+                    }
+
+                    return models;
+
+                }
+
+                fail("Unexpected invocation of " + name + "().");
+                return null;
+
+            }
+
+        });
+
+        ConnectionService service = new ConnectionService();
+        inject(service, ConnectionService.class, "connectionMapper", mapper);
+        inject(service, ConnectionService.class, "connectionProvider", new Provider<ModeledConnection>() {
+
+            @Override
+            public ModeledConnection get() {
+                return new ModeledConnection();
+            }
+
+        });
+        inject(service, ModeledDirectoryObjectService.class, "modelCache", new ModelCache());
+
+        ModeledAuthenticatedUser first = getUser(1);
+        ModeledAuthenticatedUser second = getUser(2);
+        Set<String> all = new HashSet<String>(Arrays.asList("1", "2", "3"));
+
+        // Loading every readable connection caches those connections
+        Set<String> firstReadable = service.getIdentifiers(first);
+        assertEquals(READABLE.get(1), getIdentifiers(service.retrieveObjects(first, firstReadable)));
+        assertEquals(READABLE.get(1), getIdentifiers(service.retrieveObjects(first, all)));
+        assertEquals(1, queries[0]);
+
+        // Another user must read their own connections
+        assertEquals(READABLE.get(2), getIdentifiers(service.retrieveObjects(second, all)));
+        assertEquals(2, queries[0]);
+
+        // Including once their own connections have been cached
+        service.retrieveObjects(second, service.getIdentifiers(second));
+        assertEquals(READABLE.get(2), getIdentifiers(service.retrieveObjects(second, all)));
+        assertEquals(READABLE.get(1), getIdentifiers(service.retrieveObjects(first, all)));
+        assertEquals(3, queries[0]);
+
+    }
+
+    /**
+     * Verifies that retrieveHistory() returns no records, without searching
+     * connection history or resolving further terms, if any one term matches
+     * no user, connection, or date.
+     *
+     * @throws Exception
+     *     If the ConnectionService cannot be created, or an error occurs
+     *     while retrieving history.
+     */
+    @Test
+    public void testUnmatchedTerm() throws Exception {
+
+        final List<String> resolved = new ArrayList<String>();
+
+        // Mapper which matches only the term "alice", and must not be searched
+        ConnectionRecordMapper mapper = (ConnectionRecordMapper) Proxy.newProxyInstance(
+                ConnectionRecordMapper.class.getClassLoader(),
+                new Class<?>[] { ConnectionRecordMapper.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("selectUserIDsMatching")) {
+                    resolved.add((String) args[0]);
+                    assertEquals(ResolvedConnectionRecordSearchTerm.MAX_RESOLVED_IDS + 1, args[1]);
+                    return "alice".equals(args[0]) ? Arrays.asList(1) : Collections.<Integer>emptyList();
+                }
+
+                if (name.equals("selectConnectionIDsMatching"))
+                    return Collections.<Integer>emptyList();
+
+                fail("Unexpected invocation of " + name + "().");
+                return null;
+
+            }
+
+        });
+
+        ConnectionService service = new ConnectionService();
+        inject(service, ConnectionService.class, "connectionRecordMapper", mapper);
+
+        List<ConnectionRecordSearchTerm> terms = Arrays.asList(
+            new ConnectionRecordSearchTerm("alice"),
+            new ConnectionRecordSearchTerm("nobody"),
+            new ConnectionRecordSearchTerm("bob")
+        );
+
+        assertTrue(service.retrieveHistory(null, terms,
+                Collections.<ConnectionRecordSortPredicate>emptyList(), null, 100).isEmpty());
+        assertEquals(Arrays.asList("alice", "nobody"), resolved);
+
+    }
+
+}
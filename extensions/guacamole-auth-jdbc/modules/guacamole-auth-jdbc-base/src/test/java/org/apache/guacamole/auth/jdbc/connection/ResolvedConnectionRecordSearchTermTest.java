@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ResolvedConnectionRecordSearchTerm lists only as
+ * many user and connection IDs as may be bound within a single query, and
+ * correctly determines whether any record can match.
+ */
+public class ResolvedConnectionRecordSearchTermTest {
+
+    /**
+     * Returns a list of the given number of sequential IDs.
+     *
+     * @param count
+     *     The number of IDs to include.
+     *
+     * @return
+     *     A list of the IDs 0 through count - 1.
+     */
+    private static List<Integer> ids(int count) {
+        List<Integer> ids = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++)
+            ids.add(i);
+        return ids;
+    }
+
+    /**
+     * Verifies that IDs are listed only up to MAX_RESOLVED_IDS, with terms
+     * matching more users or connections than that instead matched by name.
+     */
+    @Test
+    public void testThreshold() {
+
+        ConnectionRecordSearchTerm term = new ConnectionRecordSearchTerm("user");
+        int max = ResolvedConnectionRecordSearchTerm.MAX_RESOLVED_IDS;
+
+        ResolvedConnectionRecordSearchTerm listed =
+                new ResolvedConnectionRecordSearchTerm(term, ids(max), ids(max));
+        assertEquals(max, listed.getUserIDs().size());
+        assertEquals(max, listed.getConnectionIDs().size());
+
+        ResolvedConnectionRecordSearchTerm broad =
+                new ResolvedConnectionRecordSearchTerm(term, ids(max + 1), ids(1));
+        assertNull(broad.getUserIDs());
+        assertEquals(1, broad.getConnectionIDs().size());
+        assertEquals("user", broad.getTerm());
+
+    }
+
+    /**
+     * Verifies that a term is satisfiable only if it matches some user,
+     * connection, or date range, where a term matching too many users or
+     * connections to list is assumed to match.
+     */
+    @Test
+    public void testSatisfiable() {
+
+        List<Integer> none = Collections.<Integer>emptyList();
+        int max = ResolvedConnectionRecordSearchTerm.MAX_RESOLVED_IDS;
+
+        // Plain term matching nothing
+        assertFalse(new ResolvedConnectionRecordSearchTerm(
+                new ConnectionRecordSearchTerm("nobody"), none, none).isSatisfiable());
+
+        // Plain term matching users or connections
+        assertTrue(new ResolvedConnectionRecordSearchTerm(
+                new ConnectionRecordSearchTerm("user"), ids(1), none).isSatisfiable());
+        assertTrue(new ResolvedConnectionRecordSearchTerm(
+                new ConnectionRecordSearchTerm("conn"), none, ids(1)).isSatisfiable());
+        assertTrue(new ResolvedConnectionRecordSearchTerm(
+                new ConnectionRecordSearchTerm("conn"), none, ids(max + 1)).isSatisfiable());
+
+        // Date term matching no users or connections still matches by date
+        assertTrue(new ResolvedConnectionRecordSearchTerm(
+                new ConnectionRecordSearchTerm("2017-01-01"), none, none).isSatisfiable());
+
+    }
+
+}
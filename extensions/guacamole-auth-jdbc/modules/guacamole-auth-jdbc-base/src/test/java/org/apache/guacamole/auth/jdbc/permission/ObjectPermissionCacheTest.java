@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.permission;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import org.apache.guacamole.auth.jdbc.TestTransactions;
+import org.apache.guacamole.net.auth.permission.ObjectPermission;
+import org.apache.ibatis.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ObjectPermissionCache never retains snapshots
+ * which may predate a change in permissions.
+ */
+public class ObjectPermissionCacheTest {
+
+    /**
+     * The type key under which test snapshots are cached.
+     */
+    private static final Object TYPE = ObjectPermissionCacheTest.class;
+
+    /**
+     * The cache under test.
+     */
+    private ObjectPermissionCache cache;
+
+    /**
+     * Creates a new, empty cache.
+     */
+    @Before
+    public void setUp() {
+        cache = new ObjectPermissionCache();
+    }
+
+    /**
+     * Returns a new snapshot granting READ permission for the object having
+     * the given identifier, as if retrieved at the given cache generation.
+     *
+     * @param generation
+     *     The generation of the cache before the permissions were retrieved.
+     *
+     * @param identifier
+     *     The identifier of the readable object.
+     *
+     * @return
+     *     A new snapshot granting READ permission for the given object.
+     */
+    private static ObjectPermissionSnapshot snapshot(long generation,
+            String identifier) {
+
+        ObjectPermissionModel model = new ObjectPermissionModel();
+        model.setType(ObjectPermission.Type.READ);
+        model.setObjectIdentifier(identifier);
+
+        return new ObjectPermissionSnapshot(generation, Collections.singletonList(model));
+
+    }
+
+    /**
+     * Verifies that a snapshot retrieved before the permissions of any user
+     * were invalidated is not cached, as it may predate the change.
+     */
+    @Test
+    public void testStaleSnapshot() {
+
+        // Snapshot retrieval begins
+        long generation = cache.getGeneration();
+
+        // Concurrent change to permissions of another user
+        cache.invalidate(2);
+
+        cache.put(1, TYPE, snapshot(generation, "1"));
+        assertNull(cache.get(1, TYPE));
+
+        // Snapshots retrieved after the change are cached
+        ObjectPermissionSnapshot current = snapshot(cache.getGeneration(), "1");
+        cache.put(1, TYPE, current);
+        assertSame(current, cache.get(1, TYPE));
+        assertTrue(cache.get(1, TYPE).hasPermission(ObjectPermission.Type.READ, "1"));
+
+    }
+
+    /**
+     * Verifies that invalidating permissions within a transaction invalidates
+     * them again once that transaction completes, discarding any snapshot
+     * which another thread retrieved before the change was committed or
+     * rolled back.
+     *
+     * @param commit
+     *     Whether the transaction should be committed (true) or rolled back
+     *     (false).
+     *
+     * @throws SQLException
+     *     If the transaction cannot be completed.
+     */
+    private void testInvalidateInTransaction(boolean commit) throws SQLException {
+
+        Transaction transaction = TestTransactions.begin();
+        try {
+
+            cache.invalidate(1);
+
+            // Snapshot retrieved by another thread, seeing only the state of
+            // the database prior to the change
+            cache.put(1, TYPE, snapshot(cache.getGeneration(), "1"));
+            assertNotNull(cache.get(1, TYPE));
+
+            if (commit)
+                transaction.commit();
+            else
+                transaction.rollback();
+
+        }
+        finally {
+            transaction.close();
+        }
+
+        assertNull(cache.get(1, TYPE));
+
+    }
+
+    /**
+     * Verifies that permissions invalidated within a transaction are
+     * invalidated again after that transaction is committed.
+     *
+     * @throws SQLException
+     *     If the transaction cannot be completed.
+     */
+    @Test
+    public void testInvalidateAfterCommit() throws SQLException {
+        testInvalidateInTransaction(true);
+    }
+
+    /**
+     * Verifies that permissions invalidated within a transaction are
+     * invalidated again after that transaction is rolled back.
+     *
+     * @throws SQLException
+     *     If the transaction cannot be completed.
+     */
+    @Test
+    public void testInvalidateAfterRollback() throws SQLException {
+        testInvalidateInTransaction(false);
+    }
+
+    /**
+     * Verifies that invalidating the permissions of one user does not
+     * discard the current snapshots of other users.
+     */
+    @Test
+    public void testInvalidateOneUser() {
+
+        cache.put(1, TYPE, snapshot(cache.getGeneration(), "1"));
+        cache.put(2, TYPE, snapshot(cache.getGeneration(), "2"));
+
+        cache.invalidate(1);
+        assertNull(cache.get(1, TYPE));
+        assertNotNull(cache.get(2, TYPE));
+
+    }
+
+}
@@ -383,8 +383,8 @@ CREATE TABLE guacamole_connection_history (
 CREATE INDEX ON guacamole_connection_history(user_id);
 CREATE INDEX ON guacamole_connection_history(connection_id);
 CREATE INDEX ON guacamole_connection_history(sharing_profile_id);
-CREATE INDEX ON guacamole_connection_history(start_date);
 CREATE INDEX ON guacamole_connection_history(end_date);
+CREATE INDEX ON guacamole_connection_history(start_date, history_id);
 
 --
 -- User password history
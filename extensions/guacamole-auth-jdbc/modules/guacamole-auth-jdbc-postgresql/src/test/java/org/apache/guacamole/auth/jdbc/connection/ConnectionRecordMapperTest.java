@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.connection;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies the SQL generated by the PostgreSQL ConnectionRecordMapper
+ * for connection history searches, without requiring a database.
+ */
+public class ConnectionRecordMapperTest {
+
+    /**
+     * The resource containing the mapper under test.
+     */
+    private static final String MAPPER_RESOURCE =
+            "org/apache/guacamole/auth/jdbc/connection/ConnectionRecordMapper.xml";
+
+    /**
+     * The name of the search statement within the mapper under test.
+     */
+    private static final String SEARCH =
+            "org.apache.guacamole.auth.jdbc.connection.ConnectionRecordMapper.search";
+
+    /**
+     * MyBatis configuration containing only the mapper under test.
+     */
+    private Configuration configuration;
+
+    /**
+     * Loads the mapper under test into a new MyBatis configuration.
+     *
+     * @throws Exception
+     *     If the mapper cannot be loaded.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        configuration = new Configuration();
+
+        InputStream mapper = getClass().getClassLoader().getResourceAsStream(MAPPER_RESOURCE);
+        try {
+            new XMLMapperBuilder(mapper, configuration, MAPPER_RESOURCE,
+                    configuration.getSqlFragments()).parse();
+        }
+        finally {
+            mapper.close();
+        }
+
+    }
+
+    /**
+     * Returns a list of the given number of sequential IDs.
+     *
+     * @param count
+     *     The number of IDs to include.
+     *
+     * @return
+     *     A list of the IDs 0 through count - 1.
+     */
+    private static List<Integer> ids(int count) {
+        List<Integer> ids = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++)
+            ids.add(i);
+        return ids;
+    }
+
+    /**
+     * Generates the SQL of the search statement for the given parameters,
+     * with all whitespace collapsed to single spaces.
+     *
+     * @param terms
+     *     The resolved search terms.
+     *
+     * @param after
+     *     The cursor of the last record already retrieved, or null.
+     *
+     * @return
+     *     The generated SQL and its parameters.
+     */
+    private BoundSql search(List<ResolvedConnectionRecordSearchTerm> terms,
+            ConnectionRecordCursor after) {
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("terms", terms);
+        parameters.put("sortPredicates", Collections.<ConnectionRecordSortPredicate>emptyList());
+        parameters.put("after", after);
+        parameters.put("limit", 100);
+
+        return configuration.getMappedStatement(SEARCH).getBoundSql(parameters);
+
+    }
+
+    /**
+     * Returns the given SQL with all whitespace collapsed to single spaces.
+     *
+     * @param sql
+     *     The SQL to normalize.
+     *
+     * @return
+     *     The given SQL with all whitespace collapsed to single spaces.
+     */
+    private static String normalize(String sql) {
+        return sql.replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Verifies that users and connections matching a term are listed by ID
+     * when few enough match, and searched by name within the query
+     * otherwise, such that the number of bound parameters remains bounded.
+     */
+    @Test
+    public void testBroadTerm() {
+
+        int max = ResolvedConnectionRecordSearchTerm.MAX_RESOLVED_IDS;
+        ConnectionRecordSearchTerm term = new ConnectionRecordSearchTerm("a");
+
+        // Few matches are listed
+        BoundSql listed = search(Collections.singletonList(
+                new ResolvedConnectionRecordSearchTerm(term, ids(3), ids(max))), null);
+        String sql = normalize(listed.getSql());
+        assertTrue(sql.contains("guacamole_connection_history.user_id IN ( ? , ? , ? )"));
+        assertFalse(sql.contains("FROM guacamole_user"));
+        assertFalse(sql.contains("FROM guacamole_connection "));
+        assertEquals(3 + max + 1, listed.getParameterMappings().size()); // IDs and limit
+
+        // Too many matches are searched again within the query
+        BoundSql broad = search(Collections.singletonList(
+                new ResolvedConnectionRecordSearchTerm(term, ids(3), ids(max + 1))), null);
+        sql = normalize(broad.getSql());
+        assertTrue(sql.contains("guacamole_connection_history.connection_id IN ( SELECT connection_id FROM guacamole_connection WHERE POSITION(? IN connection_name) > 0 )"));
+        assertEquals(3 + 1 + 1, broad.getParameterMappings().size()); // IDs, term and limit
+
+    }
+
+    /**
+     * Verifies that a term which matches no users or connections does not
+     * produce an empty IN list, which is not valid SQL.
+     */
+    @Test
+    public void testDateTerm() {
+
+        BoundSql bound = search(Collections.singletonList(new ResolvedConnectionRecordSearchTerm(
+                new ConnectionRecordSearchTerm("2017-01-01"),
+                Collections.<Integer>emptyList(), Collections.<Integer>emptyList())), null);
+
+        String sql = normalize(bound.getSql());
+        assertFalse(sql.contains(" IN "));
+        assertTrue(sql.contains("WHERE ( guacamole_connection_history.start_date BETWEEN ? AND ? )"));
+
+    }
+
+    /**
+     * Verifies that the cursor restricts results to records strictly
+     * following the cursor position in the direction of the sort order.
+     */
+    @Test
+    public void testCursor() {
+
+        Date startDate = new Date(1483228800123L);
+
+        // No cursor, no restriction
+        assertFalse(normalize(search(Collections.<ResolvedConnectionRecordSearchTerm>emptyList(),
+                null).getSql()).contains("WHERE"));
+
+        // Descending order continues with earlier records
+        BoundSql descending = search(Collections.<ResolvedConnectionRecordSearchTerm>emptyList(),
+                new ConnectionRecordCursor(startDate, 42, true));
+        assertTrue(normalize(descending.getSql()).contains(
+                "WHERE guacamole_connection_history.start_date <= ?"
+                + " AND ( guacamole_connection_history.start_date < ?"
+                + " OR guacamole_connection_history.history_id < ? )"));
+        assertEquals(3 + 1, descending.getParameterMappings().size()); // Cursor and limit
+        assertEquals("after.recordID", descending.getParameterMappings().get(2).getProperty());
+
+        // Ascending order continues with later records
+        BoundSql ascending = search(Collections.<ResolvedConnectionRecordSearchTerm>emptyList(),
+                new ConnectionRecordCursor(startDate, 42, false));
+        assertTrue(normalize(ascending.getSql()).contains(
+                "WHERE guacamole_connection_history.start_date >= ?"
+                + " AND ( guacamole_connection_history.start_date > ?"
+                + " OR guacamole_connection_history.history_id > ? )"));
+
+    }
+
+}
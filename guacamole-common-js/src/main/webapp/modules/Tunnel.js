@@ -596,8 +596,13 @@ Guacamole.HTTPTunnel.prototype = new Guacamole.Tunnel();
  * @constructor
  * @augments Guacamole.Tunnel
  * @param {String} tunnelURL The URL of the WebSocket tunneling service.
+ * @param {Boolean} [binary=false]
+ *     Whether raw UTF-8 protocol data should be exchanged as binary messages,
+ *     rather than as text messages, if supported by the server. Binary
+ *     messages are used only if the server accepts the "guacamole-binary"
+ *     subprotocol, and text messages are used otherwise.
  */
-Guacamole.WebSocketTunnel = function(tunnelURL) {
+Guacamole.WebSocketTunnel = function(tunnelURL, binary) {
 
     /**
      * Reference to this WebSocket tunnel.
@@ -617,6 +622,27 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
      */
     var receive_timeout = null;
 
+    /**
+     * Whether the "guacamole-binary" subprotocol was negotiated, and thus
+     * raw UTF-8 protocol data is exchanged as binary messages.
+     * @private
+     */
+    var binary_mode = false;
+
+    /**
+     * Decoder for UTF-8 data received within binary messages, if the browser
+     * provides TextDecoder.
+     * @private
+     */
+    var decoder = window.TextDecoder ? new TextDecoder("utf-8") : null;
+
+    /**
+     * Encoder for UTF-8 data sent within binary messages, if the browser
+     * provides TextEncoder.
+     * @private
+     */
+    var encoder = window.TextEncoder ? new TextEncoder() : null;
+
     /**
      * The WebSocket protocol corresponding to the protocol used for the current
      * location.
@@ -706,6 +732,191 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
 
     }
 
+    /**
+     * Returns the number of bytes in the UTF-8 sequence beginning with the
+     * given byte.
+     *
+     * @private
+     * @param {Number} value The first byte of the UTF-8 sequence.
+     * @return {Number} The number of bytes in the sequence.
+     */
+    function get_sequence_length(value) {
+
+        if ((value & 0xE0) === 0xC0) return 2;
+        if ((value & 0xF0) === 0xE0) return 3;
+        if ((value & 0xF8) === 0xF0) return 4;
+
+        return 1;
+
+    }
+
+    /**
+     * Decodes the given range of UTF-8 bytes as a string.
+     *
+     * @private
+     * @param {Uint8Array} bytes The buffer containing the bytes to decode.
+     * @param {Number} start The index of the first byte to decode.
+     * @param {Number} end The index just past the last byte to decode.
+     * @return {String} The decoded string.
+     */
+    function decode_utf8(bytes, start, end) {
+
+        // Use native decoder if available
+        if (decoder)
+            return decoder.decode(bytes.subarray(start, end));
+
+        var result = "";
+        var i = start;
+        while (i < end) {
+
+            // Decode next code point
+            var value = bytes[i++];
+            var length = get_sequence_length(value);
+            var codepoint = value & (0xFF >> (length + (length > 1 ? 1 : 0)));
+            while (--length > 0)
+                codepoint = (codepoint << 6) | (bytes[i++] & 0x3F);
+
+            // Represent code points outside the BMP as surrogate pairs
+            if (codepoint > 0xFFFF) {
+                codepoint -= 0x10000;
+                result += String.fromCharCode(0xD800 + (codepoint >> 10),
+                                              0xDC00 + (codepoint & 0x3FF));
+            }
+            else
+                result += String.fromCharCode(codepoint);
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Encodes the given string as UTF-8.
+     *
+     * @private
+     * @param {String} string The string to encode.
+     * @return {Uint8Array} The UTF-8 bytes of the given string.
+     */
+    function encode_utf8(string) {
+
+        // Use native encoder if available
+        if (encoder)
+            return encoder.encode(string);
+
+        var bytes = [];
+        for (var i=0; i<string.length; i++) {
+
+            var codepoint = string.charCodeAt(i);
+
+            // Combine surrogate pairs into single code points
+            if (codepoint >= 0xD800 && codepoint <= 0xDBFF && i+1 < string.length) {
+                var low = string.charCodeAt(i+1);
+                if (low >= 0xDC00 && low <= 0xDFFF) {
+                    codepoint = 0x10000 + ((codepoint - 0xD800) << 10) + (low - 0xDC00);
+                    i++;
+                }
+            }
+
+            // Encode code point
+            if (codepoint < 0x80)
+                bytes.push(codepoint);
+            else if (codepoint < 0x800)
+                bytes.push(0xC0 | (codepoint >> 6),
+                           0x80 | (codepoint & 0x3F));
+            else if (codepoint < 0x10000)
+                bytes.push(0xE0 | (codepoint >> 12),
+                           0x80 | ((codepoint >> 6) & 0x3F),
+                           0x80 | (codepoint & 0x3F));
+            else
+                bytes.push(0xF0 | (codepoint >> 18),
+                           0x80 | ((codepoint >> 12) & 0x3F),
+                           0x80 | ((codepoint >> 6) & 0x3F),
+                           0x80 | (codepoint & 0x3F));
+
+        }
+
+        return new Uint8Array(bytes);
+
+    }
+
+    /**
+     * Handles a single received instruction, updating the tunnel state if
+     * this is the first instruction received.
+     *
+     * @private
+     * @param {String} opcode The opcode of the instruction.
+     * @param {String[]} elements The arguments of the instruction.
+     */
+    function handle_instruction(opcode, elements) {
+
+        // Update state and UUID when first instruction received
+        if (tunnel.state !== Guacamole.Tunnel.State.OPEN) {
+
+            // Associate tunnel UUID if received
+            if (opcode === Guacamole.Tunnel.INTERNAL_DATA_OPCODE)
+                tunnel.uuid = elements[0];
+
+            // Tunnel is now open and UUID is available
+            tunnel.state = Guacamole.Tunnel.State.OPEN;
+            if (tunnel.onstatechange)
+                tunnel.onstatechange(tunnel.state);
+
+        }
+
+        // Call instruction handler.
+        if (opcode !== Guacamole.Tunnel.INTERNAL_DATA_OPCODE && tunnel.oninstruction)
+            tunnel.oninstruction(opcode, elements);
+
+    }
+
+    /**
+     * Parses and handles all instructions within the given binary message,
+     * which contains raw UTF-8 protocol data. Elements are decoded directly
+     * from the received bytes, without first decoding the message as a
+     * whole.
+     *
+     * @private
+     * @param {ArrayBuffer} data The content of the received message.
+     */
+    function handle_binary_message(data) {
+
+        var bytes = new Uint8Array(data);
+        var position = 0;
+        var elements = [];
+
+        while (position < bytes.length) {
+
+            // Parse length
+            var length = 0;
+            var value;
+            while (position < bytes.length && (value = bytes[position++]) !== 0x2E /* "." */)
+                length = length * 10 + value - 0x30 /* "0" */;
+
+            // Find end of element content, as lengths are in code points
+            var start = position;
+            while (length-- > 0 && position < bytes.length)
+                position += get_sequence_length(bytes[position]);
+
+            // If no terminator, incomplete instruction.
+            if (position >= bytes.length) {
+                close_tunnel(new Guacamole.Status(Guacamole.Status.Code.SERVER_ERROR, "Incomplete instruction."));
+                return;
+            }
+
+            // Add element to array
+            elements.push(decode_utf8(bytes, start, position));
+
+            // If last element, handle instruction
+            if (bytes[position++] === 0x3B /* ";" */) {
+                handle_instruction(elements.shift(), elements);
+                elements = [];
+            }
+
+        }
+
+    }
+
     this.sendMessage = function(elements) {
 
         // Do not attempt to send messages if not connected
@@ -739,7 +950,11 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
         // Final terminator
         message += ";";
 
-        socket.send(message);
+        // Send raw UTF-8 if using binary messages
+        if (binary_mode)
+            socket.send(encode_utf8(message));
+        else
+            socket.send(message);
 
     };
 
@@ -747,10 +962,17 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
 
         reset_timeout();
 
-        // Connect socket
-        socket = new WebSocket(tunnelURL + "?" + data, "guacamole");
+        // Connect socket, offering binary messages first if requested
+        if (binary && window.ArrayBuffer && window.Uint8Array)
+            socket = new WebSocket(tunnelURL + "?" + data, ["guacamole-binary", "guacamole"]);
+        else
+            socket = new WebSocket(tunnelURL + "?" + data, "guacamole");
+
+        socket.binaryType = "arraybuffer";
+        binary_mode = false;
 
         socket.onopen = function(event) {
+            binary_mode = (socket.protocol === "guacamole-binary");
             reset_timeout();
         };
 
@@ -766,6 +988,12 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
 
             reset_timeout();
 
+            // Parse raw UTF-8 directly from binary messages
+            if (typeof event.data !== "string") {
+                handle_binary_message(event.data);
+                return;
+            }
+
             var message = event.data;
             var startIndex = 0;
             var elementEnd;
@@ -806,23 +1034,8 @@ Guacamole.WebSocketTunnel = function(tunnelURL) {
                     // Get opcode
                     var opcode = elements.shift();
 
-                    // Update state and UUID when first instruction received
-                    if (tunnel.state !== Guacamole.Tunnel.State.OPEN) {
-
-                        // Associate tunnel UUID if received
-                        if (opcode === Guacamole.Tunnel.INTERNAL_DATA_OPCODE)
-                            tunnel.uuid = elements[0];
-
-                        // Tunnel is now open and UUID is available
-                        tunnel.state = Guacamole.Tunnel.State.OPEN;
-                        if (tunnel.onstatechange)
-                            tunnel.onstatechange(tunnel.state);
-
-                    }
-
-                    // Call instruction handler.
-                    if (opcode !== Guacamole.Tunnel.INTERNAL_DATA_OPCODE && tunnel.oninstruction)
-                        tunnel.oninstruction(opcode, elements);
+                    // Handle instruction
+                    handle_instruction(opcode, elements);
 
                     // Clear elements
                     elements.length = 0;
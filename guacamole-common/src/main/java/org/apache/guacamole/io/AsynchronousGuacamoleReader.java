@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+/**
+ * GuacamoleReader which can notify a listener when data can be read without
+ * blocking, allowing instructions to be consumed as they arrive without
+ * dedicating a thread to blocking reads.
+ */
+public interface AsynchronousGuacamoleReader extends GuacamoleReader {
+
+    /**
+     * Sets the listener which should be notified whenever data can be read
+     * from this reader without blocking. If data is already available, the
+     * listener will be notified immediately. Once a listener is set, the
+     * reader should be read only from within that listener, or by a task
+     * which that listener hands the read off to and which never runs
+     * concurrently with another such read. As the listener is notified by a
+     * thread shared with other readers, it must not block.
+     *
+     * @param listener
+     *     The listener to notify whenever data can be read without blocking,
+     *     or null if no listener should be notified.
+     */
+    public void setReadListener(GuacamoleReadListener listener);
+
+}
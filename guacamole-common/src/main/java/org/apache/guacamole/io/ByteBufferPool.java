@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally-sized ByteBuffers which may be reused once released,
+ * avoiding the allocation of a new buffer each time one is needed. Buffers
+ * which are never released are simply garbage collected.
+ */
+public class ByteBufferPool {
+
+    /**
+     * The capacity of each buffer provided by this pool, in bytes.
+     */
+    private final int bufferSize;
+
+    /**
+     * The maximum number of released buffers to retain for reuse.
+     */
+    private final int maxPooled;
+
+    /**
+     * All released buffers which are available for reuse.
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * The number of buffers currently available for reuse.
+     */
+    private final AtomicInteger pooled = new AtomicInteger(0);
+
+    /**
+     * Creates a new ByteBufferPool which provides buffers of the given size,
+     * retaining at most the given number of released buffers for reuse.
+     *
+     * @param bufferSize
+     *     The capacity of each buffer provided by this pool, in bytes.
+     *
+     * @param maxPooled
+     *     The maximum number of released buffers to retain for reuse.
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns the capacity of each buffer provided by this pool, in bytes.
+     *
+     * @return
+     *     The capacity of each buffer provided by this pool, in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns an empty buffer, reusing a previously-released buffer if
+     * possible. The returned buffer is backed by an accessible array.
+     *
+     * @return
+     *     An empty buffer having the capacity of this pool.
+     */
+    public ByteBuffer acquire() {
+
+        // Reuse a released buffer, if any
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        // Otherwise, allocate a new buffer
+        return ByteBuffer.allocate(bufferSize);
+
+    }
+
+    /**
+     * Returns the given buffer to this pool for reuse. The buffer must not be
+     * used by the caller after it has been released.
+     *
+     * @param buffer
+     *     The buffer to release, which must have been acquired from this pool.
+     */
+    public void release(ByteBuffer buffer) {
+
+        // Ignore buffers which could not have come from this pool
+        if (buffer.capacity() != bufferSize || !buffer.hasArray())
+            return;
+
+        // Retain buffer only if the pool is not already full
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        buffers.offer(buffer);
+
+    }
+
+}
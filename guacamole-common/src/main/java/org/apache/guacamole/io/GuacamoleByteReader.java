@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.nio.ByteBuffer;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * GuacamoleReader which additionally provides access to the raw, UTF-8
+ * encoded bytes of each instruction, allowing instruction data to be passed
+ * through without first being decoded into characters.
+ */
+public interface GuacamoleByteReader extends GuacamoleReader {
+
+    /**
+     * Reads exactly one complete Guacamole instruction, returning the UTF-8
+     * bytes of that instruction. The position of the returned ByteBuffer
+     * will point to the first byte of the instruction, and its limit will
+     * point just past the terminating semicolon.
+     *
+     * The returned ByteBuffer may be a view of the internal buffer of this
+     * GuacamoleByteReader, and is thus valid only until the next call to any
+     * read function of this GuacamoleByteReader. Its contents must not be
+     * modified.
+     *
+     * @return
+     *     The UTF-8 bytes of the next complete instruction from the stream,
+     *     or null if no more instructions are available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream.
+     */
+    public ByteBuffer readBytes() throws GuacamoleException;
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * Incremental framer for UTF-8 encoded Guacamole protocol data. Arbitrary
+ * data is appended, and the framer reports where each complete instruction
+ * ends without decoding or copying that data. Element lengths are counted in
+ * Unicode code points, as defined by the Guacamole protocol.
+ */
+public class GuacamoleInstructionFramer {
+
+    /**
+     * The UTF-8 charset, used for decoding instructions which are parsed.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Whether the length prefix of an element is currently being parsed. If
+     * false, the content of an element (or its terminator) is currently being
+     * parsed.
+     */
+    private boolean parsingLength = true;
+
+    /**
+     * The value of the length prefix parsed thus far, if the length prefix of
+     * an element is currently being parsed.
+     */
+    private int elementLength = 0;
+
+    /**
+     * The number of code points of the current element which have not yet
+     * been parsed, if the content of an element is currently being parsed.
+     */
+    private int remainingCodePoints = 0;
+
+    /**
+     * Whether the most recent call to append() ended with a complete
+     * instruction.
+     */
+    private boolean complete = false;
+
+    /**
+     * Returns the number of bytes used by the UTF-8 sequence beginning with
+     * the given byte. Bytes which cannot begin a UTF-8 sequence are treated
+     * as single-byte sequences.
+     *
+     * @param leadByte
+     *     The first byte of the UTF-8 sequence.
+     *
+     * @return
+     *     The number of bytes within the UTF-8 sequence beginning with the
+     *     given byte.
+     */
+    public static int getSequenceLength(byte leadByte) {
+
+        int value = leadByte & 0xFF;
+
+        if (value < 0xC0) return 1;
+        if (value < 0xE0) return 2;
+        if (value < 0xF0) return 3;
+        return 4;
+
+    }
+
+    /**
+     * Parses as much of the given data as possible, stopping immediately
+     * after the end of the first complete instruction, if any. Any incomplete
+     * multi-byte UTF-8 sequence at the end of the given data is not parsed,
+     * and must be provided again in a future call once the remainder of that
+     * sequence is available.
+     *
+     * @param buffer
+     *     The buffer containing the data to parse.
+     *
+     * @param offset
+     *     The offset within the buffer where the data begins.
+     *
+     * @param length
+     *     The number of bytes of data available.
+     *
+     * @return
+     *     The number of bytes parsed.
+     *
+     * @throws GuacamoleException
+     *     If the data parsed is not valid Guacamole protocol data.
+     */
+    public int append(byte[] buffer, int offset, int length)
+            throws GuacamoleException {
+
+        int position = offset;
+        int end = offset + length;
+
+        complete = false;
+
+        // Parse as much of the instruction as possible
+        while (position < end) {
+
+            // Parse element length
+            if (parsingLength) {
+
+                byte readByte = buffer[position++];
+
+                // If digit, update length
+                if (readByte >= '0' && readByte <= '9')
+                    elementLength = elementLength * 10 + readByte - '0';
+
+                // If period, switch to parsing content
+                else if (readByte == '.') {
+                    remainingCodePoints = elementLength;
+                    elementLength = 0;
+                    parsingLength = false;
+                }
+
+                // Otherwise, parse error
+                else
+                    throw new GuacamoleServerException("Non-numeric character in element length.");
+
+            }
+
+            // Skip over element content, one code point at a time
+            else if (remainingCodePoints > 0) {
+
+                // Fast path for runs of single-byte characters
+                while (remainingCodePoints > 0 && position < end
+                        && buffer[position] >= 0) {
+                    position++;
+                    remainingCodePoints--;
+                }
+
+                // Handle multi-byte characters only if complete
+                if (remainingCodePoints > 0 && position < end) {
+
+                    int sequenceLength = getSequenceLength(buffer[position]);
+                    if (position + sequenceLength > end)
+                        break;
+
+                    position += sequenceLength;
+                    remainingCodePoints--;
+
+                }
+
+            }
+
+            // Parse terminator following element content
+            else {
+
+                byte terminator = buffer[position++];
+                parsingLength = true;
+
+                // If terminator is semicolon, we have a full instruction
+                if (terminator == ';') {
+                    complete = true;
+                    break;
+                }
+
+                // Handle invalid terminator characters
+                else if (terminator != ',')
+                    throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+            }
+
+        }
+
+        return position - offset;
+
+    }
+
+    /**
+     * Returns whether the most recent call to append() ended with a complete
+     * instruction. If so, the data parsed by that call ends with the
+     * terminating semicolon of that instruction.
+     *
+     * @return
+     *     true if the most recent call to append() ended with a complete
+     *     instruction, false otherwise.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Parses the given complete instruction, which must already have been
+     * framed (and thus validated) by a GuacamoleInstructionFramer. Only the
+     * instruction itself is decoded, and the opcode and arguments of the
+     * returned instruction are not created until requested.
+     *
+     * @param buffer
+     *     The buffer containing the UTF-8 data of the instruction.
+     *
+     * @param offset
+     *     The offset of the first byte of the instruction.
+     *
+     * @param length
+     *     The length of the instruction, in bytes, including its terminating
+     *     semicolon.
+     *
+     * @return
+     *     The parsed instruction.
+     *
+     * @throws GuacamoleException
+     *     If the instruction contains invalid UTF-8.
+     */
+    public static GuacamoleInstruction parseInstruction(byte[] buffer,
+            int offset, int length) throws GuacamoleException {
+
+        // Locate each element within the instruction in-place within
+        // the buffer. As the instruction has already been validated while
+        // framing, no further checks are needed.
+        int[] elementOffsets = new int[8];
+        int[] elementLengths = new int[8];
+        int elementCount = 0;
+
+        // Offsets are tracked in terms of the decoded characters
+        int position = offset;
+        int charPosition = 0;
+        for (;;) {
+
+            // Parse length
+            int elementLength = 0;
+            byte readByte;
+            while ((readByte = buffer[position++]) != '.') {
+                elementLength = elementLength * 10 + readByte - '0';
+                charPosition++;
+            }
+
+            // Grow element arrays as necessary
+            if (elementCount == elementOffsets.length) {
+                elementOffsets = Arrays.copyOf(elementOffsets, elementCount * 2);
+                elementLengths = Arrays.copyOf(elementLengths, elementCount * 2);
+            }
+
+            // Find end of element content, counting characters (code points
+            // outside the BMP are represented by two characters)
+            int elementStart = ++charPosition;
+            while (elementLength-- > 0) {
+                int sequenceLength = getSequenceLength(buffer[position]);
+                position += sequenceLength;
+                charPosition += (sequenceLength == 4) ? 2 : 1;
+            }
+
+            // Record element
+            elementOffsets[elementCount] = elementStart;
+            elementLengths[elementCount] = charPosition - elementStart;
+            elementCount++;
+
+            // If we've reached the end of the instruction
+            charPosition++;
+            if (buffer[position++] == ';')
+                break;
+
+        }
+
+        // Decode entire instruction at once
+        char[] rawInstruction = new String(buffer, offset, length, UTF8).toCharArray();
+
+        // Malformed UTF-8 may decode to a different number of characters than
+        // expected, in which case element offsets cannot be trusted
+        if (rawInstruction.length != charPosition)
+            throw new GuacamoleServerException("Instruction contains invalid UTF-8.");
+
+        // Create instruction, deferring creation of opcode and arguments
+        return new GuacamoleInstruction(rawInstruction,
+                Arrays.copyOf(elementOffsets, elementCount),
+                Arrays.copyOf(elementLengths, elementCount));
+
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+/**
+ * Listener which is notified whenever data can be read from an
+ * AsynchronousGuacamoleReader without blocking.
+ */
+public interface GuacamoleReadListener {
+
+    /**
+     * Called whenever at least one read from the associated
+     * AsynchronousGuacamoleReader can be performed without blocking, either
+     * because a complete instruction has been received, because the end of
+     * the stream has been reached, or because an error has occurred which
+     * will be thrown by the next read. Implementations should read
+     * instructions until available() returns false. This function will never
+     * be invoked concurrently for the same reader, and will be invoked again
+     * if further data is received after it returns.
+     */
+    public void readReady();
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * A GuacamoleReader which wraps a standard Java InputStream, using that
+ * InputStream as the UTF-8 encoded Guacamole instruction stream. Instructions
+ * are framed directly on the received bytes, with element lengths counted in
+ * Unicode code points, such that instruction data need only be decoded if
+ * requested as characters.
+ */
+public class InputStreamGuacamoleReader implements GuacamoleByteReader {
+
+    /**
+     * The UTF-8 charset, used for decoding instructions which are requested
+     * as characters or as parsed GuacamoleInstructions.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Wrapped InputStream to be used for all input.
+     */
+    private final InputStream input;
+
+    /**
+     * The buffer holding all received, unparsed data.
+     */
+    private byte[] buffer = new byte[20480];
+
+    /**
+     * The number of bytes currently used within the data buffer. All other
+     * bytes within the buffer are free space available for future reads.
+     */
+    private int usedLength = 0;
+
+    /**
+     * The location within the received data buffer of the next byte to be
+     * parsed.
+     */
+    private int parsePosition = 0;
+
+    /**
+     * The location within the received data buffer of the first byte of the
+     * next instruction which has not yet been returned by any read operation.
+     */
+    private int instructionStart = 0;
+
+    /**
+     * The location within the received data buffer of the first byte of the
+     * instruction most recently framed by readNextInstruction().
+     */
+    private int lastInstructionStart = 0;
+
+    /**
+     * Framer which locates the end of each instruction within the data buffer.
+     */
+    private final GuacamoleInstructionFramer framer = new GuacamoleInstructionFramer();
+
+    /**
+     * Reusable view of the data buffer, returned by readBytes(). This view is
+     * recreated only if the data buffer itself is replaced due to resizing.
+     */
+    private ByteBuffer view = ByteBuffer.wrap(buffer);
+
+    /**
+     * Creates a new InputStreamGuacamoleReader which will use the given
+     * InputStream as the UTF-8 encoded Guacamole instruction stream.
+     *
+     * @param input
+     *     The InputStream to use as the Guacamole instruction stream.
+     */
+    public InputStreamGuacamoleReader(InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public boolean available() throws GuacamoleException {
+        try {
+            return input.available() > 0 || usedLength != instructionStart;
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    /**
+     * Frames the next complete instruction within the data buffer, reading
+     * more data from the wrapped InputStream only as necessary. The framed
+     * instruction begins at lastInstructionStart and ends just before
+     * instructionStart. Consumed data is not removed from the buffer until
+     * there is no free space remaining at the end of the buffer.
+     *
+     * @return
+     *     true if an instruction was framed, false if the end of the stream
+     *     has been reached.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream, or if the data
+     *     read is not valid Guacamole protocol data.
+     */
+    private boolean readNextInstruction() throws GuacamoleException {
+
+        try {
+
+            // While we're blocking, or input is available
+            for (;;) {
+
+                // Parse as much of the instruction as possible
+                parsePosition += framer.append(buffer, parsePosition,
+                        usedLength - parsePosition);
+
+                // If instruction is complete, it is consumed in-place
+                if (framer.isComplete()) {
+                    lastInstructionStart = instructionStart;
+                    instructionStart = parsePosition;
+                    return true;
+                }
+
+                // If all data has been consumed, simply rewind to the
+                // beginning of the buffer
+                if (instructionStart == usedLength) {
+                    parsePosition = 0;
+                    usedLength = 0;
+                    instructionStart = 0;
+                }
+
+                // Otherwise, if no space remains, move unconsumed data to the
+                // beginning of the buffer
+                else if (usedLength == buffer.length && instructionStart != 0) {
+                    usedLength -= instructionStart;
+                    parsePosition -= instructionStart;
+                    System.arraycopy(buffer, instructionStart, buffer, 0, usedLength);
+                    instructionStart = 0;
+                }
+
+                // If past threshold, resize buffer before reading
+                if (usedLength - instructionStart > buffer.length/2) {
+                    byte[] biggerBuffer = new byte[buffer.length*2];
+                    System.arraycopy(buffer, 0, biggerBuffer, 0, usedLength);
+                    buffer = biggerBuffer;
+                    view = ByteBuffer.wrap(buffer);
+                }
+
+                // Attempt to fill buffer
+                int numRead = input.read(buffer, usedLength, buffer.length - usedLength);
+                if (numRead == -1)
+                    return false;
+
+                // Update used length
+                usedLength += numRead;
+
+            } // End read loop
+
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+    }
+
+    @Override
+    public ByteBuffer readBytes() throws GuacamoleException {
+
+        // Frame next instruction, returning null on EOF
+        if (!readNextInstruction())
+            return null;
+
+        // Point view at framed instruction
+        view.clear();
+        view.position(lastInstructionStart);
+        view.limit(instructionStart);
+
+        return view;
+
+    }
+
+    @Override
+    public char[] read() throws GuacamoleException {
+
+        // Frame next instruction, returning null on EOF
+        if (!readNextInstruction())
+            return null;
+
+        // Decode only the framed instruction
+        return new String(buffer, lastInstructionStart,
+                instructionStart - lastInstructionStart, UTF8).toCharArray();
+
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        // Frame next instruction, returning null on EOF
+        if (!readNextInstruction())
+            return null;
+
+        // Parse only the framed instruction
+        return GuacamoleInstructionFramer.parseInstruction(buffer,
+                lastInstructionStart, instructionStart - lastInstructionStart);
+
+    }
+
+}
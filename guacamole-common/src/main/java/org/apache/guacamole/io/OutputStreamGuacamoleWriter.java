@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * A GuacamoleWriter which wraps a standard Java OutputStream, using that
+ * OutputStream as the UTF-8 encoded Guacamole instruction stream. Data which
+ * is already UTF-8 encoded may be written directly, without first being
+ * decoded into characters. Writes are normally flushed immediately, but may
+ * optionally be coalesced, such that many small writes result in a single
+ * write to the underlying OutputStream.
+ */
+public class OutputStreamGuacamoleWriter implements GuacamoleByteWriter {
+
+    /**
+     * The size of the buffer used to hold encoded character data prior to
+     * writing, in bytes.
+     */
+    private static final int ENCODE_BUFFER_SIZE = 8192;
+
+    /**
+     * Wrapped OutputStream to be used for all output.
+     */
+    private final OutputStream output;
+
+    /**
+     * The WriteCoalescer which determines when written data is flushed, or
+     * null if all writes are flushed immediately.
+     */
+    private final WriteCoalescer coalescer;
+
+    /**
+     * The total number of writes performed, if writes are not coalesced.
+     */
+    private long writeCount = 0;
+
+    /**
+     * Encoder used to encode character data written via write(char[]) as
+     * UTF-8.
+     */
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Reusable buffer which receives encoded character data prior to that
+     * data being written to the wrapped OutputStream.
+     */
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+
+    /**
+     * Creates a new OutputStreamGuacamoleWriter which will use the given
+     * OutputStream as the UTF-8 encoded Guacamole instruction stream.
+     *
+     * @param output
+     *     The OutputStream to use as the Guacamole instruction stream.
+     */
+    public OutputStreamGuacamoleWriter(OutputStream output) {
+        this.output = output;
+        this.coalescer = null;
+    }
+
+    /**
+     * Creates a new OutputStreamGuacamoleWriter which will use the given
+     * OutputStream as the UTF-8 encoded Guacamole instruction stream,
+     * coalescing writes which occur within the given window of time.
+     * Coalesced data is flushed once the given threshold is reached,
+     * immediately if a "sync" instruction is written, and otherwise once the
+     * window has elapsed. If the window is zero or negative, writes are not
+     * coalesced.
+     *
+     * @param output
+     *     The OutputStream to use as the Guacamole instruction stream.
+     *
+     * @param coalesceWindow
+     *     The maximum number of milliseconds to hold written data before
+     *     flushing.
+     *
+     * @param coalesceThreshold
+     *     The number of bytes of pending data which triggers an immediate
+     *     flush.
+     */
+    public OutputStreamGuacamoleWriter(OutputStream output, int coalesceWindow,
+            int coalesceThreshold) {
+
+        // Buffer writes only if coalescing
+        if (coalesceWindow > 0 && coalesceThreshold > 0) {
+            this.output = new BufferedOutputStream(output, coalesceThreshold);
+            this.coalescer = new WriteCoalescer(this.output, coalesceWindow,
+                    coalesceThreshold);
+        }
+        else {
+            this.output = output;
+            this.coalescer = null;
+        }
+
+    }
+
+    /**
+     * Returns the total number of writes performed.
+     *
+     * @return
+     *     The total number of writes performed.
+     */
+    public long getWriteCount() {
+
+        if (coalescer != null)
+            return coalescer.getWriteCount();
+
+        return writeCount;
+
+    }
+
+    /**
+     * Returns the number of writes which were coalesced with other writes,
+     * rather than each resulting in its own write to the underlying
+     * OutputStream. This is always zero if writes are not coalesced.
+     *
+     * @return
+     *     The number of writes which were coalesced with other writes.
+     */
+    public long getCoalescedWriteCount() {
+
+        if (coalescer != null)
+            return coalescer.getCoalescedWriteCount();
+
+        return 0;
+
+    }
+
+    /**
+     * Flushes all data written thus far, unless writes are being coalesced,
+     * in which case flushing is deferred as dictated by the WriteCoalescer.
+     *
+     * @param length
+     *     The number of bytes written.
+     *
+     * @param sync
+     *     Whether the data written contains a "sync" instruction.
+     *
+     * @throws IOException
+     *     If an error occurs while flushing.
+     */
+    private void written(int length, boolean sync) throws IOException {
+
+        // Flush immediately unless coalescing
+        if (coalescer != null)
+            coalescer.written(length, sync);
+        else {
+            writeCount++;
+            output.flush();
+        }
+
+    }
+
+    @Override
+    public void write(byte[] chunk, int off, int len) throws GuacamoleException {
+        try {
+            output.write(chunk, off, len);
+            written(len, WriteCoalescer.containsSync(chunk, off, len));
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    @Override
+    public void write(char[] chunk, int off, int len) throws GuacamoleException {
+
+        CharBuffer chars = CharBuffer.wrap(chunk, off, len);
+        encoder.reset();
+
+        int written = 0;
+
+        try {
+
+            // Encode and write all characters, one buffer at a time
+            CoderResult result;
+            do {
+
+                result = encoder.encode(chars, encodeBuffer, true);
+                if (!result.isOverflow())
+                    result = encoder.flush(encodeBuffer);
+
+                // Write whatever has been encoded thus far
+                output.write(encodeBuffer.array(), 0, encodeBuffer.position());
+                written += encodeBuffer.position();
+                encodeBuffer.clear();
+
+            } while (result.isOverflow());
+
+            written(written, WriteCoalescer.containsSync(chunk, off, len));
+
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+        finally {
+            encodeBuffer.clear();
+        }
+
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        write(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
+        write(instruction.toString().toCharArray());
+    }
+
+}
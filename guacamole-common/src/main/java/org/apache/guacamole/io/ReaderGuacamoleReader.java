@@ -24,8 +24,8 @@ import java.io.IOException;
 import java.io.Reader;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
@@ -61,6 +61,20 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
      */
     private int parseStart;
 
+    /**
+     * The location within the received data buffer of the first character of
+     * the next instruction which has not yet been returned by any read
+     * operation. All characters before this location have already been
+     * consumed and may be overwritten when the buffer is compacted.
+     */
+    private int instructionStart;
+
+    /**
+     * The location within the received data buffer of the first character of
+     * the instruction most recently framed by readNextInstruction().
+     */
+    private int lastInstructionStart;
+
     /**
      * The buffer holding all received, unparsed data.
      */
@@ -73,18 +87,39 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
      */
     private int usedLength = 0;
 
+    /**
+     * Reusable view of the data buffer, returned by readView(). This view is
+     * recreated only if the data buffer itself is replaced due to resizing.
+     */
+    private CharBuffer view = CharBuffer.wrap(buffer);
+
     @Override
     public boolean available() throws GuacamoleException {
         try {
-            return input.ready() || usedLength != 0;
+            return input.ready() || usedLength != instructionStart;
         }
         catch (IOException e) {
             throw new GuacamoleServerException(e);
         }
     }
 
-    @Override
-    public char[] read() throws GuacamoleException {
+    /**
+     * Frames the next complete instruction within the data buffer, reading
+     * more data from the wrapped Reader only as necessary. The framed
+     * instruction begins at lastInstructionStart and ends just before
+     * instructionStart. Consumed data is not removed from the buffer until
+     * there is no free space remaining at the end of the buffer, at which
+     * point all unconsumed data is moved to the beginning of the buffer.
+     *
+     * @return
+     *     true if an instruction was framed, false if the end of the stream
+     *     has been reached.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream, or if the data
+     *     read is not valid Guacamole protocol data.
+     */
+    private boolean readNextInstruction() throws GuacamoleException {
 
         try {
 
@@ -126,20 +161,11 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
                             parseStart = i;
 
                             // If terminator is semicolon, we have a full
-                            // instruction.
+                            // instruction, which is consumed in-place
                             if (terminator == ';') {
-
-                                // Copy instruction data
-                                char[] instruction = new char[i];
-                                System.arraycopy(buffer, 0, instruction, 0, i);
-
-                                // Update buffer
-                                usedLength -= i;
-                                parseStart = 0;
-                                System.arraycopy(buffer, i, buffer, 0, usedLength);
-
-                                return instruction;
-
+                                lastInstructionStart = instructionStart;
+                                instructionStart = i;
+                                return true;
                             }
 
                             // Handle invalid terminator characters
@@ -160,17 +186,35 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
 
                 }
 
+                // If all data has been consumed, simply rewind to the
+                // beginning of the buffer
+                if (instructionStart == usedLength) {
+                    parseStart -= instructionStart;
+                    usedLength = 0;
+                    instructionStart = 0;
+                }
+
+                // Otherwise, if no space remains, move unconsumed data to the
+                // beginning of the buffer
+                else if (usedLength == buffer.length && instructionStart != 0) {
+                    usedLength -= instructionStart;
+                    parseStart -= instructionStart;
+                    System.arraycopy(buffer, instructionStart, buffer, 0, usedLength);
+                    instructionStart = 0;
+                }
+
                 // If past threshold, resize buffer before reading
-                if (usedLength > buffer.length/2) {
+                if (usedLength - instructionStart > buffer.length/2) {
                     char[] biggerBuffer = new char[buffer.length*2];
                     System.arraycopy(buffer, 0, biggerBuffer, 0, usedLength);
                     buffer = biggerBuffer;
+                    view = CharBuffer.wrap(buffer);
                 }
 
                 // Attempt to fill buffer
                 int numRead = input.read(buffer, usedLength, buffer.length - usedLength);
                 if (numRead == -1)
-                    return null;
+                    return false;
 
                 // Update used length
                 usedLength += numRead;
@@ -191,57 +235,108 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
     }
 
     @Override
-    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+    public char[] read() throws GuacamoleException {
+
+        // Frame next instruction, returning null on EOF
+        if (!readNextInstruction())
+            return null;
+
+        // Copy instruction data
+        int length = instructionStart - lastInstructionStart;
+        char[] instruction = new char[length];
+        System.arraycopy(buffer, lastInstructionStart, instruction, 0, length);
+
+        return instruction;
+
+    }
+
+    /**
+     * Reads exactly one complete Guacamole instruction, returning a view of
+     * that instruction within the internal buffer of this reader rather than
+     * a copy. The position of the returned CharBuffer will point to the first
+     * character of the instruction, and its limit will point just past the
+     * terminating semicolon. The backing array of the CharBuffer and the
+     * offset of the instruction within that array are available through
+     * array() and position() respectively.
+     *
+     * The returned CharBuffer is reused and is valid only until the next call
+     * to any read function of this GuacamoleReader. Its contents must not be
+     * modified.
+     *
+     * @return
+     *     A view of the next complete instruction from the stream, or null if
+     *     no more instructions are available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream.
+     */
+    public CharBuffer readView() throws GuacamoleException {
+
+        // Frame next instruction, returning null on EOF
+        if (!readNextInstruction())
+            return null;
+
+        // Point view at framed instruction
+        view.clear();
+        view.position(lastInstructionStart);
+        view.limit(instructionStart);
 
-        // Get instruction
-        char[] instructionBuffer = read();
+        return view;
+
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
 
-        // If EOF, return EOF
-        if (instructionBuffer == null)
+        // Frame next instruction, returning null on EOF
+        if (!readNextInstruction())
             return null;
 
+        // Copy encoded instruction out of buffer
+        int instructionLength = instructionStart - lastInstructionStart;
+        char[] rawInstruction = new char[instructionLength];
+        System.arraycopy(buffer, lastInstructionStart, rawInstruction, 0,
+                instructionLength);
+
+        // Locate each element within the encoded instruction
+        int[] elementOffsets = new int[8];
+        int[] elementLengths = new int[8];
+        int elementCount = 0;
+
         // Start of element
         int elementStart = 0;
 
-        // Build list of elements
-        Deque<String> elements = new LinkedList<String>();
-        while (elementStart < instructionBuffer.length) {
+        while (elementStart < instructionLength) {
 
-            // Find end of length
-            int lengthEnd = -1;
-            for (int i=elementStart; i<instructionBuffer.length; i++) {
-                if (instructionBuffer[i] == '.') {
-                    lengthEnd = i;
-                    break;
-                }
+            // Parse length up to period
+            int length = 0;
+            int lengthEnd = elementStart;
+            while (lengthEnd < instructionLength
+                    && rawInstruction[lengthEnd] != '.') {
+                length = length * 10 + rawInstruction[lengthEnd] - '0';
+                lengthEnd++;
             }
 
-            // read() is required to return a complete instruction. If it does
-            // not, this is a severe internal error.
-            if (lengthEnd == -1)
+            // readNextInstruction() is required to frame a complete
+            // instruction. If it does not, this is a severe internal error.
+            if (lengthEnd == instructionLength)
                 throw new GuacamoleServerException("Read returned incomplete instruction.");
 
-            // Parse length
-            int length = Integer.parseInt(new String(
-                    instructionBuffer,
-                    elementStart,
-                    lengthEnd - elementStart
-            ));
+            // Grow element arrays as necessary
+            if (elementCount == elementOffsets.length) {
+                elementOffsets = Arrays.copyOf(elementOffsets, elementCount * 2);
+                elementLengths = Arrays.copyOf(elementLengths, elementCount * 2);
+            }
 
-            // Parse element from just after period
+            // Record element from just after period
             elementStart = lengthEnd + 1;
-            String element = new String(
-                    instructionBuffer,
-                    elementStart,
-                    length
-            );
-
-            // Append element to list of elements
-            elements.addLast(element);
+            elementOffsets[elementCount] = elementStart;
+            elementLengths[elementCount] = length;
+            elementCount++;
 
             // Read terminator after element
             elementStart += length;
-            char terminator = instructionBuffer[elementStart];
+            char terminator = rawInstruction[elementStart];
 
             // Continue reading instructions after terminator
             elementStart++;
@@ -252,13 +347,11 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
 
         }
 
-        // Pull opcode off elements list
-        String opcode = elements.removeFirst();
-
-        // Create instruction
+        // Create instruction, deferring creation of opcode and arguments
         GuacamoleInstruction instruction = new GuacamoleInstruction(
-                opcode,
-                elements.toArray(new String[elements.size()])
+                rawInstruction,
+                Arrays.copyOf(elementOffsets, elementCount),
+                Arrays.copyOf(elementLengths, elementCount)
         );
 
         // Return parsed instruction
@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks data written to a buffered output, deciding when that output must
+ * be flushed such that many small writes may be coalesced into a single
+ * write to the underlying connection. Buffered data is flushed once the
+ * amount pending reaches a threshold, immediately if a "sync" instruction is
+ * written, and otherwise once a given window of time has elapsed since the
+ * first unflushed write, such that data is never held for longer than that
+ * window if writes stop arriving. If a delayed flush fails, the output is
+ * closed, such that the failure is not silently lost if no further writes
+ * occur. As the threads which perform delayed flushes are shared by all
+ * coalesced outputs and would otherwise outlive the web application,
+ * shutdown() must be invoked when the web application is stopped.
+ */
+public class WriteCoalescer {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    /**
+     * Shared scheduler which determines when the delayed flushes of all
+     * coalesced outputs are due. The flushes themselves are performed by
+     * flushExecutor, as a flush may block.
+     */
+    private static final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-write-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Threads which perform delayed flushes once due. Each output has at most
+     * one delayed flush scheduled or in progress, thus a flush which blocks
+     * on a slow connection delays only the flushes of that connection.
+     */
+    private static final ExecutorService flushExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-write-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Whether shutdown() has been invoked, in which case writes are flushed
+     * immediately rather than coalesced.
+     */
+    private static volatile boolean shutdown = false;
+
+    /**
+     * The beginning of every "sync" instruction.
+     */
+    private static final char[] SYNC_PREFIX = "4.sync,".toCharArray();
+
+    /**
+     * The buffered output to flush.
+     */
+    private final Flushable output;
+
+    /**
+     * The maximum amount of time to hold written data before flushing, in
+     * milliseconds.
+     */
+    private final long window;
+
+    /**
+     * The amount of pending data which triggers an immediate flush.
+     */
+    private final int threshold;
+
+    /**
+     * The amount of data written since the last flush.
+     */
+    private int pending = 0;
+
+    /**
+     * The scheduled delayed flush, if any.
+     */
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Any error which occurred during a delayed flush and has not yet been
+     * reported, or null if no such error has occurred.
+     */
+    private IOException flushError;
+
+    /**
+     * The total number of writes performed.
+     */
+    private long writeCount = 0;
+
+    /**
+     * The total number of flushes performed.
+     */
+    private long flushCount = 0;
+
+    /**
+     * Task which performs a delayed flush of the output.
+     */
+    private final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+            synchronized (WriteCoalescer.this) {
+
+                // Another flush may have occurred since this was scheduled
+                scheduledFlush = null;
+                if (pending == 0)
+                    return;
+
+                try {
+                    flush();
+                }
+
+                // Close the output upon failure, such that the failure is
+                // observed by the connection as a whole, and not only by the
+                // next write (which may never occur)
+                catch (IOException e) {
+                    logger.debug("Delayed flush of coalesced writes failed.", e);
+                    flushError = e;
+                    close();
+                }
+
+            }
+        }
+
+    };
+
+    /**
+     * Task which hands a delayed flush which is due to flushExecutor, such
+     * that the shared scheduler never blocks.
+     */
+    private final Runnable dueTask = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                flushExecutor.execute(flushTask);
+            }
+            catch (RejectedExecutionException e) {
+                logger.debug("Delayed flush abandoned during shutdown.", e);
+            }
+        }
+
+    };
+
+    /**
+     * Creates a new WriteCoalescer which flushes the given buffered output
+     * as necessary.
+     *
+     * @param output
+     *     The buffered output to flush.
+     *
+     * @param window
+     *     The maximum amount of time to hold written data before flushing,
+     *     in milliseconds.
+     *
+     * @param threshold
+     *     The amount of pending data which triggers an immediate flush.
+     */
+    public WriteCoalescer(Flushable output, long window, int threshold) {
+        this.output = output;
+        this.window = window;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Notifies this WriteCoalescer that data has been written to the
+     * buffered output, flushing that output if required.
+     *
+     * @param length
+     *     The amount of data written.
+     *
+     * @param sync
+     *     Whether the data written contains a "sync" instruction, and thus
+     *     must be flushed immediately.
+     *
+     * @throws IOException
+     *     If an error occurs while flushing, or occurred during a previous
+     *     delayed flush.
+     */
+    public synchronized void written(int length, boolean sync)
+            throws IOException {
+
+        // Report any failure of an earlier delayed flush
+        if (flushError != null) {
+            IOException error = flushError;
+            flushError = null;
+            throw error;
+        }
+
+        writeCount++;
+        pending += length;
+
+        // Flush now if the data must not wait, or if delayed flushes are no
+        // longer possible
+        if (sync || pending >= threshold || shutdown)
+            flush();
+
+        // Otherwise, ensure the data is flushed within the window
+        else if (scheduledFlush == null) {
+            try {
+                scheduledFlush = scheduler.schedule(dueTask, window,
+                        TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                flush();
+            }
+        }
+
+    }
+
+    /**
+     * Flushes the buffered output immediately, cancelling any scheduled
+     * delayed flush.
+     *
+     * @throws IOException
+     *     If an error occurs while flushing.
+     */
+    public synchronized void flush() throws IOException {
+
+        // Cancel any pending delayed flush
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        pending = 0;
+        flushCount++;
+        output.flush();
+
+    }
+
+    /**
+     * Closes the output, if it can be closed, after a delayed flush has
+     * failed.
+     */
+    private void close() {
+
+        if (!(output instanceof Closeable))
+            return;
+
+        try {
+            ((Closeable) output).close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close output after failed flush.", e);
+        }
+
+    }
+
+    /**
+     * Stops all threads which perform delayed flushes. Writes are no longer
+     * coalesced once this function has been invoked, and any delayed flushes
+     * not yet performed are abandoned. This function should be invoked when
+     * the web application is stopped, as those threads would otherwise
+     * retain the classes of the web application.
+     */
+    public static void shutdown() {
+        shutdown = true;
+        scheduler.shutdownNow();
+        flushExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the total number of writes performed.
+     *
+     * @return
+     *     The total number of writes performed.
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Returns the number of writes which were coalesced with other writes,
+     * rather than each resulting in its own write to the underlying
+     * connection.
+     *
+     * @return
+     *     The number of writes which were coalesced with other writes.
+     */
+    public synchronized long getCoalescedWriteCount() {
+        return Math.max(0, writeCount - flushCount);
+    }
+
+    /**
+     * Returns whether the given data contains a "sync" instruction. The data
+     * is not fully parsed, thus this function may occasionally return true
+     * for data that merely looks like a "sync" instruction, which only
+     * results in an unnecessary flush.
+     *
+     * @param chunk
+     *     The buffer containing the data to test.
+     *
+     * @param off
+     *     The offset of the first character of the data.
+     *
+     * @param len
+     *     The number of characters of data.
+     *
+     * @return
+     *     true if the data contains a "sync" instruction, false otherwise.
+     */
+    public static boolean containsSync(char[] chunk, int off, int len) {
+
+        int end = off + len - SYNC_PREFIX.length;
+        for (int i = off; i <= end; i++) {
+
+            // Instructions begin at the start of data or after a semicolon
+            if (i != off && chunk[i - 1] != ';')
+                continue;
+
+            int j = 0;
+            while (j < SYNC_PREFIX.length && chunk[i + j] == SYNC_PREFIX[j])
+                j++;
+
+            if (j == SYNC_PREFIX.length)
+                return true;
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns whether the given UTF-8 data contains a "sync" instruction. The
+     * data is not fully parsed, thus this function may occasionally return
+     * true for data that merely looks like a "sync" instruction, which only
+     * results in an unnecessary flush.
+     *
+     * @param chunk
+     *     The buffer containing the data to test.
+     *
+     * @param off
+     *     The offset of the first byte of the data.
+     *
+     * @param len
+     *     The number of bytes of data.
+     *
+     * @return
+     *     true if the data contains a "sync" instruction, false otherwise.
+     */
+    public static boolean containsSync(byte[] chunk, int off, int len) {
+
+        int end = off + len - SYNC_PREFIX.length;
+        for (int i = off; i <= end; i++) {
+
+            // Instructions begin at the start of data or after a semicolon
+            if (i != off && chunk[i - 1] != ';')
+                continue;
+
+            int j = 0;
+            while (j < SYNC_PREFIX.length && chunk[i + j] == SYNC_PREFIX[j])
+                j++;
+
+            if (j == SYNC_PREFIX.length)
+                return true;
+
+        }
+
+        return false;
+
+    }
+
+}
@@ -20,6 +20,7 @@
 package org.apache.guacamole.io;
 
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.net.SocketException;
@@ -32,7 +33,9 @@ import org.apache.guacamole.protocol.GuacamoleInstruction;
 
 /**
  * A GuacamoleWriter which wraps a standard Java Writer, using that Writer as
- * the Guacamole instruction stream.
+ * the Guacamole instruction stream. Writes are normally flushed immediately,
+ * but may optionally be coalesced, such that many small writes result in a
+ * single write to the underlying Writer.
  *
  * @author Michael Jumper
  */
@@ -43,6 +46,17 @@ public class WriterGuacamoleWriter implements GuacamoleWriter {
      */
     private Writer output;
 
+    /**
+     * The WriteCoalescer which determines when written data is flushed, or
+     * null if all writes are flushed immediately.
+     */
+    private final WriteCoalescer coalescer;
+
+    /**
+     * The total number of writes performed, if writes are not coalesced.
+     */
+    private long writeCount = 0;
+
     /**
      * Creates a new WriterGuacamoleWriter which will use the given Writer as
      * the Guacamole instruction stream.
@@ -51,13 +65,88 @@ public class WriterGuacamoleWriter implements GuacamoleWriter {
      */
     public WriterGuacamoleWriter(Writer output) {
         this.output = output;
+        this.coalescer = null;
+    }
+
+    /**
+     * Creates a new WriterGuacamoleWriter which will use the given Writer as
+     * the Guacamole instruction stream, coalescing writes which occur within
+     * the given window of time. Coalesced data is flushed once the given
+     * threshold is reached, immediately if a "sync" instruction is written,
+     * and otherwise once the window has elapsed. If the window is zero or
+     * negative, writes are not coalesced.
+     *
+     * @param output
+     *     The Writer to use as the Guacamole instruction stream.
+     *
+     * @param coalesceWindow
+     *     The maximum number of milliseconds to hold written data before
+     *     flushing.
+     *
+     * @param coalesceThreshold
+     *     The number of characters of pending data which triggers an
+     *     immediate flush.
+     */
+    public WriterGuacamoleWriter(Writer output, int coalesceWindow,
+            int coalesceThreshold) {
+
+        // Buffer writes only if coalescing
+        if (coalesceWindow > 0 && coalesceThreshold > 0) {
+            this.output = new BufferedWriter(output, coalesceThreshold);
+            this.coalescer = new WriteCoalescer(this.output, coalesceWindow,
+                    coalesceThreshold);
+        }
+        else {
+            this.output = output;
+            this.coalescer = null;
+        }
+
+    }
+
+    /**
+     * Returns the total number of writes performed.
+     *
+     * @return
+     *     The total number of writes performed.
+     */
+    public long getWriteCount() {
+
+        if (coalescer != null)
+            return coalescer.getWriteCount();
+
+        return writeCount;
+
+    }
+
+    /**
+     * Returns the number of writes which were coalesced with other writes,
+     * rather than each resulting in its own write to the underlying Writer.
+     * This is always zero if writes are not coalesced.
+     *
+     * @return
+     *     The number of writes which were coalesced with other writes.
+     */
+    public long getCoalescedWriteCount() {
+
+        if (coalescer != null)
+            return coalescer.getCoalescedWriteCount();
+
+        return 0;
+
     }
 
     @Override
     public void write(char[] chunk, int off, int len) throws GuacamoleException {
         try {
             output.write(chunk, off, len);
-            output.flush();
+
+            // Flush immediately unless coalescing
+            if (coalescer != null)
+                coalescer.written(len, WriteCoalescer.containsSync(chunk, off, len));
+            else {
+                writeCount++;
+                output.flush();
+            }
         }
         catch (SocketTimeoutException e) {
             throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.util.Histogram;
+import org.apache.guacamole.util.RateCounter;
+
+/**
+ * Throughput, latency and backlog measurements of a single tunnel, or of all
+ * tunnels. Measurements recorded for an individual tunnel are also recorded
+ * within the metrics of all tunnels. All methods of this class are
+ * thread-safe.
+ */
+public class TunnelMetrics implements TunnelMetricsMXBean {
+
+    /**
+     * The number of nanoseconds in one microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000;
+
+    /**
+     * The UUID of the tunnel being measured, or null if all tunnels are
+     * being measured.
+     */
+    private final String tunnelUUID;
+
+    /**
+     * The metrics of all tunnels, to which all measurements must also be
+     * recorded, or null if these are the metrics of all tunnels.
+     */
+    private final TunnelMetrics parent;
+
+    /**
+     * The time at which measurement began, in milliseconds since midnight of
+     * January 1, 1970 UTC.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * The amount of data sent to the client.
+     */
+    private final RateCounter bytesSent = new RateCounter();
+
+    /**
+     * The amount of data received from the client.
+     */
+    private final RateCounter bytesReceived = new RateCounter();
+
+    /**
+     * The number of instructions sent to the client.
+     */
+    private final RateCounter instructions = new RateCounter();
+
+    /**
+     * The number of instructions sent to the client, by opcode.
+     */
+    private final ConcurrentMap<String, RateCounter> opcodes =
+            new ConcurrentHashMap<String, RateCounter>();
+
+    /**
+     * The number of times data was flushed to the client.
+     */
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * The time between data being read from guacd and that data being
+     * flushed to the client, in microseconds.
+     */
+    private final Histogram flushLatency = new Histogram();
+
+    /**
+     * The time spent waiting to acquire the tunnel for reading, in
+     * microseconds.
+     */
+    private final Histogram readerWait = new Histogram();
+
+    /**
+     * The time spent waiting to acquire the tunnel for writing, in
+     * microseconds.
+     */
+    private final Histogram writerWait = new Histogram();
+
+    /**
+     * Creates a new TunnelMetrics which measures the tunnel having the given
+     * UUID, additionally recording all measurements within the given metrics
+     * of all tunnels.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel being measured, or null if all tunnels are
+     *     being measured.
+     *
+     * @param parent
+     *     The metrics of all tunnels, or null if these are the metrics of all
+     *     tunnels.
+     */
+    public TunnelMetrics(String tunnelUUID, TunnelMetrics parent) {
+        this.tunnelUUID = tunnelUUID;
+        this.parent = parent;
+    }
+
+    /**
+     * Records that an instruction having the given opcode was sent to the
+     * client.
+     *
+     * @param opcode
+     *     The opcode of the instruction sent.
+     */
+    private void recordOpcode(String opcode) {
+
+        instructions.add(1);
+
+        RateCounter counter = opcodes.get(opcode);
+        if (counter == null) {
+            RateCounter newCounter = new RateCounter();
+            counter = opcodes.putIfAbsent(opcode, newCounter);
+            if (counter == null)
+                counter = newCounter;
+        }
+
+        counter.add(1);
+
+        if (parent != null)
+            parent.recordOpcode(opcode);
+
+    }
+
+    /**
+     * Records that the given complete instructions were sent to the client,
+     * counting each instruction by opcode. Parsing stops silently at the
+     * first malformed or incomplete instruction.
+     *
+     * @param data
+     *     The characters of the instructions sent.
+     */
+    public void recordInstructions(char[] data) {
+
+        int pos = 0;
+        int opcodeStart = -1;
+        int opcodeEnd = 0;
+        while (pos < data.length) {
+
+            // Parse element length
+            int length = 0;
+            char c;
+            while (pos < data.length && (c = data[pos]) != '.') {
+                if (c < '0' || c > '9' || length > data.length)
+                    return;
+                length = length * 10 + c - '0';
+                pos++;
+            }
+
+            // Skip the given number of codepoints
+            int start = ++pos;
+            for (int i = 0; i < length && pos < data.length; i++)
+                pos += Character.isHighSurrogate(data[pos]) ? 2 : 1;
+
+            // Ensure element is terminated
+            if (pos >= data.length)
+                return;
+
+            // The first element of each instruction is its opcode
+            if (opcodeStart == -1) {
+                opcodeStart = start;
+                opcodeEnd = pos;
+            }
+
+            // Count instruction only once complete
+            if (data[pos++] == ';') {
+                recordOpcode(new String(data, opcodeStart, opcodeEnd - opcodeStart));
+                opcodeStart = -1;
+            }
+
+        }
+
+    }
+
+    /**
+     * Records that the given complete instructions were sent to the client
+     * as UTF-8, counting each instruction by opcode. The position and limit
+     * of the given buffer are not modified. Parsing stops silently at the
+     * first malformed or incomplete instruction.
+     *
+     * @param data
+     *     The UTF-8 data of the instructions sent, from the buffer's current
+     *     position to its limit.
+     */
+    public void recordInstructions(ByteBuffer data) {
+
+        int pos = data.position();
+        int end = data.limit();
+        int opcodeStart = -1;
+        int opcodeEnd = 0;
+        while (pos < end) {
+
+            // Parse element length
+            int length = 0;
+            byte b;
+            while (pos < end && (b = data.get(pos)) != '.') {
+                if (b < '0' || b > '9' || length > end)
+                    return;
+                length = length * 10 + b - '0';
+                pos++;
+            }
+
+            // Skip the given number of codepoints, each of which is one to
+            // four bytes as determined by the first byte
+            int start = ++pos;
+            for (int i = 0; i < length && pos < end; i++) {
+                int first = data.get(pos) & 0xFF;
+                if (first < 0x80)      pos += 1;
+                else if (first < 0xE0) pos += 2;
+                else if (first < 0xF0) pos += 3;
+                else                   pos += 4;
+            }
+
+            // Ensure element is terminated
+            if (pos >= end)
+                return;
+
+            // The first element of each instruction is its opcode
+            if (opcodeStart == -1) {
+                opcodeStart = start;
+                opcodeEnd = pos;
+            }
+
+            // Count instruction only once complete, noting that opcodes
+            // are ASCII
+            if (data.get(pos++) == ';') {
+                char[] opcode = new char[opcodeEnd - opcodeStart];
+                for (int i = 0; i < opcode.length; i++)
+                    opcode[i] = (char) (data.get(opcodeStart + i) & 0xFF);
+                recordOpcode(new String(opcode));
+                opcodeStart = -1;
+            }
+
+        }
+
+    }
+
+    /**
+     * Records that the given amount of data was sent to the client.
+     *
+     * @param length
+     *     The amount of data sent, in bytes, or in characters for text
+     *     WebSocket messages.
+     */
+    public void recordBytesSent(long length) {
+        bytesSent.add(length);
+        if (parent != null)
+            parent.recordBytesSent(length);
+    }
+
+    /**
+     * Records that the given amount of data was received from the client.
+     *
+     * @param length
+     *     The amount of data received, in bytes, or in characters for text
+     *     messages.
+     */
+    public void recordBytesReceived(long length) {
+        bytesReceived.add(length);
+        if (parent != null)
+            parent.recordBytesReceived(length);
+    }
+
+    /**
+     * Records that data was flushed to the client, the oldest of which had
+     * been read from guacd the given number of nanoseconds earlier.
+     *
+     * @param latency
+     *     The time between the oldest flushed data being read from guacd and
+     *     that data being flushed, in nanoseconds.
+     */
+    public void recordFlush(long latency) {
+        flushes.incrementAndGet();
+        flushLatency.record(latency / NANOS_PER_MICRO);
+        if (parent != null)
+            parent.recordFlush(latency);
+    }
+
+    /**
+     * Records that the given number of nanoseconds were spent waiting to
+     * acquire the tunnel for reading.
+     *
+     * @param wait
+     *     The time spent waiting, in nanoseconds.
+     */
+    public void recordReaderWait(long wait) {
+        readerWait.record(wait / NANOS_PER_MICRO);
+        if (parent != null)
+            parent.recordReaderWait(wait);
+    }
+
+    /**
+     * Records that the given number of nanoseconds were spent waiting to
+     * acquire the tunnel for writing.
+     *
+     * @param wait
+     *     The time spent waiting, in nanoseconds.
+     */
+    public void recordWriterWait(long wait) {
+        writerWait.record(wait / NANOS_PER_MICRO);
+        if (parent != null)
+            parent.recordWriterWait(wait);
+    }
+
+    @Override
+    public String getTunnelUUID() {
+        return tunnelUUID;
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.getTotal();
+    }
+
+    @Override
+    public long getBytesSentRate() {
+        return bytesSent.getRate();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.getTotal();
+    }
+
+    @Override
+    public long getBytesReceivedRate() {
+        return bytesReceived.getRate();
+    }
+
+    @Override
+    public long getInstructionsSent() {
+        return instructions.getTotal();
+    }
+
+    @Override
+    public long getInstructionRate() {
+        return instructions.getRate();
+    }
+
+    @Override
+    public Map<String, Long> getInstructionCounts() {
+
+        Map<String, Long> counts = new HashMap<String, Long>(opcodes.size());
+        for (Map.Entry<String, RateCounter> entry : opcodes.entrySet())
+            counts.put(entry.getKey(), entry.getValue().getTotal());
+
+        return counts;
+
+    }
+
+    @Override
+    public Map<String, Long> getInstructionRates() {
+
+        Map<String, Long> rates = new HashMap<String, Long>(opcodes.size());
+        for (Map.Entry<String, RateCounter> entry : opcodes.entrySet())
+            rates.put(entry.getKey(), entry.getValue().getRate());
+
+        return rates;
+
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    @Override
+    public double getFlushLatencyMean() {
+        return flushLatency.getMean();
+    }
+
+    @Override
+    public long getFlushLatency99() {
+        return flushLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getFlushLatencyMax() {
+        return flushLatency.getMax();
+    }
+
+    @Override
+    public double getReaderWaitMean() {
+        return readerWait.getMean();
+    }
+
+    @Override
+    public long getReaderWaitMax() {
+        return readerWait.getMax();
+    }
+
+    @Override
+    public double getWriterWaitMean() {
+        return writerWait.getMean();
+    }
+
+    @Override
+    public long getWriterWaitMax() {
+        return writerWait.getMax();
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the metrics of a single tunnel, or of all
+ * tunnels, through JMX. All durations are in microseconds.
+ */
+public interface TunnelMetricsMXBean {
+
+    /**
+     * Returns the UUID of the tunnel being measured.
+     *
+     * @return
+     *     The UUID of the tunnel being measured, or null if these metrics
+     *     cover all tunnels.
+     */
+    String getTunnelUUID();
+
+    /**
+     * Returns the time at which measurement began, in milliseconds since
+     * midnight of January 1, 1970 UTC.
+     *
+     * @return
+     *     The time at which measurement began.
+     */
+    long getStartTime();
+
+    /**
+     * Returns the total amount of data sent to the client. This is measured
+     * in bytes, except for text WebSocket messages, which are measured in
+     * characters.
+     *
+     * @return
+     *     The total amount of data sent to the client.
+     */
+    long getBytesSent();
+
+    /**
+     * Returns the amount of data sent to the client during the most recent
+     * complete second.
+     *
+     * @return
+     *     The amount of data sent to the client during the most recent
+     *     complete second.
+     */
+    long getBytesSentRate();
+
+    /**
+     * Returns the total amount of data received from the client. This is
+     * measured in bytes, except for text messages, which are measured in
+     * characters.
+     *
+     * @return
+     *     The total amount of data received from the client.
+     */
+    long getBytesReceived();
+
+    /**
+     * Returns the amount of data received from the client during the most
+     * recent complete second.
+     *
+     * @return
+     *     The amount of data received from the client during the most recent
+     *     complete second.
+     */
+    long getBytesReceivedRate();
+
+    /**
+     * Returns the total number of instructions sent to the client.
+     *
+     * @return
+     *     The total number of instructions sent to the client.
+     */
+    long getInstructionsSent();
+
+    /**
+     * Returns the number of instructions sent to the client during the most
+     * recent complete second.
+     *
+     * @return
+     *     The number of instructions sent to the client during the most
+     *     recent complete second.
+     */
+    long getInstructionRate();
+
+    /**
+     * Returns the total number of instructions sent to the client, by
+     * opcode.
+     *
+     * @return
+     *     A map of opcode to the total number of instructions having that
+     *     opcode which were sent to the client.
+     */
+    Map<String, Long> getInstructionCounts();
+
+    /**
+     * Returns the number of instructions sent to the client during the most
+     * recent complete second, by opcode.
+     *
+     * @return
+     *     A map of opcode to the number of instructions having that opcode
+     *     which were sent to the client during the most recent complete
+     *     second.
+     */
+    Map<String, Long> getInstructionRates();
+
+    /**
+     * Returns the number of times data was flushed to the client.
+     *
+     * @return
+     *     The number of times data was flushed to the client.
+     */
+    long getFlushes();
+
+    /**
+     * Returns the mean time between data being read from guacd and that data
+     * being flushed to the client.
+     *
+     * @return
+     *     The mean time between data being read from guacd and that data
+     *     being flushed to the client.
+     */
+    double getFlushLatencyMean();
+
+    /**
+     * Returns the approximate 99th percentile of the time between data being
+     * read from guacd and that data being flushed to the client.
+     *
+     * @return
+     *     The approximate 99th percentile of the time between data being read
+     *     from guacd and that data being flushed to the client.
+     */
+    long getFlushLatency99();
+
+    /**
+     * Returns the maximum time between data being read from guacd and that
+     * data being flushed to the client.
+     *
+     * @return
+     *     The maximum time between data being read from guacd and that data
+     *     being flushed to the client.
+     */
+    long getFlushLatencyMax();
+
+    /**
+     * Returns the mean time spent waiting to acquire the tunnel for reading.
+     *
+     * @return
+     *     The mean time spent waiting to acquire the tunnel for reading.
+     */
+    double getReaderWaitMean();
+
+    /**
+     * Returns the maximum time spent waiting to acquire the tunnel for
+     * reading.
+     *
+     * @return
+     *     The maximum time spent waiting to acquire the tunnel for reading.
+     */
+    long getReaderWaitMax();
+
+    /**
+     * Returns the mean time spent waiting to acquire the tunnel for writing.
+     *
+     * @return
+     *     The mean time spent waiting to acquire the tunnel for writing.
+     */
+    double getWriterWaitMean();
+
+    /**
+     * Returns the maximum time spent waiting to acquire the tunnel for
+     * writing.
+     *
+     * @return
+     *     The maximum time spent waiting to acquire the tunnel for writing.
+     */
+    long getWriterWaitMax();
+
+}
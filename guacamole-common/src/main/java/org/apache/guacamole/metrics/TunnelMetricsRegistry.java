@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the metrics of all open tunnels, as well as the metrics of all
+ * tunnels combined. Each set of metrics is registered with the platform
+ * MBeanServer as an MXBean named "org.apache.guacamole:type=TunnelMetrics",
+ * with a "name" of either "global" or the UUID of the tunnel. As these MXBeans
+ * outlive the web application unless unregistered, shutdown() must be
+ * invoked when the web application is stopped.
+ */
+public class TunnelMetricsRegistry {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TunnelMetricsRegistry.class);
+
+    /**
+     * The JMX domain and type shared by the names of all registered metrics.
+     */
+    private static final String OBJECT_NAME_PREFIX = "org.apache.guacamole:type=TunnelMetrics,name=";
+
+    /**
+     * The metrics of all tunnels.
+     */
+    private static final TunnelMetrics globalMetrics = new TunnelMetrics(null, null);
+
+    /**
+     * The metrics of all open tunnels, indexed by tunnel UUID.
+     */
+    private static final ConcurrentMap<String, TunnelMetrics> tunnelMetrics =
+            new ConcurrentHashMap<String, TunnelMetrics>();
+
+    /**
+     * Lock which must be held while adding or removing metrics, such that
+     * metrics cannot be registered for a tunnel after the metrics of that
+     * tunnel have been removed.
+     */
+    private static final Object registrationLock = new Object();
+
+    /**
+     * Whether shutdown() has been invoked, in which case no further metrics
+     * may be registered.
+     */
+    private static boolean shutdown = false;
+
+    static {
+        register("global", globalMetrics);
+    }
+
+    /**
+     * This class is a static registry and should not be instantiated.
+     */
+    private TunnelMetricsRegistry() {}
+
+    /**
+     * Registers the given metrics with the platform MBeanServer under the
+     * given name. Failures are logged but otherwise ignored, as metrics are
+     * still available through this registry.
+     *
+     * @param name
+     *     The value of the "name" key of the JMX object name.
+     *
+     * @param metrics
+     *     The metrics to register.
+     */
+    private static void register(String name, TunnelMetrics metrics) {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(metrics, new ObjectName(OBJECT_NAME_PREFIX + name));
+        }
+        catch (JMException e) {
+            logger.debug("Unable to register tunnel metrics \"{}\" with JMX.", name, e);
+        }
+        catch (SecurityException e) {
+            logger.debug("Unable to register tunnel metrics \"{}\" with JMX.", name, e);
+        }
+
+    }
+
+    /**
+     * Unregisters the metrics having the given name from the platform
+     * MBeanServer. Failures are logged but otherwise ignored.
+     *
+     * @param name
+     *     The value of the "name" key of the JMX object name.
+     */
+    private static void unregister(String name) {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(new ObjectName(OBJECT_NAME_PREFIX + name));
+        }
+        catch (JMException e) {
+            logger.debug("Unable to unregister tunnel metrics \"{}\" from JMX.", name, e);
+        }
+        catch (SecurityException e) {
+            logger.debug("Unable to unregister tunnel metrics \"{}\" from JMX.", name, e);
+        }
+
+    }
+
+    /**
+     * Returns the metrics of all tunnels combined.
+     *
+     * @return
+     *     The metrics of all tunnels combined.
+     */
+    public static TunnelMetrics getGlobalMetrics() {
+        return globalMetrics;
+    }
+
+    /**
+     * Returns the metrics of the given tunnel, creating and registering those
+     * metrics if they do not yet exist. Tunnels which share the same UUID,
+     * such as a tunnel and the tunnels which wrap it, share the same metrics.
+     * If the tunnel is closed, metrics which are not registered are
+     * returned, such that measurements are still reflected globally.
+     *
+     * @param tunnel
+     *     The tunnel whose metrics should be returned.
+     *
+     * @return
+     *     The metrics of the given tunnel.
+     */
+    public static TunnelMetrics getMetrics(GuacamoleTunnel tunnel) {
+
+        String uuid = tunnel.getUUID().toString();
+
+        TunnelMetrics metrics = tunnelMetrics.get(uuid);
+        if (metrics != null)
+            return metrics;
+
+        synchronized (registrationLock) {
+
+            // Use metrics registered concurrently, if any
+            metrics = tunnelMetrics.get(uuid);
+            if (metrics != null)
+                return metrics;
+
+            // Do not register metrics for tunnels which will not be removed.
+            // A tunnel is closed before its metrics are removed, thus
+            // checking while holding the lock ensures remove() cannot run
+            // between this check and registration.
+            metrics = new TunnelMetrics(uuid, globalMetrics);
+            if (shutdown || !tunnel.isOpen())
+                return metrics;
+
+            tunnelMetrics.put(uuid, metrics);
+            register(uuid, metrics);
+            return metrics;
+
+        }
+
+    }
+
+    /**
+     * Returns the metrics of the open tunnel having the given UUID, if any.
+     *
+     * @param uuid
+     *     The UUID of the tunnel whose metrics should be returned.
+     *
+     * @return
+     *     The metrics of the open tunnel having the given UUID, or null if
+     *     no metrics are registered for that tunnel.
+     */
+    public static TunnelMetrics getMetrics(String uuid) {
+        return tunnelMetrics.get(uuid);
+    }
+
+    /**
+     * Returns the metrics of all open tunnels.
+     *
+     * @return
+     *     A new collection containing the metrics of all open tunnels.
+     */
+    public static Collection<TunnelMetrics> getAllMetrics() {
+        return new ArrayList<TunnelMetrics>(tunnelMetrics.values());
+    }
+
+    /**
+     * Removes the metrics of the tunnel having the given UUID, if any. This
+     * function should be invoked when a tunnel is closed.
+     *
+     * @param uuid
+     *     The UUID of the tunnel whose metrics should be removed.
+     */
+    public static void remove(String uuid) {
+        synchronized (registrationLock) {
+            if (tunnelMetrics.remove(uuid) != null)
+                unregister(uuid);
+        }
+    }
+
+    /**
+     * Removes the metrics of all tunnels and unregisters all metrics from the
+     * platform MBeanServer, including the metrics of all tunnels combined.
+     * Metrics are no longer registered once this function has been invoked.
+     * This function should be invoked when the web application is stopped,
+     * as the platform MBeanServer would otherwise retain the registered
+     * metrics, and thus the classes of the web application.
+     */
+    public static void shutdown() {
+        synchronized (registrationLock) {
+
+            shutdown = true;
+
+            for (String uuid : tunnelMetrics.keySet())
+                unregister(uuid);
+
+            tunnelMetrics.clear();
+            unregister("global");
+
+        }
+    }
+
+}
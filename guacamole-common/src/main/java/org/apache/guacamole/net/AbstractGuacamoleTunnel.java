@@ -20,15 +20,17 @@
 package org.apache.guacamole.net;
 
 
-import java.util.concurrent.locks.ReentrantLock;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.metrics.TunnelMetrics;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
 
 /**
  * Base GuacamoleTunnel implementation which synchronizes access to the
- * underlying reader and writer with reentrant locks. Implementations need only
- * provide the tunnel's UUID and socket.
+ * underlying reader and writer with reentrant locks which hand ownership
+ * directly to waiting threads. Implementations need only provide the
+ * tunnel's UUID and socket.
  *
  * @author Michael Jumper
  */
@@ -37,12 +39,18 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
     /**
      * Lock acquired when a read operation is in progress.
      */
-    private final ReentrantLock readerLock;
+    private final HandoffLock readerLock;
 
     /**
      * Lock acquired when a write operation is in progress.
      */
-    private final ReentrantLock writerLock;
+    private final HandoffLock writerLock;
+
+    /**
+     * The metrics of this tunnel, or null if not yet retrieved from the
+     * TunnelMetricsRegistry.
+     */
+    private volatile TunnelMetrics metrics;
 
     /**
      * Creates a new GuacamoleTunnel which synchronizes access to the
@@ -50,8 +58,26 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
      * GuacamoleSocket.
      */
     public AbstractGuacamoleTunnel() {
-        readerLock = new ReentrantLock();
-        writerLock = new ReentrantLock();
+        readerLock = new HandoffLock();
+        writerLock = new HandoffLock();
+    }
+
+    /**
+     * Returns the metrics of this tunnel, retrieving those metrics from the
+     * TunnelMetricsRegistry only when first needed, as the UUID of this
+     * tunnel may not be available during construction.
+     *
+     * @return
+     *     The metrics of this tunnel.
+     */
+    private TunnelMetrics getMetrics() {
+
+        TunnelMetrics currentMetrics = metrics;
+        if (currentMetrics == null)
+            metrics = currentMetrics = TunnelMetricsRegistry.getMetrics(this);
+
+        return currentMetrics;
+
     }
 
     /**
@@ -63,7 +89,7 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
      */
     @Override
     public GuacamoleReader acquireReader() {
-        readerLock.lock();
+        getMetrics().recordReaderWait(readerLock.acquire());
         return getSocket().getReader();
     }
 
@@ -74,7 +100,7 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
      */
     @Override
     public void releaseReader() {
-        readerLock.unlock();
+        readerLock.release();
     }
 
     /**
@@ -98,7 +124,7 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
      */
     @Override
     public GuacamoleWriter acquireWriter() {
-        writerLock.lock();
+        getMetrics().recordWriterWait(writerLock.acquire());
         return getSocket().getWriter();
     }
 
@@ -109,7 +135,7 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
      */
     @Override
     public void releaseWriter() {
-        writerLock.unlock();
+        writerLock.release();
     }
 
     @Override
@@ -119,7 +145,12 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
 
     @Override
     public void close() throws GuacamoleException {
-        getSocket().close();
+        try {
+            getSocket().close();
+        }
+        finally {
+            TunnelMetricsRegistry.remove(getUUID().toString());
+        }
     }
 
     @Override
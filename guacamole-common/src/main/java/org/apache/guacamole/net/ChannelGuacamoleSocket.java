@@ -0,0 +1,842 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.io.AsynchronousGuacamoleReader;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleInstructionFramer;
+import org.apache.guacamole.io.GuacamoleReadListener;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides abstract socket-like access to a Guacamole connection over a given
+ * hostname and port, using a non-blocking SocketChannel serviced by a shared
+ * GuacamoleSocketMultiplexer. Instructions are framed as data arrives, and
+ * may be consumed either with blocking reads or, through the
+ * AsynchronousGuacamoleReader interface, by a listener which is notified as
+ * instructions are received.
+ */
+public class ChannelGuacamoleSocket implements GuacamoleSocket {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ChannelGuacamoleSocket.class);
+
+    /**
+     * The number of milliseconds to wait for data on the TCP socket before
+     * timing out.
+     */
+    private static final int SOCKET_TIMEOUT = 15000;
+
+    /**
+     * The UTF-8 charset, used for decoding instructions which are requested
+     * as characters.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The initial size of the buffer which receives data from guacd, in
+     * bytes.
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 20480;
+
+    /**
+     * The number of received chunks of instructions which may be queued
+     * before reading from guacd is paused.
+     */
+    private static final int MAX_QUEUED_CHUNKS = 64;
+
+    /**
+     * The number of received chunks of instructions which must remain queued
+     * for reading from guacd to be resumed after having been paused.
+     */
+    private static final int RESUME_QUEUED_CHUNKS = 16;
+
+    /**
+     * Marker which is queued in place of received data once the end of the
+     * stream has been reached.
+     */
+    private static final ReceivedChunk END_OF_STREAM = new ReceivedChunk(new byte[0], new int[0]);
+
+    /**
+     * The multiplexer servicing this socket.
+     */
+    private final GuacamoleSocketMultiplexer multiplexer;
+
+    /**
+     * The selector loop of the multiplexer which services this socket.
+     */
+    private final GuacamoleSocketMultiplexer.SelectorLoop loop;
+
+    /**
+     * The non-blocking channel connected to guacd.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The selection key of the channel, available only within the selector
+     * loop once the channel has been registered.
+     */
+    private SelectionKey key;
+
+    /**
+     * Chunks of received data, each consisting only of complete instructions,
+     * in the order received.
+     */
+    private final BlockingQueue<ReceivedChunk> received = new LinkedBlockingQueue<ReceivedChunk>();
+
+    /**
+     * Buffer which receives data from guacd prior to that data being framed
+     * into instructions. Used only within the selector loop.
+     */
+    private ByteBuffer receiveBuffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+
+    /**
+     * The number of bytes at the beginning of the receive buffer which have
+     * already been parsed by the framer.
+     */
+    private int parsedLength = 0;
+
+    /**
+     * Framer which locates the end of each instruction received.
+     */
+    private final GuacamoleInstructionFramer framer = new GuacamoleInstructionFramer();
+
+    /**
+     * The offset just past the end of each complete instruction framed
+     * within the receive buffer, in order. Used only within the selector
+     * loop.
+     */
+    private int[] instructionEnds = new int[64];
+
+    /**
+     * The number of complete instructions framed within the receive buffer.
+     * Used only within the selector loop.
+     */
+    private int instructionCount = 0;
+
+    /**
+     * The error which ended the stream, if any.
+     */
+    private volatile IOException readError;
+
+    /**
+     * Whether the end of the received stream has been marked.
+     */
+    private final AtomicBoolean streamEnded = new AtomicBoolean(false);
+
+    /**
+     * Whether reading from guacd is currently paused because too much
+     * received data has not yet been consumed.
+     */
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+
+    /**
+     * Whether a task notifying the read listener is currently scheduled or
+     * running.
+     */
+    private final AtomicBoolean notifying = new AtomicBoolean(false);
+
+    /**
+     * Whether notification of the read listener was requested while the
+     * listener was already being notified.
+     */
+    private final AtomicBoolean renotify = new AtomicBoolean(false);
+
+    /**
+     * The listener to notify when received data can be read, if any.
+     */
+    private volatile GuacamoleReadListener listener;
+
+    /**
+     * Monitor used to wait for the channel to become writable.
+     */
+    private final Object writeMonitor = new Object();
+
+    /**
+     * Whether the channel has become writable since writes last blocked.
+     * Guarded by writeMonitor.
+     */
+    private boolean writable;
+
+    /**
+     * The GuacamoleReader this socket should read from.
+     */
+    private final ChannelReader reader;
+
+    /**
+     * The GuacamoleWriter this socket should write to.
+     */
+    private final GuacamoleWriter writer;
+
+    /**
+     * Creates a new ChannelGuacamoleSocket which reads and writes
+     * instructions to the Guacamole instruction stream of the Guacamole proxy
+     * server running at the given hostname and port, using the default
+     * GuacamoleSocketMultiplexer.
+     *
+     * @param hostname
+     *     The hostname of the Guacamole proxy server to connect to.
+     *
+     * @param port
+     *     The port of the Guacamole proxy server to connect to.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the Guacamole proxy server.
+     */
+    public ChannelGuacamoleSocket(String hostname, int port)
+            throws GuacamoleException {
+        this(hostname, port, GuacamoleSocketMultiplexer.getDefault());
+    }
+
+    /**
+     * Creates a new ChannelGuacamoleSocket which reads and writes
+     * instructions to the Guacamole instruction stream of the Guacamole proxy
+     * server running at the given hostname and port, using the given
+     * GuacamoleSocketMultiplexer.
+     *
+     * @param hostname
+     *     The hostname of the Guacamole proxy server to connect to.
+     *
+     * @param port
+     *     The port of the Guacamole proxy server to connect to.
+     *
+     * @param multiplexer
+     *     The multiplexer which should service the connection.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the Guacamole proxy server.
+     */
+    public ChannelGuacamoleSocket(String hostname, int port,
+            GuacamoleSocketMultiplexer multiplexer) throws GuacamoleException {
+
+        this.multiplexer = multiplexer;
+        this.loop = multiplexer.nextLoop();
+
+        try {
+
+            logger.debug("Connecting to guacd at {}:{}.", hostname, port);
+
+            // Get address
+            SocketAddress address = new InetSocketAddress(
+                    InetAddress.getByName(hostname),
+                    port
+            );
+
+            // Connect with timeout, switching to non-blocking mode only once
+            // connected
+            channel = SocketChannel.open();
+            channel.socket().connect(address, SOCKET_TIMEOUT);
+            channel.configureBlocking(false);
+
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection timed out.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+        reader = new ChannelReader();
+        writer = new OutputStreamGuacamoleWriter(new ChannelOutputStream());
+
+        // Begin servicing channel
+        loop.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    key = channel.register(loop.getSelector(),
+                            SelectionKey.OP_READ, ChannelGuacamoleSocket.this);
+                }
+                catch (ClosedChannelException e) {
+                    endOfStream(null);
+                }
+            }
+
+        });
+
+    }
+
+    /**
+     * Handles the channel of this socket becoming readable or writable. This
+     * function is invoked only within the selector loop servicing this
+     * socket.
+     */
+    void handleSelected() {
+
+        try {
+
+            if (key.isReadable())
+                handleReadable();
+
+            if (key.isValid() && key.isWritable())
+                handleWritable();
+
+        }
+        catch (IOException e) {
+            logger.debug("Error reading from guacd.", e);
+            key.cancel();
+            endOfStream(e);
+        }
+
+    }
+
+    /**
+     * Reads all available data from the channel, queueing all complete
+     * instructions as a single chunk and pausing further reads if too much
+     * received data has not yet been consumed.
+     *
+     * @throws IOException
+     *     If an error occurs while reading from the channel.
+     */
+    private void handleReadable() throws IOException {
+
+        // Read available data, ending the stream upon EOF
+        int numRead = channel.read(receiveBuffer);
+        if (numRead == -1) {
+            key.cancel();
+            endOfStream(null);
+            return;
+        }
+
+        byte[] data = receiveBuffer.array();
+        int usedLength = receiveBuffer.position();
+
+        // Frame as many complete instructions as possible, noting where each
+        // instruction ends
+        try {
+            while (parsedLength < usedLength) {
+
+                int parsed = framer.append(data, parsedLength, usedLength - parsedLength);
+                if (parsed == 0)
+                    break;
+
+                parsedLength += parsed;
+                if (framer.isComplete()) {
+                    if (instructionCount == instructionEnds.length)
+                        instructionEnds = Arrays.copyOf(instructionEnds, instructionCount * 2);
+                    instructionEnds[instructionCount++] = parsedLength;
+                }
+
+            }
+        }
+        catch (GuacamoleException e) {
+            throw new IOException("Invalid data received from guacd.", e);
+        }
+
+        // Queue all complete instructions as one chunk
+        if (instructionCount != 0) {
+
+            int completeLength = instructionEnds[instructionCount - 1];
+            int remainingLength = usedLength - completeLength;
+            int[] ends = Arrays.copyOf(instructionEnds, instructionCount);
+            instructionCount = 0;
+
+            ReceivedChunk chunk;
+
+            // Hand the receive buffer itself to the reader if mostly full,
+            // continuing with a new buffer containing only incomplete data
+            if (completeLength > receiveBuffer.capacity() / 2) {
+                chunk = new ReceivedChunk(data, ends);
+                receiveBuffer = ByteBuffer.allocate(Math.max(RECEIVE_BUFFER_SIZE, remainingLength * 2));
+                receiveBuffer.put(data, completeLength, remainingLength);
+            }
+
+            // Otherwise, copy out the small amount of complete data
+            else {
+                chunk = new ReceivedChunk(Arrays.copyOf(data, completeLength), ends);
+                System.arraycopy(data, completeLength, data, 0, remainingLength);
+                receiveBuffer.position(remainingLength);
+            }
+
+            parsedLength -= completeLength;
+
+            // Stop reading if too much data is waiting to be consumed. This
+            // must happen before the chunk is queued, such that the
+            // consumption of that chunk always observes the pause and can
+            // resume reading.
+            if (received.size() + 1 >= MAX_QUEUED_CHUNKS && paused.compareAndSet(false, true))
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+            received.add(chunk);
+            notifyListener();
+
+        }
+
+        // Grow buffer if full of a single incomplete instruction
+        if (!receiveBuffer.hasRemaining()) {
+            ByteBuffer biggerBuffer = ByteBuffer.allocate(receiveBuffer.capacity() * 2);
+            receiveBuffer.flip();
+            biggerBuffer.put(receiveBuffer);
+            receiveBuffer = biggerBuffer;
+        }
+
+    }
+
+    /**
+     * Wakes any thread waiting for the channel to become writable, removing
+     * interest in further write readiness.
+     */
+    private void handleWritable() {
+
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+        synchronized (writeMonitor) {
+            writable = true;
+            writeMonitor.notifyAll();
+        }
+
+    }
+
+    /**
+     * Marks the end of the received stream, such that any reads beyond the
+     * data already received will fail with the given error, or will indicate
+     * end-of-stream if no error is given.
+     *
+     * @param error
+     *     The error which ended the stream, or null if the stream ended
+     *     normally.
+     */
+    private void endOfStream(IOException error) {
+
+        // The end of the stream can be marked only once
+        if (!streamEnded.compareAndSet(false, true))
+            return;
+
+        if (error != null)
+            readError = error;
+
+        received.add(END_OF_STREAM);
+        notifyListener();
+
+        // Wake any blocked writers
+        synchronized (writeMonitor) {
+            writeMonitor.notifyAll();
+        }
+
+    }
+
+    /**
+     * Resumes reading from guacd if reading was paused and enough received
+     * data has since been consumed.
+     */
+    private void chunkConsumed() {
+
+        if (received.size() <= RESUME_QUEUED_CHUNKS && paused.compareAndSet(true, false)) {
+            loop.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (key != null && key.isValid())
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+
+            });
+        }
+
+    }
+
+    /**
+     * Returns whether data can be read from this socket without blocking,
+     * including data already buffered by the reader.
+     *
+     * @return
+     *     true if data can be read without blocking, false otherwise.
+     */
+    private boolean isReadable() {
+        return !received.isEmpty() || reader.available();
+    }
+
+    /**
+     * Schedules notification of the read listener, if any, using a worker
+     * thread of the multiplexer. If the listener is already being notified,
+     * this function has no effect; the listener will be notified again once
+     * it returns if data can still be read. A listener which returns without
+     * reading all available data is thus not notified again until data is
+     * received or the listener is set again.
+     */
+    private void notifyListener() {
+
+        renotify.set(true);
+
+        final GuacamoleReadListener currentListener = listener;
+        if (currentListener == null || !notifying.compareAndSet(false, true))
+            return;
+
+        renotify.set(false);
+
+        multiplexer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    currentListener.readReady();
+                }
+                catch (RuntimeException e) {
+                    logger.error("Read listener failed: {}", e.getMessage());
+                    logger.debug("Unexpected error within read listener.", e);
+                }
+
+                // Notify again if requested while notifying
+                finally {
+                    notifying.set(false);
+                    if (renotify.getAndSet(false) && isReadable())
+                        notifyListener();
+                }
+
+            }
+
+        });
+
+    }
+
+    /**
+     * A chunk of received data consisting only of complete instructions,
+     * along with the location of each instruction within that data.
+     */
+    private static class ReceivedChunk {
+
+        /**
+         * The buffer containing the UTF-8 data of the instructions, starting
+         * at the beginning of the buffer.
+         */
+        private final byte[] data;
+
+        /**
+         * The offset just past the end of each instruction within the data
+         * buffer, in order.
+         */
+        private final int[] instructionEnds;
+
+        /**
+         * Creates a new ReceivedChunk containing the instructions ending at
+         * the given offsets within the given buffer.
+         *
+         * @param data
+         *     The buffer containing the UTF-8 data of the instructions,
+         *     starting at the beginning of the buffer.
+         *
+         * @param instructionEnds
+         *     The offset just past the end of each instruction within the
+         *     data buffer, in order.
+         */
+        public ReceivedChunk(byte[] data, int[] instructionEnds) {
+            this.data = data;
+            this.instructionEnds = instructionEnds;
+        }
+
+    }
+
+    /**
+     * OutputStream which writes directly to the non-blocking channel,
+     * waiting for the channel to become writable as necessary.
+     */
+    private class ChannelOutputStream extends OutputStream {
+
+        /**
+         * Waits for the channel to become writable.
+         *
+         * @throws IOException
+         *     If the channel does not become writable within the socket
+         *     timeout, or if the socket is closed while waiting.
+         */
+        private void awaitWritable() throws IOException {
+
+            synchronized (writeMonitor) {
+
+                writable = false;
+
+                // Request notification of write readiness
+                loop.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (key != null && key.isValid())
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+
+                });
+
+                long deadline = System.currentTimeMillis() + SOCKET_TIMEOUT;
+                try {
+                    while (!writable) {
+
+                        if (!channel.isOpen())
+                            throw new SocketException("Socket closed.");
+
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0)
+                            throw new SocketTimeoutException("Timed out waiting to write to guacd.");
+
+                        writeMonitor.wait(remaining);
+
+                    }
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting to write to guacd.");
+                }
+
+            }
+
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+
+            ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+            while (data.hasRemaining()) {
+                if (channel.write(data) == 0)
+                    awaitWritable();
+            }
+
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            write(new byte[] { (byte) value }, 0, 1);
+        }
+
+    }
+
+    /**
+     * GuacamoleReader which reads the instructions received by this socket,
+     * and which can notify a listener as instructions are received. As each
+     * received chunk has already been framed by the selector loop,
+     * instructions are returned directly from those chunks.
+     */
+    private class ChannelReader implements GuacamoleByteReader,
+            AsynchronousGuacamoleReader {
+
+        /**
+         * The chunk currently being read, if any.
+         */
+        private ReceivedChunk chunk;
+
+        /**
+         * The index of the next instruction to read within the current chunk.
+         */
+        private int instructionIndex;
+
+        /**
+         * The offset of the first byte of the instruction most recently read.
+         */
+        private int instructionStart;
+
+        /**
+         * The offset just past the end of the instruction most recently read.
+         */
+        private int instructionEnd;
+
+        /**
+         * Whether the end of the stream has been reached.
+         */
+        private boolean ended;
+
+        /**
+         * Waits for the next chunk of received data, replacing the current
+         * chunk.
+         *
+         * @return
+         *     true if a new chunk is available, false if the end of the stream
+         *     has been reached.
+         *
+         * @throws GuacamoleException
+         *     If no data is received within the socket timeout, or if an
+         *     error ended the stream.
+         */
+        private boolean nextChunk() throws GuacamoleException {
+
+            if (ended)
+                return false;
+
+            try {
+
+                ReceivedChunk next = received.poll(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (next == null)
+                    throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.");
+
+                chunkConsumed();
+
+                // Report end of stream, including any error
+                if (next == END_OF_STREAM) {
+                    ended = true;
+                    if (readError instanceof SocketException)
+                        throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", readError);
+                    if (readError != null)
+                        throw new GuacamoleServerException(readError);
+                    return false;
+                }
+
+                chunk = next;
+                instructionIndex = 0;
+                instructionEnd = 0;
+                return true;
+
+            }
+            catch (InterruptedException e) {
+                throw new GuacamoleServerException("Interrupted while waiting for data from guacd.", e);
+            }
+
+        }
+
+        /**
+         * Locates the next complete instruction received, waiting for more
+         * data as necessary. The located instruction begins at
+         * instructionStart and ends just before instructionEnd within the
+         * current chunk.
+         *
+         * @return
+         *     true if an instruction was located, false if the end of the
+         *     stream has been reached.
+         *
+         * @throws GuacamoleException
+         *     If no data is received within the socket timeout, or if an
+         *     error ended the stream.
+         */
+        private boolean readNextInstruction() throws GuacamoleException {
+
+            // Wait for more data if current chunk is exhausted
+            if ((chunk == null || instructionIndex == chunk.instructionEnds.length)
+                    && !nextChunk())
+                return false;
+
+            instructionStart = instructionEnd;
+            instructionEnd = chunk.instructionEnds[instructionIndex++];
+            return true;
+
+        }
+
+        @Override
+        public boolean available() {
+
+            // Reaching the end of the stream also does not block
+            return ended || !received.isEmpty()
+                || (chunk != null && instructionIndex < chunk.instructionEnds.length);
+
+        }
+
+        @Override
+        public ByteBuffer readBytes() throws GuacamoleException {
+
+            // Locate next instruction, returning null on EOF
+            if (!readNextInstruction())
+                return null;
+
+            return ByteBuffer.wrap(chunk.data, instructionStart,
+                    instructionEnd - instructionStart);
+
+        }
+
+        @Override
+        public char[] read() throws GuacamoleException {
+
+            // Locate next instruction, returning null on EOF
+            if (!readNextInstruction())
+                return null;
+
+            // Decode only the located instruction
+            return new String(chunk.data, instructionStart,
+                    instructionEnd - instructionStart, UTF8).toCharArray();
+
+        }
+
+        @Override
+        public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+            // Locate next instruction, returning null on EOF
+            if (!readNextInstruction())
+                return null;
+
+            return GuacamoleInstructionFramer.parseInstruction(chunk.data,
+                    instructionStart, instructionEnd - instructionStart);
+
+        }
+
+        @Override
+        public void setReadListener(GuacamoleReadListener readListener) {
+
+            listener = readListener;
+
+            // Notify immediately if data is already available
+            if (readListener != null && isReadable())
+                notifyListener();
+
+        }
+
+    }
+
+    @Override
+    public void close() throws GuacamoleException {
+        try {
+            logger.debug("Closing socket to guacd.");
+            channel.close();
+            endOfStream(null);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    @Override
+    public GuacamoleReader getReader() {
+        return reader;
+    }
+
+    @Override
+    public GuacamoleWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+}
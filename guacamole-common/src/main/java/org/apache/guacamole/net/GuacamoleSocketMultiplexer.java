@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared pool of selector threads which service the connections to guacd of
+ * any number of ChannelGuacamoleSocket instances, along with a small, fixed
+ * pool of worker threads which deliver received instructions to the
+ * listeners of those sockets. This allows many concurrent connections to be
+ * serviced without dedicating a thread to each connection. As the threads of
+ * the default multiplexer would otherwise outlive the web application,
+ * shutdownDefault() must be invoked when the web application is stopped.
+ */
+public class GuacamoleSocketMultiplexer {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GuacamoleSocketMultiplexer.class);
+
+    /**
+     * The number of selector threads used by the default multiplexer.
+     */
+    private static final int DEFAULT_SELECTOR_THREADS = 1;
+
+    /**
+     * The number of worker threads used by the default multiplexer, per
+     * available processor.
+     */
+    private static final int DEFAULT_WORKER_THREADS_PER_PROCESSOR = 4;
+
+    /**
+     * The multiplexer used by ChannelGuacamoleSocket instances for which no
+     * multiplexer is explicitly specified, created when first requested.
+     */
+    private static GuacamoleSocketMultiplexer defaultMultiplexer;
+
+    /**
+     * Whether shutdownDefault() has been invoked, in which case the default
+     * multiplexer is no longer available.
+     */
+    private static boolean defaultShutdown = false;
+
+    /**
+     * All selector loops managed by this multiplexer.
+     */
+    private final SelectorLoop[] loops;
+
+    /**
+     * The index of the selector loop which should service the next
+     * registered socket.
+     */
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Executor service which runs all tasks that notify listeners of received
+     * data.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Creates a new GuacamoleSocketMultiplexer which uses the given numbers of
+     * selector and worker threads.
+     *
+     * @param selectorThreads
+     *     The number of threads which should wait for data on the connections
+     *     of registered sockets.
+     *
+     * @param workerThreads
+     *     The number of threads which should deliver received instructions to
+     *     the listeners of registered sockets.
+     *
+     * @throws GuacamoleException
+     *     If the selectors required by the multiplexer cannot be created.
+     */
+    public GuacamoleSocketMultiplexer(int selectorThreads, int workerThreads)
+            throws GuacamoleException {
+
+        // Create all selector loops
+        loops = new SelectorLoop[selectorThreads];
+        try {
+            for (int i = 0; i < selectorThreads; i++)
+                loops[i] = new SelectorLoop();
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to create selector.", e);
+        }
+
+        // Start all selector loops
+        for (int i = 0; i < selectorThreads; i++) {
+            Thread thread = new Thread(loops[i], "guacd-selector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // Create fixed pool of daemon worker threads
+        workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+
+            /**
+             * The index of the next thread created.
+             */
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "guacd-worker-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns the multiplexer which should be used by ChannelGuacamoleSocket
+     * instances for which no multiplexer is explicitly specified, creating
+     * that multiplexer if it does not yet exist.
+     *
+     * @return
+     *     The default GuacamoleSocketMultiplexer.
+     *
+     * @throws GuacamoleException
+     *     If the default multiplexer needed to be created but could not be,
+     *     or if the default multiplexer has been shut down.
+     */
+    public static synchronized GuacamoleSocketMultiplexer getDefault()
+            throws GuacamoleException {
+
+        // Do not recreate threads once the web application is stopping
+        if (defaultShutdown)
+            throw new GuacamoleServerException("Default multiplexer has been shut down.");
+
+        // Create default multiplexer if not yet created
+        if (defaultMultiplexer == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            defaultMultiplexer = new GuacamoleSocketMultiplexer(
+                    DEFAULT_SELECTOR_THREADS,
+                    processors * DEFAULT_WORKER_THREADS_PER_PROCESSOR);
+        }
+
+        return defaultMultiplexer;
+
+    }
+
+    /**
+     * Returns the selector loop which should service the next registered
+     * socket. Sockets are distributed among selector loops in round-robin
+     * fashion.
+     *
+     * @return
+     *     The selector loop which should service the next registered socket.
+     */
+    SelectorLoop nextLoop() {
+        int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+        return loops[index];
+    }
+
+    /**
+     * Runs the given task using a worker thread of this multiplexer.
+     *
+     * @param task
+     *     The task to run.
+     */
+    void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * Shuts down this multiplexer, stopping all selector and worker threads.
+     * Sockets registered with this multiplexer will no longer receive data.
+     */
+    public void shutdown() {
+
+        for (SelectorLoop loop : loops)
+            loop.shutdown();
+
+        workers.shutdownNow();
+
+    }
+
+    /**
+     * Shuts down the default multiplexer, if it has been created, stopping
+     * all of its selector and worker threads. The default multiplexer is no
+     * longer available once this function has been invoked. This function
+     * should be invoked when the web application is stopped, as those
+     * threads would otherwise retain the classes of the web application.
+     */
+    public static synchronized void shutdownDefault() {
+
+        defaultShutdown = true;
+
+        if (defaultMultiplexer != null) {
+            defaultMultiplexer.shutdown();
+            defaultMultiplexer = null;
+        }
+
+    }
+
+    /**
+     * Loop which waits for registered sockets to become readable or writable,
+     * dispatching to those sockets accordingly. All changes to the selection
+     * keys of registered sockets are performed by this loop.
+     */
+    static class SelectorLoop implements Runnable {
+
+        /**
+         * The selector which waits for registered sockets to become ready.
+         */
+        private final Selector selector;
+
+        /**
+         * Tasks which must be run within this loop before the next select.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        /**
+         * Whether this loop should continue running.
+         */
+        private volatile boolean running = true;
+
+        /**
+         * Creates a new SelectorLoop with its own selector. The loop does
+         * not run until run() is invoked.
+         *
+         * @throws IOException
+         *     If the selector cannot be created.
+         */
+        public SelectorLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Returns the selector used by this loop.
+         *
+         * @return
+         *     The selector used by this loop.
+         */
+        public Selector getSelector() {
+            return selector;
+        }
+
+        /**
+         * Runs the given task within this loop, prior to the next select.
+         * Any changes to the registration or interest set of channels
+         * serviced by this loop must be made through this function.
+         *
+         * @param task
+         *     The task to run.
+         */
+        public void invokeLater(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Stops this loop, closing its selector.
+         */
+        public void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+
+            while (running) {
+
+                try {
+
+                    selector.select();
+
+                    // Run all pending tasks
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    // Dispatch to all ready sockets
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        try {
+                            ChannelGuacamoleSocket socket = (ChannelGuacamoleSocket) key.attachment();
+                            socket.handleSelected();
+                        }
+                        catch (CancelledKeyException e) {
+                            logger.debug("Selection key cancelled while being handled.", e);
+                        }
+
+                    }
+
+                }
+                catch (IOException e) {
+                    logger.error("Selection of guacd connections failed: {}", e.getMessage());
+                    logger.debug("Error selecting guacd connections.", e);
+                }
+                catch (RuntimeException e) {
+                    logger.error("Unexpected error while servicing guacd connections: {}", e.getMessage());
+                    logger.debug("Unexpected error servicing guacd connections.", e);
+                }
+
+            }
+
+            // Release selector once stopped
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                logger.debug("Unable to close selector.", e);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reentrant ownership token granting exclusive access to one side of a
+ * tunnel. Uncontended acquisition and release each require only a single
+ * atomic operation. When threads are waiting, ownership is handed directly
+ * from the releasing thread to the longest-waiting thread, such that a
+ * thread which yields to a waiting thread cannot immediately reclaim
+ * ownership, and newly-arriving threads cannot barge ahead of those already
+ * waiting. This class is intended for use only within the
+ * AbstractGuacamoleTunnel implementation.
+ */
+class HandoffLock {
+
+    /**
+     * The thread which currently owns this lock, or null if the lock is not
+     * owned.
+     */
+    private final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+
+    /**
+     * All threads waiting to acquire this lock, in order of arrival. A
+     * thread to which ownership has been handed remains in this queue only
+     * until it observes that handoff.
+     */
+    private final Queue<Thread> waiting = new ConcurrentLinkedQueue<Thread>();
+
+    /**
+     * The number of times the current owner has acquired this lock without
+     * releasing it. This is accessed only by the owning thread.
+     */
+    private int holds;
+
+    /**
+     * Acquires this lock, waiting until it is available if necessary. If the
+     * current thread already owns this lock, the number of holds is
+     * incremented. Interruption does not stop the current thread from
+     * waiting, but the interrupted status of the thread is preserved.
+     *
+     * @return
+     *     The number of nanoseconds spent waiting, which will be zero if the
+     *     lock was acquired without waiting.
+     */
+    public long acquire() {
+
+        Thread current = Thread.currentThread();
+
+        // Fast path: acquire uncontended lock
+        if (owner.compareAndSet(null, current)) {
+            holds = 1;
+            return 0;
+        }
+
+        // Reentrant acquisition
+        if (owner.get() == current) {
+            holds++;
+            return 0;
+        }
+
+        // Wait until ownership is handed to this thread, or until the lock
+        // is released with no other threads waiting
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        waiting.add(current);
+        for (;;) {
+
+            Thread currentOwner = owner.get();
+            if (currentOwner == current
+                    || (currentOwner == null && owner.compareAndSet(null, current)))
+                break;
+
+            LockSupport.park(this);
+
+            // Do not allow interruption to cause spinning
+            if (Thread.interrupted())
+                interrupted = true;
+
+        }
+
+        waiting.remove(current);
+        holds = 1;
+
+        // Restore interrupted status
+        if (interrupted)
+            current.interrupt();
+
+        return System.nanoTime() - start;
+
+    }
+
+    /**
+     * Releases one hold on this lock. Once all holds are released, ownership
+     * is handed directly to the longest-waiting thread, if any.
+     *
+     * @throws IllegalMonitorStateException
+     *     If the current thread does not own this lock.
+     */
+    public void release() {
+
+        if (owner.get() != Thread.currentThread())
+            throw new IllegalMonitorStateException("Lock not owned by current thread.");
+
+        // Retain ownership until all holds are released
+        if (--holds != 0)
+            return;
+
+        // Hand ownership directly to the next waiting thread, if any
+        Thread next = waiting.peek();
+        if (next != null) {
+            owner.set(next);
+            LockSupport.unpark(next);
+            return;
+        }
+
+        // Otherwise, release, waking any thread which began waiting since
+        // the check above such that it can claim the lock itself
+        owner.set(null);
+        next = waiting.peek();
+        if (next != null)
+            LockSupport.unpark(next);
+
+    }
+
+    /**
+     * Returns whether any threads are waiting to acquire this lock. This
+     * check does not block and is inexpensive, and is thus suitable for
+     * frequent polling.
+     *
+     * @return
+     *     true if any threads are waiting to acquire this lock, false
+     *     otherwise.
+     */
+    public boolean hasQueuedThreads() {
+        return !waiting.isEmpty();
+    }
+
+}
@@ -21,16 +21,12 @@ package org.apache.guacamole.net;
 
 
 import org.apache.guacamole.io.GuacamoleReader;
-import org.apache.guacamole.io.ReaderGuacamoleReader;
-import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
 import org.apache.guacamole.io.GuacamoleWriter;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
-
-import java.io.InputStreamReader;
-
-import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
@@ -86,6 +82,35 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
      *                            Guacamole proxy server.
      */
     public InetGuacamoleSocket(String hostname, int port) throws GuacamoleException {
+        this(hostname, port, 0, 0);
+    }
+
+    /**
+     * Creates a new InetGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port. Writes to the Guacamole proxy
+     * server which occur within the given window of time are coalesced, such
+     * that many small writes result in a single write to the socket.
+     *
+     * @param hostname
+     *     The hostname of the Guacamole proxy server to connect to.
+     *
+     * @param port
+     *     The port of the Guacamole proxy server to connect to.
+     *
+     * @param coalesceWindow
+     *     The maximum number of milliseconds to hold written data before
+     *     sending, or zero if writes should not be coalesced.
+     *
+     * @param coalesceThreshold
+     *     The number of bytes of pending data which causes that data to be
+     *     sent immediately.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the Guacamole proxy server.
+     */
+    public InetGuacamoleSocket(String hostname, int port, int coalesceWindow,
+            int coalesceThreshold) throws GuacamoleException {
 
         try {
 
@@ -105,8 +130,9 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
             sock.setSoTimeout(SOCKET_TIMEOUT);
 
             // On successful connect, retrieve I/O streams
-            reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            reader = new InputStreamGuacamoleReader(sock.getInputStream());
+            writer = new OutputStreamGuacamoleWriter(sock.getOutputStream(),
+                    coalesceWindow, coalesceThreshold);
 
         }
         catch (SocketTimeoutException e) {
@@ -21,8 +21,6 @@ package org.apache.guacamole.net;
 
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -33,8 +31,8 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
-import org.apache.guacamole.io.ReaderGuacamoleReader;
-import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,6 +82,36 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
      *                            Guacamole proxy server.
      */
     public SSLGuacamoleSocket(String hostname, int port) throws GuacamoleException {
+        this(hostname, port, 0, 0);
+    }
+
+    /**
+     * Creates a new SSLGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port using SSL. Writes to the
+     * Guacamole proxy server which occur within the given window of time are
+     * coalesced, such that many small writes result in a single write to the
+     * socket.
+     *
+     * @param hostname
+     *     The hostname of the Guacamole proxy server to connect to.
+     *
+     * @param port
+     *     The port of the Guacamole proxy server to connect to.
+     *
+     * @param coalesceWindow
+     *     The maximum number of milliseconds to hold written data before
+     *     sending, or zero if writes should not be coalesced.
+     *
+     * @param coalesceThreshold
+     *     The number of bytes of pending data which causes that data to be
+     *     sent immediately.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the Guacamole proxy server.
+     */
+    public SSLGuacamoleSocket(String hostname, int port, int coalesceWindow,
+            int coalesceThreshold) throws GuacamoleException {
 
         // Get factory for SSL sockets
         SocketFactory socket_factory = SSLSocketFactory.getDefault();
@@ -107,8 +135,9 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
             sock.setSoTimeout(SOCKET_TIMEOUT);
 
             // On successful connect, retrieve I/O streams
-            reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            reader = new InputStreamGuacamoleReader(sock.getInputStream());
+            writer = new OutputStreamGuacamoleWriter(sock.getOutputStream(),
+                    coalesceWindow, coalesceThreshold);
 
         }
         catch (IOException e) {
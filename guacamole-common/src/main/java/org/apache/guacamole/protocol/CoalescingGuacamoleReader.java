@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleReader;
+
+/**
+ * GuacamoleReader which removes superseded drawing instructions from the
+ * instructions sent by the server while the client is lagging, as determined
+ * by a SyncLagTracker. While the client is not lagging, instructions are
+ * passed through unmodified. While the client is lagging, all instructions
+ * already available are read ahead up to the end of the current frame, and
+ * any instructions within that frame which are overwritten or replaced by
+ * later instructions within the same frame are dropped.
+ *
+ * The client filter of the SyncLagTracker must be applied to all
+ * instructions sent by the client for lag to be detected.
+ */
+public class CoalescingGuacamoleReader implements GuacamoleByteReader {
+
+    /**
+     * The maximum number of instructions which will be read ahead while
+     * looking for the end of the current frame.
+     */
+    private static final int MAX_RUN_LENGTH = 1024;
+
+    /**
+     * The opcode of the instruction marking the end of each frame.
+     */
+    private static final String SYNC_OPCODE = "sync";
+
+    /**
+     * Charset used for encoding instructions as UTF-8.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The wrapped GuacamoleReader, with the server filter of the
+     * SyncLagTracker applied.
+     */
+    private final FilteredGuacamoleReader reader;
+
+    /**
+     * The tracker which determines whether the client is lagging.
+     */
+    private final SyncLagTracker tracker;
+
+    /**
+     * Instructions which have been read ahead and compacted but not yet
+     * returned.
+     */
+    private final LinkedList<GuacamoleInstruction> pending =
+            new LinkedList<GuacamoleInstruction>();
+
+    /**
+     * Wraps the given GuacamoleReader, removing superseded instructions
+     * whenever the given SyncLagTracker reports that the client is lagging.
+     *
+     * @param reader
+     *     The GuacamoleReader to wrap.
+     *
+     * @param tracker
+     *     The SyncLagTracker which determines whether the client is lagging.
+     */
+    public CoalescingGuacamoleReader(GuacamoleReader reader,
+            SyncLagTracker tracker) {
+        this.reader = new FilteredGuacamoleReader(reader, tracker.getServerFilter());
+        this.tracker = tracker;
+    }
+
+    /**
+     * Reads ahead all instructions already available, up to and including
+     * the end of the current frame, storing the compacted result within the
+     * pending queue. At least one instruction is read, blocking if necessary.
+     *
+     * @return
+     *     true if at least one instruction was added to the pending queue,
+     *     false if no more instructions are available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the wrapped reader.
+     */
+    private boolean fill() throws GuacamoleException {
+
+        List<GuacamoleInstruction> run = new ArrayList<GuacamoleInstruction>();
+
+        do {
+
+            GuacamoleInstruction instruction = reader.readInstruction();
+            if (instruction == null)
+                break;
+
+            run.add(instruction);
+
+            // Never read beyond the end of the current frame
+            if (SYNC_OPCODE.equals(instruction.getOpcode()))
+                break;
+
+        } while (run.size() < MAX_RUN_LENGTH && reader.available());
+
+        if (run.isEmpty())
+            return false;
+
+        pending.addAll(FrameCompactor.compact(run));
+        return true;
+
+    }
+
+    /**
+     * Returns the next pending instruction, reading ahead if necessary.
+     *
+     * @return
+     *     The next pending instruction, or null if no more instructions are
+     *     available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the wrapped reader.
+     */
+    private GuacamoleInstruction nextPending() throws GuacamoleException {
+
+        if (pending.isEmpty() && !fill())
+            return null;
+
+        return pending.removeFirst();
+
+    }
+
+    /**
+     * Returns whether instructions should be read ahead and compacted rather
+     * than passed through unmodified.
+     *
+     * @return
+     *     true if instructions read ahead are still pending or the client is
+     *     lagging, false otherwise.
+     */
+    private boolean isCoalescing() {
+        return !pending.isEmpty() || tracker.isLagging();
+    }
+
+    @Override
+    public boolean available() throws GuacamoleException {
+        return !pending.isEmpty() || reader.available();
+    }
+
+    @Override
+    public char[] read() throws GuacamoleException {
+
+        if (!isCoalescing())
+            return reader.read();
+
+        GuacamoleInstruction instruction = nextPending();
+        if (instruction == null)
+            return null;
+
+        return instruction.toString().toCharArray();
+
+    }
+
+    @Override
+    public ByteBuffer readBytes() throws GuacamoleException {
+
+        if (!isCoalescing())
+            return reader.readBytes();
+
+        GuacamoleInstruction instruction = nextPending();
+        if (instruction == null)
+            return null;
+
+        return ByteBuffer.wrap(instruction.toString().getBytes(UTF8));
+
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        if (!isCoalescing())
+            return reader.readInstruction();
+
+        return nextPending();
+
+    }
+
+}
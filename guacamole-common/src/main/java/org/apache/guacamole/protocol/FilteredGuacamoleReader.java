@@ -19,17 +19,33 @@
 
 package org.apache.guacamole.protocol;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleInstructionFramer;
 import org.apache.guacamole.io.GuacamoleReader;
 
 /**
  * GuacamoleReader which applies a given GuacamoleFilter to observe or alter all
  * read instructions. Instructions may also be dropped or denied by the the
- * filter.
+ * filter. If the filter is a GuacamoleFilterChain or GuacamoleOpcodeFilter,
+ * instructions read via read() whose opcodes are not of interest to the
+ * filter are returned as read, without being parsed. The same applies to
+ * readBytes() if the wrapped reader is a GuacamoleByteReader. As dropped
+ * instructions are never returned, available() reads ahead past any dropped
+ * instructions, such that it returns true only if a read will not block.
  *
  * @author Michael Jumper
  */
-public class FilteredGuacamoleReader implements GuacamoleReader {
+public class FilteredGuacamoleReader implements GuacamoleByteReader {
+
+    /**
+     * The UTF-8 charset.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     /**
      * The wrapped GuacamoleReader.
@@ -41,6 +57,12 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
      */
     private final GuacamoleFilter filter;
 
+    /**
+     * The filter to apply when reading instructions, if that filter declares
+     * the opcodes it is interested in, or null otherwise.
+     */
+    private final GuacamoleFilterChain chain;
+
     /**
      * Wraps the given GuacamoleReader, applying the given filter to all read
      * instructions. Future reads will return only instructions which pass
@@ -52,17 +74,440 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
      */
     public FilteredGuacamoleReader(GuacamoleReader reader, GuacamoleFilter filter) {
         this.reader = reader;
-        this.filter = filter;
+
+        // Dispatch by opcode if the filter declares the opcodes it needs
+        if (filter instanceof GuacamoleFilterChain)
+            this.chain = (GuacamoleFilterChain) filter;
+        else if (filter instanceof GuacamoleOpcodeFilter)
+            this.chain = new GuacamoleFilterChain(filter);
+        else
+            this.chain = null;
+
+        this.filter = (chain != null) ? chain : filter;
+
+    }
+
+    /**
+     * Whether an instruction (or the end of the stream) has been read ahead
+     * by available() and not yet returned.
+     */
+    private boolean readAhead = false;
+
+    /**
+     * The filtered instruction read ahead by available() as UTF-8 bytes, if
+     * instructions are read ahead as bytes.
+     */
+    private ByteBuffer readAheadBytes;
+
+    /**
+     * The filtered instruction read ahead by available() as characters, if
+     * instructions are read ahead as characters.
+     */
+    private char[] readAheadChars;
+
+    /**
+     * The filtered instruction read ahead by available(), if instructions
+     * are read ahead as parsed instructions.
+     */
+    private GuacamoleInstruction readAheadInstruction;
+
+    /**
+     * Returns the index of the character following the given number of
+     * Unicode code points within the given instruction, as element lengths
+     * within the Guacamole protocol are given in code points.
+     *
+     * @param rawInstruction
+     *     The encoded instruction.
+     *
+     * @param offset
+     *     The index of the first character of the code points to skip.
+     *
+     * @param count
+     *     The number of code points to skip.
+     *
+     * @return
+     *     The index of the character following the skipped code points.
+     *
+     * @throws GuacamoleException
+     *     If the instruction ends before the given number of code points.
+     */
+    private static int skipCodePoints(char[] rawInstruction, int offset,
+            int count) throws GuacamoleException {
+
+        while (count-- > 0) {
+
+            if (offset >= rawInstruction.length)
+                throw new GuacamoleServerException("Read returned incomplete instruction.");
+
+            // Surrogate pairs represent a single code point
+            if (Character.isHighSurrogate(rawInstruction[offset++])
+                    && offset < rawInstruction.length
+                    && Character.isLowSurrogate(rawInstruction[offset]))
+                offset++;
+
+        }
+
+        return offset;
+
+    }
+
+    /**
+     * Returns the index of the first character of the content of the element
+     * whose length prefix begins at the given index, storing the length of
+     * that content, in code points, within the given array.
+     *
+     * @param rawInstruction
+     *     The encoded instruction.
+     *
+     * @param offset
+     *     The index of the first character of the length prefix.
+     *
+     * @param length
+     *     A single-element array which will receive the parsed length.
+     *
+     * @return
+     *     The index of the first character of the element content.
+     *
+     * @throws GuacamoleException
+     *     If the length prefix is invalid or incomplete.
+     */
+    private static int parseLength(char[] rawInstruction, int offset,
+            int[] length) throws GuacamoleException {
+
+        int parsedLength = 0;
+        for (;;) {
+
+            if (offset >= rawInstruction.length)
+                throw new GuacamoleServerException("Read returned incomplete instruction.");
+
+            // Stop at period following length
+            char c = rawInstruction[offset++];
+            if (c == '.')
+                break;
+
+            // Otherwise, the length must be numeric
+            if (c < '0' || c > '9')
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+            parsedLength = parsedLength * 10 + c - '0';
+
+        }
+
+        length[0] = parsedLength;
+        return offset;
+
+    }
+
+    /**
+     * Parses the given encoded instruction, as returned by read() of the
+     * wrapped reader.
+     *
+     * @param rawInstruction
+     *     The encoded instruction to parse.
+     *
+     * @return
+     *     The parsed instruction, backed by the given encoded instruction.
+     *
+     * @throws GuacamoleException
+     *     If the given instruction is invalid.
+     */
+    private static GuacamoleInstruction parse(char[] rawInstruction)
+            throws GuacamoleException {
+
+        int[] elementOffsets = new int[8];
+        int[] elementLengths = new int[8];
+        int elementCount = 0;
+
+        int[] length = new int[1];
+        int offset = 0;
+        for (;;) {
+
+            // Locate element content
+            int elementStart = parseLength(rawInstruction, offset, length);
+            offset = skipCodePoints(rawInstruction, elementStart, length[0]);
+
+            // Grow element arrays as necessary
+            if (elementCount == elementOffsets.length) {
+                elementOffsets = Arrays.copyOf(elementOffsets, elementCount * 2);
+                elementLengths = Arrays.copyOf(elementLengths, elementCount * 2);
+            }
+
+            // Record element
+            elementOffsets[elementCount] = elementStart;
+            elementLengths[elementCount] = offset - elementStart;
+            elementCount++;
+
+            // Read terminator following element
+            if (offset >= rawInstruction.length)
+                throw new GuacamoleServerException("Read returned incomplete instruction.");
+
+            char terminator = rawInstruction[offset++];
+            if (terminator == ';')
+                break;
+
+            if (terminator != ',')
+                throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        }
+
+        return new GuacamoleInstruction(rawInstruction,
+                Arrays.copyOf(elementOffsets, elementCount),
+                Arrays.copyOf(elementLengths, elementCount));
+
     }
     
+    /**
+     * Filters the given instruction, as returned by read() of the wrapped
+     * reader. Instructions which the filter does not care about are returned
+     * as-is, without being parsed.
+     *
+     * @param rawInstruction
+     *     The instruction to filter.
+     *
+     * @return
+     *     The filtered instruction, or null if the instruction was dropped.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is invalid, or if the filter denies the
+     *     instruction.
+     */
+    private char[] filterChars(char[] rawInstruction) throws GuacamoleException {
+
+        // Locate opcode without parsing remainder of instruction
+        int[] length = new int[1];
+        int opcodeStart = parseLength(rawInstruction, 0, length);
+        int opcodeEnd = skipCodePoints(rawInstruction, opcodeStart, length[0]);
+
+        // Return instruction as read if filter is not interested
+        if (!chain.isFiltered(rawInstruction, opcodeStart, opcodeEnd - opcodeStart))
+            return rawInstruction;
+
+        // Otherwise, parse and filter, reusing the original encoded form if
+        // the instruction is not modified
+        GuacamoleInstruction unfilteredInstruction = parse(rawInstruction);
+        GuacamoleInstruction filteredInstruction = chain.filter(unfilteredInstruction);
+        if (filteredInstruction == unfilteredInstruction)
+            return rawInstruction;
+
+        if (filteredInstruction != null)
+            return filteredInstruction.toString().toCharArray();
+
+        return null;
+
+    }
+
+    /**
+     * Filters the given instruction, as returned by readBytes() of the
+     * wrapped reader. Instructions which the filter does not care about are
+     * returned as-is, without being decoded.
+     *
+     * @param rawInstruction
+     *     The UTF-8 bytes of the instruction to filter.
+     *
+     * @return
+     *     The UTF-8 bytes of the filtered instruction, or null if the
+     *     instruction was dropped.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is invalid, or if the filter denies the
+     *     instruction.
+     */
+    private ByteBuffer filterBytes(ByteBuffer rawInstruction)
+            throws GuacamoleException {
+
+        // Copy instruction if not backed by an accessible array
+        if (!rawInstruction.hasArray()) {
+            byte[] copy = new byte[rawInstruction.remaining()];
+            rawInstruction.duplicate().get(copy);
+            rawInstruction = ByteBuffer.wrap(copy);
+        }
+
+        // Locate opcode without decoding or parsing instruction. As the
+        // wrapped reader frames instructions, the length prefix is already
+        // known to be valid.
+        byte[] bytes = rawInstruction.array();
+        int position = rawInstruction.arrayOffset() + rawInstruction.position();
+
+        int length = 0;
+        byte readByte;
+        while ((readByte = bytes[position++]) != '.')
+            length = length * 10 + readByte - '0';
+
+        int opcodeStart = position;
+        while (length-- > 0)
+            position += GuacamoleInstructionFramer.getSequenceLength(bytes[position]);
+
+        // Return instruction as read if filter is not interested
+        if (!chain.isFiltered(bytes, opcodeStart, position - opcodeStart))
+            return rawInstruction;
+
+        // Otherwise, decode, parse, and filter, reusing the original encoded
+        // form if the instruction is not modified
+        GuacamoleInstruction unfilteredInstruction = parse(
+                new String(bytes, rawInstruction.arrayOffset() + rawInstruction.position(),
+                        rawInstruction.remaining(), UTF8).toCharArray());
+
+        GuacamoleInstruction filteredInstruction = chain.filter(unfilteredInstruction);
+        if (filteredInstruction == unfilteredInstruction)
+            return rawInstruction;
+
+        if (filteredInstruction != null)
+            return ByteBuffer.wrap(filteredInstruction.toString().getBytes(UTF8));
+
+        return null;
+
+    }
+
+    /**
+     * Returns whether instructions are passed through as UTF-8 bytes, without
+     * being decoded, when not of interest to the filter.
+     *
+     * @return
+     *     true if instructions are passed through as UTF-8 bytes, false
+     *     otherwise.
+     */
+    private boolean isReadingBytes() {
+        return chain != null && reader instanceof GuacamoleByteReader;
+    }
+
     @Override
     public boolean available() throws GuacamoleException {
-        return reader.available();
+
+        // Read ahead past dropped instructions, but only while doing so will
+        // not block
+        while (!readAhead && reader.available()) {
+
+            // Read ahead in the form which avoids unnecessary decoding
+            if (isReadingBytes()) {
+                ByteBuffer rawInstruction = ((GuacamoleByteReader) reader).readBytes();
+                readAheadBytes = (rawInstruction != null) ? filterBytes(rawInstruction) : null;
+                readAhead = (rawInstruction == null || readAheadBytes != null);
+            }
+            else if (chain != null) {
+                char[] rawInstruction = reader.read();
+                readAheadChars = (rawInstruction != null) ? filterChars(rawInstruction) : null;
+                readAhead = (rawInstruction == null || readAheadChars != null);
+            }
+            else {
+                GuacamoleInstruction unfilteredInstruction = reader.readInstruction();
+                readAheadInstruction = (unfilteredInstruction != null) ? filter.filter(unfilteredInstruction) : null;
+                readAhead = (unfilteredInstruction == null || readAheadInstruction != null);
+            }
+
+        }
+
+        return readAhead;
+
+    }
+
+    /**
+     * Returns the instruction read ahead by available() as characters, which
+     * must be invoked only if an instruction has been read ahead.
+     *
+     * @return
+     *     The instruction read ahead, or null if the end of the stream was
+     *     reached.
+     */
+    private char[] takeReadAheadChars() {
+
+        char[] instruction = readAheadChars;
+        if (readAheadBytes != null)
+            instruction = new String(readAheadBytes.array(),
+                    readAheadBytes.arrayOffset() + readAheadBytes.position(),
+                    readAheadBytes.remaining(), UTF8).toCharArray();
+        else if (readAheadInstruction != null)
+            instruction = readAheadInstruction.toString().toCharArray();
+
+        clearReadAhead();
+        return instruction;
+
+    }
+
+    /**
+     * Returns the instruction read ahead by available() as UTF-8 bytes, which
+     * must be invoked only if an instruction has been read ahead.
+     *
+     * @return
+     *     The UTF-8 bytes of the instruction read ahead, or null if the end of
+     *     the stream was reached.
+     */
+    private ByteBuffer takeReadAheadBytes() {
+
+        ByteBuffer instruction = readAheadBytes;
+        if (readAheadChars != null)
+            instruction = ByteBuffer.wrap(new String(readAheadChars).getBytes(UTF8));
+        else if (readAheadInstruction != null)
+            instruction = ByteBuffer.wrap(readAheadInstruction.toString().getBytes(UTF8));
+
+        clearReadAhead();
+        return instruction;
+
+    }
+
+    /**
+     * Returns the instruction read ahead by available() as a parsed
+     * instruction, which must be invoked only if an instruction has been read
+     * ahead.
+     *
+     * @return
+     *     The instruction read ahead, or null if the end of the stream was
+     *     reached.
+     *
+     * @throws GuacamoleException
+     *     If the instruction read ahead cannot be parsed.
+     */
+    private GuacamoleInstruction takeReadAheadInstruction()
+            throws GuacamoleException {
+
+        GuacamoleInstruction instruction = readAheadInstruction;
+        if (readAheadChars != null)
+            instruction = parse(readAheadChars);
+        else if (readAheadBytes != null)
+            instruction = parse(new String(readAheadBytes.array(),
+                    readAheadBytes.arrayOffset() + readAheadBytes.position(),
+                    readAheadBytes.remaining(), UTF8).toCharArray());
+
+        clearReadAhead();
+        return instruction;
+
+    }
+
+    /**
+     * Discards the instruction read ahead by available(), if any.
+     */
+    private void clearReadAhead() {
+        readAhead = false;
+        readAheadBytes = null;
+        readAheadChars = null;
+        readAheadInstruction = null;
     }
 
     @Override
     public char[] read() throws GuacamoleException {
 
+        // Return any instruction already read ahead
+        if (readAhead)
+            return takeReadAheadChars();
+
+        // Pass through instructions which the filter does not care about
+        if (chain != null) {
+
+            for (;;) {
+
+                // Read next instruction
+                char[] rawInstruction = reader.read();
+                if (rawInstruction == null)
+                    return null;
+
+                // Return instruction unless dropped
+                char[] filteredInstruction = filterChars(rawInstruction);
+                if (filteredInstruction != null)
+                    return filteredInstruction;
+
+            }
+
+        }
+
         GuacamoleInstruction filteredInstruction = readInstruction();
         if (filteredInstruction == null)
             return null;
@@ -71,9 +516,45 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
         
     }
 
+    @Override
+    public ByteBuffer readBytes() throws GuacamoleException {
+
+        // Return any instruction already read ahead
+        if (readAhead)
+            return takeReadAheadBytes();
+
+        // Encode filtered instructions if raw bytes are not available
+        if (!isReadingBytes()) {
+            char[] filteredInstruction = read();
+            if (filteredInstruction == null)
+                return null;
+            return ByteBuffer.wrap(new String(filteredInstruction).getBytes(UTF8));
+        }
+
+        GuacamoleByteReader byteReader = (GuacamoleByteReader) reader;
+        for (;;) {
+
+            // Read next instruction
+            ByteBuffer rawInstruction = byteReader.readBytes();
+            if (rawInstruction == null)
+                return null;
+
+            // Return instruction unless dropped
+            ByteBuffer filteredInstruction = filterBytes(rawInstruction);
+            if (filteredInstruction != null)
+                return filteredInstruction;
+
+        }
+
+    }
+
     @Override
     public GuacamoleInstruction readInstruction() throws GuacamoleException {
 
+        // Return any instruction already read ahead
+        if (readAhead)
+            return takeReadAheadInstruction();
+
         GuacamoleInstruction filteredInstruction;
 
         // Read and filter instructions until no instructions are dropped
@@ -19,18 +19,30 @@
 
 package org.apache.guacamole.protocol;
 
+import java.nio.charset.Charset;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.io.GuacamoleByteWriter;
+import org.apache.guacamole.io.GuacamoleInstructionFramer;
 import org.apache.guacamole.io.GuacamoleWriter;
 
 /**
  * GuacamoleWriter which applies a given GuacamoleFilter to observe or alter
  * all written instructions. Instructions may also be dropped or denied by
- * the filter.
+ * the filter. If the filter is a GuacamoleFilterChain or GuacamoleOpcodeFilter,
+ * written instructions whose opcodes are not of interest to the filter are
+ * written through as-is, without being parsed. If the wrapped writer is a
+ * GuacamoleByteWriter, such instructions are also written through as raw
+ * UTF-8 data when written via write(byte[], int, int).
  *
  * @author Michael Jumper
  */
-public class FilteredGuacamoleWriter implements GuacamoleWriter {
+public class FilteredGuacamoleWriter implements GuacamoleByteWriter {
+
+    /**
+     * The charset used by the Guacamole protocol.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     /**
      * The wrapped GuacamoleWriter.
@@ -42,6 +54,12 @@ public class FilteredGuacamoleWriter implements GuacamoleWriter {
      */
     private final GuacamoleFilter filter;
 
+    /**
+     * The filter to apply when writing instructions, if that filter declares
+     * the opcodes it is interested in, or null otherwise.
+     */
+    private final GuacamoleFilterChain chain;
+
     /**
      * Parser for reading instructions prior to writing, such that they can be
      * passed on to the filter.
@@ -59,12 +77,329 @@ public class FilteredGuacamoleWriter implements GuacamoleWriter {
      */
     public FilteredGuacamoleWriter(GuacamoleWriter writer, GuacamoleFilter filter) {
         this.writer = writer;
-        this.filter = filter;
+
+        // Dispatch by opcode if the filter declares the opcodes it needs
+        if (filter instanceof GuacamoleFilterChain)
+            this.chain = (GuacamoleFilterChain) filter;
+        else if (filter instanceof GuacamoleOpcodeFilter)
+            this.chain = new GuacamoleFilterChain(filter);
+        else
+            this.chain = null;
+
+        this.filter = (chain != null) ? chain : filter;
+
+    }
+
+    /**
+     * Returns the length of the complete instruction beginning at the given
+     * offset, storing the offset and length of its opcode within the given
+     * array. Lengths are counted in characters, consistent with
+     * GuacamoleParser.
+     *
+     * @param chunk
+     *     The buffer containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param length
+     *     The number of characters available within the buffer, starting at
+     *     the given offset.
+     *
+     * @param opcode
+     *     A two-element array which will receive the offset and length of the
+     *     opcode of the instruction.
+     *
+     * @return
+     *     The length of the instruction, in characters.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is invalid or incomplete.
+     */
+    private static int frameInstruction(char[] chunk, int offset, int length,
+            int[] opcode) throws GuacamoleException {
+
+        int end = offset + length;
+        int position = offset;
+        boolean firstElement = true;
+
+        for (;;) {
+
+            // Parse element length
+            int elementLength = 0;
+            for (;;) {
+
+                if (position >= end)
+                    throw new GuacamoleServerException("Filtered write() contained an incomplete instruction.");
+
+                char c = chunk[position++];
+                if (c == '.')
+                    break;
+
+                if (c < '0' || c > '9')
+                    throw new GuacamoleServerException("Non-numeric character in element length.");
+
+                elementLength = elementLength * 10 + c - '0';
+                if (elementLength > GuacamoleParser.INSTRUCTION_MAX_LENGTH)
+                    throw new GuacamoleServerException("Instruction exceeds maximum length.");
+
+            }
+
+            // Record location of opcode
+            if (firstElement) {
+                opcode[0] = position;
+                opcode[1] = elementLength;
+                firstElement = false;
+            }
+
+            // Skip element content
+            position += elementLength;
+            if (position >= end)
+                throw new GuacamoleServerException("Filtered write() contained an incomplete instruction.");
+
+            // Stop at end of instruction
+            char terminator = chunk[position++];
+            if (terminator == ';')
+                return position - offset;
+
+            if (terminator != ',')
+                throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        }
+
+    }
+
+    /**
+     * Returns the length of the complete UTF-8 instruction beginning at the
+     * given offset, storing the offset and length of its opcode within the
+     * given array. Element lengths are counted in code points, while all
+     * offsets and lengths returned are in bytes.
+     *
+     * @param chunk
+     *     The buffer containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first byte of the instruction.
+     *
+     * @param length
+     *     The number of bytes available within the buffer, starting at the
+     *     given offset.
+     *
+     * @param opcode
+     *     A two-element array which will receive the offset and length of the
+     *     opcode of the instruction, in bytes.
+     *
+     * @return
+     *     The length of the instruction, in bytes.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is invalid or incomplete.
+     */
+    private static int frameInstruction(byte[] chunk, int offset, int length,
+            int[] opcode) throws GuacamoleException {
+
+        int end = offset + length;
+        int position = offset;
+        boolean firstElement = true;
+
+        for (;;) {
+
+            // Parse element length
+            int elementLength = 0;
+            for (;;) {
+
+                if (position >= end)
+                    throw new GuacamoleServerException("Filtered write() contained an incomplete instruction.");
+
+                byte b = chunk[position++];
+                if (b == '.')
+                    break;
+
+                if (b < '0' || b > '9')
+                    throw new GuacamoleServerException("Non-numeric character in element length.");
+
+                elementLength = elementLength * 10 + b - '0';
+                if (elementLength > GuacamoleParser.INSTRUCTION_MAX_LENGTH)
+                    throw new GuacamoleServerException("Instruction exceeds maximum length.");
+
+            }
+
+            // Skip element content, one code point at a time
+            int contentStart = position;
+            for (int i = 0; i < elementLength && position < end; i++)
+                position += GuacamoleInstructionFramer.getSequenceLength(chunk[position]);
+
+            // Record location of opcode
+            if (firstElement) {
+                opcode[0] = contentStart;
+                opcode[1] = position - contentStart;
+                firstElement = false;
+            }
+
+            if (position >= end)
+                throw new GuacamoleServerException("Filtered write() contained an incomplete instruction.");
+
+            // Stop at end of instruction
+            byte terminator = chunk[position++];
+            if (terminator == ';')
+                return position - offset;
+
+            if (terminator != ',')
+                throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        }
+
+    }
+
+    /**
+     * Writes all instructions within the given buffer, passing through
+     * instructions which the filter does not care about without parsing
+     * them. Consecutive unfiltered instructions are written together.
+     *
+     * @param chunk
+     *     The buffer containing the instructions to write.
+     *
+     * @param offset
+     *     The offset of the first character of the first instruction.
+     *
+     * @param length
+     *     The number of characters to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing, or if the data written contains
+     *     an invalid or incomplete instruction.
+     */
+    private void writeDispatched(char[] chunk, int offset, int length)
+            throws GuacamoleException {
+
+        int[] opcode = new int[2];
+        int passThroughStart = offset;
+        int end = offset + length;
+
+        while (offset < end) {
+
+            // Locate next instruction
+            int instructionLength = frameInstruction(chunk, offset, end - offset, opcode);
+
+            // Parse and filter only if the filter is interested
+            if (chain.isFiltered(chunk, opcode[0], opcode[1])) {
+
+                // Write any preceding unfiltered instructions as-is
+                if (offset > passThroughStart)
+                    writer.write(chunk, passThroughStart, offset - passThroughStart);
+
+                // Parse and filter instruction
+                int parsed = 0;
+                while (parsed < instructionLength)
+                    parsed += parser.append(chunk, offset + parsed,
+                            instructionLength - parsed);
+
+                writeInstruction(parser.next());
+
+                passThroughStart = offset + instructionLength;
+
+            }
+
+            offset += instructionLength;
+
+        }
+
+        // Write any remaining unfiltered instructions as-is
+        if (end > passThroughStart)
+            writer.write(chunk, passThroughStart, end - passThroughStart);
+
+    }
+
+    /**
+     * Writes all UTF-8 instructions within the given buffer, passing through
+     * instructions which the filter does not care about as raw data, without
+     * decoding them. Consecutive unfiltered instructions are written
+     * together. The wrapped writer must be a GuacamoleByteWriter.
+     *
+     * @param chunk
+     *     The buffer containing the instructions to write.
+     *
+     * @param offset
+     *     The offset of the first byte of the first instruction.
+     *
+     * @param length
+     *     The number of bytes to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing, or if the data written contains
+     *     an invalid or incomplete instruction.
+     */
+    private void writeDispatched(byte[] chunk, int offset, int length)
+            throws GuacamoleException {
+
+        GuacamoleByteWriter byteWriter = (GuacamoleByteWriter) writer;
+
+        int[] opcode = new int[2];
+        int passThroughStart = offset;
+        int end = offset + length;
+
+        while (offset < end) {
+
+            // Locate next instruction
+            int instructionLength = frameInstruction(chunk, offset, end - offset, opcode);
+
+            // Decode, parse and filter only if the filter is interested
+            if (chain.isFiltered(chunk, opcode[0], opcode[1])) {
+
+                // Write any preceding unfiltered instructions as-is
+                if (offset > passThroughStart)
+                    byteWriter.write(chunk, passThroughStart, offset - passThroughStart);
+
+                // Parse and filter instruction
+                char[] instruction = new String(chunk, offset,
+                        instructionLength, UTF8).toCharArray();
+
+                int parsed = 0;
+                while (parsed < instruction.length)
+                    parsed += parser.append(instruction, parsed,
+                            instruction.length - parsed);
+
+                writeInstruction(parser.next());
+
+                passThroughStart = offset + instructionLength;
+
+            }
+
+            offset += instructionLength;
+
+        }
+
+        // Write any remaining unfiltered instructions as-is
+        if (end > passThroughStart)
+            byteWriter.write(chunk, passThroughStart, end - passThroughStart);
+
     }
- 
+
+    @Override
+    public void write(byte[] chunk, int offset, int length)
+            throws GuacamoleException {
+
+        // Pass through raw data only if the wrapped writer accepts it
+        if (chain != null && writer instanceof GuacamoleByteWriter) {
+            writeDispatched(chunk, offset, length);
+            return;
+        }
+
+        // Otherwise, decode and write as characters
+        char[] decoded = new String(chunk, offset, length, UTF8).toCharArray();
+        write(decoded, 0, decoded.length);
+
+    }
+
     @Override
     public void write(char[] chunk, int offset, int length) throws GuacamoleException {
 
+        // Pass through instructions which the filter does not care about
+        if (chain != null) {
+            writeDispatched(chunk, offset, length);
+            return;
+        }
+
         // Write all data in chunk
         while (length > 0) {
 
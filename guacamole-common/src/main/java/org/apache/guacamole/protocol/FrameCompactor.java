@@ -0,0 +1,445 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Removes superseded drawing instructions from a run of instructions sent by
+ * the server within a single frame. Only the last "mouse" and the last
+ * "cursor" instruction of a run are retained, and any image stream which is
+ * entirely overwritten by a later image stream on the same layer is dropped
+ * along with all of its "blob" and "end" instructions.
+ *
+ * Dropping image streams relies on guacd not awaiting acknowledgement of
+ * image streams, which is the case for all "img" streams sent by guacd.
+ */
+class FrameCompactor {
+
+    /**
+     * The channel mask of the SRC compositing operation, which replaces the
+     * contents of the destination with the contents of the source.
+     */
+    private static final String SRC_MASK = "12";
+
+    /**
+     * The opcodes of all instructions which may appear between an image
+     * stream and the image stream which covers it without preventing the
+     * earlier stream from being dropped. None of these instructions read
+     * the contents of a layer.
+     */
+    private static final Set<String> TRANSPARENT_OPCODES = new HashSet<String>(
+            Arrays.asList("img", "blob", "end", "mouse"));
+
+    /**
+     * The eight-byte signature which begins every PNG image.
+     */
+    private static final byte[] PNG_SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    /**
+     * An image stream observed within a run of instructions.
+     */
+    private static class ImageStream {
+
+        /**
+         * The index of the "img" instruction which began this stream.
+         */
+        private final int start;
+
+        /**
+         * The index of the "end" instruction which ended this stream, or -1
+         * if the stream has not ended within the run.
+         */
+        private int end = -1;
+
+        /**
+         * The indices of all instructions belonging to this stream.
+         */
+        private final List<Integer> indices = new ArrayList<Integer>();
+
+        /**
+         * The channel mask that this stream is drawn with.
+         */
+        private final String mask;
+
+        /**
+         * The index of the layer that this stream is drawn to.
+         */
+        private final String layer;
+
+        /**
+         * The X coordinate of the upper-left corner of the image.
+         */
+        private final int x;
+
+        /**
+         * The Y coordinate of the upper-left corner of the image.
+         */
+        private final int y;
+
+        /**
+         * The width of the image, or -1 if not yet known.
+         */
+        private int width = -1;
+
+        /**
+         * The height of the image, or -1 if not yet known.
+         */
+        private int height = -1;
+
+        /**
+         * Whether the first blob of this stream has been examined for the
+         * dimensions of the image.
+         */
+        private boolean examined;
+
+        /**
+         * Creates a new ImageStream from the given "img" instruction.
+         *
+         * @param index
+         *     The index of the given instruction within the run.
+         *
+         * @param args
+         *     The arguments of the "img" instruction.
+         *
+         * @throws NumberFormatException
+         *     If the coordinates given in the instruction are invalid.
+         */
+        public ImageStream(int index, List<String> args)
+                throws NumberFormatException {
+            this.start = index;
+            this.mask = args.get(1);
+            this.layer = args.get(2);
+            this.x = Integer.parseInt(args.get(4));
+            this.y = Integer.parseInt(args.get(5));
+            indices.add(index);
+        }
+
+        /**
+         * Returns whether the full contents of this stream have been
+         * observed within the run and the dimensions of the image are known.
+         *
+         * @return
+         *     true if this stream ended within the run and its dimensions are
+         *     known, false otherwise.
+         */
+        public boolean isComplete() {
+            return end != -1 && width > 0 && height > 0;
+        }
+
+        /**
+         * Returns whether this stream entirely replaces the given stream,
+         * which must have been started earlier within the same run.
+         *
+         * @param other
+         *     The earlier stream to test.
+         *
+         * @return
+         *     true if this stream overwrites every pixel of the given stream,
+         *     false otherwise.
+         */
+        public boolean covers(ImageStream other) {
+            return SRC_MASK.equals(mask)
+                && layer.equals(other.layer)
+                && x <= other.x && y <= other.y
+                && x + width >= other.x + other.width
+                && y + height >= other.y + other.height;
+        }
+
+    }
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private FrameCompactor() {}
+
+    /**
+     * Returns whether the given byte array begins with the given prefix.
+     *
+     * @param data
+     *     The byte array to test.
+     *
+     * @param prefix
+     *     The expected prefix.
+     *
+     * @return
+     *     true if the given byte array begins with the given prefix, false
+     *     otherwise.
+     */
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+
+        if (data.length < prefix.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i])
+                return false;
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Reads the big-endian unsigned integer of the given length at the given
+     * offset.
+     *
+     * @param data
+     *     The array to read from.
+     *
+     * @param offset
+     *     The offset of the first byte of the integer.
+     *
+     * @param length
+     *     The number of bytes in the integer.
+     *
+     * @return
+     *     The value of the integer read.
+     */
+    private static int readInt(byte[] data, int offset, int length) {
+
+        int value = 0;
+        for (int i = 0; i < length; i++)
+            value = (value << 8) | (data[offset + i] & 0xFF);
+
+        return value;
+
+    }
+
+    /**
+     * Determines the dimensions of the image within the given stream from
+     * the contents of its first blob. PNG and JPEG images are recognized. If
+     * the dimensions cannot be determined, the stream is left unchanged and
+     * will never be considered complete.
+     *
+     * @param stream
+     *     The stream whose dimensions should be determined.
+     *
+     * @param base64
+     *     The base64-encoded contents of the first blob of the stream.
+     */
+    private static void readDimensions(ImageStream stream, String base64) {
+
+        byte[] data;
+        try {
+            data = DatatypeConverter.parseBase64Binary(base64);
+        }
+        catch (IllegalArgumentException e) {
+            return;
+        }
+
+        // PNG dimensions are at fixed offsets within the IHDR chunk
+        if (startsWith(data, PNG_SIGNATURE)) {
+            if (data.length >= 24) {
+                stream.width  = readInt(data, 16, 4);
+                stream.height = readInt(data, 20, 4);
+            }
+            return;
+        }
+
+        // Otherwise, if JPEG, scan for the start-of-frame segment
+        if (data.length < 2 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8)
+            return;
+
+        int offset = 2;
+        while (offset + 4 <= data.length) {
+
+            // Each segment begins with a marker
+            if ((data[offset] & 0xFF) != 0xFF)
+                return;
+
+            int marker = data[offset + 1] & 0xFF;
+            int length = readInt(data, offset + 2, 2);
+
+            // SOF0 through SOF15, excluding DHT, JPG and DAC
+            if (marker >= 0xC0 && marker <= 0xCF
+                    && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                if (offset + 9 <= data.length) {
+                    stream.height = readInt(data, offset + 5, 2);
+                    stream.width  = readInt(data, offset + 7, 2);
+                }
+                return;
+            }
+
+            // Image data begins without dimensions having been found
+            if (marker == 0xDA)
+                return;
+
+            offset += 2 + length;
+
+        }
+
+    }
+
+    /**
+     * Returns whether all instructions strictly between the given indices
+     * are free of side effects which could depend on the contents of a
+     * layer.
+     *
+     * @param instructions
+     *     The run of instructions to test.
+     *
+     * @param from
+     *     The index of the first instruction of the range, exclusive.
+     *
+     * @param to
+     *     The index of the last instruction of the range, exclusive.
+     *
+     * @return
+     *     true if only transparent instructions occur within the given
+     *     range, false otherwise.
+     */
+    private static boolean isTransparent(List<GuacamoleInstruction> instructions,
+            int from, int to) {
+
+        for (int i = from + 1; i < to; i++) {
+            if (!TRANSPARENT_OPCODES.contains(instructions.get(i).getOpcode()))
+                return false;
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns a copy of the given run of instructions with all superseded
+     * drawing instructions removed. The relative order of the remaining
+     * instructions is preserved.
+     *
+     * @param instructions
+     *     A run of instructions read from the server, none of which may be
+     *     "sync" except possibly the last.
+     *
+     * @return
+     *     The given run of instructions without any superseded instructions.
+     */
+    public static List<GuacamoleInstruction> compact(
+            List<GuacamoleInstruction> instructions) {
+
+        BitSet dropped = new BitSet(instructions.size());
+
+        int lastMouse = -1;
+        int lastCursor = -1;
+
+        Map<String, ImageStream> openStreams = new HashMap<String, ImageStream>();
+        List<ImageStream> streams = new ArrayList<ImageStream>();
+
+        for (int i = 0; i < instructions.size(); i++) {
+
+            GuacamoleInstruction instruction = instructions.get(i);
+            String opcode = instruction.getOpcode();
+            List<String> args = instruction.getArgs();
+
+            // Only the most recent mouse position is of interest
+            if ("mouse".equals(opcode)) {
+                if (lastMouse != -1)
+                    dropped.set(lastMouse);
+                lastMouse = i;
+            }
+
+            // Each cursor instruction entirely replaces the previous cursor
+            else if ("cursor".equals(opcode)) {
+                if (lastCursor != -1)
+                    dropped.set(lastCursor);
+                lastCursor = i;
+            }
+
+            // Track the start of image streams
+            else if ("img".equals(opcode) && args.size() >= 6) {
+                try {
+                    ImageStream stream = new ImageStream(i, args);
+                    openStreams.put(args.get(0), stream);
+                    streams.add(stream);
+                }
+                catch (NumberFormatException e) {
+                    openStreams.remove(args.get(0));
+                }
+            }
+
+            // Track the contents of image streams
+            else if ("blob".equals(opcode) && args.size() >= 2) {
+                ImageStream stream = openStreams.get(args.get(0));
+                if (stream != null) {
+                    stream.indices.add(i);
+                    if (!stream.examined) {
+                        stream.examined = true;
+                        readDimensions(stream, args.get(1));
+                    }
+                }
+            }
+
+            // Track the end of image streams
+            else if ("end".equals(opcode) && args.size() >= 1) {
+                ImageStream stream = openStreams.remove(args.get(0));
+                if (stream != null) {
+                    stream.indices.add(i);
+                    stream.end = i;
+                }
+            }
+
+        }
+
+        // Drop any complete stream which is later entirely overwritten
+        for (int i = 0; i < streams.size(); i++) {
+
+            ImageStream stream = streams.get(i);
+            if (!stream.isComplete())
+                continue;
+
+            for (int j = i + 1; j < streams.size(); j++) {
+
+                ImageStream later = streams.get(j);
+                if (later.isComplete() && later.covers(stream)
+                        && isTransparent(instructions, stream.start, later.end)) {
+                    for (Integer index : stream.indices)
+                        dropped.set(index);
+                    break;
+                }
+
+            }
+
+        }
+
+        // Nothing to remove
+        if (dropped.isEmpty())
+            return instructions;
+
+        List<GuacamoleInstruction> compacted =
+                new ArrayList<GuacamoleInstruction>(instructions.size() - dropped.cardinality());
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!dropped.get(i))
+                compacted.add(instructions.get(i));
+        }
+
+        return compacted;
+
+    }
+
+}
@@ -0,0 +1,476 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * GuacamoleFilter which applies an ordered chain of filters, giving each
+ * instruction only to the filters which may care about its opcode. Filters
+ * implementing GuacamoleOpcodeFilter receive only instructions having the
+ * opcodes they declare, while all other filters receive every instruction.
+ * The filters applicable to each opcode are determined once, when the chain
+ * is created, and are looked up through a table which can be queried using
+ * the opcode as it appears within the encoded instruction, such that
+ * instructions which no filter cares about can be passed through without
+ * being parsed.
+ */
+public class GuacamoleFilterChain implements GuacamoleFilter {
+
+    /**
+     * The filters which must be applied to instructions having an opcode not
+     * declared by any GuacamoleOpcodeFilter within this chain, in order.
+     */
+    private final GuacamoleFilter[] unselectiveFilters;
+
+    /**
+     * Table of the filters which must be applied to instructions having each
+     * opcode declared by a GuacamoleOpcodeFilter within this chain.
+     */
+    private final OpcodeTable opcodeTable;
+
+    /**
+     * The UTF-8 charset.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Creates a new GuacamoleFilterChain which applies each of the given
+     * filters in order.
+     *
+     * @param filters
+     *     The filters to apply, in the order they should be applied.
+     */
+    public GuacamoleFilterChain(GuacamoleFilter... filters) {
+        this(Arrays.asList(filters));
+    }
+
+    /**
+     * Creates a new GuacamoleFilterChain which applies each of the given
+     * filters in order.
+     *
+     * @param filters
+     *     The filters to apply, in the order they should be applied.
+     */
+    public GuacamoleFilterChain(List<GuacamoleFilter> filters) {
+
+        // Collect all declared opcodes, and all filters which apply to
+        // every opcode
+        Set<String> opcodes = new LinkedHashSet<String>();
+        List<GuacamoleFilter> unselective = new ArrayList<GuacamoleFilter>();
+        for (GuacamoleFilter filter : filters) {
+            if (filter instanceof GuacamoleOpcodeFilter)
+                opcodes.addAll(((GuacamoleOpcodeFilter) filter).getOpcodes());
+            else
+                unselective.add(filter);
+        }
+
+        // Determine the filters applicable to each declared opcode, in order
+        Map<String, GuacamoleFilter[]> filtersByOpcode =
+                new LinkedHashMap<String, GuacamoleFilter[]>();
+        for (String opcode : opcodes) {
+
+            List<GuacamoleFilter> applicable = new ArrayList<GuacamoleFilter>();
+            for (GuacamoleFilter filter : filters) {
+                if (!(filter instanceof GuacamoleOpcodeFilter)
+                        || ((GuacamoleOpcodeFilter) filter).getOpcodes().contains(opcode))
+                    applicable.add(filter);
+            }
+
+            filtersByOpcode.put(opcode,
+                    applicable.toArray(new GuacamoleFilter[applicable.size()]));
+
+        }
+
+        this.unselectiveFilters = unselective.toArray(new GuacamoleFilter[unselective.size()]);
+        this.opcodeTable = new OpcodeTable(filtersByOpcode);
+
+    }
+
+    /**
+     * Open-addressed table mapping opcodes to the filters which apply to
+     * them. Opcodes may be looked up either as strings or as ranges of
+     * characters, using the same hash in either case.
+     */
+    private static class OpcodeTable {
+
+        /**
+         * The characters of each opcode in the table, indexed by hash. Unused
+         * slots are null.
+         */
+        private final char[][] opcodes;
+
+        /**
+         * The filters which apply to the opcode in the corresponding slot of
+         * the opcodes array.
+         */
+        private final GuacamoleFilter[][] filters;
+
+        /**
+         * Bit mask which, when applied to a hash, produces a valid slot index.
+         */
+        private final int mask;
+
+        /**
+         * Creates a new OpcodeTable containing the given entries.
+         *
+         * @param entries
+         *     The filters which apply to each opcode, keyed by opcode.
+         */
+        public OpcodeTable(Map<String, GuacamoleFilter[]> entries) {
+
+            // Size table to a power of two at least twice the number of
+            // entries, such that probe sequences remain short
+            int size = 2;
+            while (size < entries.size() * 2)
+                size <<= 1;
+
+            opcodes = new char[size][];
+            filters = new GuacamoleFilter[size][];
+            mask = size - 1;
+
+            // Add each entry at the first free slot for its hash
+            for (Map.Entry<String, GuacamoleFilter[]> entry : entries.entrySet()) {
+                int index = spread(entry.getKey().hashCode()) & mask;
+                while (opcodes[index] != null)
+                    index = (index + 1) & mask;
+                opcodes[index] = entry.getKey().toCharArray();
+                filters[index] = entry.getValue();
+            }
+
+        }
+
+        /**
+         * Mixes the higher bits of the given hash into the lower bits, which
+         * alone determine the slot used.
+         *
+         * @param hash
+         *     The hash to spread.
+         *
+         * @return
+         *     The spread hash.
+         */
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * Returns the filters which apply to the given opcode, if the opcode
+         * is within this table.
+         *
+         * @param chunk
+         *     The buffer containing the opcode.
+         *
+         * @param offset
+         *     The offset of the first character of the opcode.
+         *
+         * @param length
+         *     The number of characters in the opcode.
+         *
+         * @return
+         *     The filters which apply to the given opcode, or null if the
+         *     opcode is not within this table.
+         */
+        public GuacamoleFilter[] get(char[] chunk, int offset, int length) {
+
+            // Calculate hash identically to String.hashCode()
+            int hash = 0;
+            for (int i = 0; i < length; i++)
+                hash = 31 * hash + chunk[offset + i];
+
+            // Probe until the opcode or a free slot is found
+            for (int index = spread(hash) & mask; opcodes[index] != null;
+                    index = (index + 1) & mask) {
+                if (matches(opcodes[index], chunk, offset, length))
+                    return filters[index];
+            }
+
+            return null;
+
+        }
+
+        /**
+         * Returns the filters which apply to the given ASCII opcode, if the
+         * opcode is within this table.
+         *
+         * @param chunk
+         *     The buffer containing the opcode, where each byte is an ASCII
+         *     character.
+         *
+         * @param offset
+         *     The offset of the first byte of the opcode.
+         *
+         * @param length
+         *     The number of bytes in the opcode.
+         *
+         * @return
+         *     The filters which apply to the given opcode, or null if the
+         *     opcode is not within this table.
+         */
+        public GuacamoleFilter[] get(byte[] chunk, int offset, int length) {
+
+            // Calculate hash identically to String.hashCode()
+            int hash = 0;
+            for (int i = 0; i < length; i++)
+                hash = 31 * hash + chunk[offset + i];
+
+            // Probe until the opcode or a free slot is found
+            for (int index = spread(hash) & mask; opcodes[index] != null;
+                    index = (index + 1) & mask) {
+                if (matches(opcodes[index], chunk, offset, length))
+                    return filters[index];
+            }
+
+            return null;
+
+        }
+
+        /**
+         * Returns the filters which apply to the given opcode, if the opcode
+         * is within this table.
+         *
+         * @param opcode
+         *     The opcode to look up.
+         *
+         * @return
+         *     The filters which apply to the given opcode, or null if the
+         *     opcode is not within this table.
+         */
+        public GuacamoleFilter[] get(String opcode) {
+
+            // Probe until the opcode or a free slot is found
+            for (int index = spread(opcode.hashCode()) & mask; opcodes[index] != null;
+                    index = (index + 1) & mask) {
+                if (matches(opcodes[index], opcode))
+                    return filters[index];
+            }
+
+            return null;
+
+        }
+
+        /**
+         * Returns whether the given opcode is identical to the given range of
+         * characters.
+         *
+         * @param opcode
+         *     The characters of the opcode to compare.
+         *
+         * @param chunk
+         *     The buffer containing the characters to compare against.
+         *
+         * @param offset
+         *     The offset of the first character to compare against.
+         *
+         * @param length
+         *     The number of characters to compare against.
+         *
+         * @return
+         *     true if the opcode is identical to the given range of
+         *     characters, false otherwise.
+         */
+        private static boolean matches(char[] opcode, char[] chunk, int offset,
+                int length) {
+
+            if (opcode.length != length)
+                return false;
+
+            for (int i = 0; i < length; i++) {
+                if (opcode[i] != chunk[offset + i])
+                    return false;
+            }
+
+            return true;
+
+        }
+
+        /**
+         * Returns whether the given opcode is identical to the given range of
+         * ASCII bytes.
+         *
+         * @param opcode
+         *     The characters of the opcode to compare.
+         *
+         * @param chunk
+         *     The buffer containing the bytes to compare against.
+         *
+         * @param offset
+         *     The offset of the first byte to compare against.
+         *
+         * @param length
+         *     The number of bytes to compare against.
+         *
+         * @return
+         *     true if the opcode is identical to the given range of bytes,
+         *     false otherwise.
+         */
+        private static boolean matches(char[] opcode, byte[] chunk, int offset,
+                int length) {
+
+            if (opcode.length != length)
+                return false;
+
+            for (int i = 0; i < length; i++) {
+                if (opcode[i] != chunk[offset + i])
+                    return false;
+            }
+
+            return true;
+
+        }
+
+        /**
+         * Returns whether the given opcode is identical to the given string.
+         *
+         * @param opcode
+         *     The characters of the opcode to compare.
+         *
+         * @param value
+         *     The string to compare against.
+         *
+         * @return
+         *     true if the opcode is identical to the given string, false
+         *     otherwise.
+         */
+        private static boolean matches(char[] opcode, String value) {
+
+            if (opcode.length != value.length())
+                return false;
+
+            for (int i = 0; i < opcode.length; i++) {
+                if (opcode[i] != value.charAt(i))
+                    return false;
+            }
+
+            return true;
+
+        }
+
+    }
+
+    /**
+     * Returns whether any filter within this chain needs to receive
+     * instructions having the given opcode. Instructions having opcodes for
+     * which this function returns false would pass through this chain
+     * untouched.
+     *
+     * @param chunk
+     *     The buffer containing the opcode, typically the encoded instruction
+     *     itself.
+     *
+     * @param offset
+     *     The offset of the first character of the opcode.
+     *
+     * @param length
+     *     The number of characters in the opcode.
+     *
+     * @return
+     *     true if any filter within this chain needs to receive instructions
+     *     having the given opcode, false otherwise.
+     */
+    public boolean isFiltered(char[] chunk, int offset, int length) {
+        return unselectiveFilters.length != 0
+            || opcodeTable.get(chunk, offset, length) != null;
+    }
+
+    /**
+     * Returns whether any filter within this chain needs to receive
+     * instructions having the given UTF-8 encoded opcode. Instructions having
+     * opcodes for which this function returns false would pass through this
+     * chain untouched.
+     *
+     * @param chunk
+     *     The buffer containing the UTF-8 encoded opcode, typically the
+     *     encoded instruction itself.
+     *
+     * @param offset
+     *     The offset of the first byte of the opcode.
+     *
+     * @param length
+     *     The number of bytes in the opcode.
+     *
+     * @return
+     *     true if any filter within this chain needs to receive instructions
+     *     having the given opcode, false otherwise.
+     */
+    public boolean isFiltered(byte[] chunk, int offset, int length) {
+
+        if (unselectiveFilters.length != 0)
+            return true;
+
+        // Fall back to decoding any opcode which is not ASCII
+        for (int i = 0; i < length; i++) {
+            if (chunk[offset + i] < 0)
+                return isFiltered(new String(chunk, offset, length, UTF8));
+        }
+
+        // ASCII opcodes can be looked up directly, as each byte is identical
+        // to its corresponding character
+        return opcodeTable.get(chunk, offset, length) != null;
+
+    }
+
+    /**
+     * Returns whether any filter within this chain needs to receive
+     * instructions having the given opcode. Instructions having opcodes for
+     * which this function returns false would pass through this chain
+     * untouched.
+     *
+     * @param opcode
+     *     The opcode to test.
+     *
+     * @return
+     *     true if any filter within this chain needs to receive instructions
+     *     having the given opcode, false otherwise.
+     */
+    public boolean isFiltered(String opcode) {
+        return unselectiveFilters.length != 0
+            || opcodeTable.get(opcode) != null;
+    }
+
+    @Override
+    public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        // Look up filters which apply to the instruction's opcode
+        GuacamoleFilter[] filters = opcodeTable.get(instruction.getOpcode());
+        if (filters == null)
+            filters = unselectiveFilters;
+
+        // Apply each filter in order, stopping if the instruction is dropped
+        for (GuacamoleFilter filter : filters) {
+            instruction = filter.filter(instruction);
+            if (instruction == null)
+                return null;
+        }
+
+        return instruction;
+
+    }
+
+}
@@ -20,9 +20,11 @@
 package org.apache.guacamole.protocol;
 
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * An abstract representation of a Guacamole instruction, as defined by the
@@ -33,14 +35,41 @@ import java.util.List;
 public class GuacamoleInstruction {
 
     /**
-     * The opcode of this instruction.
+     * The opcode of this instruction. If this instruction was created from
+     * its encoded form, the opcode is determined only when first requested.
      */
     private String opcode;
 
     /**
      * All arguments of this instruction, in order.
      */
-    private List<String> args;
+    private final List<String> args;
+
+    /**
+     * The complete encoded form of this instruction, if this instruction was
+     * created from its encoded form, or null otherwise.
+     */
+    private final char[] rawInstruction;
+
+    /**
+     * The offset of the content of each element within the encoded form of
+     * this instruction, starting with the opcode, if this instruction was
+     * created from its encoded form.
+     */
+    private final int[] elementOffsets;
+
+    /**
+     * The length of the content of each element within the encoded form of
+     * this instruction, starting with the opcode, if this instruction was
+     * created from its encoded form.
+     */
+    private final int[] elementLengths;
+
+    /**
+     * The cached result of toString(), if this instruction was created from
+     * its encoded form and toString() has been called.
+     */
+    private String encoded;
 
     /**
      * Creates a new GuacamoleInstruction having the given Operation and
@@ -51,8 +80,7 @@ public class GuacamoleInstruction {
      *             instruction if any.
      */
     public GuacamoleInstruction(String opcode, String... args) {
-        this.opcode = opcode;
-        this.args = Collections.unmodifiableList(Arrays.asList(args));
+        this(opcode, Arrays.asList(args));
     }
 
     /**
@@ -67,6 +95,88 @@ public class GuacamoleInstruction {
     public GuacamoleInstruction(String opcode, List<String> args) {
         this.opcode = opcode;
         this.args = Collections.unmodifiableList(args);
+        this.rawInstruction = null;
+        this.elementOffsets = null;
+        this.elementLengths = null;
+    }
+
+    /**
+     * Creates a new GuacamoleInstruction from its complete encoded form and
+     * the locations of each element within that encoded form. The opcode and
+     * argument values are created only when first requested, and toString()
+     * returns the original encoded form. The given arrays are used directly,
+     * and must not be modified after this instruction is created.
+     *
+     * @param rawInstruction
+     *     The complete encoded form of the instruction, from the length of
+     *     the opcode through the terminating semicolon.
+     *
+     * @param elementOffsets
+     *     The offset of the content of each element within the encoded form,
+     *     starting with the opcode.
+     *
+     * @param elementLengths
+     *     The length of the content of each element within the encoded form,
+     *     in characters, starting with the opcode.
+     */
+    public GuacamoleInstruction(char[] rawInstruction, int[] elementOffsets,
+            int[] elementLengths) {
+        this.rawInstruction = rawInstruction;
+        this.elementOffsets = elementOffsets;
+        this.elementLengths = elementLengths;
+        this.args = new ElementList();
+    }
+
+    /**
+     * Immutable list of the argument values of an instruction created from
+     * its encoded form. Each value is created only when first requested.
+     */
+    private class ElementList extends AbstractList<String>
+            implements RandomAccess {
+
+        /**
+         * All argument values which have been requested thus far.
+         */
+        private final String[] values = new String[elementOffsets.length - 1];
+
+        @Override
+        public String get(int index) {
+
+            // Verify index is within bounds
+            if (index < 0 || index >= values.length)
+                throw new IndexOutOfBoundsException("Argument index out of bounds: " + index);
+
+            // Create value only if not already created
+            String value = values[index];
+            if (value == null) {
+                value = getElement(index + 1);
+                values[index] = value;
+            }
+
+            return value;
+
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+    }
+
+    /**
+     * Returns the value of the element at the given index within the encoded
+     * form of this instruction, where the opcode is the element at index 0.
+     *
+     * @param index
+     *     The index of the element to return.
+     *
+     * @return
+     *     The value of the element at the given index.
+     */
+    private String getElement(int index) {
+        return new String(rawInstruction, elementOffsets[index],
+                elementLengths[index]);
     }
 
     /**
@@ -74,7 +184,13 @@ public class GuacamoleInstruction {
      * @return The opcode associated with this GuacamoleInstruction.
      */
     public String getOpcode() {
+
+        // Create opcode from encoded form if not yet created
+        if (opcode == null)
+            opcode = getElement(0);
+
         return opcode;
+
     }
 
     /**
@@ -91,7 +207,8 @@ public class GuacamoleInstruction {
 
     /**
      * Returns this GuacamoleInstruction in the form it would be sent over the
-     * Guacamole protocol.
+     * Guacamole protocol. If this instruction was created from its encoded
+     * form, that encoded form is returned.
      *
      * @return This GuacamoleInstruction in the form it would be sent over the
      *         Guacamole protocol.
@@ -99,6 +216,13 @@ public class GuacamoleInstruction {
     @Override
     public String toString() {
 
+        // Use original encoded form, if available
+        if (rawInstruction != null) {
+            if (encoded == null)
+                encoded = new String(rawInstruction);
+            return encoded;
+        }
+
         StringBuilder buff = new StringBuilder();
 
         // Write opcode
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.util.Set;
+
+/**
+ * GuacamoleFilter which declares the opcodes of the instructions it needs to
+ * observe or alter. When applied through a GuacamoleFilterChain, instructions
+ * having any other opcode are passed through untouched without being given to
+ * the filter, and without necessarily being parsed at all.
+ */
+public interface GuacamoleOpcodeFilter extends GuacamoleFilter {
+
+    /**
+     * Returns the opcodes of all instructions which must be given to this
+     * filter. The set returned must not change after the filter has been
+     * added to a GuacamoleFilterChain.
+     *
+     * @return
+     *     The opcodes of all instructions which must be given to this filter.
+     */
+    public Set<String> getOpcodes();
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.protocol;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * Tracks how far a client lags behind the server by comparing the timestamp
+ * of the most recent "sync" instruction sent by the server with that of the
+ * most recent "sync" acknowledged by the client. Timestamps are observed via
+ * a pair of filters, one applied to instructions read from the server, and
+ * one applied to instructions written by the client. A client is considered
+ * lagging once its lag exceeds a given threshold, and until its lag falls
+ * to half that threshold or less.
+ */
+public class SyncLagTracker {
+
+    /**
+     * The opcode of the instruction marking the end of each frame, and by
+     * which the client acknowledges frames.
+     */
+    private static final String SYNC_OPCODE = "sync";
+
+    /**
+     * The set containing only SYNC_OPCODE.
+     */
+    private static final Set<String> SYNC_OPCODES = Collections.singleton(SYNC_OPCODE);
+
+    /**
+     * The lag, in milliseconds, above which the client is considered to be
+     * lagging.
+     */
+    private final long threshold;
+
+    /**
+     * The timestamp of the most recent "sync" sent by the server, or zero if
+     * no such instruction has been observed.
+     */
+    private volatile long serverTimestamp;
+
+    /**
+     * The timestamp of the most recent "sync" sent by the client, or zero if
+     * no such instruction has been observed.
+     */
+    private volatile long clientTimestamp;
+
+    /**
+     * Whether the client is currently considered to be lagging.
+     */
+    private volatile boolean lagging;
+
+    /**
+     * Filter which records the timestamp of each "sync" instruction sent by
+     * the server.
+     */
+    private final GuacamoleOpcodeFilter serverFilter = new GuacamoleOpcodeFilter() {
+
+        @Override
+        public Set<String> getOpcodes() {
+            return SYNC_OPCODES;
+        }
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                throws GuacamoleException {
+
+            long timestamp = getTimestamp(instruction);
+            if (timestamp != 0) {
+                serverTimestamp = timestamp;
+                update();
+            }
+
+            return instruction;
+
+        }
+
+    };
+
+    /**
+     * Filter which records the timestamp of each "sync" instruction sent by
+     * the client.
+     */
+    private final GuacamoleOpcodeFilter clientFilter = new GuacamoleOpcodeFilter() {
+
+        @Override
+        public Set<String> getOpcodes() {
+            return SYNC_OPCODES;
+        }
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                throws GuacamoleException {
+
+            long timestamp = getTimestamp(instruction);
+            if (timestamp != 0) {
+                clientTimestamp = timestamp;
+                update();
+            }
+
+            return instruction;
+
+        }
+
+    };
+
+    /**
+     * Creates a new SyncLagTracker which considers the client to be lagging
+     * once its lag exceeds the given threshold.
+     *
+     * @param threshold
+     *     The lag, in milliseconds, above which the client is considered to
+     *     be lagging.
+     */
+    public SyncLagTracker(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the timestamp of the given "sync" instruction.
+     *
+     * @param instruction
+     *     The "sync" instruction to parse.
+     *
+     * @return
+     *     The timestamp of the given instruction, or zero if the timestamp
+     *     is missing or invalid.
+     */
+    private static long getTimestamp(GuacamoleInstruction instruction) {
+
+        List<String> args = instruction.getArgs();
+        if (args.isEmpty())
+            return 0;
+
+        try {
+            return Long.parseLong(args.get(0));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+
+    }
+
+    /**
+     * Recalculates whether the client is lagging based on the most recent
+     * timestamps observed.
+     */
+    private void update() {
+
+        // Lag cannot be determined until the client has acknowledged a frame
+        if (clientTimestamp == 0)
+            return;
+
+        long lag = getLag();
+        if (lag > threshold)
+            lagging = true;
+        else if (lag <= threshold / 2)
+            lagging = false;
+
+    }
+
+    /**
+     * Returns the filter which must be applied to all instructions sent by
+     * the server, such that the timestamps of frames sent can be observed.
+     *
+     * @return
+     *     The filter to apply to all instructions sent by the server.
+     */
+    public GuacamoleOpcodeFilter getServerFilter() {
+        return serverFilter;
+    }
+
+    /**
+     * Returns the filter which must be applied to all instructions sent by
+     * the client, such that the timestamps of frames acknowledged can be
+     * observed.
+     *
+     * @return
+     *     The filter to apply to all instructions sent by the client.
+     */
+    public GuacamoleOpcodeFilter getClientFilter() {
+        return clientFilter;
+    }
+
+    /**
+     * Returns the difference between the timestamp of the most recent frame
+     * sent by the server and the most recent frame acknowledged by the
+     * client.
+     *
+     * @return
+     *     The current lag of the client, in milliseconds, or zero if the
+     *     client has not yet acknowledged any frame.
+     */
+    public long getLag() {
+
+        long acknowledged = clientTimestamp;
+        if (acknowledged == 0)
+            return 0;
+
+        return Math.max(0, serverTimestamp - acknowledged);
+
+    }
+
+    /**
+     * Returns whether the client is currently lagging, having a lag which
+     * exceeded the threshold and has not since fallen to half the threshold
+     * or less.
+     *
+     * @return
+     *     true if the client is currently lagging, false otherwise.
+     */
+    public boolean isLagging() {
+        return lagging;
+    }
+
+}
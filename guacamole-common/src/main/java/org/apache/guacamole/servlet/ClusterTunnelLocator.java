@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TunnelLocator which locates tunnels within a fixed set of nodes, such as a
+ * set of nodes listed within configuration, without requiring any registry
+ * shared by those nodes. A tunnel not registered locally is located by asking
+ * the HTTP tunnel servlet of each other node, in parallel, whether that node
+ * owns the tunnel. Located tunnels are remembered, such that each tunnel is
+ * normally located only once per node. Tunnels owned by no node and nodes
+ * which cannot be reached are remembered briefly, such that repeated requests
+ * for closed or nonexistent tunnels do not each query every node. Once no
+ * longer needed, shutdown() must be invoked to stop the threads used to
+ * query other nodes.
+ */
+public class ClusterTunnelLocator implements TunnelLocator {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ClusterTunnelLocator.class);
+
+    /**
+     * The maximum number of tunnel locations remembered. Locations of
+     * tunnels which have not been located recently are forgotten first, and
+     * are simply located again if needed.
+     */
+    private static final int MAX_CACHED_LOCATIONS = 10000;
+
+    /**
+     * The amount of time that a tunnel owned by no node is remembered as
+     * such, in milliseconds. Requests for a tunnel which was just closed are
+     * routine, and should not each result in every node being queried.
+     */
+    private static final long MISS_DURATION = 5000;
+
+    /**
+     * The amount of time that a node which could not be reached is skipped,
+     * in milliseconds. Tunnels which may be owned by a skipped node are
+     * reported as failures without waiting for that node to time out again.
+     */
+    private static final long UNREACHABLE_DURATION = 30000;
+
+    /**
+     * The URLs of the HTTP tunnel servlets of all other nodes.
+     */
+    private final List<String> nodes;
+
+    /**
+     * Forwarder used to query other nodes.
+     */
+    private final HTTPTunnelRequestForwarder forwarder = new HTTPTunnelRequestForwarder();
+
+    /**
+     * The URL of the HTTP tunnel servlet of the node owning each recently
+     * located tunnel, indexed by tunnel UUID, in order of least recent use.
+     */
+    private final Map<String, String> locations =
+            Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_LOCATIONS;
+        }
+
+    });
+
+    /**
+     * The time that each tunnel recently found to be owned by no node may be
+     * queried again, in milliseconds since the epoch, indexed by tunnel UUID,
+     * in order of least recent use.
+     */
+    private final Map<String, Long> misses =
+            Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CACHED_LOCATIONS;
+        }
+
+    });
+
+    /**
+     * The time that each node which recently could not be reached may be
+     * queried again, in milliseconds since the epoch, indexed by the URL of
+     * that node.
+     */
+    private final Map<String, Long> unreachable = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Threads which query other nodes, such that locating a tunnel takes no
+     * longer than the slowest single query, regardless of the number of
+     * nodes.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-tunnel-locator");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Creates a new ClusterTunnelLocator which locates tunnels within the
+     * given nodes.
+     *
+     * @param nodes
+     *     The URLs of the HTTP tunnel servlets of all nodes. The URL of the
+     *     local node may be included, but is ignored if also given as
+     *     localNode.
+     *
+     * @param localNode
+     *     The URL of the HTTP tunnel servlet of the local node, or null if
+     *     the local node is not among the given nodes.
+     */
+    public ClusterTunnelLocator(Collection<String> nodes, String localNode) {
+
+        this.nodes = new ArrayList<String>(nodes.size());
+        for (String node : nodes) {
+            if (!node.equals(localNode))
+                this.nodes.add(node);
+        }
+
+    }
+
+    @Override
+    public void register(String tunnelUUID) {
+        // Tunnels registered locally are located by other nodes on demand
+    }
+
+    @Override
+    public void unregister(String tunnelUUID) {
+        locations.remove(tunnelUUID);
+    }
+
+    /**
+     * Returns whether the given time, in milliseconds since the epoch, is
+     * still in the future.
+     *
+     * @param until
+     *     The time to test, or null if no time is recorded.
+     *
+     * @return
+     *     true if the given time is non-null and has not yet passed, false
+     *     otherwise.
+     */
+    private static boolean isPending(Long until) {
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    /**
+     * Asks the given node whether it owns the tunnel having the given UUID,
+     * remembering the node as unreachable if it cannot be queried.
+     *
+     * @param node
+     *     The URL of the HTTP tunnel servlet of the node to query.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel to locate.
+     *
+     * @return
+     *     The given node URL if that node owns the tunnel, null otherwise.
+     *
+     * @throws GuacamoleException
+     *     If the node cannot be reached.
+     */
+    private String query(String node, String tunnelUUID)
+            throws GuacamoleException {
+
+        try {
+            return forwarder.isOwner(node, tunnelUUID) ? node : null;
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to query node for tunnel \"{}\".", tunnelUUID, e);
+            unreachable.put(node, System.currentTimeMillis() + UNREACHABLE_DURATION);
+            throw e;
+        }
+
+    }
+
+    @Override
+    public String locate(final String tunnelUUID) throws GuacamoleException {
+
+        // Use remembered location, if any
+        String location = locations.get(tunnelUUID);
+        if (location != null)
+            return location;
+
+        // Do not query again for tunnels recently owned by no node
+        if (isPending(misses.get(tunnelUUID)))
+            return null;
+
+        // Otherwise, ask all other nodes at once, skipping those which were
+        // recently unreachable
+        CompletionService<String> queries = new ExecutorCompletionService<String>(executor);
+        GuacamoleException failure = null;
+        int pending = 0;
+        for (final String node : nodes) {
+
+            if (isPending(unreachable.get(node))) {
+                failure = new GuacamoleUpstreamException("Node \"" + node
+                        + "\" was recently unreachable.");
+                continue;
+            }
+
+            queries.submit(new Callable<String>() {
+
+                @Override
+                public String call() throws GuacamoleException {
+                    return query(node, tunnelUUID);
+                }
+
+            });
+            pending++;
+
+        }
+
+        // Use the first node reporting ownership, leaving any remaining
+        // queries to complete in the background
+        try {
+            for (; pending > 0; pending--) {
+                try {
+                    location = queries.take().get();
+                    if (location != null) {
+                        locations.put(tunnelUUID, location);
+                        return location;
+                    }
+                }
+                catch (ExecutionException e) {
+                    failure = (GuacamoleException) e.getCause();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while locating tunnel.", e);
+        }
+
+        // Report failure only if the tunnel may be owned by a node which
+        // could not be reached
+        if (failure != null)
+            throw failure;
+
+        misses.put(tunnelUUID, System.currentTimeMillis() + MISS_DURATION);
+        return null;
+
+    }
+
+    /**
+     * Stops all threads used to query other nodes. This function must be
+     * invoked once the locator is no longer needed, such as when the web
+     * application is being undeployed.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,672 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.io.AsynchronousGuacamoleReader;
+import org.apache.guacamole.io.GuacamoleReadListener;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.metrics.TunnelMetrics;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GuacamoleHTTPTunnelServlet which services read requests asynchronously,
+ * releasing the container thread while waiting for data from guacd. Data is
+ * written to the response of the oldest outstanding read request as it is
+ * received, using the same wire format as GuacamoleHTTPTunnelServlet. Read
+ * requests are serviced synchronously, exactly as by
+ * GuacamoleHTTPTunnelServlet, if the request does not support asynchronous
+ * processing or if the underlying socket cannot notify a listener as data is
+ * received.
+ *
+ * This servlet is an alternative to GuacamoleHTTPTunnelServlet, and must be
+ * chosen explicitly. It requires a Servlet 3.0 container, and read requests
+ * are serviced asynchronously only if asynchronous processing is enabled for
+ * this servlet and for every filter through which it is reached. The
+ * Guacamole web application targets Servlet 2.5 and does not use this
+ * servlet.
+ */
+public abstract class GuacamoleAsyncHTTPTunnelServlet extends GuacamoleHTTPTunnelServlet {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(GuacamoleAsyncHTTPTunnelServlet.class);
+
+    /**
+     * Threads which write received data to the responses of read requests.
+     * Writes to a response may block on a slow client, and are thus never
+     * performed by the worker threads of the socket multiplexer, which are
+     * shared by all connections. Each tunnel has at most one write task
+     * queued or in progress. These threads are stopped when the servlet is
+     * destroyed.
+     */
+    private final ExecutorService writeExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-http-tunnel-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Map of all tunnels currently being read asynchronously to the object
+     * servicing their read requests, indexed by tunnel UUID.
+     */
+    private final ConcurrentMap<String, AsyncTunnelReader> readers =
+            new ConcurrentHashMap<String, AsyncTunnelReader>();
+
+    @Override
+    protected void deregisterTunnel(GuacamoleTunnel tunnel) {
+
+        super.deregisterTunnel(tunnel);
+
+        // Complete any outstanding read requests
+        AsyncTunnelReader reader = readers.remove(tunnel.getUUID().toString());
+        if (reader != null)
+            reader.close();
+
+    }
+
+    /**
+     * Returns the AsyncTunnelReader which services read requests for the
+     * given tunnel, creating a new AsyncTunnelReader if necessary.
+     *
+     * @param tunnel
+     *     The tunnel being read from.
+     *
+     * @param socketReader
+     *     The reader of the socket underlying the given tunnel.
+     *
+     * @return
+     *     The AsyncTunnelReader which services read requests for the given
+     *     tunnel.
+     */
+    private AsyncTunnelReader getReader(GuacamoleTunnel tunnel,
+            AsynchronousGuacamoleReader socketReader) {
+
+        String tunnelUUID = tunnel.getUUID().toString();
+
+        // Use existing reader, if any
+        AsyncTunnelReader reader = readers.get(tunnelUUID);
+        if (reader != null)
+            return reader;
+
+        // Otherwise, create new reader, unless created concurrently
+        reader = new AsyncTunnelReader(tunnel, socketReader);
+        AsyncTunnelReader existing = readers.putIfAbsent(tunnelUUID, reader);
+        if (existing != null)
+            return existing;
+
+        return reader;
+
+    }
+
+    @Override
+    protected void doRead(HttpServletRequest request,
+            HttpServletResponse response, String tunnelUUID)
+            throws GuacamoleException {
+
+        // Get tunnel, ensure tunnel exists
+        GuacamoleTunnel tunnel = getTunnel(tunnelUUID);
+
+        // Read synchronously if data cannot be read asynchronously (the
+        // socket of a tunnel which is being read ahead never allows this,
+        // as the read-ahead consumes all asynchronous notifications)
+        GuacamoleReader socketReader = tunnel.getSocket().getReader();
+        if (!isAsyncSupported(request)
+                || !(socketReader instanceof AsynchronousGuacamoleReader)) {
+            super.doRead(request, response, tunnelUUID);
+            return;
+        }
+
+        // Ensure tunnel is open
+        if (!tunnel.isOpen())
+            throw new GuacamoleResourceNotFoundException("Tunnel is closed.");
+
+        // Note that although we are sending text, Webkit browsers will
+        // buffer 1024 bytes before starting a normal stream if we use
+        // anything but application/octet-stream.
+        response.setContentType("application/octet-stream");
+        response.setHeader("Cache-Control", "no-cache");
+
+        // Release container thread until data is available
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+
+        // Stop waiting for data if the client goes away, rather than holding
+        // the request until the tunnel expires
+        final AsyncTunnelReader reader = getReader(tunnel, (AsynchronousGuacamoleReader) socketReader);
+        context.addListener(new AsyncListener() {
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                // Nothing to clean up
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                reader.discard(context);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                reader.discard(context);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // Not restarted
+            }
+
+        });
+
+        reader.add(context);
+
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        writeExecutor.shutdownNow();
+    }
+
+    /**
+     * Listener which services the outstanding read requests of a single
+     * tunnel as data is received, writing to the response of the oldest
+     * outstanding request until that response has been open long enough and
+     * another request is waiting.
+     */
+    private class AsyncTunnelReader implements GuacamoleReadListener {
+
+        /**
+         * The tunnel being read from.
+         */
+        private final GuacamoleTunnel tunnel;
+
+        /**
+         * The reader of the socket underlying the tunnel, which notifies
+         * this listener as data is received.
+         */
+        private final AsynchronousGuacamoleReader socketReader;
+
+        /**
+         * Lock guarding the queue of waiting read requests.
+         */
+        private final Object pendingLock = new Object();
+
+        /**
+         * All read requests which are waiting to receive data, in the order
+         * received.
+         */
+        private final LinkedList<AsyncContext> pending = new LinkedList<AsyncContext>();
+
+        /**
+         * Whether this reader has been closed, such that further read
+         * requests should be completed immediately.
+         */
+        private boolean closed = false;
+
+        /**
+         * The metrics of the tunnel being read from.
+         */
+        private final TunnelMetrics metrics;
+
+        /**
+         * The read request currently receiving data, or null if no read
+         * request is currently receiving data.
+         */
+        private AsyncContext current;
+
+        /**
+         * The buffer of data being written to the response of the current
+         * read request, or null if no read request is currently receiving
+         * data.
+         */
+        private ResponseBuffer buffer;
+
+        /**
+         * The time after which the current read request may yield to the
+         * next read request, in milliseconds since the epoch.
+         */
+        private long yieldTime;
+
+        /**
+         * The number of bytes after which the current read request may yield
+         * to the next read request.
+         */
+        private long yieldLength;
+
+        /**
+         * Lock guarding the state of the write task.
+         */
+        private final Object writeLock = new Object();
+
+        /**
+         * Whether the write task is queued or running.
+         */
+        private boolean writing = false;
+
+        /**
+         * Whether the write task must run again once it completes, as data
+         * was received while it was running.
+         */
+        private boolean rewrite = false;
+
+        /**
+         * Task which writes all available data to the current read request,
+         * running again for as long as further data is received while it
+         * runs.
+         */
+        private final Runnable writeTask = new Runnable() {
+
+            @Override
+            public void run() {
+
+                boolean again;
+                do {
+
+                    write();
+
+                    synchronized (writeLock) {
+                        again = rewrite;
+                        rewrite = false;
+                        writing = again;
+                    }
+
+                } while (again);
+
+            }
+
+        };
+
+        /**
+         * Creates a new AsyncTunnelReader which services read requests for
+         * the given tunnel.
+         *
+         * @param tunnel
+         *     The tunnel being read from.
+         *
+         * @param socketReader
+         *     The reader of the socket underlying the given tunnel.
+         */
+        public AsyncTunnelReader(GuacamoleTunnel tunnel,
+                AsynchronousGuacamoleReader socketReader) {
+            this.tunnel = tunnel;
+            this.socketReader = socketReader;
+            this.metrics = getMetrics(tunnel);
+        }
+
+        /**
+         * Adds the given read request to the queue of requests waiting to
+         * receive data, requesting notification if data is already
+         * available.
+         *
+         * @param context
+         *     The asynchronous context of the read request.
+         */
+        public void add(AsyncContext context) {
+
+            synchronized (pendingLock) {
+                if (!closed) {
+                    pending.add(context);
+                    context = null;
+                }
+            }
+
+            // Complete immediately if already closed
+            if (context != null) {
+                finish(context, null);
+                return;
+            }
+
+            // Receive data for this request as soon as possible
+            socketReader.setReadListener(this);
+
+        }
+
+        /**
+         * Removes the given read request, which has failed or timed out
+         * within the container, such that no further data is written to it.
+         * If the request was receiving data, the next waiting read request
+         * takes over once further data is received.
+         *
+         * @param context
+         *     The asynchronous context of the read request to remove.
+         */
+        public void discard(AsyncContext context) {
+
+            boolean waiting;
+            synchronized (pendingLock) {
+                waiting = pending.remove(context);
+            }
+
+            // Otherwise drop the current request, once any write to it
+            // in progress has failed or completed
+            if (!waiting) {
+                synchronized (this) {
+                    if (current != context)
+                        return;
+                    buffer.release();
+                    current = null;
+                    buffer = null;
+                }
+            }
+
+            context.complete();
+
+        }
+
+        /**
+         * Replaces the current read request with the next waiting read
+         * request, if any, completing the current read request.
+         *
+         * @param force
+         *     Whether the current read request should be completed even if
+         *     no other read request is waiting.
+         *
+         * @return
+         *     true if a read request is now current, false otherwise.
+         */
+        private boolean next(boolean force) {
+
+            AsyncContext next;
+            synchronized (pendingLock) {
+
+                // Continue with current request if no other request waits
+                if (pending.isEmpty() && !force)
+                    return current != null;
+
+                next = pending.poll();
+
+            }
+
+            // Complete current request
+            if (current != null)
+                finish(current, buffer);
+
+            current = next;
+            buffer = null;
+
+            // Begin streaming to next request, if any
+            if (next != null) {
+                buffer = new ResponseBuffer(getOutputStream(next), metrics);
+                yieldTime = System.currentTimeMillis() + getStreamingReadDuration();
+                yieldLength = getStreamingReadLength();
+            }
+
+            return next != null;
+
+        }
+
+        /**
+         * Returns the OutputStream of the response associated with the given
+         * read request.
+         *
+         * @param context
+         *     The asynchronous context of the read request.
+         *
+         * @return
+         *     The OutputStream of the response associated with the given read
+         *     request, or an OutputStream which discards all data if the
+         *     OutputStream cannot be retrieved.
+         */
+        private OutputStream getOutputStream(AsyncContext context) {
+
+            try {
+                return context.getResponse().getOutputStream();
+            }
+            catch (IOException e) {
+                logger.debug("Unable to get servlet output stream.", e);
+            }
+
+            // Discard data which cannot be written
+            return new OutputStream() {
+
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Servlet output stream unavailable.");
+                }
+
+            };
+
+        }
+
+        /**
+         * Writes the end-of-instructions marker to the response associated
+         * with the given read request, and completes that request.
+         *
+         * @param context
+         *     The asynchronous context of the read request.
+         *
+         * @param buffer
+         *     The buffer containing data not yet written to the response, or
+         *     null if no data has been buffered.
+         */
+        private void finish(AsyncContext context, ResponseBuffer buffer) {
+
+            try {
+
+                // Write any buffered data
+                if (buffer != null) {
+                    try {
+                        buffer.flush();
+                    }
+                    finally {
+                        buffer.release();
+                    }
+                }
+
+                // End-of-instructions marker
+                OutputStream out = context.getResponse().getOutputStream();
+                out.write(END_OF_INSTRUCTIONS);
+                out.flush();
+                out.close();
+
+            }
+            catch (IOException e) {
+                logger.debug("Error writing to servlet output stream", e);
+            }
+            finally {
+                context.complete();
+            }
+
+        }
+
+        /**
+         * Completes all outstanding read requests, including the current
+         * request. Further read requests are completed immediately.
+         */
+        public synchronized void close() {
+
+            // Complete all waiting requests
+            LinkedList<AsyncContext> remaining;
+            synchronized (pendingLock) {
+                closed = true;
+                remaining = new LinkedList<AsyncContext>(pending);
+                pending.clear();
+            }
+
+            for (AsyncContext context : remaining)
+                finish(context, null);
+
+            // Complete current request
+            next(true);
+
+        }
+
+        /**
+         * Sends an error describing the given exception in response to the
+         * current read request, closing the tunnel and completing all other
+         * outstanding read requests.
+         *
+         * @param e
+         *     The exception which prevents further reads.
+         */
+        private void fail(GuacamoleException e) {
+
+            AsyncContext failed = current;
+            ResponseBuffer failedBuffer = buffer;
+            current = null;
+            buffer = null;
+
+            try {
+                sendError((HttpServletResponse) failed.getResponse(),
+                        e.getStatus(), "Internal server error.");
+            }
+            catch (ServletException se) {
+                logger.debug("Unable to send error for HTTP tunnel read.", se);
+            }
+            finally {
+                failedBuffer.release();
+                failed.complete();
+            }
+
+            closeTunnel();
+
+        }
+
+        /**
+         * Deregisters and closes the tunnel, completing all outstanding read
+         * requests.
+         */
+        private void closeTunnel() {
+
+            deregisterTunnel(tunnel);
+
+            try {
+                tunnel.close();
+            }
+            catch (GuacamoleException e) {
+                logger.debug("Unable to close HTTP tunnel.", e);
+            }
+
+        }
+
+        @Override
+        public void readReady() {
+
+            // Hand off to the write task, which may block, unless already
+            // queued or running
+            synchronized (writeLock) {
+                if (writing) {
+                    rewrite = true;
+                    return;
+                }
+                writing = true;
+            }
+
+            writeExecutor.execute(writeTask);
+
+        }
+
+        /**
+         * Writes all data which can be read from the tunnel without blocking
+         * to the current read request, if any, flushing the response once no
+         * further data is available.
+         */
+        private synchronized void write() {
+
+            // Clean up if the tunnel was closed elsewhere
+            if (!tunnel.isOpen() && current == null) {
+                closeTunnel();
+                return;
+            }
+
+            // Leave data unread until a read request is waiting
+            if (current == null && !next(false))
+                return;
+
+            GuacamoleReader reader = tunnel.acquireReader();
+
+            try {
+
+                // Read only while doing so will not block (available() is
+                // false if only filtered instructions were received)
+                while (reader.available()) {
+
+                    // Close tunnel immediately upon EOF
+                    if (!buffer.append(reader)) {
+                        closeTunnel();
+                        return;
+                    }
+
+                    // Allow another request to take over once this request
+                    // has been open long enough
+                    if (buffer.getLength() >= yieldLength
+                            || System.currentTimeMillis() >= yieldTime)
+                        next(false);
+
+                }
+
+                // Flush, as no further data is available
+                buffer.flush();
+                current.getResponse().flushBuffer();
+
+            }
+
+            // Send end-of-stream marker and close tunnel if connection is
+            // closed
+            catch (GuacamoleConnectionClosedException e) {
+                logger.debug("Connection to guacd closed.", e);
+                closeTunnel();
+            }
+            catch (GuacamoleException e) {
+                logger.error("HTTP tunnel request failed: {}", e.getMessage());
+                logger.debug("Internal error in HTTP tunnel.", e);
+                fail(e);
+            }
+
+            // Log typically frequent I/O error if desired
+            catch (IOException e) {
+                logger.debug("Error writing to servlet output stream", e);
+                closeTunnel();
+            }
+
+            finally {
+                tunnel.releaseReader();
+            }
+
+        }
+
+    }
+
+}
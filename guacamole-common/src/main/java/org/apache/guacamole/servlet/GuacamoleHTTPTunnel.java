@@ -19,6 +19,8 @@
 
 package org.apache.guacamole.servlet;
 
+import org.apache.guacamole.metrics.TunnelMetrics;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
 import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
 import org.apache.guacamole.net.GuacamoleTunnel;
 
@@ -41,6 +43,12 @@ class GuacamoleHTTPTunnel extends DelegatingGuacamoleTunnel {
      */
     private long lastAccessedTime;
 
+    /**
+     * The metrics of this tunnel, or null if not yet retrieved from the
+     * TunnelMetricsRegistry.
+     */
+    private volatile TunnelMetrics metrics;
+
     /**
      * Creates a new GuacamoleHTTPTunnel which wraps the given tunnel.
      * Absolutely all function calls on this new GuacamoleHTTPTunnel will be
@@ -72,4 +80,22 @@ class GuacamoleHTTPTunnel extends DelegatingGuacamoleTunnel {
         return lastAccessedTime;
     }
 
+    /**
+     * Returns the metrics of this tunnel, retrieving those metrics from the
+     * TunnelMetricsRegistry only when first needed, such that requests for
+     * this tunnel need not consult the registry.
+     *
+     * @return
+     *     The metrics of this tunnel.
+     */
+    public TunnelMetrics getMetrics() {
+
+        TunnelMetrics currentMetrics = metrics;
+        if (currentMetrics == null)
+            metrics = currentMetrics = TunnelMetricsRegistry.getMetrics(this);
+
+        return currentMetrics;
+
+    }
+
 }
@@ -19,15 +19,11 @@
 
 package org.apache.guacamole.servlet;
 
-import java.util.Iterator;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.util.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,17 +43,16 @@ class GuacamoleHTTPTunnelMap {
     private static final Logger logger = LoggerFactory.getLogger(GuacamoleHTTPTunnelMap.class);
 
     /**
-     * The number of seconds to wait between tunnel accesses before timing out
-     * Note that this will be enforced only within a factor of 2. If a tunnel
-     * is unused, it will take between TUNNEL_TIMEOUT and TUNNEL_TIMEOUT*2
-     * seconds before that tunnel is closed and removed.
+     * The number of seconds to wait between tunnel accesses before timing out.
+     * Note that this will be enforced only to within TUNNEL_EXPIRY_PRECISION
+     * milliseconds.
      */
     private static final int TUNNEL_TIMEOUT = 15;
 
     /**
-     * Executor service which runs the periodic tunnel timeout task.
+     * The precision with which TUNNEL_TIMEOUT is enforced, in milliseconds.
      */
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    private static final long TUNNEL_EXPIRY_PRECISION = 1000;
 
     /**
      * Map of all tunnels that are using HTTP, indexed by tunnel UUID.
@@ -66,23 +61,18 @@ class GuacamoleHTTPTunnelMap {
             new ConcurrentHashMap<String, GuacamoleHTTPTunnel>();
 
     /**
-     * Creates a new GuacamoleHTTPTunnelMap which automatically closes and
-     * removes HTTP tunnels which are no longer in use.
+     * Timing wheel which closes and removes tunnels which have not been
+     * accessed for TUNNEL_TIMEOUT seconds, scheduled by tunnel UUID.
      */
-    public GuacamoleHTTPTunnelMap() {
-
-        // Check for unused tunnels every few seconds
-        executor.scheduleAtFixedRate(
-            new TunnelTimeoutTask(TUNNEL_TIMEOUT * 1000l),
-            TUNNEL_TIMEOUT, TUNNEL_TIMEOUT, TimeUnit.SECONDS);
-
-    }
+    private final TimingWheel<String> expiry = new TunnelTimingWheel(TUNNEL_TIMEOUT * 1000l);
 
     /**
-     * Task which iterates through all registered tunnels, removing and those
-     * tunnels which have not been accessed for a given number of milliseconds.
+     * Timing wheel which closes and removes tunnels which have not been
+     * accessed for a given number of milliseconds. Only tunnels whose
+     * deadlines have passed are examined, each being rescheduled if it has
+     * been accessed since.
      */
-    private class TunnelTimeoutTask implements Runnable {
+    private class TunnelTimingWheel extends TimingWheel<String> {
 
         /**
          * The maximum amount of time to allow between accesses to any one
@@ -91,55 +81,63 @@ class GuacamoleHTTPTunnelMap {
         private final long tunnelTimeout;
 
         /**
-         * Creates a new task which automatically closes and removes tunnels
-         * which have not been accessed for at least the given number of
-         * milliseconds.
+         * Creates a new timing wheel which automatically closes and removes
+         * tunnels which have not been accessed for at least the given number
+         * of milliseconds.
          *
          * @param tunnelTimeout
          *     The maximum amount of time to allow between separate tunnel
          *     read/write requests, in milliseconds.
          */
-        public TunnelTimeoutTask(long tunnelTimeout) {
+        public TunnelTimingWheel(long tunnelTimeout) {
+            super(TUNNEL_EXPIRY_PRECISION, tunnelTimeout);
             this.tunnelTimeout = tunnelTimeout;
         }
 
         @Override
-        public void run() {
-
-            // Get current time
-            long now = System.currentTimeMillis();
-
-            // For each tunnel, close and remove any tunnels which have expired
-            Iterator<Map.Entry<String, GuacamoleHTTPTunnel>> entries = tunnelMap.entrySet().iterator();
-            while (entries.hasNext()) {
+        protected long expired(String uuid, long now) {
 
-                Map.Entry<String, GuacamoleHTTPTunnel> entry = entries.next();
-                GuacamoleHTTPTunnel tunnel = entry.getValue();
+            // Ignore tunnels which have already been removed
+            GuacamoleHTTPTunnel tunnel = tunnelMap.get(uuid);
+            if (tunnel == null)
+                return 0;
 
-                // Get elapsed time since last access
-                long age = now - tunnel.getLastAccessedTime();
+            // Check again later if the tunnel has been accessed since
+            long deadline = tunnel.getLastAccessedTime() + tunnelTimeout;
+            if (deadline > now)
+                return deadline;
 
-                // If tunnel is too old, close and remove it
-                if (age >= tunnelTimeout) {
+            // Remove old entry, unless already removed or replaced
+            if (!tunnelMap.remove(uuid, tunnel))
+                return 0;
 
-                    // Remove old entry
-                    logger.debug("HTTP tunnel \"{}\" has timed out.", entry.getKey());
-                    entries.remove();
+            logger.debug("HTTP tunnel \"{}\" has timed out.", uuid);
+            tunnelExpired(uuid);
 
-                    // Attempt to close tunnel
-                    try {
-                        tunnel.close();
-                    }
-                    catch (GuacamoleException e) {
-                        logger.debug("Unable to close expired HTTP tunnel.", e);
-                    }
+            // Attempt to close tunnel
+            try {
+                tunnel.close();
+            }
+            catch (GuacamoleException e) {
+                logger.debug("Unable to close expired HTTP tunnel.", e);
+            }
 
-                }
+            return 0;
 
-            } // end for each tunnel
+        }
 
-        } // end timeout task run()
+    }
 
+    /**
+     * Called whenever a tunnel is removed from this map due to timing out,
+     * immediately before that tunnel is closed. By default, this function
+     * has no effect.
+     *
+     * @param uuid
+     *     The UUID of the tunnel which has timed out.
+     */
+    protected void tunnelExpired(String uuid) {
+        // Do nothing by default
     }
 
     /**
@@ -179,7 +177,23 @@ class GuacamoleHTTPTunnelMap {
      *     having just been established via HTTP.
      */
     public void put(String uuid, GuacamoleTunnel tunnel) {
-        tunnelMap.put(uuid, new GuacamoleHTTPTunnel(tunnel));
+        GuacamoleHTTPTunnel httpTunnel = new GuacamoleHTTPTunnel(tunnel);
+        tunnelMap.put(uuid, httpTunnel);
+        expiry.schedule(uuid, httpTunnel.getLastAccessedTime() + TUNNEL_TIMEOUT * 1000l);
+    }
+
+    /**
+     * Returns whether a GuacamoleTunnel having the given UUID exists, without
+     * marking that tunnel as accessed.
+     *
+     * @param uuid
+     *     The UUID of the tunnel to test for.
+     *
+     * @return
+     *     true if a tunnel having the given UUID exists, false otherwise.
+     */
+    public boolean contains(String uuid) {
+        return tunnelMap.containsKey(uuid);
     }
 
     /**
@@ -204,7 +218,7 @@ class GuacamoleHTTPTunnelMap {
      * registered and reclaiming any resources.
      */
     public void shutdown() {
-        executor.shutdownNow();
+        expiry.shutdown();
     }
 
 }
@@ -19,13 +19,21 @@
 
 package org.apache.guacamole.servlet;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,9 +42,16 @@ import org.apache.guacamole.GuacamoleConnectionClosedException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.io.ByteBufferPool;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleByteWriter;
+import org.apache.guacamole.io.GuacamoleInstructionFramer;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.metrics.TunnelMetrics;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleParser;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,7 +72,56 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
     /**
      * Map of absolutely all active tunnels using HTTP, indexed by tunnel UUID.
      */
-    private final GuacamoleHTTPTunnelMap tunnels = new GuacamoleHTTPTunnelMap();
+    private final GuacamoleHTTPTunnelMap tunnels = new GuacamoleHTTPTunnelMap() {
+
+        @Override
+        protected void tunnelExpired(String uuid) {
+            unregisterLocation(uuid);
+        }
+
+    };
+
+    /**
+     * Forwarder which passes read and write requests for tunnels owned by
+     * other nodes to those nodes.
+     */
+    private final HTTPTunnelRequestForwarder forwarder = new HTTPTunnelRequestForwarder();
+
+    /**
+     * Threads which locate tunnels owned by other nodes and forward requests
+     * to those nodes once the container thread has been released. A
+     * forwarded read request remains open for as long as the owning node
+     * streams its response, and would otherwise occupy a container thread
+     * throughout. These threads are stopped when the servlet is destroyed.
+     */
+    private final ExecutorService forwardExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-tunnel-forwarder");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Threads which read ahead from tunnels whose sockets cannot notify a
+     * listener as data is received, if reading ahead is enabled. These
+     * threads are stopped when the servlet is destroyed.
+     */
+    private final ExecutorService prefetchExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "guacamole-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
 
     /**
      * The prefix of the query string which denotes a tunnel read operation.
@@ -69,6 +133,13 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      */
     private static final String WRITE_PREFIX = "write:";
 
+    /**
+     * The prefix of the query string which denotes a request to determine
+     * whether a tunnel is registered with this servlet. Such requests are
+     * made by other nodes via ClusterTunnelLocator, and are never forwarded.
+     */
+    static final String LOCATE_PREFIX = "locate:";
+
     /**
      * The length of the read prefix, in characters.
      */
@@ -84,6 +155,94 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      */
     private static final int UUID_LENGTH = 36;
 
+    /**
+     * The UTF-8 bytes of the instruction which marks the end of each HTTP
+     * response to a read request.
+     */
+    static final byte[] END_OF_INSTRUCTIONS = { '0', '.', ';' };
+
+    /**
+     * The size of each pooled buffer used to stream instructions in response
+     * to read requests, in bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The default minimum amount of time that a response to a read request
+     * remains open before yielding to the next read request, in milliseconds.
+     */
+    public static final int DEFAULT_STREAMING_READ_DURATION = 1000;
+
+    /**
+     * The default minimum number of bytes written in response to a read
+     * request before yielding to the next read request.
+     */
+    public static final int DEFAULT_STREAMING_READ_LENGTH = 1048576;
+
+    /**
+     * The default number of bytes which may be read ahead from each tunnel
+     * while no read request is in progress. Tunnels are not read ahead by
+     * default.
+     */
+    public static final int DEFAULT_PREFETCH_LENGTH = 0;
+
+    /**
+     * The default number of bytes which may be read ahead across all
+     * tunnels.
+     */
+    public static final long DEFAULT_PREFETCH_LIMIT = 67108864;
+
+    /**
+     * The UTF-8 charset.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Pool of buffers shared by all responses to read requests.
+     */
+    private static final ByteBufferPool bufferPool = new ByteBufferPool(BUFFER_SIZE, 64);
+
+    /**
+     * Whether the servlet container implements Servlet 3.0 or later, and
+     * thus may allow requests to be processed asynchronously. Servlet 2.5
+     * containers lack the relevant methods entirely.
+     */
+    private static final boolean ASYNC_AVAILABLE = isAsyncAvailable();
+
+    /**
+     * Returns whether the servlet API available at runtime provides
+     * asynchronous processing of requests.
+     *
+     * @return
+     *     true if the Servlet 3.0 API or later is available, false
+     *     otherwise.
+     */
+    private static boolean isAsyncAvailable() {
+        try {
+            ServletRequest.class.getMethod("isAsyncSupported");
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the given request may be processed asynchronously.
+     * Unlike invoking isAsyncSupported() on the request directly, this
+     * function may be used within Servlet 2.5 containers.
+     *
+     * @param request
+     *     The request to test.
+     *
+     * @return
+     *     true if the given request may be processed asynchronously, false
+     *     otherwise.
+     */
+    static boolean isAsyncSupported(HttpServletRequest request) {
+        return ASYNC_AVAILABLE && request.isAsyncSupported();
+    }
+
     /**
      * Registers the given tunnel such that future read/write requests to that
      * tunnel will be properly directed.
@@ -92,8 +251,24 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      *     The tunnel to register.
      */
     protected void registerTunnel(GuacamoleTunnel tunnel) {
-        tunnels.put(tunnel.getUUID().toString(), tunnel);
-        logger.debug("Registered tunnel \"{}\".", tunnel.getUUID());
+
+        String uuid = tunnel.getUUID().toString();
+        tunnels.put(uuid, tunnel);
+        logger.debug("Registered tunnel \"{}\".", uuid);
+
+        // Advertise tunnel to other nodes, if clustered
+        TunnelLocator locator = getTunnelLocator();
+        if (locator != null) {
+            try {
+                locator.register(uuid);
+            }
+            catch (GuacamoleException e) {
+                logger.warn("Tunnel \"{}\" will not be reachable from other "
+                        + "nodes: {}", uuid, e.getMessage());
+                logger.debug("Unable to register tunnel location.", e);
+            }
+        }
+
     }
 
     /**
@@ -104,8 +279,165 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      *     The tunnel to deregister.
      */
     protected void deregisterTunnel(GuacamoleTunnel tunnel) {
-        tunnels.remove(tunnel.getUUID().toString());
-        logger.debug("Deregistered tunnel \"{}\".", tunnel.getUUID());
+        String uuid = tunnel.getUUID().toString();
+        tunnels.remove(uuid);
+        unregisterLocation(uuid);
+        logger.debug("Deregistered tunnel \"{}\".", uuid);
+    }
+
+    /**
+     * Removes any record of the location of the tunnel having the given UUID
+     * from the TunnelLocator returned by getTunnelLocator(), if any. Errors
+     * are logged but otherwise ignored.
+     *
+     * @param uuid
+     *     The UUID of the tunnel which is no longer owned by this node.
+     */
+    private void unregisterLocation(String uuid) {
+
+        TunnelLocator locator = getTunnelLocator();
+        if (locator == null)
+            return;
+
+        try {
+            locator.unregister(uuid);
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to unregister location of tunnel \"{}\".", uuid, e);
+        }
+
+    }
+
+    /**
+     * Returns the TunnelLocator which should be used to locate tunnels owned
+     * by other nodes within a cluster. Tunnels registered with this servlet
+     * are recorded within that locator, and read/write requests for tunnels
+     * not registered with this servlet are forwarded to the node reported by
+     * that locator. By default, no locator is used, and only tunnels
+     * registered with this servlet can be used.
+     *
+     * @return
+     *     The TunnelLocator which should be used to locate tunnels owned by
+     *     other nodes, or null if tunnels should not be located.
+     */
+    protected TunnelLocator getTunnelLocator() {
+        return null;
+    }
+
+    /**
+     * Forwards the given read or write request to the node which owns the
+     * tunnel having the given UUID, if that tunnel is not registered with
+     * this servlet and is known to be owned by a different node. If the
+     * container supports asynchronous processing, the tunnel is located and
+     * the request forwarded only after the container thread has been
+     * released, and any failure is reported directly within the response.
+     *
+     * @param request
+     *     The HTTP tunnel read or write request received.
+     *
+     * @param response
+     *     The response to the HTTP tunnel read or write request received.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel being read from or written to.
+     *
+     * @return
+     *     true if the request is being forwarded and no further handling is
+     *     needed, false if the request should be handled locally.
+     *
+     * @throws GuacamoleException
+     *     If the location of the tunnel cannot be determined, or the request
+     *     cannot be forwarded.
+     */
+    private boolean forwardRemoteRequest(HttpServletRequest request,
+            HttpServletResponse response, final String tunnelUUID)
+            throws GuacamoleException {
+
+        // Handle locally unless clustered and tunnel is not local
+        final TunnelLocator locator = getTunnelLocator();
+        if (locator == null || forwarder.isForwarded(request)
+                || tunnels.get(tunnelUUID) != null)
+            return false;
+
+        // Locate and forward synchronously if the container thread cannot be
+        // released, handling locally (and failing) if the tunnel is unknown
+        if (!isAsyncSupported(request)) {
+
+            String location = locator.locate(tunnelUUID);
+            if (location == null)
+                return false;
+
+            logger.trace("Forwarding request for tunnel \"{}\" to \"{}\".", tunnelUUID, location);
+            forwarder.forward(request, response, location);
+            return true;
+
+        }
+
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+
+        forwardExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+
+                HttpServletResponse asyncResponse = (HttpServletResponse) context.getResponse();
+                try {
+
+                    String location = locator.locate(tunnelUUID);
+                    if (location == null)
+                        throw new GuacamoleResourceNotFoundException("No such tunnel.");
+
+                    logger.trace("Forwarding request for tunnel \"{}\" to \"{}\".", tunnelUUID, location);
+                    forwarder.forward((HttpServletRequest) context.getRequest(),
+                            asyncResponse, location);
+
+                }
+                catch (GuacamoleClientException e) {
+                    logger.warn("HTTP tunnel request rejected: {}", e.getMessage());
+                    sendAsyncError(asyncResponse, e.getStatus(), e.getMessage());
+                }
+                catch (GuacamoleException e) {
+                    logger.error("HTTP tunnel request failed: {}", e.getMessage());
+                    logger.debug("Unable to forward HTTP tunnel request.", e);
+                    sendAsyncError(asyncResponse, e.getStatus(), "Internal server error.");
+                }
+                finally {
+                    context.complete();
+                }
+
+            }
+
+        });
+
+        return true;
+
+    }
+
+    /**
+     * Sends an error on the given HTTP response, which belongs to a request
+     * being handled asynchronously, logging rather than throwing any failure
+     * to do so.
+     *
+     * @param response
+     *     The HTTP response to use to send the error.
+     *
+     * @param guacStatus
+     *     The status to send
+     *
+     * @param message
+     *     A human-readable message that can be presented to the user.
+     */
+    private void sendAsyncError(HttpServletResponse response,
+            GuacamoleStatus guacStatus, String message) {
+
+        try {
+            sendError(response, guacStatus, message);
+        }
+        catch (ServletException e) {
+            logger.debug("Unable to send error for forwarded HTTP tunnel request.", e);
+        }
+
     }
 
     /**
@@ -215,6 +547,13 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                 GuacamoleTunnel tunnel = doConnect(request);
                 if (tunnel != null) {
 
+                    // Read ahead between read requests, if enabled
+                    int prefetchLength = getPrefetchLength();
+                    if (prefetchLength > 0)
+                        tunnel = new PrefetchingGuacamoleTunnel(tunnel,
+                                prefetchLength, getPrefetchLimit(),
+                                prefetchExecutor);
+
                     // Register newly-created tunnel
                     registerTunnel(tunnel);
 
@@ -238,18 +577,35 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             }
 
             // If read operation, call doRead() with tunnel UUID, ignoring any
-            // characters following the tunnel UUID.
-            else if(query.startsWith(READ_PREFIX))
-                doRead(request, response, query.substring(
+            // characters following the tunnel UUID, unless the tunnel is
+            // owned by another node.
+            else if(query.startsWith(READ_PREFIX)) {
+                String tunnelUUID = query.substring(
                         READ_PREFIX_LENGTH,
-                        READ_PREFIX_LENGTH + UUID_LENGTH));
+                        READ_PREFIX_LENGTH + UUID_LENGTH);
+                if (!forwardRemoteRequest(request, response, tunnelUUID))
+                    doRead(request, response, tunnelUUID);
+            }
 
             // If write operation, call doWrite() with tunnel UUID, ignoring any
-            // characters following the tunnel UUID.
-            else if(query.startsWith(WRITE_PREFIX))
-                doWrite(request, response, query.substring(
+            // characters following the tunnel UUID, unless the tunnel is
+            // owned by another node.
+            else if(query.startsWith(WRITE_PREFIX)) {
+                String tunnelUUID = query.substring(
                         WRITE_PREFIX_LENGTH,
-                        WRITE_PREFIX_LENGTH + UUID_LENGTH));
+                        WRITE_PREFIX_LENGTH + UUID_LENGTH);
+                if (!forwardRemoteRequest(request, response, tunnelUUID))
+                    doWrite(request, response, tunnelUUID);
+            }
+
+            // If another node is locating a tunnel, report whether that
+            // tunnel is registered here, without affecting its expiry
+            else if (query.startsWith(LOCATE_PREFIX)) {
+                String tunnelUUID = query.substring(LOCATE_PREFIX.length());
+                response.setStatus(tunnels.contains(tunnelUUID)
+                        ? HttpServletResponse.SC_NO_CONTENT
+                        : HttpServletResponse.SC_NOT_FOUND);
+            }
 
             // Otherwise, invalid operation
             else
@@ -335,45 +691,23 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             response.setContentType("application/octet-stream");
             response.setHeader("Cache-Control", "no-cache");
 
-            // Get writer for response
-            Writer out = new BufferedWriter(new OutputStreamWriter(
-                    response.getOutputStream(), "UTF-8"));
+            // Get output stream for response
+            OutputStream out = response.getOutputStream();
 
             // Stream data to response, ensuring output stream is closed
             try {
 
-                // Deregister tunnel and throw error if we reach EOF without
-                // having ever sent any data
-                char[] message = reader.read();
-                if (message == null)
-                    throw new GuacamoleConnectionClosedException("Tunnel reached end of stream.");
-
-                // For all messages, until another stream is ready (we send at least one message)
-                do {
-
-                    // Get message output bytes
-                    out.write(message, 0, message.length);
-
-                    // Flush if we expect to wait
-                    if (!reader.available()) {
-                        out.flush();
-                        response.flushBuffer();
-                    }
-
-                    // No more messages another stream can take over
-                    if (tunnel.hasQueuedReaderThreads())
-                        break;
-
-                } while (tunnel.isOpen() && (message = reader.read()) != null);
+                // Stream instructions until the next request takes over
+                boolean endOfStream = streamInstructions(tunnel, reader, response, out);
 
                 // Close tunnel immediately upon EOF
-                if (message == null) {
+                if (endOfStream) {
                     deregisterTunnel(tunnel);
                     tunnel.close();
                 }
 
                 // End-of-instructions marker
-                out.write("0.;");
+                out.write(END_OF_INSTRUCTIONS);
                 out.flush();
                 response.flushBuffer();
             }
@@ -386,7 +720,7 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                 tunnel.close();
 
                 // End-of-instructions marker
-                out.write("0.;");
+                out.write(END_OF_INSTRUCTIONS);
                 out.flush();
                 response.flushBuffer();
 
@@ -423,6 +757,410 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
     }
 
+    /**
+     * Returns the number of bytes which may be read ahead from each tunnel
+     * and buffered while no read request is in progress. If zero, tunnels
+     * are read only while a read request is in progress. By default, this
+     * is DEFAULT_PREFETCH_LENGTH.
+     *
+     * @return
+     *     The number of bytes which may be read ahead from each tunnel, or
+     *     zero if tunnels should not be read ahead.
+     */
+    protected int getPrefetchLength() {
+        return DEFAULT_PREFETCH_LENGTH;
+    }
+
+    /**
+     * Returns the number of bytes which may be read ahead and buffered
+     * across all tunnels. Once this limit is reached, reading ahead stops
+     * until buffered data is read. By default, this is
+     * DEFAULT_PREFETCH_LIMIT.
+     *
+     * @return
+     *     The number of bytes which may be read ahead across all tunnels.
+     */
+    protected long getPrefetchLimit() {
+        return DEFAULT_PREFETCH_LIMIT;
+    }
+
+    /**
+     * Returns the minimum amount of time that a response to a read request
+     * should remain open before yielding to the next read request. A
+     * response yields once either this amount of time has elapsed or
+     * getStreamingReadLength() bytes have been written, whichever occurs
+     * first. If zero, each response yields as soon as another read request
+     * is waiting. By default, this is DEFAULT_STREAMING_READ_DURATION.
+     *
+     * @return
+     *     The minimum amount of time that a response to a read request should
+     *     remain open before yielding to the next read request, in
+     *     milliseconds.
+     */
+    protected int getStreamingReadDuration() {
+        return DEFAULT_STREAMING_READ_DURATION;
+    }
+
+    /**
+     * Returns the minimum number of bytes that should be written in response
+     * to a read request before yielding to the next read request. A response
+     * yields once either this many bytes have been written or
+     * getStreamingReadDuration() milliseconds have elapsed, whichever occurs
+     * first. If zero, each response yields as soon as another read request
+     * is waiting. By default, this is DEFAULT_STREAMING_READ_LENGTH.
+     *
+     * @return
+     *     The minimum number of bytes that should be written in response to a
+     *     read request before yielding to the next read request.
+     */
+    protected int getStreamingReadLength() {
+        return DEFAULT_STREAMING_READ_LENGTH;
+    }
+
+    /**
+     * Streams the UTF-8 data of instructions read from the given
+     * GuacamoleReader to the given OutputStream using a pooled buffer, until
+     * another request is waiting to read from the tunnel and this response
+     * has been open long enough, or until the end of the stream is reached.
+     * Raw UTF-8 data is passed through if the reader is a
+     * GuacamoleByteReader. At least one instruction is always written.
+     *
+     * @param tunnel
+     *     The tunnel being read from.
+     *
+     * @param reader
+     *     The GuacamoleReader which was acquired from the given tunnel.
+     *
+     * @param response
+     *     The HttpServletResponse associated with the read request received.
+     *
+     * @param out
+     *     The OutputStream of the given HttpServletResponse.
+     *
+     * @return
+     *     true if the end of the stream has been reached, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the tunnel, or if the end of
+     *     the stream is reached before any data has been read.
+     *
+     * @throws IOException
+     *     If an error occurs while writing to the response.
+     */
+    private boolean streamInstructions(GuacamoleTunnel tunnel,
+            GuacamoleReader reader, HttpServletResponse response,
+            OutputStream out) throws GuacamoleException, IOException {
+
+        ResponseBuffer buffer = new ResponseBuffer(out, getMetrics(tunnel));
+
+        // Determine when this response may yield to the next
+        long yieldTime = System.currentTimeMillis() + getStreamingReadDuration();
+        long yieldLength = getStreamingReadLength();
+
+        try {
+
+            // Deregister tunnel and throw error if we reach EOF without
+            // having ever sent any data
+            if (!buffer.append(reader))
+                throw new GuacamoleConnectionClosedException("Tunnel reached end of stream.");
+
+            // For all messages, until another stream is ready and this stream
+            // has been open long enough (we send at least one message)
+            do {
+
+                // Flush if we expect to wait
+                if (!reader.available()) {
+                    buffer.flush();
+                    response.flushBuffer();
+                }
+
+                // Allow another stream to take over once this stream has been
+                // open long enough, checking for waiting streams only after
+                // the cheaper checks succeed
+                if ((buffer.getLength() >= yieldLength
+                            || System.currentTimeMillis() >= yieldTime)
+                        && tunnel.hasQueuedReaderThreads())
+                    return false;
+
+                // Stop if tunnel was closed
+                if (!tunnel.isOpen())
+                    return false;
+
+            } while (buffer.append(reader));
+
+            // No more data
+            return true;
+
+        }
+
+        // Ensure all buffered data is written prior to any further data
+        finally {
+            try {
+                buffer.flush();
+            }
+            finally {
+                buffer.release();
+            }
+        }
+
+    }
+
+    /**
+     * Returns the metrics of the given tunnel. The metrics cached by the
+     * tunnel are used if the tunnel was registered by this servlet, such
+     * that the TunnelMetricsRegistry is consulted only once per tunnel.
+     *
+     * @param tunnel
+     *     The tunnel whose metrics should be returned.
+     *
+     * @return
+     *     The metrics of the given tunnel.
+     */
+    static TunnelMetrics getMetrics(GuacamoleTunnel tunnel) {
+
+        if (tunnel instanceof GuacamoleHTTPTunnel)
+            return ((GuacamoleHTTPTunnel) tunnel).getMetrics();
+
+        return TunnelMetricsRegistry.getMetrics(tunnel);
+
+    }
+
+    /**
+     * Buffer which accumulates the UTF-8 data of instructions within a pooled
+     * ByteBuffer, writing that data to an OutputStream as the buffer fills.
+     */
+    static class ResponseBuffer {
+
+        /**
+         * The OutputStream that buffered data should be written to.
+         */
+        private final OutputStream out;
+
+        /**
+         * The metrics of the tunnel whose data is being buffered.
+         */
+        private final TunnelMetrics metrics;
+
+        /**
+         * The value of System.nanoTime() when the oldest data not yet flushed
+         * was read, or zero if no data is awaiting flush.
+         */
+        private long pendingSince;
+
+        /**
+         * The pooled buffer containing data not yet written, or null if the
+         * buffer has been released.
+         */
+        private ByteBuffer buffer = bufferPool.acquire();
+
+        /**
+         * Encoder used to encode instructions read as characters, created
+         * only if needed.
+         */
+        private CharsetEncoder encoder;
+
+        /**
+         * The total number of bytes appended to this buffer.
+         */
+        private long length;
+
+        /**
+         * Creates a new ResponseBuffer which writes buffered data to the
+         * given OutputStream, recording the data written within the given
+         * metrics.
+         *
+         * @param out
+         *     The OutputStream that buffered data should be written to.
+         *
+         * @param metrics
+         *     The metrics of the tunnel whose data is being buffered.
+         */
+        public ResponseBuffer(OutputStream out, TunnelMetrics metrics) {
+            this.out = out;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Reads the next instruction from the given reader, appending its
+         * UTF-8 data to this buffer. Raw UTF-8 data is used if the reader is
+         * a GuacamoleByteReader.
+         *
+         * @param reader
+         *     The reader to read the next instruction from.
+         *
+         * @return
+         *     true if an instruction was appended, false if the end of the
+         *     stream has been reached.
+         *
+         * @throws GuacamoleException
+         *     If an error occurs while reading from the given reader.
+         *
+         * @throws IOException
+         *     If an error occurs while writing buffered data.
+         */
+        public boolean append(GuacamoleReader reader)
+                throws GuacamoleException, IOException {
+
+            long previousLength = length;
+
+            // Pass raw UTF-8 data through if available
+            if (reader instanceof GuacamoleByteReader) {
+
+                ByteBuffer data = ((GuacamoleByteReader) reader).readBytes();
+                if (data == null)
+                    return false;
+
+                if (pendingSince == 0)
+                    pendingSince = System.nanoTime();
+
+                metrics.recordInstructions(data);
+                append(data);
+
+            }
+
+            // Otherwise, encode characters
+            else {
+
+                char[] message = reader.read();
+                if (message == null)
+                    return false;
+
+                if (pendingSince == 0)
+                    pendingSince = System.nanoTime();
+
+                metrics.recordInstructions(message);
+                append(message);
+
+            }
+
+            metrics.recordBytesSent(length - previousLength);
+            return true;
+
+        }
+
+        /**
+         * Appends the given UTF-8 data to this buffer, writing the buffered
+         * data if there is insufficient space. Data which cannot fit within
+         * an empty buffer is written directly.
+         *
+         * @param data
+         *     The UTF-8 data to append.
+         *
+         * @throws IOException
+         *     If an error occurs while writing buffered data.
+         */
+        private void append(ByteBuffer data) throws IOException {
+
+            int dataLength = data.remaining();
+            length += dataLength;
+
+            // Write buffered data if there is insufficient space
+            if (dataLength > buffer.remaining())
+                flush();
+
+            // Write data directly if it cannot fit at all
+            if (dataLength > buffer.remaining()) {
+
+                if (data.hasArray()) {
+                    out.write(data.array(), data.arrayOffset() + data.position(), dataLength);
+                    data.position(data.limit());
+                    return;
+                }
+
+                // Data without an accessible array (such as a direct buffer)
+                // must be copied out, using the now-empty buffer as scratch
+                // space
+                byte[] scratch = buffer.array();
+                int offset = buffer.arrayOffset();
+                while (data.remaining() > buffer.capacity()) {
+                    int chunkLength = buffer.capacity();
+                    data.get(scratch, offset, chunkLength);
+                    out.write(scratch, offset, chunkLength);
+                }
+
+            }
+
+            buffer.put(data);
+
+        }
+
+        /**
+         * Appends the UTF-8 encoding of the given characters to this buffer,
+         * writing the buffered data each time the buffer is filled.
+         *
+         * @param message
+         *     The characters to encode and append.
+         *
+         * @throws IOException
+         *     If an error occurs while writing buffered data.
+         */
+        private void append(char[] message) throws IOException {
+
+            // Replace invalid characters, as would OutputStreamWriter
+            if (encoder == null)
+                encoder = UTF8.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+            CharBuffer chars = CharBuffer.wrap(message);
+            int start = buffer.position();
+
+            // Encode all characters, writing buffered data as necessary
+            while (encoder.encode(chars, buffer, false).isOverflow()) {
+                length += buffer.position() - start;
+                flush();
+                start = 0;
+            }
+
+            length += buffer.position() - start;
+
+        }
+
+        /**
+         * Returns the total number of bytes appended to this buffer,
+         * including bytes which have already been written.
+         *
+         * @return
+         *     The total number of bytes appended to this buffer.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Writes and flushes all buffered data.
+         *
+         * @throws IOException
+         *     If an error occurs while writing buffered data.
+         */
+        public void flush() throws IOException {
+
+            if (buffer.position() != 0) {
+                out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+                buffer.clear();
+            }
+
+            out.flush();
+
+            // Record time taken for data to reach the client
+            if (pendingSince != 0) {
+                metrics.recordFlush(System.nanoTime() - pendingSince);
+                pendingSince = 0;
+            }
+
+        }
+
+        /**
+         * Returns the underlying buffer to the pool. This ResponseBuffer
+         * must not be used after this function is invoked.
+         */
+        public void release() {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+
+    }
+
     /**
      * Called whenever the JavaScript Guacamole client makes a write request.
      * This function should in general not be overridden, as it already
@@ -449,6 +1187,7 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             throws GuacamoleException {
 
         GuacamoleTunnel tunnel = getTunnel(tunnelUUID);
+        TunnelMetrics metrics = getMetrics(tunnel);
 
         // We still need to set the content type to avoid the default of
         // text/html, as such a content type would cause some browsers to
@@ -464,22 +1203,60 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             // Get writer from tunnel
             GuacamoleWriter writer = tunnel.acquireWriter();
 
-            // Get input reader for HTTP stream
-            Reader input = new InputStreamReader(
-                    request.getInputStream(), "UTF-8");
+            // Get input stream for HTTP stream
+            InputStream input = request.getInputStream();
 
             // Transfer data from input stream to tunnel output, ensuring
             // input is always closed
             try {
 
-                // Buffer
-                int length;
-                char[] buffer = new char[8192];
+                // Buffer holding received data which has not yet been
+                // written, only the start of which has been framed
+                int length = 0;
+                int parsedLength = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                GuacamoleInstructionFramer framer = new GuacamoleInstructionFramer();
 
                 // Transfer data using buffer
-                while (tunnel.isOpen() &&
-                        (length = input.read(buffer, 0, buffer.length)) != -1)
-                    writer.write(buffer, 0, length);
+                int received;
+                while (tunnel.isOpen() && (received = input.read(buffer,
+                        length, buffer.length - length)) != -1) {
+
+                    metrics.recordBytesReceived(received);
+                    length += received;
+
+                    // Locate end of last complete instruction received
+                    int completeLength = 0;
+                    int parsed;
+                    while (parsedLength < length && (parsed = framer.append(
+                            buffer, parsedLength, length - parsedLength)) != 0) {
+                        parsedLength += parsed;
+                        if (framer.isComplete())
+                            completeLength = parsedLength;
+                    }
+
+                    // Write only complete instructions, retaining the rest
+                    if (completeLength != 0) {
+                        writeInstructions(writer, buffer, completeLength);
+                        System.arraycopy(buffer, completeLength, buffer, 0,
+                                length - completeLength);
+                        length -= completeLength;
+                        parsedLength -= completeLength;
+                    }
+
+                    // Grow buffer if a single instruction does not fit,
+                    // allowing for up to four bytes per character
+                    else if (length == buffer.length) {
+                        if (buffer.length >= GuacamoleParser.INSTRUCTION_MAX_LENGTH * 4)
+                            throw new GuacamoleClientException("Instruction exceeds maximum length.");
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+
+                }
+
+                // Any remaining data cannot be a complete instruction
+                if (length != 0 && tunnel.isOpen())
+                    throw new GuacamoleClientException("Write request contained an incomplete instruction.");
 
             }
 
@@ -506,9 +1283,41 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
     }
 
+    /**
+     * Writes the given complete instructions to the given GuacamoleWriter,
+     * passing the raw UTF-8 data through if the writer supports it, and
+     * decoding that data as characters otherwise.
+     *
+     * @param writer
+     *     The GuacamoleWriter to write to.
+     *
+     * @param buffer
+     *     The buffer containing the UTF-8 data of the instructions to write.
+     *
+     * @param length
+     *     The number of bytes of instruction data at the start of the buffer.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing the instructions.
+     */
+    private static void writeInstructions(GuacamoleWriter writer,
+            byte[] buffer, int length) throws GuacamoleException {
+
+        // Pass raw UTF-8 data through if possible
+        if (writer instanceof GuacamoleByteWriter)
+            ((GuacamoleByteWriter) writer).write(buffer, 0, length);
+
+        // Otherwise, decode as characters
+        else
+            writer.write(new String(buffer, 0, length, UTF8).toCharArray());
+
+    }
+
     @Override
     public void destroy() {
         tunnels.shutdown();
+        forwardExecutor.shutdownNow();
+        prefetchExecutor.shutdownNow();
     }
 
 }
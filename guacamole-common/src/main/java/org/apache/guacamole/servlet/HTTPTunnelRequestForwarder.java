@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUpstreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwards HTTP tunnel read and write requests to the node of a cluster which
+ * owns the tunnel in question, streaming request and response bodies without
+ * buffering them in their entirety. Connections to other nodes are reused
+ * through the keep-alive support of HttpURLConnection. This class is intended
+ * for use only within the GuacamoleHTTPTunnelServlet implementation.
+ */
+class HTTPTunnelRequestForwarder {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(HTTPTunnelRequestForwarder.class);
+
+    /**
+     * The name of the header added to all forwarded requests. Requests
+     * bearing this header are never forwarded again, preventing forwarding
+     * loops should nodes disagree on the location of a tunnel.
+     */
+    public static final String FORWARDED_HEADER = "Guacamole-Tunnel-Forwarded";
+
+    /**
+     * The names of all response headers which are copied from the response
+     * of the owning node.
+     */
+    private static final String[] RESPONSE_HEADERS = {
+        "Content-Type",
+        "Cache-Control",
+        "Guacamole-Status-Code",
+        "Guacamole-Error-Message"
+    };
+
+    /**
+     * The maximum amount of time to wait for a connection to the owning node
+     * to be established, in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The maximum amount of time to wait for data from the owning node, in
+     * milliseconds. This matches the time after which an unused HTTP tunnel
+     * is closed.
+     */
+    private static final int READ_TIMEOUT = 15000;
+
+    /**
+     * The size of the buffer used to copy request and response bodies, in
+     * bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * IOException which indicates that reading from or writing to the
+     * client which made the forwarded request failed, typically because that
+     * client has disconnected, as opposed to a failure to communicate with
+     * the owning node.
+     */
+    private static class ClientIOException extends IOException {
+
+        /**
+         * Creates a new ClientIOException wrapping the given IOException.
+         *
+         * @param cause
+         *     The IOException which occurred while communicating with the
+         *     client.
+         */
+        public ClientIOException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+    }
+
+    /**
+     * Returns whether the given request has already been forwarded from
+     * another node, and thus must not be forwarded again.
+     *
+     * @param request
+     *     The HTTP tunnel request to test.
+     *
+     * @return
+     *     true if the given request was forwarded from another node, false
+     *     otherwise.
+     */
+    public boolean isForwarded(HttpServletRequest request) {
+        return request.getHeader(FORWARDED_HEADER) != null;
+    }
+
+    /**
+     * Copies all data from the given input stream to the given output stream,
+     * optionally flushing the output stream after each block of data such
+     * that streamed responses are not delayed. Failures of the stream
+     * associated with the client are reported as ClientIOExceptions.
+     *
+     * @param input
+     *     The stream to read data from.
+     *
+     * @param output
+     *     The stream to write data to.
+     *
+     * @param flush
+     *     Whether the output stream should be flushed after each block of
+     *     data is written.
+     *
+     * @param fromClient
+     *     true if the input stream is associated with the client and the
+     *     output stream with the owning node, false if the reverse is true.
+     *
+     * @throws IOException
+     *     If an error occurs while reading or writing data.
+     */
+    private void copy(InputStream input, OutputStream output, boolean flush,
+            boolean fromClient) throws IOException {
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (;;) {
+
+            int length;
+            try {
+                length = input.read(buffer);
+            }
+            catch (IOException e) {
+                throw fromClient ? new ClientIOException(e) : e;
+            }
+
+            if (length == -1)
+                break;
+
+            try {
+                output.write(buffer, 0, length);
+                if (flush)
+                    output.flush();
+            }
+            catch (IOException e) {
+                throw fromClient ? e : new ClientIOException(e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns whether the HTTP tunnel servlet at the given URL has registered
+     * the tunnel having the given UUID, and thus owns that tunnel.
+     *
+     * @param location
+     *     The URL of the HTTP tunnel servlet of the node to query.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel to locate.
+     *
+     * @return
+     *     true if the node at the given URL owns the given tunnel, false
+     *     otherwise.
+     *
+     * @throws GuacamoleException
+     *     If the node at the given URL cannot be reached.
+     */
+    public boolean isOwner(String location, String tunnelUUID)
+            throws GuacamoleException {
+
+        HttpURLConnection connection = null;
+        try {
+
+            URL url = new URL(location + "?" + GuacamoleHTTPTunnelServlet.LOCATE_PREFIX + tunnelUUID);
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(CONNECT_TIMEOUT);
+            connection.setUseCaches(false);
+            connection.setRequestProperty(FORWARDED_HEADER, "true");
+
+            // Consume any body such that the connection may be reused
+            int status = connection.getResponseCode();
+            InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (body != null)
+                body.close();
+
+            return status >= 200 && status < 300;
+
+        }
+        catch (IOException e) {
+
+            // Do not allow a failed connection to be reused
+            if (connection != null)
+                connection.disconnect();
+
+            throw new GuacamoleUpstreamException("Unable to query \""
+                    + location + "\" for tunnel: " + e.getMessage(), e);
+
+        }
+
+    }
+
+    /**
+     * Forwards the given HTTP tunnel request to the HTTP tunnel servlet at
+     * the given URL, copying the response of that servlet to the given
+     * response, including any error status. If the client disconnects
+     * while the request is being forwarded, forwarding is silently aborted.
+     *
+     * @param request
+     *     The HTTP tunnel read or write request to forward.
+     *
+     * @param response
+     *     The response to which the response of the owning node should be
+     *     copied.
+     *
+     * @param location
+     *     The URL of the HTTP tunnel servlet of the node which owns the
+     *     tunnel, as returned by TunnelLocator.locate().
+     *
+     * @throws GuacamoleException
+     *     If the owning node cannot be reached, or the request cannot be
+     *     forwarded.
+     */
+    public void forward(HttpServletRequest request,
+            HttpServletResponse response, String location)
+            throws GuacamoleException {
+
+        HttpURLConnection connection = null;
+        try {
+
+            // Replicate request against owning node
+            URL url = new URL(location + "?" + request.getQueryString());
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(request.getMethod());
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setUseCaches(false);
+            connection.setRequestProperty(FORWARDED_HEADER, "true");
+
+            // Stream request body, if any
+            if ("POST".equals(request.getMethod())) {
+
+                String contentType = request.getContentType();
+                if (contentType != null)
+                    connection.setRequestProperty("Content-Type", contentType);
+
+                // Avoid buffering the body within HttpURLConnection
+                int contentLength = request.getContentLength();
+                if (contentLength >= 0)
+                    connection.setFixedLengthStreamingMode(contentLength);
+                else
+                    connection.setChunkedStreamingMode(BUFFER_SIZE);
+
+                connection.setDoOutput(true);
+                OutputStream output = connection.getOutputStream();
+                try {
+                    copy(request.getInputStream(), output, false, true);
+                }
+                finally {
+                    output.close();
+                }
+
+            }
+
+            // Copy status and relevant headers of owning node's response
+            int status = connection.getResponseCode();
+            for (String header : RESPONSE_HEADERS) {
+                String value = connection.getHeaderField(header);
+                if (value != null)
+                    response.setHeader(header, value);
+            }
+
+            // Errors are reported through headers alone
+            if (status >= 400) {
+                InputStream error = connection.getErrorStream();
+                if (error != null)
+                    error.close();
+                try {
+                    response.sendError(status);
+                }
+                catch (IOException e) {
+                    throw new ClientIOException(e);
+                }
+                return;
+            }
+
+            // Stream response body, flushing as data arrives such that
+            // instructions read from the tunnel are not delayed
+            response.setStatus(status);
+            InputStream input = connection.getInputStream();
+            try {
+                OutputStream output;
+                try {
+                    output = response.getOutputStream();
+                }
+                catch (IOException e) {
+                    throw new ClientIOException(e);
+                }
+
+                copy(input, output, true, false);
+
+                try {
+                    output.close();
+                }
+                catch (IOException e) {
+                    throw new ClientIOException(e);
+                }
+            }
+            finally {
+                input.close();
+            }
+
+        }
+        // The client going away is routine, and not an upstream failure
+        catch (ClientIOException e) {
+            logger.debug("Client disconnected during forwarded tunnel request.", e);
+            if (connection != null)
+                connection.disconnect();
+        }
+
+        catch (IOException e) {
+
+            // Do not allow a failed connection to be reused
+            if (connection != null)
+                connection.disconnect();
+
+            throw new GuacamoleUpstreamException("Unable to forward tunnel "
+                    + "request to \"" + location + "\": " + e.getMessage(), e);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,610 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.servlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.io.AsynchronousGuacamoleReader;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleReadListener;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.AbstractGuacamoleTunnel;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GuacamoleTunnel implementation which continuously reads ahead from the
+ * wrapped tunnel, buffering received instructions until they are read.
+ * Instructions received while no HTTP read request is in progress are thus
+ * already available when the next read request arrives, and guacd is never
+ * left waiting for the tunnel to be read.
+ *
+ * If the socket of the wrapped tunnel can notify a listener as data is
+ * received, as is the case for sockets serviced by a
+ * GuacamoleSocketMultiplexer, instructions are read ahead only as they are
+ * received, using the worker threads of the multiplexer. Otherwise, a thread
+ * is dedicated to reading ahead for the lifetime of the tunnel.
+ *
+ * The amount of data buffered is limited both per tunnel and across all
+ * prefetching tunnels. Once either limit is reached, reading ahead stops
+ * until buffered data has been read. As at least one instruction is always
+ * read ahead, each limit may be exceeded by at most one instruction per
+ * tunnel.
+ *
+ * The reader of the socket of this tunnel reads only buffered instructions,
+ * and cannot notify a listener as instructions are buffered. Read requests
+ * for this tunnel are therefore always serviced synchronously.
+ */
+class PrefetchingGuacamoleTunnel extends AbstractGuacamoleTunnel {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger =
+            LoggerFactory.getLogger(PrefetchingGuacamoleTunnel.class);
+
+    /**
+     * Charset used for encoding and decoding instructions as UTF-8.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The total number of bytes currently buffered across all
+     * PrefetchingGuacamoleTunnels.
+     */
+    private static final AtomicLong totalLength = new AtomicLong();
+
+    /**
+     * The tunnel being read ahead from.
+     */
+    private final GuacamoleTunnel tunnel;
+
+    /**
+     * The socket of this tunnel, whose reader reads buffered instructions.
+     */
+    private final GuacamoleSocket socket = new PrefetchingSocket();
+
+    /**
+     * The number of bytes which may be buffered for this tunnel before
+     * reading ahead stops.
+     */
+    private final int maxLength;
+
+    /**
+     * The number of bytes which may be buffered across all
+     * PrefetchingGuacamoleTunnels before reading ahead stops.
+     */
+    private final long maxTotalLength;
+
+    /**
+     * Lock guarding all buffered instructions and associated state. Waiting
+     * threads are notified via this lock whenever instructions are added or
+     * removed, or the end of the stream is reached.
+     */
+    private final Object bufferLock = new Object();
+
+    /**
+     * The UTF-8 bytes of all buffered instructions, in order of receipt.
+     */
+    private final LinkedList<byte[]> buffered = new LinkedList<byte[]>();
+
+    /**
+     * The number of bytes within all buffered instructions.
+     */
+    private int bufferedLength = 0;
+
+    /**
+     * Whether no further instructions will be read ahead, either because
+     * the end of the stream has been reached or this tunnel was closed.
+     */
+    private boolean endOfStream = false;
+
+    /**
+     * The error which prevented further instructions from being read ahead,
+     * if any.
+     */
+    private GuacamoleException error;
+
+    /**
+     * The reader of the socket of the wrapped tunnel, if that reader can
+     * notify a listener as data is received, or null if a thread must be
+     * dedicated to reading ahead.
+     */
+    private final AsynchronousGuacamoleReader socketReader;
+
+    /**
+     * Whether the listener reading ahead from socketReader stopped reading
+     * due to the limits on buffered data, and must be notified again once
+     * buffered data has been read.
+     */
+    private boolean stalled = false;
+
+    /**
+     * Listener which reads ahead from socketReader as data is received.
+     */
+    private final GuacamoleReadListener prefetchListener = new GuacamoleReadListener() {
+
+        @Override
+        public void readReady() {
+            prefetchAvailable();
+        }
+
+    };
+
+    /**
+     * Creates a new PrefetchingGuacamoleTunnel which wraps the given tunnel,
+     * immediately beginning to read ahead.
+     *
+     * @param tunnel
+     *     The tunnel to read ahead from.
+     *
+     * @param maxLength
+     *     The number of bytes which may be buffered for this tunnel before
+     *     reading ahead stops.
+     *
+     * @param maxTotalLength
+     *     The number of bytes which may be buffered across all
+     *     PrefetchingGuacamoleTunnels before reading ahead stops.
+     *
+     * @param prefetchExecutor
+     *     The executor which should provide the thread dedicated to reading
+     *     ahead if the socket of the given tunnel cannot notify a listener as
+     *     data is received. Such a tunnel occupies one thread of this
+     *     executor until the end of its stream is reached.
+     */
+    public PrefetchingGuacamoleTunnel(GuacamoleTunnel tunnel, int maxLength,
+            long maxTotalLength, Executor prefetchExecutor) {
+
+        this.tunnel = tunnel;
+        this.maxLength = maxLength;
+        this.maxTotalLength = maxTotalLength;
+
+        // Read ahead as data is received, if the socket allows
+        GuacamoleReader reader = tunnel.getSocket().getReader();
+        if (reader instanceof AsynchronousGuacamoleReader) {
+            socketReader = (AsynchronousGuacamoleReader) reader;
+            socketReader.setReadListener(prefetchListener);
+        }
+
+        // Otherwise, dedicate a thread to reading ahead
+        else {
+            socketReader = null;
+            prefetchExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    prefetch();
+                }
+
+            });
+        }
+
+    }
+
+    /**
+     * Returns whether another instruction may be read ahead without
+     * exceeding the limits on buffered data. The caller must hold
+     * bufferLock.
+     *
+     * @return
+     *     true if another instruction may be read ahead, false otherwise.
+     */
+    private boolean hasRoom() {
+
+        // Always read ahead at least one instruction
+        if (buffered.isEmpty())
+            return true;
+
+        return bufferedLength < maxLength
+            && totalLength.get() < maxTotalLength;
+
+    }
+
+    /**
+     * Reads the next instruction from the given reader, returning its UTF-8
+     * bytes.
+     *
+     * @param source
+     *     The reader to read from.
+     *
+     * @return
+     *     The UTF-8 bytes of the next instruction, or null if no more
+     *     instructions are available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the given reader.
+     */
+    private static byte[] readNext(GuacamoleReader source)
+            throws GuacamoleException {
+
+        // Copy raw bytes, if available, as the buffer read may be reused
+        if (source instanceof GuacamoleByteReader) {
+
+            ByteBuffer instruction = ((GuacamoleByteReader) source).readBytes();
+            if (instruction == null)
+                return null;
+
+            byte[] copy = new byte[instruction.remaining()];
+            instruction.get(copy);
+            return copy;
+
+        }
+
+        char[] instruction = source.read();
+        if (instruction == null)
+            return null;
+
+        return new String(instruction).getBytes(UTF8);
+
+    }
+
+    /**
+     * Adds the given instruction to the buffer, unless no further
+     * instructions are being read ahead. The caller must hold bufferLock.
+     *
+     * @param instruction
+     *     The UTF-8 bytes of the instruction to add.
+     *
+     * @return
+     *     true if the instruction was added, false if this tunnel has been
+     *     closed.
+     */
+    private boolean add(byte[] instruction) {
+
+        // Discard data read after the tunnel was closed
+        if (endOfStream)
+            return false;
+
+        buffered.add(instruction);
+        bufferedLength += instruction.length;
+        totalLength.addAndGet(instruction.length);
+        bufferLock.notifyAll();
+        return true;
+
+    }
+
+    /**
+     * Marks the end of the stream, optionally recording the error which
+     * prevented further instructions from being read ahead, and notifies
+     * any waiting reader. The caller must hold bufferLock.
+     *
+     * @param cause
+     *     The error which prevented further instructions from being read
+     *     ahead, or null if the end of the stream was reached normally.
+     */
+    private void end(GuacamoleException cause) {
+        if (cause != null && !endOfStream)
+            error = cause;
+        endOfStream = true;
+        bufferLock.notifyAll();
+    }
+
+    /**
+     * Reads ahead all instructions which can be read from the wrapped
+     * tunnel without blocking, until the limits on buffered data are
+     * reached. This function is invoked only by the listener set on
+     * socketReader, and thus never concurrently.
+     */
+    private void prefetchAvailable() {
+
+        GuacamoleReader source = tunnel.acquireReader();
+
+        try {
+
+            for (;;) {
+
+                // Stop once full, until buffered data is read
+                synchronized (bufferLock) {
+
+                    if (endOfStream)
+                        return;
+
+                    if (!hasRoom()) {
+                        stalled = true;
+                        return;
+                    }
+
+                }
+
+                if (!source.available())
+                    return;
+
+                byte[] instruction = readNext(source);
+                synchronized (bufferLock) {
+
+                    if (instruction == null) {
+                        end(null);
+                        return;
+                    }
+
+                    if (!add(instruction))
+                        return;
+
+                }
+
+            }
+
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Read-ahead of tunnel \"{}\" failed.", getUUID(), e);
+            synchronized (bufferLock) {
+                end(e);
+            }
+        }
+        finally {
+            tunnel.releaseReader();
+        }
+
+    }
+
+    /**
+     * Continuously reads ahead from the wrapped tunnel until the end of the
+     * stream is reached, an error occurs, or this tunnel is closed. This
+     * function holds the reader of the wrapped tunnel throughout, and is
+     * used only if the socket of the wrapped tunnel cannot notify a
+     * listener as data is received.
+     */
+    private void prefetch() {
+
+        GuacamoleReader source = tunnel.acquireReader();
+        GuacamoleException failure = null;
+
+        try {
+
+            for (;;) {
+
+                // Wait until there is room for more data
+                synchronized (bufferLock) {
+                    while (!endOfStream && !hasRoom())
+                        bufferLock.wait();
+
+                    if (endOfStream)
+                        break;
+                }
+
+                // Read without holding the lock, such that buffered data
+                // remains available
+                byte[] instruction = readNext(source);
+                if (instruction == null)
+                    break;
+
+                synchronized (bufferLock) {
+                    if (!add(instruction))
+                        break;
+                }
+
+            }
+
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Read-ahead of tunnel \"{}\" failed.", getUUID(), e);
+            failure = e;
+        }
+        catch (InterruptedException e) {
+            logger.debug("Read-ahead of tunnel \"{}\" interrupted.", getUUID(), e);
+        }
+
+        // Signal end of stream to any waiting reader
+        finally {
+
+            tunnel.releaseReader();
+
+            synchronized (bufferLock) {
+                end(failure);
+            }
+
+        }
+
+    }
+
+    @Override
+    public GuacamoleWriter acquireWriter() {
+        return tunnel.acquireWriter();
+    }
+
+    @Override
+    public void releaseWriter() {
+        tunnel.releaseWriter();
+    }
+
+    @Override
+    public boolean hasQueuedWriterThreads() {
+        return tunnel.hasQueuedWriterThreads();
+    }
+
+    @Override
+    public UUID getUUID() {
+        return tunnel.getUUID();
+    }
+
+    @Override
+    public GuacamoleSocket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return tunnel.isOpen();
+    }
+
+    /**
+     * GuacamoleSocket which reads the instructions buffered by this tunnel,
+     * writing to and closing the socket of the wrapped tunnel.
+     */
+    private class PrefetchingSocket implements GuacamoleSocket {
+
+        /**
+         * The reader which reads buffered instructions.
+         */
+        private final GuacamoleByteReader reader = new PrefetchedReader();
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return tunnel.getSocket().getWriter();
+        }
+
+        @Override
+        public void close() throws GuacamoleException {
+
+            // Stop reading ahead and release all buffered data
+            synchronized (bufferLock) {
+                endOfStream = true;
+                totalLength.addAndGet(-bufferedLength);
+                buffered.clear();
+                bufferedLength = 0;
+                bufferLock.notifyAll();
+            }
+
+            if (socketReader != null)
+                socketReader.setReadListener(null);
+
+            tunnel.close();
+
+        }
+
+        @Override
+        public boolean isOpen() {
+            return tunnel.isOpen();
+        }
+
+    }
+
+    /**
+     * GuacamoleReader which reads the instructions buffered by this tunnel,
+     * blocking until more instructions are read ahead if necessary.
+     */
+    private class PrefetchedReader implements GuacamoleByteReader {
+
+        /**
+         * Parser used to parse instructions read via readInstruction().
+         */
+        private final GuacamoleParser parser = new GuacamoleParser();
+
+        @Override
+        public boolean available() throws GuacamoleException {
+            synchronized (bufferLock) {
+                return !buffered.isEmpty();
+            }
+        }
+
+        @Override
+        public ByteBuffer readBytes() throws GuacamoleException {
+
+            byte[] instruction;
+            boolean resume = false;
+
+            synchronized (bufferLock) {
+
+                // Wait for data or end of stream
+                while (buffered.isEmpty() && !endOfStream) {
+                    try {
+                        bufferLock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        throw new GuacamoleServerException("Interrupted while "
+                                + "waiting for tunnel data.", e);
+                    }
+                }
+
+                // Report reason for end of stream, if any
+                if (buffered.isEmpty()) {
+                    if (error != null)
+                        throw error;
+                    return null;
+                }
+
+                // Release buffered data, allowing reading ahead to continue
+                instruction = buffered.removeFirst();
+                bufferedLength -= instruction.length;
+                totalLength.addAndGet(-instruction.length);
+                bufferLock.notifyAll();
+
+                // Resume a stalled listener once there is room
+                if (stalled && !endOfStream && hasRoom()) {
+                    stalled = false;
+                    resume = true;
+                }
+
+            }
+
+            // Setting the listener again notifies it of any data received
+            // while stalled
+            if (resume)
+                socketReader.setReadListener(prefetchListener);
+
+            return ByteBuffer.wrap(instruction);
+
+        }
+
+        @Override
+        public char[] read() throws GuacamoleException {
+
+            ByteBuffer instruction = readBytes();
+            if (instruction == null)
+                return null;
+
+            return new String(instruction.array(), instruction.position(),
+                    instruction.remaining(), UTF8).toCharArray();
+
+        }
+
+        @Override
+        public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+            char[] instruction = read();
+            if (instruction == null)
+                return null;
+
+            // Parse the single instruction read
+            int offset = 0;
+            while (!parser.hasNext()) {
+
+                int parsed = parser.append(instruction, offset,
+                        instruction.length - offset);
+
+                if (parsed == 0)
+                    throw new GuacamoleServerException("Incomplete instruction.");
+
+                offset += parsed;
+
+            }
+
+            return parser.next();
+
+        }
+
+    }
+
+}
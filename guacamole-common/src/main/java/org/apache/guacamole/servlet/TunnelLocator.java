@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.servlet;
+
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * Registry which records the node owning each HTTP tunnel within a cluster of
+ * Guacamole instances, allowing read and write requests for a tunnel to be
+ * forwarded to the node that owns that tunnel regardless of which node
+ * initially received the request. The underlying registry must be shared by
+ * all nodes of the cluster.
+ */
+public interface TunnelLocator {
+
+    /**
+     * Records that the tunnel having the given UUID is owned by the current
+     * node.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel which has been registered on this node.
+     *
+     * @throws GuacamoleException
+     *     If the tunnel location cannot be recorded.
+     */
+    void register(String tunnelUUID) throws GuacamoleException;
+
+    /**
+     * Removes any record of the tunnel having the given UUID. Implementations
+     * should additionally discard records which have not been removed
+     * explicitly once they are no longer likely to be valid, such as those
+     * of nodes which have failed.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel which has been deregistered on this node.
+     *
+     * @throws GuacamoleException
+     *     If the tunnel location cannot be removed.
+     */
+    void unregister(String tunnelUUID) throws GuacamoleException;
+
+    /**
+     * Returns the URL of the HTTP tunnel servlet of the node which owns the
+     * tunnel having the given UUID. The returned URL must not include a
+     * query string, and must be reachable by all other nodes.
+     *
+     * @param tunnelUUID
+     *     The UUID of the tunnel to locate.
+     *
+     * @return
+     *     The URL of the HTTP tunnel servlet of the node which owns the given
+     *     tunnel, or null if the tunnel is unknown or is owned by the current
+     *     node.
+     *
+     * @throws GuacamoleException
+     *     If the location of the tunnel cannot be determined.
+     */
+    String locate(String tunnelUUID) throws GuacamoleException;
+
+}
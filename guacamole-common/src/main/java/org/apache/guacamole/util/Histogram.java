@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of non-negative values, such as durations. Values
+ * are counted within buckets whose bounds are successive powers of two, such
+ * that recording a value requires only a few atomic operations regardless
+ * of the range of values recorded. Percentiles are approximate, being
+ * reported as the upper bound of the bucket containing the percentile.
+ */
+public class Histogram {
+
+    /**
+     * The number of buckets, sufficient to represent any non-negative long.
+     * Bucket 0 contains only the value 0, while each bucket N contains all
+     * values from 2^(N-1) through (2^N)-1, inclusive.
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * The number of values recorded within each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The total number of values recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of all values recorded.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The largest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given value. Negative values are recorded as zero.
+     *
+     * @param value
+     *     The value to record.
+     */
+    public void record(long value) {
+
+        if (value < 0)
+            value = 0;
+
+        // Values with N significant bits fall within bucket N
+        int bucket = Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        // Update maximum only if exceeded
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value))
+                break;
+        }
+
+    }
+
+    /**
+     * Returns the total number of values recorded.
+     *
+     * @return
+     *     The total number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of all values recorded.
+     *
+     * @return
+     *     The mean of all values recorded, or zero if no values have been
+     *     recorded.
+     */
+    public double getMean() {
+
+        long currentCount = count.get();
+        if (currentCount == 0)
+            return 0;
+
+        return (double) sum.get() / currentCount;
+
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return
+     *     The largest value recorded, or zero if no values have been
+     *     recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an approximation of the given percentile of all values
+     * recorded. The value returned is the upper bound of the bucket
+     * containing the percentile, and thus may exceed the true percentile by
+     * up to a factor of two, but will never exceed the largest value
+     * recorded.
+     *
+     * @param percentile
+     *     The percentile to return, as a number between 0 and 1, inclusive.
+     *
+     * @return
+     *     An approximation of the given percentile of all values recorded,
+     *     or zero if no values have been recorded.
+     */
+    public long getPercentile(double percentile) {
+
+        long currentCount = count.get();
+        if (currentCount == 0)
+            return 0;
+
+        // Find first bucket at or beyond the requested rank
+        long rank = Math.max(1, (long) Math.ceil(percentile * currentCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                long upperBound = bucket == 0 ? 0 : (1L << bucket) - 1;
+                return Math.min(upperBound, max.get());
+            }
+
+        }
+
+        // Values recorded concurrently may not yet be reflected in buckets
+        return max.get();
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counter which tracks both a running total and the amount
+ * counted within the most recent complete second, providing an inexpensive
+ * measure of the current rate of some event.
+ */
+public class RateCounter {
+
+    /**
+     * The number of nanoseconds in one second.
+     */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * The total amount counted.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * The amount counted during the current second.
+     */
+    private final AtomicLong current = new AtomicLong();
+
+    /**
+     * The second, relative to the arbitrary origin of System.nanoTime(),
+     * during which the amount within current is being counted.
+     */
+    private volatile long currentSecond = getSecond();
+
+    /**
+     * The amount counted during the second immediately preceding
+     * currentSecond.
+     */
+    private volatile long lastRate;
+
+    /**
+     * Returns the current second, relative to the arbitrary origin of
+     * System.nanoTime().
+     *
+     * @return
+     *     The current second.
+     */
+    private static long getSecond() {
+        return System.nanoTime() / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Advances the counting window to the given second, if it is not already
+     * the current second, storing the amount counted during the previous
+     * second as the current rate.
+     *
+     * @param second
+     *     The current second, as returned by getSecond().
+     */
+    private void advance(long second) {
+
+        if (second == currentSecond)
+            return;
+
+        synchronized (this) {
+
+            long previousSecond = currentSecond;
+            if (second <= previousSecond)
+                return;
+
+            // Nothing was counted in the last second if seconds were skipped
+            long counted = current.getAndSet(0);
+            lastRate = (second == previousSecond + 1) ? counted : 0;
+            currentSecond = second;
+
+        }
+
+    }
+
+    /**
+     * Adds the given amount to this counter.
+     *
+     * @param amount
+     *     The amount to add.
+     */
+    public void add(long amount) {
+        advance(getSecond());
+        current.addAndGet(amount);
+        total.addAndGet(amount);
+    }
+
+    /**
+     * Returns the total amount counted.
+     *
+     * @return
+     *     The total amount counted.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Returns the amount counted during the most recent complete second.
+     *
+     * @return
+     *     The amount counted during the most recent complete second.
+     */
+    public long getRate() {
+        advance(getSecond());
+        return lastRate;
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel which invokes expired() for each scheduled value once
+ * the deadline associated with that value has passed. Values are grouped into
+ * buckets by deadline, each bucket covering one tick of the wheel, such that
+ * only the values which are due are examined as time advances, rather than
+ * every scheduled value. Deadlines are honored to within a single tick, and
+ * so the duration of each tick determines the precision of expiration.
+ *
+ * Values are never removed from the wheel explicitly. Implementations of
+ * expired() should instead determine whether the value is still relevant,
+ * returning a new deadline if the value should remain scheduled, or zero if
+ * the value should be dropped.
+ *
+ * @param <T>
+ *     The type of value scheduled within this timing wheel.
+ */
+public abstract class TimingWheel<T> {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    /**
+     * The duration of each tick of this wheel, in milliseconds.
+     */
+    private final long tickDuration;
+
+    /**
+     * The values scheduled within each tick of the wheel, where the bucket
+     * for any given tick is at index (tick % buckets.length). A bucket is
+     * null if no values are scheduled within that tick.
+     */
+    private final List<Entry<T>>[] buckets;
+
+    /**
+     * The most recent tick processed, where each tick is the number of whole
+     * tick durations elapsed since the epoch.
+     */
+    private long lastTick;
+
+    /**
+     * The total number of values currently scheduled.
+     */
+    private int size;
+
+    /**
+     * Executor service which advances the wheel once per tick.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * A value scheduled within the wheel, along with its deadline.
+     *
+     * @param <T>
+     *     The type of the scheduled value.
+     */
+    private static class Entry<T> {
+
+        /**
+         * The scheduled value.
+         */
+        private final T value;
+
+        /**
+         * The time after which the value is considered expired, in
+         * milliseconds since the epoch.
+         */
+        private final long deadline;
+
+        /**
+         * Creates a new Entry associating the given value with the given
+         * deadline.
+         *
+         * @param value
+         *     The scheduled value.
+         *
+         * @param deadline
+         *     The time after which the value is considered expired, in
+         *     milliseconds since the epoch.
+         */
+        public Entry(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+    }
+
+    /**
+     * Creates a new TimingWheel with the given precision, sized such that
+     * any deadline up to the given maximum delay in the future falls within a
+     * single revolution of the wheel. Deadlines further in the future are
+     * still honored, but are examined once per revolution until due. The
+     * wheel is advanced automatically by a background thread until
+     * shutdown() is invoked.
+     *
+     * @param tickDuration
+     *     The duration of each tick of the wheel, and thus the precision of
+     *     expiration, in milliseconds.
+     *
+     * @param maxDelay
+     *     The maximum delay, relative to the current time, of any deadline
+     *     which is expected to be scheduled, in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickDuration, long maxDelay) {
+
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("Tick duration must be positive.");
+
+        this.tickDuration = tickDuration;
+        this.buckets = new List[(int) ((maxDelay + tickDuration - 1) / tickDuration) + 2];
+        this.lastTick = System.currentTimeMillis() / tickDuration;
+
+        // Advance wheel once per tick using a daemon thread
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "guacamole-timing-wheel");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        executor.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    advance(System.currentTimeMillis());
+                }
+                catch (RuntimeException e) {
+                    logger.error("Unable to process expired values: {}", e.getMessage());
+                    logger.debug("Unexpected error within timing wheel.", e);
+                }
+            }
+
+        }, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Schedules the given value such that expired() will be invoked for that
+     * value once the given deadline has passed. The same value may be
+     * scheduled multiple times.
+     *
+     * @param value
+     *     The value to schedule.
+     *
+     * @param deadline
+     *     The time after which the value is considered expired, in
+     *     milliseconds since the epoch.
+     */
+    public synchronized void schedule(T value, long deadline) {
+
+        // Place within the tick containing the deadline, rounding up such
+        // that values are never considered prior to their deadline, but
+        // never before the next tick nor beyond a single revolution
+        long tick = (deadline + tickDuration - 1) / tickDuration;
+        tick = Math.max(tick, lastTick + 1);
+        tick = Math.min(tick, lastTick + buckets.length - 1);
+
+        int index = (int) (tick % buckets.length);
+        List<Entry<T>> bucket = buckets[index];
+        if (bucket == null) {
+            bucket = new ArrayList<Entry<T>>();
+            buckets[index] = bucket;
+        }
+
+        bucket.add(new Entry<T>(value, deadline));
+        size++;
+
+    }
+
+    /**
+     * Returns the number of values currently scheduled, including values
+     * which may no longer be relevant but have not yet reached their
+     * deadline.
+     *
+     * @return
+     *     The number of values currently scheduled.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Advances the wheel to the given time, invoking expired() for each value
+     * whose deadline has passed, and rescheduling each such value if a new
+     * deadline is returned. This function is invoked automatically once per
+     * tick.
+     *
+     * @param now
+     *     The current time, in milliseconds since the epoch.
+     */
+    void advance(long now) {
+
+        List<Entry<T>> due = new ArrayList<Entry<T>>();
+
+        // Remove the contents of each tick which has fully elapsed
+        synchronized (this) {
+
+            long currentTick = now / tickDuration;
+            while (lastTick < currentTick) {
+
+                lastTick++;
+
+                int index = (int) (lastTick % buckets.length);
+                List<Entry<T>> bucket = buckets[index];
+                if (bucket != null) {
+                    due.addAll(bucket);
+                    size -= bucket.size();
+                    buckets[index] = null;
+                }
+
+                // Skip any further revolutions if the wheel is now empty
+                if (size == 0)
+                    lastTick = Math.max(lastTick, currentTick - buckets.length);
+
+            }
+
+        }
+
+        // Expire or reschedule each removed value
+        for (Entry<T> entry : due) {
+
+            // Values scheduled beyond a single revolution are not yet due
+            if (entry.deadline > now) {
+                schedule(entry.value, entry.deadline);
+                continue;
+            }
+
+            long deadline = expired(entry.value, now);
+            if (deadline > 0)
+                schedule(entry.value, deadline);
+
+        }
+
+    }
+
+    /**
+     * Called once the deadline of the given value has passed. Implementations
+     * should determine whether the value has truly expired, for example by
+     * comparing its last access time with the current time, and return the
+     * new deadline of the value if it should remain scheduled.
+     *
+     * @param value
+     *     The value whose deadline has passed.
+     *
+     * @param now
+     *     The current time, in milliseconds since the epoch.
+     *
+     * @return
+     *     The new deadline of the given value, in milliseconds since the
+     *     epoch, or zero if the value should no longer be scheduled.
+     */
+    protected abstract long expired(T value, long now);
+
+    /**
+     * Stops advancing this wheel. No further calls to expired() will be made
+     * after this function returns, except those already in progress.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
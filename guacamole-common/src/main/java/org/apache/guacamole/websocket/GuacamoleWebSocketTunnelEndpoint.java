@@ -20,6 +20,8 @@
 package org.apache.guacamole.websocket;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCode;
 import javax.websocket.Endpoint;
@@ -28,11 +30,17 @@ import javax.websocket.MessageHandler;
 import javax.websocket.OnClose;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
-import javax.websocket.RemoteEndpoint;
 import javax.websocket.Session;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.AsynchronousGuacamoleReader;
+import org.apache.guacamole.io.ByteBufferPool;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleByteWriter;
+import org.apache.guacamole.io.GuacamoleReadListener;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.metrics.TunnelMetrics;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
@@ -45,7 +53,9 @@ import org.slf4j.LoggerFactory;
  * A WebSocket implementation of GuacamoleTunnel functionality, compatible with
  * the Guacamole.WebSocketTunnel object included with the JavaScript API.
  * Messages sent/received are simply chunks of the Guacamole protocol
- * instruction stream.
+ * instruction stream, sent as text messages, or as binary messages containing
+ * the raw UTF-8 instruction stream if the "guacamole-binary" subprotocol is
+ * negotiated.
  *
  * @author Michael Jumper
  */
@@ -56,6 +66,39 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
      */
     private static final int BUFFER_SIZE = 8192;
 
+    /**
+     * The subprotocol which, if negotiated by the client, causes raw UTF-8
+     * protocol data to be exchanged as binary messages, rather than as text
+     * messages. The standard "guacamole" subprotocol uses text messages.
+     */
+    public static final String BINARY_SUBPROTOCOL = "guacamole-binary";
+
+    /**
+     * The UTF-8 charset.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Pool of buffers used to send binary messages. Buffers are at least
+     * twice the size at which buffered instructions are flushed, such that
+     * most instructions can be appended without first flushing.
+     */
+    private static final ByteBufferPool bufferPool =
+            new ByteBufferPool(BUFFER_SIZE * 2, 256);
+
+    /**
+     * The default amount of data which may be queued for sending to the
+     * client before reading from guacd is suspended, in characters for text
+     * messages or bytes for binary messages.
+     */
+    public static final int DEFAULT_HIGH_WATER_MARK = 262144;
+
+    /**
+     * The maximum amount of time to wait for queued messages to be sent
+     * before closing the connection normally, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 5000;
+
     /**
      * Logger for this class.
      */
@@ -66,7 +109,19 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
      * as reads/writes to this tunnel.
      */
     private GuacamoleTunnel tunnel;
-    
+
+    /**
+     * The metrics of the underlying GuacamoleTunnel, or null if there is no
+     * associated tunnel.
+     */
+    private TunnelMetrics metrics;
+
+    /**
+     * The queue of messages being sent to the client, or null if the
+     * connection has not yet been opened.
+     */
+    private OutboundMessageQueue outboundQueue;
+
     /**
      * Sends the given status on the given WebSocket connection and closes the
      * connection.
@@ -102,6 +157,65 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
     protected abstract GuacamoleTunnel createTunnel(Session session, EndpointConfig config)
             throws GuacamoleException;
 
+    /**
+     * Returns the amount of data which may be queued for sending to the
+     * client before reading from guacd is suspended. Reading resumes once
+     * the queue has drained to half this amount. By default, this is
+     * DEFAULT_HIGH_WATER_MARK.
+     *
+     * @param session
+     *     The session associated with the active WebSocket connection.
+     *
+     * @param config
+     *     Configuration information associated with the instance of the
+     *     endpoint created for handling this single connection.
+     *
+     * @return
+     *     The amount of data which may be queued for sending to the client,
+     *     in characters for text messages or bytes for binary messages.
+     */
+    protected int getHighWaterMark(Session session, EndpointConfig config) {
+        return DEFAULT_HIGH_WATER_MARK;
+    }
+
+    /**
+     * Returns the queue of messages being sent to the client, which provides
+     * the current queue depth and send latency. If the connection has not
+     * yet been opened, this will be null.
+     *
+     * @return
+     *     The queue of messages being sent to the client, or null if the
+     *     connection has not yet been opened.
+     */
+    public OutboundMessageQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Waits for all queued messages to be sent, and then closes the
+     * connection normally.
+     *
+     * @param session
+     *     The WebSocket connection to close.
+     *
+     * @param queue
+     *     The queue of messages being sent over the connection.
+     */
+    private void closeConnectionWhenSent(Session session,
+            OutboundMessageQueue queue) {
+
+        try {
+            queue.awaitEmpty(CLOSE_TIMEOUT);
+        }
+        catch (InterruptedException e) {
+            logger.debug("Interrupted while waiting for queued messages to be sent.", e);
+            Thread.currentThread().interrupt();
+        }
+
+        closeConnection(session, GuacamoleStatus.SUCCESS);
+
+    }
+
     @Override
     @OnOpen
     public void onOpen(final Session session, EndpointConfig config) {
@@ -115,6 +229,8 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
                 return;
             }
 
+            metrics = TunnelMetricsRegistry.getMetrics(tunnel);
+
         }
         catch (GuacamoleException e) {
             logger.error("Creation of WebSocket tunnel to guacd failed: {}", e.getMessage());
@@ -123,7 +239,11 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
             return;
         }
 
-        // Manually register message handler
+        // Exchange raw UTF-8 protocol data as binary messages only if
+        // negotiated by the client
+        final boolean binary = BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+
+        // Manually register message handlers
         session.addMessageHandler(new MessageHandler.Whole<String>() {
 
             @Override
@@ -133,47 +253,91 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
 
         });
 
+        if (binary)
+            session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+
+                @Override
+                public void onMessage(ByteBuffer message) {
+                    GuacamoleWebSocketTunnelEndpoint.this.onMessage(message);
+                }
+
+            });
+
+        // Send all messages asynchronously via a bounded queue
+        final OutboundMessageQueue queue = new OutboundMessageQueue(
+                session.getAsyncRemote(), bufferPool,
+                getHighWaterMark(session, config));
+        outboundQueue = queue;
+
+        // Receive instructions as they arrive if supported by the underlying
+        // socket, rather than dedicating a thread to blocking reads
+        GuacamoleReader socketReader = tunnel.getSocket().getReader();
+        if (socketReader instanceof AsynchronousGuacamoleReader) {
+
+            MessageBuffer buffer = createMessageBuffer(queue, binary, metrics);
+
+            // Send tunnel UUID
+            try {
+                buffer.append(new GuacamoleInstruction(
+                    GuacamoleTunnel.INTERNAL_DATA_OPCODE,
+                    tunnel.getUUID().toString()
+                ));
+                buffer.flush();
+            }
+            catch (IOException e) {
+                logger.debug("I/O error prevents further reads.", e);
+                closeConnection(session, GuacamoleStatus.SERVER_ERROR);
+                return;
+            }
+            finally {
+                buffer.release();
+            }
+
+            ((AsynchronousGuacamoleReader) socketReader).setReadListener(
+                    new TunnelReadListener(session, queue, buffer,
+                        (AsynchronousGuacamoleReader) socketReader));
+            return;
+
+        }
+
         // Prepare read transfer thread
         Thread readThread = new Thread() {
 
-            /**
-             * Remote (client) side of this connection
-             */
-            private final RemoteEndpoint.Basic remote = session.getBasicRemote();
-                
             @Override
             public void run() {
 
-                StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+                MessageBuffer buffer = createMessageBuffer(queue, binary, metrics);
                 GuacamoleReader reader = tunnel.acquireReader();
-                char[] readMessage;
 
                 try {
 
                     // Send tunnel UUID
-                    remote.sendText(new GuacamoleInstruction(
+                    buffer.append(new GuacamoleInstruction(
                         GuacamoleTunnel.INTERNAL_DATA_OPCODE,
                         tunnel.getUUID().toString()
-                    ).toString());
+                    ));
+                    buffer.flush();
 
                     try {
 
                         // Attempt to read
-                        while ((readMessage = reader.read()) != null) {
-
-                            // Buffer message
-                            buffer.append(readMessage);
+                        while (buffer.append(reader)) {
 
                             // Flush if we expect to wait or buffer is getting full
                             if (!reader.available() || buffer.length() >= BUFFER_SIZE) {
-                                remote.sendText(buffer.toString());
-                                buffer.setLength(0);
+                                buffer.flush();
+
+                                // Stop reading from guacd while the client
+                                // catches up
+                                queue.awaitDrained();
+
                             }
 
                         }
 
                         // No more data
-                        closeConnection(session, GuacamoleStatus.SUCCESS);
+                        buffer.flush();
+                        closeConnectionWhenSent(session, queue);
 
                     }
 
@@ -200,6 +364,13 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
                     logger.debug("I/O error prevents further reads.", e);
                     closeConnection(session, GuacamoleStatus.SERVER_ERROR);
                 }
+                catch (InterruptedException e) {
+                    logger.debug("Interrupted while waiting for client to receive data.", e);
+                    closeConnection(session, GuacamoleStatus.SERVER_ERROR);
+                }
+                finally {
+                    buffer.release();
+                }
 
             }
 
@@ -209,6 +380,536 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
 
     }
 
+    /**
+     * Returns a new MessageBuffer which sends buffered instructions via the
+     * given queue as either text or binary messages.
+     *
+     * @param queue
+     *     The queue of messages being sent to the client.
+     *
+     * @param binary
+     *     Whether instructions should be sent as binary messages containing
+     *     raw UTF-8 protocol data, rather than as text messages.
+     *
+     * @param metrics
+     *     The metrics of the tunnel whose instructions are being sent.
+     *
+     * @return
+     *     A new MessageBuffer which sends buffered instructions via the given
+     *     queue.
+     */
+    private static MessageBuffer createMessageBuffer(OutboundMessageQueue queue,
+            boolean binary, TunnelMetrics metrics) {
+
+        if (binary)
+            return new BinaryMessageBuffer(queue, metrics);
+
+        return new TextMessageBuffer(queue, metrics);
+
+    }
+
+    /**
+     * Buffer of instructions which have been read but not yet sent over the
+     * WebSocket connection.
+     */
+    private static abstract class MessageBuffer {
+
+        /**
+         * The metrics of the tunnel whose instructions are being sent.
+         */
+        protected final TunnelMetrics metrics;
+
+        /**
+         * The value of System.nanoTime() when the oldest instruction not yet
+         * flushed was read, or zero if no instruction is awaiting flush.
+         */
+        private long pendingSince;
+
+        /**
+         * Creates a new MessageBuffer which records all instructions read
+         * within the given metrics.
+         *
+         * @param metrics
+         *     The metrics of the tunnel whose instructions are being sent.
+         */
+        public MessageBuffer(TunnelMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * Records that an instruction has been read and is awaiting flush.
+         */
+        protected void markPending() {
+            if (pendingSince == 0)
+                pendingSince = System.nanoTime();
+        }
+
+        /**
+         * Records that all instructions awaiting flush have been flushed.
+         */
+        protected void markFlushed() {
+            if (pendingSince != 0) {
+                metrics.recordFlush(System.nanoTime() - pendingSince);
+                pendingSince = 0;
+            }
+        }
+
+        /**
+         * Reads a single instruction from the given reader, appending that
+         * instruction to this buffer.
+         *
+         * @param reader
+         *     The reader to read an instruction from.
+         *
+         * @return
+         *     true if an instruction was read, false if no further
+         *     instructions are available.
+         *
+         * @throws GuacamoleException
+         *     If an error occurs while reading.
+         *
+         * @throws IOException
+         *     If buffered instructions must be sent to make room for the
+         *     instruction read, and an error occurs while sending.
+         */
+        public abstract boolean append(GuacamoleReader reader)
+                throws GuacamoleException, IOException;
+
+        /**
+         * Appends the given instruction to this buffer.
+         *
+         * @param instruction
+         *     The instruction to append.
+         *
+         * @throws IOException
+         *     If buffered instructions must be sent to make room for the
+         *     given instruction, and an error occurs while sending.
+         */
+        public abstract void append(GuacamoleInstruction instruction)
+                throws IOException;
+
+        /**
+         * Returns the amount of data currently buffered.
+         *
+         * @return
+         *     The amount of data currently buffered.
+         */
+        public abstract int length();
+
+        /**
+         * Queues all buffered instructions for sending as a single message,
+         * if any instructions are buffered.
+         *
+         * @throws IOException
+         *     If a previous send has failed.
+         */
+        public abstract void flush() throws IOException;
+
+        /**
+         * Releases any resources held by this buffer until it is next used.
+         * Any data not yet sent is discarded.
+         */
+        public void release() {
+        }
+
+    }
+
+    /**
+     * MessageBuffer which sends buffered instructions as text messages.
+     */
+    private static class TextMessageBuffer extends MessageBuffer {
+
+        /**
+         * The queue of messages being sent to the client.
+         */
+        private final OutboundMessageQueue queue;
+
+        /**
+         * Instructions which have been read but not yet sent.
+         */
+        private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+
+        /**
+         * Creates a new TextMessageBuffer which sends buffered instructions
+         * via the given queue.
+         *
+         * @param queue
+         *     The queue of messages being sent to the client.
+         *
+         * @param metrics
+         *     The metrics of the tunnel whose instructions are being sent.
+         */
+        public TextMessageBuffer(OutboundMessageQueue queue,
+                TunnelMetrics metrics) {
+            super(metrics);
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean append(GuacamoleReader reader) throws GuacamoleException {
+
+            char[] readMessage = reader.read();
+            if (readMessage == null)
+                return false;
+
+            markPending();
+            metrics.recordInstructions(readMessage);
+            metrics.recordBytesSent(readMessage.length);
+
+            buffer.append(readMessage);
+            return true;
+
+        }
+
+        @Override
+        public void append(GuacamoleInstruction instruction) {
+            buffer.append(instruction.toString());
+        }
+
+        @Override
+        public int length() {
+            return buffer.length();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.length() != 0) {
+                queue.sendText(buffer.toString());
+                buffer.setLength(0);
+                markFlushed();
+            }
+        }
+
+    }
+
+    /**
+     * MessageBuffer which sends buffered instructions as binary messages
+     * containing raw UTF-8 protocol data. Instructions are copied directly
+     * from readers which provide raw bytes, and messages are sent from
+     * pooled buffers, such that no intermediate strings are created.
+     */
+    private static class BinaryMessageBuffer extends MessageBuffer {
+
+        /**
+         * The queue of messages being sent to the client.
+         */
+        private final OutboundMessageQueue queue;
+
+        /**
+         * The pooled buffer containing instructions which have been read but
+         * not yet sent, or null if no buffer is currently held.
+         */
+        private ByteBuffer buffer;
+
+        /**
+         * Creates a new BinaryMessageBuffer which sends buffered instructions
+         * via the given queue.
+         *
+         * @param queue
+         *     The queue of messages being sent to the client.
+         *
+         * @param metrics
+         *     The metrics of the tunnel whose instructions are being sent.
+         */
+        public BinaryMessageBuffer(OutboundMessageQueue queue,
+                TunnelMetrics metrics) {
+            super(metrics);
+            this.queue = queue;
+        }
+
+        /**
+         * Appends the given UTF-8 instruction data to the buffer, sending
+         * buffered data first if there is insufficient space. Data which
+         * cannot fit within an empty buffer is sent as its own message.
+         *
+         * @param data
+         *     The UTF-8 instruction data to append.
+         *
+         * @throws IOException
+         *     If a previous send has failed.
+         */
+        private void put(ByteBuffer data) throws IOException {
+
+            // Acquire buffer only once needed
+            if (buffer == null)
+                buffer = bufferPool.acquire();
+
+            // Send buffered data if there is insufficient space
+            if (data.remaining() > buffer.remaining()) {
+                flush();
+                buffer = bufferPool.acquire();
+            }
+
+            // Send a copy of the data as its own message if it cannot fit at
+            // all, as the data may be only a temporary view
+            if (data.remaining() > buffer.remaining()) {
+                ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+                copy.put(data);
+                copy.flip();
+                queue.sendBinary(copy, false);
+                return;
+            }
+
+            buffer.put(data);
+
+        }
+
+        @Override
+        public boolean append(GuacamoleReader reader)
+                throws GuacamoleException, IOException {
+
+            // Copy raw instruction bytes if available
+            if (reader instanceof GuacamoleByteReader) {
+
+                ByteBuffer readMessage = ((GuacamoleByteReader) reader).readBytes();
+                if (readMessage == null)
+                    return false;
+
+                markPending();
+                metrics.recordInstructions(readMessage);
+                metrics.recordBytesSent(readMessage.remaining());
+
+                put(readMessage);
+                return true;
+
+            }
+
+            // Otherwise, encode instruction characters
+            char[] readMessage = reader.read();
+            if (readMessage == null)
+                return false;
+
+            markPending();
+            metrics.recordInstructions(readMessage);
+
+            ByteBuffer encoded = ByteBuffer.wrap(new String(readMessage).getBytes(UTF8));
+            metrics.recordBytesSent(encoded.remaining());
+
+            put(encoded);
+            return true;
+
+        }
+
+        @Override
+        public void append(GuacamoleInstruction instruction) throws IOException {
+            put(ByteBuffer.wrap(instruction.toString().getBytes(UTF8)));
+        }
+
+        @Override
+        public int length() {
+            return buffer == null ? 0 : buffer.position();
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+            // Hand buffer to the queue, acquiring another once needed
+            if (buffer != null && buffer.position() != 0) {
+                buffer.flip();
+                queue.sendBinary(buffer, true);
+                buffer = null;
+                markFlushed();
+            }
+
+        }
+
+        @Override
+        public void release() {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+
+    }
+
+    /**
+     * Listener which transfers instructions from the tunnel to the WebSocket
+     * connection as they are received, without requiring a dedicated thread.
+     */
+    private class TunnelReadListener implements GuacamoleReadListener {
+
+        /**
+         * The WebSocket session associated with the tunnel.
+         */
+        private final Session session;
+
+        /**
+         * The queue of messages being sent to the client.
+         */
+        private final OutboundMessageQueue queue;
+
+        /**
+         * Buffer of instructions which have been read but not yet sent.
+         */
+        private final MessageBuffer buffer;
+
+        /**
+         * The reader of the underlying socket, which notifies this listener.
+         */
+        private final AsynchronousGuacamoleReader socketReader;
+
+        /**
+         * Task which resumes reading once the client has caught up, by
+         * re-registering this listener with the underlying socket.
+         */
+        private final Runnable resumeTask = new Runnable() {
+
+            @Override
+            public void run() {
+                socketReader.setReadListener(TunnelReadListener.this);
+            }
+
+        };
+
+        /**
+         * Creates a new TunnelReadListener which sends all instructions read
+         * from the tunnel over the given WebSocket session.
+         *
+         * @param session
+         *     The WebSocket session associated with the tunnel.
+         *
+         * @param queue
+         *     The queue of messages being sent to the client.
+         *
+         * @param buffer
+         *     The buffer to use to send instructions over the WebSocket
+         *     connection.
+         *
+         * @param socketReader
+         *     The reader of the underlying socket, which will notify this
+         *     listener.
+         */
+        public TunnelReadListener(Session session, OutboundMessageQueue queue,
+                MessageBuffer buffer, AsynchronousGuacamoleReader socketReader) {
+            this.session = session;
+            this.queue = queue;
+            this.buffer = buffer;
+            this.socketReader = socketReader;
+        }
+
+        @Override
+        public void readReady() {
+
+            // Leave data unread while waiting for the client to catch up
+            if (queue.isSuspended())
+                return;
+
+            GuacamoleReader reader = tunnel.acquireReader();
+
+            try {
+
+                try {
+
+                    // Read only instructions which are available, as a read
+                    // which blocks would tie up a shared worker thread. The
+                    // data received may consist entirely of instructions
+                    // which are dropped by filters.
+                    while (reader.available()) {
+
+                        // No more data
+                        if (!buffer.append(reader)) {
+                            buffer.flush();
+                            closeConnectionWhenSent(session, queue);
+                            return;
+                        }
+
+                        // Flush if buffer is getting full
+                        if (buffer.length() >= BUFFER_SIZE) {
+                            buffer.flush();
+
+                            // Stop reading from guacd until the client
+                            // catches up
+                            if (queue.resumeWhenDrained(resumeTask))
+                                return;
+
+                        }
+
+                    }
+
+                    // Flush, as no further data is available
+                    buffer.flush();
+                    queue.resumeWhenDrained(resumeTask);
+
+                }
+
+                // Catch any thrown guacamole exception and attempt to pass
+                // within the WebSocket connection, logging each error
+                // appropriately.
+                catch (GuacamoleClientException e) {
+                    logger.info("WebSocket connection terminated: {}", e.getMessage());
+                    logger.debug("WebSocket connection terminated due to client error.", e);
+                    closeConnection(session, e.getStatus());
+                }
+                catch (GuacamoleConnectionClosedException e) {
+                    logger.debug("Connection to guacd closed.", e);
+                    closeConnection(session, GuacamoleStatus.SUCCESS);
+                }
+                catch (GuacamoleException e) {
+                    logger.error("Connection to guacd terminated abnormally: {}", e.getMessage());
+                    logger.debug("Internal error during connection to guacd.", e);
+                    closeConnection(session, e.getStatus());
+                }
+
+            }
+            catch (IOException e) {
+                logger.debug("I/O error prevents further reads.", e);
+                closeConnection(session, GuacamoleStatus.SERVER_ERROR);
+            }
+            finally {
+
+                // Return buffer to pool between bursts of data
+                buffer.release();
+                tunnel.releaseReader();
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Handles a binary message received from the client, which contains raw
+     * UTF-8 protocol data. Binary messages are only accepted if the
+     * "guacamole-binary" subprotocol has been negotiated.
+     *
+     * @param message
+     *     The received message.
+     */
+    @OnMessage
+    public void onMessage(ByteBuffer message) {
+
+        // Ignore inbound messages if there is no associated tunnel
+        if (tunnel == null)
+            return;
+
+        GuacamoleWriter writer = tunnel.acquireWriter();
+        metrics.recordBytesReceived(message.remaining());
+
+        try {
+
+            // Write received bytes directly if possible
+            if (writer instanceof GuacamoleByteWriter && message.hasArray())
+                ((GuacamoleByteWriter) writer).write(message.array(),
+                        message.arrayOffset() + message.position(),
+                        message.remaining());
+
+            // Otherwise, decode as characters
+            else
+                writer.write(UTF8.decode(message).toString().toCharArray());
+
+        }
+        catch (GuacamoleConnectionClosedException e) {
+            logger.debug("Connection to guacd closed.", e);
+        }
+        catch (GuacamoleException e) {
+            logger.debug("WebSocket tunnel write failed.", e);
+        }
+
+        tunnel.releaseWriter();
+
+    }
+
     @OnMessage
     public void onMessage(String message) {
 
@@ -217,6 +918,7 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
             return;
 
         GuacamoleWriter writer = tunnel.acquireWriter();
+        metrics.recordBytesReceived(message.length());
 
         try {
             // Write received message
@@ -244,7 +946,15 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
         catch (GuacamoleException e) {
             logger.debug("Unable to close WebSocket tunnel.", e);
         }
-        
+
+        // Log final statistics of the outbound queue
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue != null)
+            logger.debug("WebSocket tunnel sent {} messages (max queued: {}, "
+                    + "average latency: {} ms, max latency: {} ms).",
+                    queue.getSentMessageCount(), queue.getMaxQueuedSize(),
+                    queue.getAverageSendLatency(), queue.getMaxSendLatency());
+
     }
 
 }
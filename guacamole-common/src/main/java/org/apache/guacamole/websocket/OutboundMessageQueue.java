@@ -0,0 +1,555 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import org.apache.guacamole.io.ByteBufferPool;
+
+/**
+ * Bounded queue of messages being sent asynchronously over a WebSocket
+ * connection. Messages are sent one at a time using RemoteEndpoint.Async,
+ * such that the thread producing messages never blocks on a slow client.
+ * Once the amount of queued data reaches a high-water mark, producers are
+ * expected to stop reading from guacd until the queue has drained to half
+ * that amount, allowing guacd's own flow control to engage. The depth of the
+ * queue and the latency of each send are tracked.
+ */
+public class OutboundMessageQueue {
+
+    /**
+     * A single queued message.
+     */
+    private static class Message {
+
+        /**
+         * The content of the message, either a String for text messages or
+         * a ByteBuffer for binary messages.
+         */
+        private final Object content;
+
+        /**
+         * The size of the message, in characters for text messages or bytes
+         * for binary messages.
+         */
+        private final int size;
+
+        /**
+         * Whether the content of this binary message is a buffer which
+         * should be returned to the pool once sent.
+         */
+        private final boolean pooled;
+
+        /**
+         * Creates a new Message having the given content.
+         *
+         * @param content
+         *     The content of the message, either a String for text messages
+         *     or a ByteBuffer for binary messages.
+         *
+         * @param size
+         *     The size of the message.
+         *
+         * @param pooled
+         *     Whether the content is a buffer which should be returned to
+         *     the pool once sent.
+         */
+        public Message(Object content, int size, boolean pooled) {
+            this.content = content;
+            this.size = size;
+            this.pooled = pooled;
+        }
+
+    }
+
+    /**
+     * The remote (client) side of the WebSocket connection.
+     */
+    private final RemoteEndpoint.Async remote;
+
+    /**
+     * The pool to return buffers of sent binary messages to.
+     */
+    private final ByteBufferPool bufferPool;
+
+    /**
+     * The amount of queued data at which producers should stop producing.
+     */
+    private final long highWaterMark;
+
+    /**
+     * All messages which have not yet been completely sent, including the
+     * message currently being sent, if any.
+     */
+    private final Queue<Message> messages = new LinkedList<Message>();
+
+    /**
+     * The total size of all queued messages.
+     */
+    private long queuedSize = 0;
+
+    /**
+     * Whether a message is currently being sent.
+     */
+    private boolean sending = false;
+
+    /**
+     * The time the current send began, in nanoseconds, as returned by
+     * System.nanoTime().
+     */
+    private long sendStarted;
+
+    /**
+     * The error which caused a previous send to fail, if any.
+     */
+    private IOException error;
+
+    /**
+     * The task to run once the queue drains after reaching the high-water
+     * mark, or null if no producer is waiting.
+     */
+    private Runnable resumeTask;
+
+    /**
+     * The total number of messages successfully sent.
+     */
+    private long sentCount = 0;
+
+    /**
+     * The total time spent sending messages, in nanoseconds.
+     */
+    private long totalSendLatency = 0;
+
+    /**
+     * The longest time spent sending any single message, in nanoseconds.
+     */
+    private long maxSendLatency = 0;
+
+    /**
+     * The largest amount of data queued at any one time.
+     */
+    private long maxQueuedSize = 0;
+
+    /**
+     * Handler invoked when each asynchronous send completes.
+     */
+    private final SendHandler sendHandler = new SendHandler() {
+
+        @Override
+        public void onResult(SendResult result) {
+            sent(result);
+        }
+
+    };
+
+    /**
+     * Creates a new OutboundMessageQueue which sends messages via the given
+     * remote endpoint.
+     *
+     * @param remote
+     *     The remote (client) side of the WebSocket connection.
+     *
+     * @param bufferPool
+     *     The pool to return buffers of sent binary messages to, if those
+     *     messages were queued as pooled.
+     *
+     * @param highWaterMark
+     *     The amount of queued data at which producers should stop
+     *     producing, in characters for text messages or bytes for binary
+     *     messages.
+     */
+    public OutboundMessageQueue(RemoteEndpoint.Async remote,
+            ByteBufferPool bufferPool, long highWaterMark) {
+        this.remote = remote;
+        this.bufferPool = bufferPool;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * Returns the buffer of the given message to the pool, if that buffer was
+     * acquired from the pool. The message must not be sent after this
+     * function is invoked.
+     *
+     * @param message
+     *     The message whose buffer should be returned to the pool.
+     */
+    private void release(Message message) {
+        if (message.pooled)
+            bufferPool.release((ByteBuffer) message.content);
+    }
+
+    /**
+     * Adds the given message to the queue, starting to send it immediately
+     * if no other message is being sent. If a previous send has failed, the
+     * message is discarded.
+     *
+     * @param message
+     *     The message to add.
+     *
+     * @throws IOException
+     *     If a previous send has failed.
+     */
+    private void enqueue(Message message) throws IOException {
+
+        synchronized (this) {
+
+            // Discard message if nothing further can be sent
+            if (error != null) {
+                release(message);
+                throw error;
+            }
+
+            messages.add(message);
+            queuedSize += message.size;
+            if (queuedSize > maxQueuedSize)
+                maxQueuedSize = queuedSize;
+
+            // Wait for current send to complete, if any
+            if (sending)
+                return;
+
+            message = startNext();
+
+        }
+
+        send(message);
+
+    }
+
+    /**
+     * Marks the message at the head of the queue as being sent. This
+     * function must be invoked while synchronized on this queue, and the
+     * returned message must then be sent with send() outside of that lock.
+     *
+     * @return
+     *     The message at the head of the queue, or null if the queue is
+     *     empty.
+     */
+    private Message startNext() {
+
+        Message message = messages.peek();
+        if (message == null)
+            return null;
+
+        sending = true;
+        sendStarted = System.nanoTime();
+        return message;
+
+    }
+
+    /**
+     * Begins sending the given message, as returned by startNext(). This
+     * function must be invoked without holding the lock of this queue, as
+     * the container may complete the send within the same call, invoking
+     * sent() before returning.
+     *
+     * @param message
+     *     The message to send, or null if there is no message to send.
+     */
+    private void send(Message message) {
+
+        if (message == null)
+            return;
+
+        try {
+            if (message.content instanceof String)
+                remote.sendText((String) message.content, sendHandler);
+            else
+                remote.sendBinary((ByteBuffer) message.content, sendHandler);
+        }
+
+        // Treat a send which cannot even begin (such as due to the
+        // connection having closed) as a failed send
+        catch (RuntimeException e) {
+            sent(new SendResult(e));
+        }
+
+    }
+
+    /**
+     * Handles completion of the message currently being sent, starting to
+     * send the next message and resuming any waiting producer as necessary.
+     *
+     * @param result
+     *     The result of the completed send.
+     */
+    private void sent(SendResult result) {
+
+        Runnable task = null;
+        Message next = null;
+
+        synchronized (this) {
+
+            sending = false;
+
+            // Remove completed message
+            Message message = messages.poll();
+            if (message != null) {
+                queuedSize -= message.size;
+                release(message);
+            }
+
+            // Stop sending entirely upon failure, discarding all messages
+            // which will now never be sent
+            if (!result.isOK()) {
+                error = new IOException("Asynchronous WebSocket send failed.",
+                        result.getException());
+                for (Message unsent : messages)
+                    release(unsent);
+                messages.clear();
+                queuedSize = 0;
+            }
+
+            // Otherwise, update statistics and continue with the next message
+            else {
+
+                long latency = System.nanoTime() - sendStarted;
+                sentCount++;
+                totalSendLatency += latency;
+                if (latency > maxSendLatency)
+                    maxSendLatency = latency;
+
+                next = startNext();
+
+            }
+
+            // Resume producer once drained sufficiently (or failed)
+            if (resumeTask != null && (error != null || queuedSize <= highWaterMark / 2)) {
+                task = resumeTask;
+                resumeTask = null;
+            }
+
+            notifyAll();
+
+        }
+
+        // Send next message and run resume task outside of lock
+        send(next);
+        if (task != null)
+            task.run();
+
+    }
+
+    /**
+     * Queues the given text message for sending.
+     *
+     * @param text
+     *     The content of the text message.
+     *
+     * @throws IOException
+     *     If a previous send has failed.
+     */
+    public void sendText(String text) throws IOException {
+        enqueue(new Message(text, text.length(), false));
+    }
+
+    /**
+     * Queues the given binary message for sending. The queue takes ownership
+     * of the given buffer, which must not be modified further by the caller.
+     *
+     * @param data
+     *     The content of the binary message, from its position to its limit.
+     *
+     * @param pooled
+     *     Whether the given buffer was acquired from the pool given when
+     *     this queue was created, and should be released to that pool once
+     *     sent or discarded.
+     *
+     * @throws IOException
+     *     If a previous send has failed.
+     */
+    public void sendBinary(ByteBuffer data, boolean pooled) throws IOException {
+        enqueue(new Message(data, data.remaining(), pooled));
+    }
+
+    /**
+     * Returns whether the amount of queued data has reached the high-water
+     * mark, in which case producers should stop producing.
+     *
+     * @return
+     *     true if the high-water mark has been reached, false otherwise.
+     */
+    public synchronized boolean isFull() {
+        return queuedSize >= highWaterMark;
+    }
+
+    /**
+     * Arranges for the given task to run once the queue has drained to half
+     * the high-water mark, if the high-water mark has currently been
+     * reached. The task is run by the thread completing the relevant send.
+     *
+     * @param task
+     *     The task to run once the queue has drained.
+     *
+     * @return
+     *     true if the high-water mark has been reached and the task will be
+     *     run once the queue has drained, false if the high-water mark has
+     *     not been reached and the task will not be run.
+     */
+    public synchronized boolean resumeWhenDrained(Runnable task) {
+
+        if (error != null || queuedSize < highWaterMark)
+            return false;
+
+        resumeTask = task;
+        return true;
+
+    }
+
+    /**
+     * Returns whether a producer is currently waiting for the queue to drain
+     * via resumeWhenDrained().
+     *
+     * @return
+     *     true if a producer is waiting for the queue to drain, false
+     *     otherwise.
+     */
+    public synchronized boolean isSuspended() {
+        return resumeTask != null;
+    }
+
+    /**
+     * Blocks until the queue has drained to half the high-water mark, if the
+     * high-water mark has currently been reached.
+     *
+     * @throws IOException
+     *     If a send fails while waiting.
+     *
+     * @throws InterruptedException
+     *     If the current thread is interrupted while waiting.
+     */
+    public synchronized void awaitDrained()
+            throws IOException, InterruptedException {
+
+        if (queuedSize < highWaterMark)
+            return;
+
+        while (error == null && queuedSize > highWaterMark / 2)
+            wait();
+
+        if (error != null)
+            throw error;
+
+    }
+
+    /**
+     * Blocks until all queued messages have been sent, or until the given
+     * amount of time has elapsed.
+     *
+     * @param timeout
+     *     The maximum amount of time to wait, in milliseconds.
+     *
+     * @throws InterruptedException
+     *     If the current thread is interrupted while waiting.
+     */
+    public synchronized void awaitEmpty(long timeout)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+        while (error == null && !messages.isEmpty()) {
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+
+            wait(remaining);
+
+        }
+
+    }
+
+    /**
+     * Returns the number of messages which have not yet been completely
+     * sent, including the message currently being sent.
+     *
+     * @return
+     *     The number of messages in the queue.
+     */
+    public synchronized int getQueuedMessageCount() {
+        return messages.size();
+    }
+
+    /**
+     * Returns the total size of all messages which have not yet been
+     * completely sent.
+     *
+     * @return
+     *     The total size of all queued messages, in characters for text
+     *     messages or bytes for binary messages.
+     */
+    public synchronized long getQueuedSize() {
+        return queuedSize;
+    }
+
+    /**
+     * Returns the largest total size of messages queued at any one time.
+     *
+     * @return
+     *     The largest total size of messages queued at any one time.
+     */
+    public synchronized long getMaxQueuedSize() {
+        return maxQueuedSize;
+    }
+
+    /**
+     * Returns the total number of messages successfully sent.
+     *
+     * @return
+     *     The total number of messages successfully sent.
+     */
+    public synchronized long getSentMessageCount() {
+        return sentCount;
+    }
+
+    /**
+     * Returns the average time taken to send each message, from the start of
+     * the send until its completion, in milliseconds.
+     *
+     * @return
+     *     The average time taken to send each message, in milliseconds, or
+     *     zero if no messages have been sent.
+     */
+    public synchronized double getAverageSendLatency() {
+
+        if (sentCount == 0)
+            return 0;
+
+        return totalSendLatency / (double) sentCount / 1000000.0;
+
+    }
+
+    /**
+     * Returns the longest time taken to send any single message, in
+     * milliseconds.
+     *
+     * @return
+     *     The longest time taken to send any single message, in
+     *     milliseconds.
+     */
+    public synchronized double getMaxSendLatency() {
+        return maxSendLatency / 1000000.0;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the InputStreamGuacamoleReader implementation of GuacamoleReader,
+ * validating that instructions are framed and parsed correctly directly from
+ * UTF-8 bytes.
+ */
+public class InputStreamGuacamoleReaderTest {
+
+    /**
+     * Test string containing multi-byte characters, whose element lengths are
+     * given in code points.
+     */
+    private static final String TEST = "1.a,2.bç,3.d€f,10.helloworld;4.test,5.test2;0.;3.foo;";
+
+    /**
+     * Test of InputStreamGuacamoleReader parsing.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs while parsing the known-good test string.
+     *
+     * @throws UnsupportedEncodingException
+     *     If UTF-8 is not supported.
+     */
+    @Test
+    public void testReader() throws GuacamoleException, UnsupportedEncodingException {
+
+        GuacamoleReader reader = new InputStreamGuacamoleReader(
+                new ByteArrayInputStream(TEST.getBytes("UTF-8")));
+
+        GuacamoleInstruction instruction;
+
+        // Validate first test instruction
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals(3, instruction.getArgs().size());
+        assertEquals("a", instruction.getOpcode());
+        assertEquals("bç", instruction.getArgs().get(0));
+        assertEquals("d€f", instruction.getArgs().get(1));
+        assertEquals("helloworld", instruction.getArgs().get(2));
+        assertEquals("1.a,2.bç,3.d€f,10.helloworld;", instruction.toString());
+
+        // Validate second test instruction
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals(1, instruction.getArgs().size());
+        assertEquals("test", instruction.getOpcode());
+        assertEquals("test2", instruction.getArgs().get(0));
+
+        // Validate third test instruction as characters
+        assertArrayEquals("0.;".toCharArray(), reader.read());
+
+        // Validate fourth test instruction
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals(0, instruction.getArgs().size());
+        assertEquals("foo", instruction.getOpcode());
+
+        // There should be no more instructions
+        instruction = reader.readInstruction();
+        assertNull(instruction);
+
+    }
+
+    /**
+     * Test of InputStreamGuacamoleReader framing of raw instruction bytes.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs while parsing the known-good test string.
+     *
+     * @throws UnsupportedEncodingException
+     *     If UTF-8 is not supported.
+     */
+    @Test
+    public void testReadBytes() throws GuacamoleException, UnsupportedEncodingException {
+
+        GuacamoleByteReader reader = new InputStreamGuacamoleReader(
+                new ByteArrayInputStream(TEST.getBytes("UTF-8")));
+
+        String[] expected = {
+            "1.a,2.bç,3.d€f,10.helloworld;",
+            "4.test,5.test2;",
+            "0.;",
+            "3.foo;"
+        };
+
+        // Validate raw bytes of each instruction
+        for (String instruction : expected) {
+            ByteBuffer bytes = reader.readBytes();
+            assertNotNull(bytes);
+            assertEquals(instruction, new String(bytes.array(),
+                    bytes.arrayOffset() + bytes.position(), bytes.remaining(),
+                    "UTF-8"));
+        }
+
+        // There should be no more instructions
+        assertNull(reader.readBytes());
+
+    }
+
+}
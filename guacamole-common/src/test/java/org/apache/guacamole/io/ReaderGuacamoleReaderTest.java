@@ -20,6 +20,7 @@
 package org.apache.guacamole.io;
 
 import java.io.StringReader;
+import java.nio.CharBuffer;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.junit.Test;
@@ -83,6 +84,37 @@ public class ReaderGuacamoleReaderTest {
 
     }
 
+    /**
+     * Test of ReaderGuacamoleReader reading instructions as views of its
+     * internal buffer, including across compaction of that buffer.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testReadView() throws GuacamoleException {
+
+        // Build test string large enough to require compaction of the buffer
+        StringBuilder test = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            String value = Integer.toString(i);
+            test.append("4.sync,").append(value.length()).append('.')
+                    .append(value).append(';');
+        }
+
+        ReaderGuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(test.toString()));
+
+        // Validate each instruction in order
+        for (int i = 0; i < 10000; i++) {
+            String value = Integer.toString(i);
+            CharBuffer view = reader.readView();
+            assertNotNull(view);
+            assertEquals("4.sync," + value.length() + "." + value + ";", view.toString());
+        }
+
+        // There should be no more instructions
+        assertNull(reader.readView());
+
+    }
 
-   
 }
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the WriterGuacamoleWriter implementation of GuacamoleWriter,
+ * validating that coalesced writes are flushed when required.
+ */
+public class WriterGuacamoleWriterTest {
+
+    /**
+     * StringWriter which counts the number of times it has been flushed.
+     */
+    private static class FlushCountingWriter extends StringWriter {
+
+        /**
+         * The number of times this writer has been flushed.
+         */
+        private volatile int flushes = 0;
+
+        /**
+         * Semaphore released once each time this writer is flushed.
+         */
+        private final Semaphore flushed = new Semaphore(0);
+
+        @Override
+        public void flush() {
+            super.flush();
+            flushes++;
+            flushed.release();
+        }
+
+    }
+
+    /**
+     * StringWriter which records being closed.
+     */
+    private static class CloseRecordingWriter extends StringWriter {
+
+        /**
+         * Latch which is released once this writer is closed.
+         */
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+    }
+
+    /**
+     * Test of coalescing writes, flushing on "sync" instructions and after
+     * the coalescing window elapses.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for the delayed flush.
+     */
+    @Test
+    public void testCoalesce() throws GuacamoleException, InterruptedException {
+
+        FlushCountingWriter output = new FlushCountingWriter();
+        WriterGuacamoleWriter writer = new WriterGuacamoleWriter(output, 50, 1024);
+
+        // Small writes are held
+        writer.write("5.mouse,1.0,1.0,1.0;".toCharArray());
+        writer.write("5.mouse,1.1,1.1,1.0;".toCharArray());
+        assertEquals("", output.toString());
+
+        // Writes are flushed immediately upon "sync"
+        writer.write("4.sync,1.5;".toCharArray());
+        assertEquals("5.mouse,1.0,1.0,1.0;5.mouse,1.1,1.1,1.0;4.sync,1.5;",
+                output.toString());
+        assertEquals(1, output.flushes);
+        assertTrue(output.flushed.tryAcquire());
+
+        // Writes are otherwise flushed once the window elapses
+        writer.write("3.key,2.65,1.1;".toCharArray());
+        assertTrue(output.flushed.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals("5.mouse,1.0,1.0,1.0;5.mouse,1.1,1.1,1.0;4.sync,1.5;3.key,2.65,1.1;",
+                output.toString());
+        assertEquals(2, output.flushes);
+
+        assertEquals(4, writer.getWriteCount());
+        assertEquals(2, writer.getCoalescedWriteCount());
+
+    }
+
+    /**
+     * Test that the failure of a delayed flush closes the output, and is
+     * reported by the next write.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting for the output to be closed.
+     */
+    @Test
+    public void testDelayedFlushFailure() throws InterruptedException {
+
+        CloseRecordingWriter output = new CloseRecordingWriter();
+
+        // Fail delayed flushes with an I/O error, as a broken connection would
+        WriterGuacamoleWriter writer = new WriterGuacamoleWriter(new FilterWriter(output) {
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("Connection reset.");
+            }
+
+        }, 50, 1024);
+
+        try {
+            writer.write("5.mouse,1.0,1.0,1.0;".toCharArray());
+        }
+        catch (GuacamoleException e) {
+            fail("Coalesced write must not fail before flushing.");
+        }
+
+        // The output must be closed without any further writes
+        assertTrue(output.closed.await(5, TimeUnit.SECONDS));
+
+        // The failure must still be reported by the next write
+        try {
+            writer.write("5.mouse,1.1,1.1,1.0;".toCharArray());
+            fail("Write after failed delayed flush must fail.");
+        }
+        catch (GuacamoleException e) {
+            // Expected
+        }
+
+    }
+
+}
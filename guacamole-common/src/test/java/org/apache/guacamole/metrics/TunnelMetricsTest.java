@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the TunnelMetrics class, validating that instructions are counted by
+ * opcode and that measurements are also recorded globally.
+ */
+public class TunnelMetricsTest {
+
+    /**
+     * Instructions containing multi-byte characters, surrogate pairs and
+     * element values resembling instruction terminators, followed by an
+     * incomplete instruction which must not be counted.
+     */
+    private static final String INSTRUCTIONS =
+            "4.sync,8.12345678;"
+          + "3.img,4.a;b,,5.\u00e9\u00e8\u00ea\u00eb\u00ec;"
+          + "4.sync,2.\uD83D\uDE00x;"
+          + "4.blob,3.abc;"
+          + "4.blob,9.abc";
+
+    /**
+     * Verifies that the given metrics counted exactly the complete
+     * instructions within INSTRUCTIONS.
+     *
+     * @param metrics
+     *     The metrics to verify.
+     */
+    private void assertCounted(TunnelMetrics metrics) {
+
+        Map<String, Long> counts = metrics.getInstructionCounts();
+        assertEquals(3, counts.size());
+        assertEquals(Long.valueOf(2), counts.get("sync"));
+        assertEquals(Long.valueOf(1), counts.get("img"));
+        assertEquals(Long.valueOf(1), counts.get("blob"));
+        assertEquals(4, metrics.getInstructionsSent());
+
+    }
+
+    /**
+     * Test of counting instructions provided as characters.
+     */
+    @Test
+    public void testCharacterInstructions() {
+
+        TunnelMetrics global = new TunnelMetrics(null, null);
+        TunnelMetrics metrics = new TunnelMetrics("test", global);
+
+        metrics.recordInstructions(INSTRUCTIONS.toCharArray());
+        assertCounted(metrics);
+        assertCounted(global);
+
+    }
+
+    /**
+     * Test of counting instructions provided as UTF-8, verifying that the
+     * provided buffer is not modified.
+     */
+    @Test
+    public void testByteInstructions() {
+
+        TunnelMetrics global = new TunnelMetrics(null, null);
+        TunnelMetrics metrics = new TunnelMetrics("test", global);
+
+        ByteBuffer data = ByteBuffer.wrap(INSTRUCTIONS.getBytes(Charset.forName("UTF-8")));
+        int remaining = data.remaining();
+
+        metrics.recordInstructions(data);
+        assertCounted(metrics);
+        assertCounted(global);
+        assertEquals(remaining, data.remaining());
+
+    }
+
+    /**
+     * Test of recording amounts of data and durations.
+     */
+    @Test
+    public void testTotals() {
+
+        TunnelMetrics global = new TunnelMetrics(null, null);
+        TunnelMetrics metrics = new TunnelMetrics("test", global);
+
+        metrics.recordBytesSent(100);
+        metrics.recordBytesSent(50);
+        metrics.recordBytesReceived(7);
+        metrics.recordFlush(2000000);
+        metrics.recordFlush(4000000);
+
+        assertEquals(150, metrics.getBytesSent());
+        assertEquals(150, global.getBytesSent());
+        assertEquals(7, metrics.getBytesReceived());
+        assertEquals(2, metrics.getFlushes());
+        assertEquals(3000.0, metrics.getFlushLatencyMean(), 0.001);
+        assertEquals(4000, metrics.getFlushLatencyMax());
+        assertEquals(4000, metrics.getFlushLatency99());
+
+    }
+
+}
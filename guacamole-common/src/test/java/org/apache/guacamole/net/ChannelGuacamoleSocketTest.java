@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the ChannelGuacamoleSocket class, validating that all instructions
+ * sent by guacd are received intact and in order while reading from guacd is
+ * repeatedly paused and resumed.
+ */
+public class ChannelGuacamoleSocketTest {
+
+    /**
+     * The number of instructions sent by the simulated guacd.
+     */
+    private static final int INSTRUCTION_COUNT = 20000;
+
+    /**
+     * Padding included within each instruction, such that enough data is
+     * sent for many chunks to be queued.
+     */
+    private static final String PADDING = String.format("%0200d", 0);
+
+    /**
+     * Returns the UTF-8 data of all instructions sent by the simulated guacd.
+     * Each instruction contains its own index, such that its order can be
+     * verified, along with multi-byte characters and padding.
+     *
+     * @return
+     *     The UTF-8 data of all instructions to be sent.
+     *
+     * @throws IOException
+     *     If the instructions cannot be encoded.
+     */
+    private static byte[] getInstructionData() throws IOException {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < INSTRUCTION_COUNT; i++) {
+            String index = Integer.toString(i);
+            data.write(new GuacamoleInstruction("test", index, "é€", PADDING)
+                    .toString().getBytes("UTF-8"));
+        }
+
+        return data.toByteArray();
+
+    }
+
+    /**
+     * Test that reading from guacd does not stall while the consumer drains
+     * received data concurrently with reading being paused. Data is sent in
+     * small, randomly-sized pieces, such that many chunks are queued and
+     * instructions are split across reads, while the consumer alternates
+     * between pausing and draining as quickly as possible.
+     *
+     * @throws Exception
+     *     If an error occurs while sending or receiving data.
+     */
+    @Test(timeout = 60000)
+    public void testPauseWhileDraining() throws Exception {
+
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final byte[] data = getInstructionData();
+
+        // Simulate guacd, sending all data in small pieces
+        Thread guacd = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+
+                    Socket client = server.accept();
+                    OutputStream output = client.getOutputStream();
+
+                    Random random = new Random(0);
+                    int offset = 0;
+                    while (offset < data.length) {
+                        int length = Math.min(data.length - offset, 1 + random.nextInt(4096));
+                        output.write(data, offset, length);
+                        output.flush();
+                        offset += length;
+                    }
+
+                    client.shutdownOutput();
+
+                }
+                catch (IOException e) {
+                    // Failure will be detected by the reader
+                }
+            }
+
+        };
+        guacd.start();
+
+        GuacamoleSocketMultiplexer multiplexer = new GuacamoleSocketMultiplexer(1, 2);
+        try {
+
+            GuacamoleSocket socket = new ChannelGuacamoleSocket("127.0.0.1",
+                    server.getLocalPort(), multiplexer);
+            GuacamoleReader reader = socket.getReader();
+
+            // Read all instructions, periodically allowing received data to
+            // accumulate such that reading is paused
+            for (int i = 0; i < INSTRUCTION_COUNT; i++) {
+
+                if (i % 500 == 0)
+                    Thread.sleep(25);
+
+                GuacamoleInstruction instruction = reader.readInstruction();
+                assertNotNull(instruction);
+                assertEquals("test", instruction.getOpcode());
+                assertEquals(Integer.toString(i), instruction.getArgs().get(0));
+                assertEquals("é€", instruction.getArgs().get(1));
+                assertEquals(PADDING, instruction.getArgs().get(2));
+
+            }
+
+            // Nothing may follow the final instruction
+            assertNull(reader.read());
+            socket.close();
+
+        }
+        catch (GuacamoleException e) {
+            fail("Reading from guacd failed: " + e.getMessage());
+        }
+        finally {
+            multiplexer.shutdown();
+            server.close();
+        }
+
+        guacd.join();
+
+    }
+
+}
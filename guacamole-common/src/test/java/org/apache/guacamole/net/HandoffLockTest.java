@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the HandoffLock class, validating mutual exclusion, reentrancy, and
+ * direct handoff of ownership to waiting threads.
+ */
+public class HandoffLockTest {
+
+    /**
+     * The value incremented by competing threads while holding the lock.
+     */
+    private int counter;
+
+    /**
+     * Test of mutual exclusion and reentrancy between competing threads.
+     *
+     * @throws InterruptedException
+     *     If the test is interrupted while waiting for threads to finish.
+     */
+    @Test
+    public void testMutualExclusion() throws InterruptedException {
+
+        final HandoffLock lock = new HandoffLock();
+        final int iterations = 10000;
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < iterations; j++) {
+                        lock.acquire();
+                        lock.acquire();
+                        counter++;
+                        lock.release();
+                        lock.release();
+                    }
+                }
+
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(threads.size() * iterations, counter);
+        assertFalse(lock.hasQueuedThreads());
+
+    }
+
+    /**
+     * Test that a releasing thread cannot reclaim the lock ahead of a thread
+     * which was already waiting.
+     *
+     * @throws InterruptedException
+     *     If the test is interrupted while waiting for the other thread.
+     */
+    @Test
+    public void testHandoff() throws InterruptedException {
+
+        final HandoffLock lock = new HandoffLock();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        lock.acquire();
+
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                lock.acquire();
+                order.add("waiter");
+                lock.release();
+            }
+
+        };
+        waiter.start();
+
+        // Wait for other thread to begin waiting
+        while (!lock.hasQueuedThreads())
+            Thread.sleep(1);
+
+        // Ownership must pass to the waiting thread first
+        lock.release();
+        lock.acquire();
+        order.add("releaser");
+        lock.release();
+
+        waiter.join();
+        assertEquals(2, order.size());
+        assertEquals("waiter", order.get(0));
+        assertEquals("releaser", order.get(1));
+
+    }
+
+    /**
+     * Test that releasing a lock which is not owned fails.
+     */
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testReleaseUnowned() {
+        new HandoffLock().release();
+    }
+
+}
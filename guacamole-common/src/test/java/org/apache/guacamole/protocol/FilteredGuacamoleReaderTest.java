@@ -19,9 +19,13 @@
 
 package org.apache.guacamole.protocol;
 
+import java.io.ByteArrayInputStream;
 import java.io.StringReader;
+import java.util.Collections;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
 import org.apache.guacamole.io.ReaderGuacamoleReader;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -51,6 +55,49 @@ public class FilteredGuacamoleReaderTest {
 
     }
     
+    /**
+     * Filter which declares interest only in "no" instructions, dropping
+     * them.
+     */
+    private static class TestOpcodeFilter implements GuacamoleOpcodeFilter {
+
+        @Override
+        public Set<String> getOpcodes() {
+            return Collections.singleton("no");
+        }
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction) throws GuacamoleException {
+            return null;
+        }
+
+    }
+
+    /**
+     * InputStream which fails the test if read while no data is available,
+     * as such a read would block were this a network stream.
+     */
+    private static class NonBlockingInputStream extends ByteArrayInputStream {
+
+        /**
+         * Creates a new NonBlockingInputStream which provides the UTF-8
+         * bytes of the given string.
+         *
+         * @param data
+         *     The data to provide.
+         */
+        public NonBlockingInputStream(String data) {
+            super(data.getBytes());
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            assertTrue("Read would block.", available() > 0);
+            return super.read(buffer, offset, length);
+        }
+
+    }
+
     @Test
     public void testFilter() throws Exception {
 
@@ -89,4 +136,31 @@ public class FilteredGuacamoleReaderTest {
 
     }
     
+    /**
+     * Verifies that available() reads ahead past dropped instructions without
+     * blocking, returning true only if an instruction that was not dropped
+     * can be read.
+     */
+    @Test
+    public void testAvailable() throws Exception {
+
+        // Only dropped instructions are available
+        FilteredGuacamoleReader reader = new FilteredGuacamoleReader(
+                new InputStreamGuacamoleReader(new NonBlockingInputStream("2.no,1.A;2.no,1.B;")),
+                new TestOpcodeFilter());
+
+        assertFalse(reader.available());
+
+        // An instruction which is not dropped follows dropped instructions
+        reader = new FilteredGuacamoleReader(
+                new InputStreamGuacamoleReader(new NonBlockingInputStream("2.no,1.A;3.yes,1.B;2.no,1.C;")),
+                new TestOpcodeFilter());
+
+        assertTrue(reader.available());
+        assertTrue(reader.available());
+        assertEquals("3.yes,1.B;", new String(reader.read()));
+        assertFalse(reader.available());
+
+    }
+
 }
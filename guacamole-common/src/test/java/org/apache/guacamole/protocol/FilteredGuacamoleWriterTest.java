@@ -19,9 +19,13 @@
 
 package org.apache.guacamole.protocol;
 
+import java.io.ByteArrayOutputStream;
 import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
 import org.apache.guacamole.io.WriterGuacamoleWriter;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -51,6 +55,24 @@ public class FilteredGuacamoleWriterTest {
 
     }
     
+    /**
+     * Filter which declares interest only in "no" instructions, dropping
+     * them.
+     */
+    private static class TestOpcodeFilter implements GuacamoleOpcodeFilter {
+
+        @Override
+        public Set<String> getOpcodes() {
+            return Collections.singleton("no");
+        }
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction) throws GuacamoleException {
+            return null;
+        }
+
+    }
+
     @Test
     public void testFilter() throws Exception {
 
@@ -67,4 +89,28 @@ public class FilteredGuacamoleWriterTest {
 
     }
     
+    /**
+     * Verifies that raw UTF-8 data written to a FilteredGuacamoleWriter is
+     * filtered by opcode, with all other instructions passed through as-is,
+     * including instructions containing multi-byte characters.
+     */
+    @Test
+    public void testFilterBytes() throws Exception {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FilteredGuacamoleWriter writer = new FilteredGuacamoleWriter(
+                new OutputStreamGuacamoleWriter(output), new TestOpcodeFilter());
+
+        // Write a few chunks of complete instructions
+        byte[] chunk = "3.yes,2.\u00e9\u00e9;2.no,1.\u00e9;4.nope,1.\u20ac;".getBytes("UTF-8");
+        writer.write(chunk, 0, chunk.length);
+        chunk = "2.no,1.A;3.yes,1.B;".getBytes("UTF-8");
+        writer.write(chunk, 0, chunk.length);
+
+        // Validate filtered results
+        assertEquals("3.yes,2.\u00e9\u00e9;4.nope,1.\u20ac;3.yes,1.B;",
+                output.toString("UTF-8"));
+
+    }
+
 }
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.DatatypeConverter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test which validates removal of superseded drawing instructions by
+ * FrameCompactor.
+ */
+public class FrameCompactorTest {
+
+    /**
+     * Returns base64-encoded data which begins with a PNG signature and IHDR
+     * chunk declaring the given dimensions.
+     *
+     * @param width
+     *     The width of the image.
+     *
+     * @param height
+     *     The height of the image.
+     *
+     * @return
+     *     The base64-encoded start of a PNG image of the given dimensions.
+     */
+    private static String png(int width, int height) {
+
+        byte[] data = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n',
+            0, 0, 0, 13, 'I', 'H', 'D', 'R',
+            (byte) (width >> 24), (byte) (width >> 16), (byte) (width >> 8), (byte) width,
+            (byte) (height >> 24), (byte) (height >> 16), (byte) (height >> 8), (byte) height
+        };
+
+        return DatatypeConverter.printBase64Binary(data);
+
+    }
+
+    /**
+     * Appends a complete image stream to the given list of instructions.
+     *
+     * @param run
+     *     The list of instructions to append to.
+     *
+     * @param stream
+     *     The index of the stream.
+     *
+     * @param mask
+     *     The channel mask to draw the image with.
+     *
+     * @param x
+     *     The X coordinate of the image.
+     *
+     * @param y
+     *     The Y coordinate of the image.
+     *
+     * @param width
+     *     The width of the image.
+     *
+     * @param height
+     *     The height of the image.
+     */
+    private static void addImage(List<GuacamoleInstruction> run, int stream,
+            int mask, int x, int y, int width, int height) {
+        run.add(new GuacamoleInstruction("img", Integer.toString(stream),
+                Integer.toString(mask), "0", "image/png",
+                Integer.toString(x), Integer.toString(y)));
+        run.add(new GuacamoleInstruction("blob", Integer.toString(stream), png(width, height)));
+        run.add(new GuacamoleInstruction("end", Integer.toString(stream)));
+    }
+
+    /**
+     * Verifies that only the last "mouse" and "cursor" instructions of a
+     * run are retained.
+     */
+    @Test
+    public void testMouseAndCursor() {
+
+        List<GuacamoleInstruction> run = new ArrayList<GuacamoleInstruction>();
+        run.add(new GuacamoleInstruction("mouse", "1", "1"));
+        run.add(new GuacamoleInstruction("cursor", "0", "0", "-1", "0", "0", "16", "16"));
+        run.add(new GuacamoleInstruction("mouse", "2", "2"));
+        run.add(new GuacamoleInstruction("cursor", "1", "1", "-1", "0", "0", "16", "16"));
+        run.add(new GuacamoleInstruction("sync", "1234"));
+
+        List<GuacamoleInstruction> compacted = FrameCompactor.compact(run);
+        assertEquals(3, compacted.size());
+        assertEquals("2", compacted.get(0).getArgs().get(0));
+        assertEquals("cursor", compacted.get(1).getOpcode());
+        assertEquals("1", compacted.get(1).getArgs().get(0));
+        assertEquals("sync", compacted.get(2).getOpcode());
+
+    }
+
+    /**
+     * Verifies that an image stream entirely overwritten by a later image
+     * stream is dropped, including its blobs and end.
+     */
+    @Test
+    public void testOverwrittenImage() {
+
+        List<GuacamoleInstruction> run = new ArrayList<GuacamoleInstruction>();
+        addImage(run, 1, 12, 10, 10, 32, 32);
+        addImage(run, 2, 12, 0, 0, 64, 64);
+
+        List<GuacamoleInstruction> compacted = FrameCompactor.compact(run);
+        assertEquals(3, compacted.size());
+        for (GuacamoleInstruction instruction : compacted)
+            assertEquals("2", instruction.getArgs().get(0));
+
+    }
+
+    /**
+     * Verifies that image streams are retained if not entirely overwritten,
+     * if the later stream is not drawn with SRC, or if the layer may be read
+     * between the two streams.
+     */
+    @Test
+    public void testRetainedImage() {
+
+        // Partially overwritten
+        List<GuacamoleInstruction> run = new ArrayList<GuacamoleInstruction>();
+        addImage(run, 1, 12, 10, 10, 32, 32);
+        addImage(run, 2, 12, 20, 0, 64, 64);
+        assertEquals(6, FrameCompactor.compact(run).size());
+
+        // Composited rather than replaced
+        run.clear();
+        addImage(run, 1, 12, 10, 10, 32, 32);
+        addImage(run, 2, 14, 0, 0, 64, 64);
+        assertEquals(6, FrameCompactor.compact(run).size());
+
+        // Read by an intervening copy
+        run.clear();
+        addImage(run, 1, 12, 10, 10, 32, 32);
+        run.add(new GuacamoleInstruction("copy", "0", "10", "10", "32", "32", "12", "1", "0", "0"));
+        addImage(run, 2, 12, 0, 0, 64, 64);
+        assertEquals(7, FrameCompactor.compact(run).size());
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleByteReader;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
+import org.apache.guacamole.io.ReaderGuacamoleReader;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test which validates dispatch of Guacamole instructions by opcode with
+ * GuacamoleFilterChain.
+ */
+public class GuacamoleFilterChainTest {
+
+    /**
+     * Filter which counts and drops all "drop" instructions.
+     */
+    private static class DropFilter implements GuacamoleOpcodeFilter {
+
+        /**
+         * The number of instructions received by this filter.
+         */
+        private int received = 0;
+
+        @Override
+        public Set<String> getOpcodes() {
+            return Collections.singleton("drop");
+        }
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                throws GuacamoleException {
+            received++;
+            return null;
+        }
+
+    }
+
+    /**
+     * Filter which counts and replaces all "swap" instructions.
+     */
+    private static class SwapFilter implements GuacamoleOpcodeFilter {
+
+        /**
+         * The number of instructions received by this filter.
+         */
+        private int received = 0;
+
+        @Override
+        public Set<String> getOpcodes() {
+            return Collections.singleton("swap");
+        }
+
+        @Override
+        public GuacamoleInstruction filter(GuacamoleInstruction instruction)
+                throws GuacamoleException {
+            received++;
+            return new GuacamoleInstruction("swapped",
+                    instruction.getArgs().get(0));
+        }
+
+    }
+
+    /**
+     * Test of filtering with FilteredGuacamoleReader via read().
+     *
+     * @throws GuacamoleException
+     *     If the known-good test string cannot be read.
+     */
+    @Test
+    public void testReader() throws GuacamoleException {
+
+        final String test = "4.drop,1.A;4.keep,1.B;4.swap,1.C;4.sync,1.D;";
+
+        DropFilter dropFilter = new DropFilter();
+        SwapFilter swapFilter = new SwapFilter();
+
+        GuacamoleReader reader = new FilteredGuacamoleReader(
+                new ReaderGuacamoleReader(new StringReader(test)),
+                new GuacamoleFilterChain(dropFilter, swapFilter));
+
+        // Unrelated instructions are passed through untouched
+        assertEquals("4.keep,1.B;", new String(reader.read()));
+        assertEquals("7.swapped,1.C;", new String(reader.read()));
+        assertEquals("4.sync,1.D;", new String(reader.read()));
+        assertNull(reader.read());
+
+        // Each filter receives only its own opcodes
+        assertEquals(1, dropFilter.received);
+        assertEquals(1, swapFilter.received);
+
+    }
+
+    /**
+     * Test of filtering with FilteredGuacamoleReader via readBytes().
+     *
+     * @throws Exception
+     *     If the known-good test string cannot be read.
+     */
+    @Test
+    public void testReadBytes() throws Exception {
+
+        final String test = "4.drop,1.A;4.keep,2.B€;4.swap,1.C;4.sync,1.D;";
+
+        DropFilter dropFilter = new DropFilter();
+        SwapFilter swapFilter = new SwapFilter();
+
+        GuacamoleByteReader reader = new FilteredGuacamoleReader(
+                new InputStreamGuacamoleReader(new ByteArrayInputStream(test.getBytes("UTF-8"))),
+                new GuacamoleFilterChain(dropFilter, swapFilter));
+
+        // Unrelated instructions are passed through untouched
+        String[] expected = { "4.keep,2.B€;", "7.swapped,1.C;", "4.sync,1.D;" };
+        for (String instruction : expected) {
+            ByteBuffer bytes = reader.readBytes();
+            assertNotNull(bytes);
+            assertEquals(instruction, new String(bytes.array(),
+                    bytes.arrayOffset() + bytes.position(), bytes.remaining(),
+                    "UTF-8"));
+        }
+
+        assertNull(reader.readBytes());
+
+        // Each filter receives only its own opcodes
+        assertEquals(1, dropFilter.received);
+        assertEquals(1, swapFilter.received);
+
+    }
+
+    /**
+     * Test of filtering with FilteredGuacamoleWriter.
+     *
+     * @throws GuacamoleException
+     *     If the known-good test string cannot be written.
+     */
+    @Test
+    public void testWriter() throws GuacamoleException {
+
+        final String test = "4.keep,1.A;4.drop,1.B;4.keep,1.C;4.sync,1.D;4.swap,1.E;";
+
+        DropFilter dropFilter = new DropFilter();
+        SwapFilter swapFilter = new SwapFilter();
+
+        StringWriter stringWriter = new StringWriter();
+        GuacamoleWriter writer = new FilteredGuacamoleWriter(
+                new WriterGuacamoleWriter(stringWriter),
+                new GuacamoleFilterChain(dropFilter, swapFilter));
+
+        writer.write(test.toCharArray());
+
+        // Unrelated instructions are written untouched
+        assertEquals("4.keep,1.A;4.keep,1.C;4.sync,1.D;7.swapped,1.E;",
+                stringWriter.toString());
+
+        // Each filter receives only its own opcodes
+        assertEquals(1, dropFilter.received);
+        assertEquals(1, swapFilter.received);
+
+    }
+
+}
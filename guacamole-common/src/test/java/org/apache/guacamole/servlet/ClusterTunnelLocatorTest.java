@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.guacamole.GuacamoleException;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ClusterTunnelLocator class against simulated nodes.
+ */
+public class ClusterTunnelLocatorTest {
+
+    /**
+     * Simulated node which owns the tunnel "owned".
+     */
+    private HttpServer owner;
+
+    /**
+     * Simulated node which owns no tunnels.
+     */
+    private HttpServer other;
+
+    /**
+     * The URL of the HTTP tunnel servlet of the owning node.
+     */
+    private String ownerURL;
+
+    /**
+     * The URL of the HTTP tunnel servlet of the node owning no tunnels.
+     */
+    private String otherURL;
+
+    /**
+     * The URL of a node which cannot be reached.
+     */
+    private String unreachableURL;
+
+    /**
+     * Socket which accepts connections but never responds, simulating a
+     * node which has stopped responding.
+     */
+    private ServerSocket hung;
+
+    /**
+     * The URL of the node which has stopped responding.
+     */
+    private String hungURL;
+
+    /**
+     * The number of times the owning node has been queried.
+     */
+    private final AtomicInteger ownerQueries = new AtomicInteger();
+
+    /**
+     * The number of times the node owning no tunnels has been queried.
+     */
+    private final AtomicInteger otherQueries = new AtomicInteger();
+
+    /**
+     * Handler which simulates the HTTP tunnel servlet of a node owning the
+     * given tunnel, if any.
+     */
+    private class LocateHandler implements HttpHandler {
+
+        /**
+         * The UUID of the tunnel owned, or null if no tunnel is owned.
+         */
+        private final String ownedUUID;
+
+        /**
+         * The number of times this node has been queried.
+         */
+        private final AtomicInteger queries;
+
+        /**
+         * Creates a new LocateHandler which simulates a node owning the given
+         * tunnel.
+         *
+         * @param ownedUUID
+         *     The UUID of the tunnel owned, or null if no tunnel is owned.
+         *
+         * @param queries
+         *     The counter to increment each time this node is queried.
+         */
+        public LocateHandler(String ownedUUID, AtomicInteger queries) {
+            this.ownedUUID = ownedUUID;
+            this.queries = queries;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+
+            queries.incrementAndGet();
+
+            String query = exchange.getRequestURI().getQuery();
+            if (query.equals(GuacamoleHTTPTunnelServlet.LOCATE_PREFIX + ownedUUID))
+                exchange.sendResponseHeaders(204, -1);
+            else
+                exchange.sendResponseHeaders(404, -1);
+
+            exchange.close();
+
+        }
+
+    }
+
+    /**
+     * Starts a simulated node owning the given tunnel.
+     *
+     * @param ownedUUID
+     *     The UUID of the tunnel owned, or null if no tunnel is owned.
+     *
+     * @param queries
+     *     The counter to increment each time the node is queried.
+     *
+     * @return
+     *     The started HttpServer.
+     *
+     * @throws IOException
+     *     If the simulated node cannot be started.
+     */
+    private HttpServer startNode(String ownedUUID, AtomicInteger queries)
+            throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/tunnel", new LocateHandler(ownedUUID, queries));
+        server.start();
+        return server;
+    }
+
+    /**
+     * Returns the URL of the HTTP tunnel servlet of the given simulated node.
+     *
+     * @param server
+     *     The simulated node.
+     *
+     * @return
+     *     The URL of the HTTP tunnel servlet of the given node.
+     */
+    private String getURL(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/tunnel";
+    }
+
+    /**
+     * Starts all simulated nodes.
+     *
+     * @throws IOException
+     *     If the simulated nodes cannot be started.
+     */
+    @Before
+    public void startNodes() throws IOException {
+
+        owner = startNode("owned", ownerQueries);
+        other = startNode(null, otherQueries);
+        ownerURL = getURL(owner);
+        otherURL = getURL(other);
+
+        // Reserve and release a port such that nothing is listening on it
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        unreachableURL = "http://127.0.0.1:" + socket.getLocalPort() + "/tunnel";
+        socket.close();
+
+        // Listen without ever accepting such that requests go unanswered
+        hung = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        hungURL = "http://127.0.0.1:" + hung.getLocalPort() + "/tunnel";
+
+    }
+
+    /**
+     * Stops all simulated nodes.
+     *
+     * @throws IOException
+     *     If the node which has stopped responding cannot be closed.
+     */
+    @After
+    public void stopNodes() throws IOException {
+        owner.stop(0);
+        other.stop(0);
+        hung.close();
+    }
+
+    /**
+     * Verifies that tunnels are located by querying each node, and that the
+     * location is remembered until the tunnel is unregistered.
+     *
+     * @throws GuacamoleException
+     *     If the simulated nodes cannot be queried.
+     */
+    @Test
+    public void testLocate() throws GuacamoleException {
+
+        ClusterTunnelLocator locator = new ClusterTunnelLocator(Arrays.asList(otherURL, ownerURL), null);
+        try {
+
+            assertEquals(ownerURL, locator.locate("owned"));
+            assertEquals(1, ownerQueries.get());
+
+            // Located tunnels are not located again
+            assertEquals(ownerURL, locator.locate("owned"));
+            assertEquals(1, ownerQueries.get());
+
+            // Unregistered tunnels are forgotten
+            locator.unregister("owned");
+            assertEquals(ownerURL, locator.locate("owned"));
+            assertEquals(2, ownerQueries.get());
+
+        }
+        finally {
+            locator.shutdown();
+        }
+
+    }
+
+    /**
+     * Verifies that tunnels owned by no node are not located.
+     *
+     * @throws GuacamoleException
+     *     If the simulated nodes cannot be queried.
+     */
+    @Test
+    public void testLocateUnknown() throws GuacamoleException {
+        ClusterTunnelLocator locator = new ClusterTunnelLocator(Arrays.asList(otherURL, ownerURL), null);
+        try {
+            assertNull(locator.locate("missing"));
+        }
+        finally {
+            locator.shutdown();
+        }
+    }
+
+    /**
+     * Verifies that tunnels recently found to be owned by no node are not
+     * located again.
+     *
+     * @throws GuacamoleException
+     *     If the simulated nodes cannot be queried.
+     */
+    @Test
+    public void testMissRemembered() throws GuacamoleException {
+        ClusterTunnelLocator locator = new ClusterTunnelLocator(Arrays.asList(otherURL, ownerURL), null);
+        try {
+            assertNull(locator.locate("missing"));
+            assertNull(locator.locate("missing"));
+            assertEquals(1, otherQueries.get());
+            assertEquals(1, ownerQueries.get());
+        }
+        finally {
+            locator.shutdown();
+        }
+    }
+
+    /**
+     * Verifies that the local node is never queried.
+     *
+     * @throws GuacamoleException
+     *     If the simulated nodes cannot be queried.
+     */
+    @Test
+    public void testLocalNodeIgnored() throws GuacamoleException {
+        ClusterTunnelLocator locator = new ClusterTunnelLocator(Arrays.asList(otherURL, ownerURL), ownerURL);
+        try {
+            assertNull(locator.locate("owned"));
+            assertEquals(1, otherQueries.get());
+            assertEquals(0, ownerQueries.get());
+        }
+        finally {
+            locator.shutdown();
+        }
+    }
+
+    /**
+     * Verifies that nodes which cannot be reached are skipped if the tunnel
+     * is owned by another node, and otherwise result in an error.
+     *
+     * @throws GuacamoleException
+     *     If the reachable simulated nodes cannot be queried.
+     */
+    @Test
+    public void testUnreachableNode() throws GuacamoleException {
+
+        ClusterTunnelLocator locator = new ClusterTunnelLocator(Arrays.asList(unreachableURL, ownerURL), null);
+        try {
+
+            assertEquals(ownerURL, locator.locate("owned"));
+
+            try {
+                locator.locate("missing");
+                fail("Tunnels possibly owned by an unreachable node must not be reported as unknown.");
+            }
+            catch (GuacamoleException e) {
+                // Expected
+            }
+
+        }
+        finally {
+            locator.shutdown();
+        }
+
+    }
+
+    /**
+     * Verifies that a node which has stopped responding does not delay
+     * locating tunnels owned by other nodes, and that such a node is skipped
+     * once it has timed out rather than delaying each later request.
+     *
+     * @throws GuacamoleException
+     *     If the responding simulated nodes cannot be queried.
+     */
+    @Test
+    public void testHungNode() throws GuacamoleException {
+
+        ClusterTunnelLocator locator = new ClusterTunnelLocator(Arrays.asList(hungURL, ownerURL), null);
+        try {
+
+            // Owner answers without waiting for the hung node
+            long start = System.currentTimeMillis();
+            assertEquals(ownerURL, locator.locate("owned"));
+            assertTrue(System.currentTimeMillis() - start < 2000);
+
+            // The first miss waits for the hung node to time out
+            try {
+                locator.locate("missing");
+                fail("Tunnels possibly owned by a hung node must not be reported as unknown.");
+            }
+            catch (GuacamoleException e) {
+                // Expected
+            }
+
+            // Later misses fail without waiting again
+            start = System.currentTimeMillis();
+            try {
+                locator.locate("missing");
+                fail("Tunnels possibly owned by a hung node must not be reported as unknown.");
+            }
+            catch (GuacamoleException e) {
+                // Expected
+            }
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(3, ownerQueries.get());
+
+        }
+        finally {
+            locator.shutdown();
+        }
+
+    }
+
+}
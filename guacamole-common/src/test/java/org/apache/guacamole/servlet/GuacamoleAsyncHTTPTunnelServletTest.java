@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.ChannelGuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleSocketMultiplexer;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.SimpleGuacamoleTunnel;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the GuacamoleAsyncHTTPTunnelServlet class against a simulated guacd,
+ * using tunnels whose sockets are serviced by a GuacamoleSocketMultiplexer.
+ */
+public class GuacamoleAsyncHTTPTunnelServletTest {
+
+    /**
+     * The instructions sent by the simulated guacd.
+     */
+    private static final String INSTRUCTIONS = "4.sync,8.12345678;4.name,4.test;";
+
+    /**
+     * The end-of-instructions marker terminating each read response.
+     */
+    private static final String END = "0.;";
+
+    /**
+     * The number of seconds to wait for any read request to complete.
+     */
+    private static final int TIMEOUT = 10;
+
+    /**
+     * The server socket of the simulated guacd.
+     */
+    private ServerSocket server;
+
+    /**
+     * Latch which is released once the simulated guacd may send its
+     * instructions.
+     */
+    private CountDownLatch send;
+
+    /**
+     * Thread simulating guacd, which sends INSTRUCTIONS to the first
+     * connection received once allowed, and then closes that connection.
+     */
+    private Thread guacd;
+
+    /**
+     * Multiplexer servicing the socket of the tunnel tested.
+     */
+    private GuacamoleSocketMultiplexer multiplexer;
+
+    /**
+     * The servlet being tested.
+     */
+    private GuacamoleAsyncHTTPTunnelServlet servlet;
+
+    /**
+     * The state of a simulated read request, including its response and any
+     * asynchronous context.
+     */
+    private static class ReadState {
+
+        /**
+         * The body written to the response.
+         */
+        public final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        /**
+         * The number of times startAsync() was invoked.
+         */
+        public final AtomicInteger asyncStarts = new AtomicInteger();
+
+        /**
+         * The number of times complete() was invoked on the asynchronous
+         * context.
+         */
+        public final AtomicInteger completions = new AtomicInteger();
+
+        /**
+         * Latch which is released once the asynchronous context has been
+         * completed.
+         */
+        public final CountDownLatch completed = new CountDownLatch(1);
+
+        /**
+         * The listener added to the asynchronous context, if any.
+         */
+        public volatile AsyncListener listener;
+
+        /**
+         * Returns the body written to the response, as a string.
+         *
+         * @return
+         *     The body written to the response.
+         *
+         * @throws IOException
+         *     If the body is not valid UTF-8.
+         */
+        public String getBody() throws IOException {
+            synchronized (body) {
+                return body.toString("UTF-8");
+            }
+        }
+
+    }
+
+    /**
+     * Creates a simulated response whose body is recorded within the given
+     * ReadState.
+     *
+     * @param state
+     *     The ReadState to update as the response is written.
+     *
+     * @return
+     *     A simulated HttpServletResponse.
+     */
+    private HttpServletResponse createResponse(final ReadState state) {
+
+        final ServletOutputStream servletOutput = new ServletOutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                synchronized (state.body) {
+                    state.body.write(b);
+                }
+            }
+
+        };
+
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+
+                String name = m.getName();
+                if (name.equals("getOutputStream"))
+                    return servletOutput;
+                if (name.equals("isCommitted"))
+                    return false;
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Creates a simulated asynchronous context for the given request and
+     * response, recording its use within the given ReadState.
+     *
+     * @param state
+     *     The ReadState to update as the context is used.
+     *
+     * @param request
+     *     The request associated with the context.
+     *
+     * @param response
+     *     The response associated with the context.
+     *
+     * @return
+     *     A simulated AsyncContext.
+     */
+    private AsyncContext createAsyncContext(final ReadState state,
+            final HttpServletRequest request,
+            final HttpServletResponse response) {
+
+        return (AsyncContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { AsyncContext.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+
+                String name = m.getName();
+                if (name.equals("equals"))
+                    return proxy == args[0];
+                if (name.equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                if (name.equals("getRequest"))
+                    return request;
+                if (name.equals("getResponse"))
+                    return response;
+                if (name.equals("addListener"))
+                    state.listener = (AsyncListener) args[0];
+                else if (name.equals("complete")) {
+                    state.completions.incrementAndGet();
+                    state.completed.countDown();
+                }
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Creates a simulated read request for the given tunnel, recording its
+     * state within the given ReadState.
+     *
+     * @param state
+     *     The ReadState to update as the request is serviced.
+     *
+     * @param tunnel
+     *     The tunnel to read from.
+     *
+     * @param asyncSupported
+     *     Whether the request supports asynchronous processing.
+     *
+     * @return
+     *     A simulated HttpServletRequest.
+     */
+    private HttpServletRequest createReadRequest(final ReadState state,
+            GuacamoleTunnel tunnel, final boolean asyncSupported) {
+
+        final String query = "read:" + tunnel.getUUID() + ":0";
+        final HttpServletResponse response = createResponse(state);
+
+        final HttpServletRequest[] request = new HttpServletRequest[1];
+        request[0] = (HttpServletRequest) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+
+                String name = m.getName();
+                if (name.equals("getMethod"))
+                    return "GET";
+                if (name.equals("getQueryString"))
+                    return query;
+                if (name.equals("isAsyncSupported"))
+                    return asyncSupported;
+                if (name.equals("startAsync")) {
+                    state.asyncStarts.incrementAndGet();
+                    return createAsyncContext(state, request[0], response);
+                }
+
+                return null;
+
+            }
+
+        });
+
+        return request[0];
+
+    }
+
+    /**
+     * Services the given read request using the servlet being tested.
+     *
+     * @param state
+     *     The ReadState associated with the given request.
+     *
+     * @param request
+     *     The read request to service.
+     *
+     * @throws Exception
+     *     If the servlet fails to service the request.
+     */
+    private void read(ReadState state, HttpServletRequest request)
+            throws Exception {
+        servlet.doGet(request, createResponse(state));
+    }
+
+    /**
+     * Creates and registers a tunnel connected to the simulated guacd.
+     *
+     * @return
+     *     The registered tunnel.
+     *
+     * @throws GuacamoleException
+     *     If the connection to the simulated guacd cannot be established.
+     */
+    private GuacamoleTunnel connect() throws GuacamoleException {
+        GuacamoleTunnel tunnel = new SimpleGuacamoleTunnel(new ChannelGuacamoleSocket(
+                "127.0.0.1", server.getLocalPort(), multiplexer));
+        servlet.registerTunnel(tunnel);
+        return tunnel;
+    }
+
+    /**
+     * Starts the simulated guacd and creates the servlet being tested.
+     *
+     * @throws Exception
+     *     If the simulated guacd or the multiplexer cannot be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        send = new CountDownLatch(1);
+
+        guacd = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Socket client = server.accept();
+                    send.await();
+                    OutputStream output = client.getOutputStream();
+                    output.write(INSTRUCTIONS.getBytes("UTF-8"));
+                    output.flush();
+                    client.close();
+                }
+                catch (IOException e) {
+                    // Failure will be detected by the reader
+                }
+                catch (InterruptedException e) {
+                    // Test is ending
+                }
+            }
+
+        };
+        guacd.start();
+
+        multiplexer = new GuacamoleSocketMultiplexer(1, 2);
+        servlet = new GuacamoleAsyncHTTPTunnelServlet() {
+
+            @Override
+            protected GuacamoleTunnel doConnect(HttpServletRequest request) {
+                return null;
+            }
+
+        };
+
+    }
+
+    /**
+     * Stops the simulated guacd and destroys the servlet being tested.
+     *
+     * @throws Exception
+     *     If the simulated guacd cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        servlet.destroy();
+        multiplexer.shutdown();
+        server.close();
+        guacd.interrupt();
+        guacd.join();
+    }
+
+    /**
+     * Verifies that read requests supporting asynchronous processing are
+     * completed asynchronously once data arrives, receiving all instructions
+     * followed by the end-of-instructions marker once the connection
+     * closes.
+     *
+     * @throws Exception
+     *     If the read request cannot be serviced.
+     */
+    @Test
+    public void testAsyncRead() throws Exception {
+
+        GuacamoleTunnel tunnel = connect();
+
+        ReadState state = new ReadState();
+        read(state, createReadRequest(state, tunnel, true));
+
+        // Container thread is released before any data arrives
+        assertEquals(1, state.asyncStarts.get());
+        assertEquals(1, state.completed.getCount());
+
+        send.countDown();
+        assertTrue(state.completed.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(INSTRUCTIONS + END, state.getBody());
+        assertEquals(1, state.completions.get());
+
+    }
+
+    /**
+     * Verifies that read requests not supporting asynchronous processing are
+     * serviced synchronously, exactly as by GuacamoleHTTPTunnelServlet.
+     *
+     * @throws Exception
+     *     If the read request cannot be serviced.
+     */
+    @Test
+    public void testSynchronousFallback() throws Exception {
+
+        GuacamoleTunnel tunnel = connect();
+        send.countDown();
+
+        ReadState state = new ReadState();
+        read(state, createReadRequest(state, tunnel, false));
+
+        assertEquals(0, state.asyncStarts.get());
+        assertTrue(state.getBody().startsWith(INSTRUCTIONS));
+
+    }
+
+    /**
+     * Verifies that a read request which fails within the container, as
+     * occurs when the client disconnects, is completed and removed, such
+     * that data later received is written to the next read request instead.
+     *
+     * @throws Exception
+     *     If the read requests cannot be serviced.
+     */
+    @Test
+    public void testErrorDiscardsRequest() throws Exception {
+
+        GuacamoleTunnel tunnel = connect();
+
+        // First request fails before any data arrives
+        ReadState failed = new ReadState();
+        HttpServletRequest failedRequest = createReadRequest(failed, tunnel, true);
+        read(failed, failedRequest);
+        assertNotNull(failed.listener);
+        failed.listener.onError(new AsyncEvent(
+                createAsyncContext(new ReadState(), failedRequest, null)));
+
+        assertTrue(failed.completed.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("", failed.getBody());
+
+        // Next request receives all data
+        ReadState state = new ReadState();
+        read(state, createReadRequest(state, tunnel, true));
+        send.countDown();
+
+        assertTrue(state.completed.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(INSTRUCTIONS + END, state.getBody());
+
+        // The failed request is never completed again
+        assertEquals(1, failed.completions.get());
+        assertEquals("", failed.getBody());
+
+    }
+
+}
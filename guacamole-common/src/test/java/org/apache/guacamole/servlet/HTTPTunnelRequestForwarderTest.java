@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUpstreamException;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the HTTPTunnelRequestForwarder class against a simulated owning node.
+ */
+public class HTTPTunnelRequestForwarderTest {
+
+    /**
+     * The instructions returned by the simulated owning node in response to
+     * any tunnel read request.
+     */
+    private static final String READ_BODY = "4.sync,8.12345678;";
+
+    /**
+     * The HTTP server simulating the HTTP tunnel servlet of the owning node.
+     */
+    private HttpServer server;
+
+    /**
+     * The URL of the simulated HTTP tunnel servlet.
+     */
+    private String location;
+
+    /**
+     * The query string of the most recent request received by the simulated
+     * owning node.
+     */
+    private volatile String receivedQuery;
+
+    /**
+     * The value of the forwarding header of the most recent request received
+     * by the simulated owning node.
+     */
+    private volatile String receivedForwardedHeader;
+
+    /**
+     * The body of the most recent request received by the simulated owning
+     * node.
+     */
+    private volatile String receivedBody;
+
+    /**
+     * Handler which simulates the HTTP tunnel servlet of a node owning only
+     * the tunnel "owned".
+     */
+    private class TunnelHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+
+            String query = exchange.getRequestURI().getQuery();
+            receivedQuery = query;
+            receivedForwardedHeader = exchange.getRequestHeaders().getFirst(
+                    HTTPTunnelRequestForwarder.FORWARDED_HEADER);
+
+            // Record request body
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream input = exchange.getRequestBody();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = input.read(buffer)) != -1)
+                body.write(buffer, 0, length);
+            receivedBody = body.toString("UTF-8");
+
+            // Unknown tunnels result in a Guacamole error
+            if (!query.matches("[a-z]+:owned(:.*)?")) {
+                exchange.getResponseHeaders().set("Guacamole-Status-Code", "517");
+                exchange.getResponseHeaders().set("Guacamole-Error-Message", "No such tunnel.");
+                exchange.sendResponseHeaders(404, -1);
+            }
+
+            // Reads return instructions
+            else if (query.startsWith("read:")) {
+                byte[] data = READ_BODY.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+            }
+
+            // All other requests succeed with no body
+            else
+                exchange.sendResponseHeaders(204, -1);
+
+            exchange.close();
+
+        }
+
+    }
+
+    /**
+     * The state of a simulated servlet response.
+     */
+    private static class ResponseState {
+
+        /**
+         * The response status set, or 0 if no status has been set.
+         */
+        public int status;
+
+        /**
+         * The error status sent via sendError(), or 0 if no error was sent.
+         */
+        public int error;
+
+        /**
+         * All headers set, indexed by name.
+         */
+        public final Map<String, String> headers = new HashMap<String, String>();
+
+        /**
+         * The body written.
+         */
+        public final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    }
+
+    /**
+     * Creates a simulated HTTP tunnel request having the given method, query
+     * string, and body.
+     *
+     * @param method
+     *     The HTTP method of the request.
+     *
+     * @param query
+     *     The query string of the request.
+     *
+     * @param body
+     *     The body of the request.
+     *
+     * @return
+     *     A simulated HttpServletRequest.
+     */
+    private HttpServletRequest createRequest(final String method,
+            final String query, final String body) {
+
+        final InputStream input = new ByteArrayInputStream(body.getBytes());
+        final ServletInputStream servletInput = new ServletInputStream() {
+
+            @Override
+            public int read() throws IOException {
+                return input.read();
+            }
+
+        };
+
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+
+                String name = m.getName();
+                if (name.equals("getMethod"))
+                    return method;
+                if (name.equals("getQueryString"))
+                    return query;
+                if (name.equals("getContentType"))
+                    return "application/octet-stream";
+                if (name.equals("getContentLength"))
+                    return body.length();
+                if (name.equals("getInputStream"))
+                    return servletInput;
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Creates a simulated response which records its state within the given
+     * ResponseState.
+     *
+     * @param state
+     *     The ResponseState to update as the response is used.
+     *
+     * @param disconnected
+     *     Whether the simulated client has disconnected, such that writing
+     *     the response body fails.
+     *
+     * @return
+     *     A simulated HttpServletResponse.
+     */
+    private HttpServletResponse createResponse(final ResponseState state,
+            final boolean disconnected) {
+
+        final ServletOutputStream servletOutput = new ServletOutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                if (disconnected)
+                    throw new IOException("Connection reset by peer.");
+                state.body.write(b);
+            }
+
+        };
+
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+
+                String name = m.getName();
+                if (name.equals("setStatus"))
+                    state.status = (Integer) args[0];
+                else if (name.equals("sendError"))
+                    state.error = (Integer) args[0];
+                else if (name.equals("setHeader"))
+                    state.headers.put((String) args[0], (String) args[1]);
+                else if (name.equals("getOutputStream"))
+                    return servletOutput;
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Starts the simulated owning node.
+     *
+     * @throws IOException
+     *     If the simulated owning node cannot be started.
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/tunnel", new TunnelHandler());
+        server.start();
+        location = "http://127.0.0.1:" + server.getAddress().getPort() + "/tunnel";
+    }
+
+    /**
+     * Stops the simulated owning node.
+     */
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Verifies that read requests are forwarded with the forwarding header
+     * set, and that the status, relevant headers, and body of the owning
+     * node's response are copied to the client.
+     *
+     * @throws Exception
+     *     If the request cannot be forwarded.
+     */
+    @Test
+    public void testForwardRead() throws Exception {
+
+        ResponseState state = new ResponseState();
+        new HTTPTunnelRequestForwarder().forward(
+                createRequest("GET", "read:owned:0", ""),
+                createResponse(state, false), location);
+
+        assertEquals("read:owned:0", receivedQuery);
+        assertEquals("true", receivedForwardedHeader);
+
+        assertEquals(200, state.status);
+        assertEquals(0, state.error);
+        assertEquals("application/octet-stream", state.headers.get("Content-Type"));
+        assertEquals("no-cache", state.headers.get("Cache-Control"));
+        assertEquals(READ_BODY, state.body.toString("UTF-8"));
+
+    }
+
+    /**
+     * Verifies that the body of write requests is forwarded to the owning
+     * node.
+     *
+     * @throws Exception
+     *     If the request cannot be forwarded.
+     */
+    @Test
+    public void testForwardWrite() throws Exception {
+
+        ResponseState state = new ResponseState();
+        new HTTPTunnelRequestForwarder().forward(
+                createRequest("POST", "write:owned", "5.mouse,1.0,1.0,1.0;"),
+                createResponse(state, false), location);
+
+        assertEquals("write:owned", receivedQuery);
+        assertEquals("5.mouse,1.0,1.0,1.0;", receivedBody);
+        assertEquals(204, state.status);
+        assertEquals(0, state.error);
+
+    }
+
+    /**
+     * Verifies that errors reported by the owning node are copied to the
+     * client, including the Guacamole status headers.
+     *
+     * @throws Exception
+     *     If the request cannot be forwarded.
+     */
+    @Test
+    public void testForwardError() throws Exception {
+
+        ResponseState state = new ResponseState();
+        new HTTPTunnelRequestForwarder().forward(
+                createRequest("GET", "read:missing:0", ""),
+                createResponse(state, false), location);
+
+        assertEquals(404, state.error);
+        assertEquals("517", state.headers.get("Guacamole-Status-Code"));
+        assertEquals("No such tunnel.", state.headers.get("Guacamole-Error-Message"));
+        assertEquals(0, state.body.size());
+
+    }
+
+    /**
+     * Verifies that a client disconnecting while the response is being
+     * copied does not result in an error.
+     *
+     * @throws Exception
+     *     If the client disconnecting is reported as an error.
+     */
+    @Test
+    public void testClientDisconnect() throws Exception {
+
+        ResponseState state = new ResponseState();
+        new HTTPTunnelRequestForwarder().forward(
+                createRequest("GET", "read:owned:0", ""),
+                createResponse(state, true), location);
+
+        assertEquals("read:owned:0", receivedQuery);
+        assertEquals(0, state.body.size());
+
+    }
+
+    /**
+     * Verifies that failing to reach the owning node is reported as an
+     * upstream error.
+     *
+     * @throws Exception
+     *     If the test fails for reasons unrelated to the owning node.
+     */
+    @Test
+    public void testUnreachable() throws Exception {
+
+        server.stop(0);
+
+        ResponseState state = new ResponseState();
+        try {
+            new HTTPTunnelRequestForwarder().forward(
+                    createRequest("GET", "read:owned:0", ""),
+                    createResponse(state, false), location);
+            fail("Forwarding to an unreachable node must fail.");
+        }
+        catch (GuacamoleUpstreamException e) {
+            // Expected
+        }
+
+    }
+
+    /**
+     * Verifies that nodes are queried for tunnel ownership using the
+     * "locate:" request.
+     *
+     * @throws GuacamoleException
+     *     If the simulated owning node cannot be queried.
+     */
+    @Test
+    public void testIsOwner() throws GuacamoleException {
+
+        HTTPTunnelRequestForwarder forwarder = new HTTPTunnelRequestForwarder();
+
+        assertTrue(forwarder.isOwner(location, "owned"));
+        assertEquals(GuacamoleHTTPTunnelServlet.LOCATE_PREFIX + "owned", receivedQuery);
+        assertEquals("true", receivedForwardedHeader);
+
+        assertFalse(forwarder.isOwner(location, "missing"));
+
+    }
+
+}
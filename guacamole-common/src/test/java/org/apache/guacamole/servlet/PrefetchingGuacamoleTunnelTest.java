@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.AsynchronousGuacamoleReader;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.net.ChannelGuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleSocketMultiplexer;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.SimpleGuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the PrefetchingGuacamoleTunnel class when reading ahead from a
+ * socket serviced by a GuacamoleSocketMultiplexer, as occurs when both
+ * multiplexing and reading ahead are enabled.
+ */
+public class PrefetchingGuacamoleTunnelTest {
+
+    /**
+     * The number of instructions sent by the simulated guacd.
+     */
+    private static final int INSTRUCTION_COUNT = 5000;
+
+    /**
+     * The number of bytes which may be read ahead for the tunnel tested,
+     * small enough that reading ahead repeatedly stalls.
+     */
+    private static final int PREFETCH_LENGTH = 2048;
+
+    /**
+     * Padding included within each instruction, such that the limit on
+     * buffered data is reached after only a few instructions.
+     */
+    private static final String PADDING = String.format("%0100d", 0);
+
+    /**
+     * Returns whether any thread dedicated to reading ahead currently
+     * exists.
+     *
+     * @return
+     *     true if a thread dedicated to reading ahead exists, false
+     *     otherwise.
+     */
+    private static boolean hasPrefetchThread() {
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("guacamole-prefetch"))
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Test that a multiplexed tunnel is read ahead using the multiplexer
+     * rather than a dedicated thread, that all instructions are read intact
+     * and in order as reading ahead stalls and resumes, and that the socket
+     * of the tunnel as registered by the HTTP tunnel servlet does not allow
+     * asynchronous reads, such that the asynchronous servlet reads it
+     * synchronously.
+     *
+     * @throws Exception
+     *     If an error occurs while sending or receiving data.
+     */
+    @Test(timeout = 60000)
+    public void testMultiplexedPrefetch() throws Exception {
+
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+
+        // Simulate guacd, sending all instructions at once
+        Thread guacd = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    for (int i = 0; i < INSTRUCTION_COUNT; i++) {
+                        data.write(new GuacamoleInstruction("test",
+                                Integer.toString(i), "é€", PADDING)
+                                .toString().getBytes("UTF-8"));
+                    }
+
+                    Socket client = server.accept();
+                    OutputStream output = client.getOutputStream();
+                    data.writeTo(output);
+                    output.flush();
+                    client.shutdownOutput();
+
+                }
+                catch (IOException e) {
+                    // Failure will be detected by the reader
+                }
+            }
+
+        };
+        guacd.start();
+
+        GuacamoleSocketMultiplexer multiplexer = new GuacamoleSocketMultiplexer(1, 2);
+        try {
+
+            GuacamoleTunnel tunnel = new GuacamoleHTTPTunnel(
+                    new PrefetchingGuacamoleTunnel(
+                        new SimpleGuacamoleTunnel(new ChannelGuacamoleSocket(
+                            "127.0.0.1", server.getLocalPort(), multiplexer)),
+                        PREFETCH_LENGTH, 1048576, new Executor() {
+
+                            @Override
+                            public void execute(Runnable task) {
+                                fail("Multiplexed tunnels must not be read ahead using a dedicated thread.");
+                            }
+
+                        }));
+
+            assertFalse(hasPrefetchThread());
+            assertFalse(tunnel.getSocket().getReader() instanceof AsynchronousGuacamoleReader);
+
+            // Read all instructions, periodically allowing reading ahead to
+            // reach its limit
+            for (int i = 0; i < INSTRUCTION_COUNT; i++) {
+
+                if (i % 250 == 0)
+                    Thread.sleep(10);
+
+                GuacamoleReader reader = tunnel.acquireReader();
+                try {
+                    GuacamoleInstruction instruction = reader.readInstruction();
+                    assertNotNull(instruction);
+                    assertEquals("test", instruction.getOpcode());
+                    assertEquals(Integer.toString(i), instruction.getArgs().get(0));
+                    assertEquals("é€", instruction.getArgs().get(1));
+                    assertEquals(PADDING, instruction.getArgs().get(2));
+                }
+                finally {
+                    tunnel.releaseReader();
+                }
+
+            }
+
+            // Nothing may follow the final instruction
+            GuacamoleReader reader = tunnel.acquireReader();
+            try {
+                assertNull(reader.read());
+            }
+            finally {
+                tunnel.releaseReader();
+            }
+
+            tunnel.close();
+
+        }
+        catch (GuacamoleException e) {
+            fail("Reading from guacd failed: " + e.getMessage());
+        }
+        finally {
+            multiplexer.shutdown();
+            server.close();
+        }
+
+        guacd.join();
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the TimingWheel class, validating that values are expired only once
+ * their deadlines have passed.
+ */
+public class TimingWheelTest {
+
+    /**
+     * TimingWheel which records each expired value, extending the deadline
+     * of any value having a pending extension.
+     */
+    private static class RecordingTimingWheel extends TimingWheel<String> {
+
+        /**
+         * All values expired, in order of expiration.
+         */
+        private final List<String> expired = new ArrayList<String>();
+
+        /**
+         * New deadlines which should be returned for specific values upon
+         * expiration, rather than dropping those values.
+         */
+        private final Map<String, Long> extensions = new HashMap<String, Long>();
+
+        /**
+         * Creates a new RecordingTimingWheel having ticks of 10 milliseconds
+         * and deadlines up to one second in the future.
+         */
+        public RecordingTimingWheel() {
+            super(10, 1000);
+        }
+
+        @Override
+        protected long expired(String value, long now) {
+
+            Long extension = extensions.remove(value);
+            if (extension != null)
+                return extension;
+
+            expired.add(value);
+            return 0;
+
+        }
+
+    }
+
+    /**
+     * Test of expiring values, including values whose deadlines are extended
+     * and values scheduled beyond a single revolution of the wheel.
+     */
+    @Test
+    public void testExpire() {
+
+        RecordingTimingWheel wheel = new RecordingTimingWheel();
+        wheel.shutdown();
+
+        long now = System.currentTimeMillis();
+
+        wheel.schedule("a", now + 100);
+        wheel.schedule("b", now + 50);
+        wheel.schedule("c", now + 5000);
+        wheel.extensions.put("b", now + 300);
+        assertEquals(3, wheel.size());
+
+        // Nothing expires before its deadline
+        wheel.advance(now + 40);
+        assertTrue(wheel.expired.isEmpty());
+
+        // Deadlines are honored in order
+        wheel.advance(now + 110);
+        assertEquals(1, wheel.expired.size());
+        assertEquals("a", wheel.expired.get(0));
+
+        // Extended deadlines are honored
+        wheel.advance(now + 290);
+        assertEquals(1, wheel.expired.size());
+        wheel.advance(now + 310);
+        assertEquals(2, wheel.expired.size());
+        assertEquals("b", wheel.expired.get(1));
+
+        // Deadlines beyond a single revolution are honored
+        wheel.advance(now + 4900);
+        assertEquals(2, wheel.expired.size());
+        wheel.advance(now + 5010);
+        assertEquals(3, wheel.expired.size());
+        assertEquals("c", wheel.expired.get(2));
+        assertEquals(0, wheel.size());
+
+    }
+
+}
@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import org.apache.guacamole.io.ByteBufferPool;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the OutboundMessageQueue class, validating suspension and resumption
+ * of producers at the high-water mark, handling of failed sends, and sending
+ * of queued messages by the container's completion callbacks.
+ */
+public class OutboundMessageQueueTest {
+
+    /**
+     * The high-water mark of all queues under test.
+     */
+    private static final long HIGH_WATER_MARK = 10;
+
+    /**
+     * Stubbed remote endpoint which records each message sent, completing
+     * each send either when the test explicitly completes it or immediately,
+     * within the call which began the send.
+     */
+    private static class TestEndpoint implements InvocationHandler {
+
+        /**
+         * The content of every message whose send has begun, in order.
+         */
+        private final List<Object> sent = new ArrayList<Object>();
+
+        /**
+         * The handlers of all sends which have begun but not yet completed.
+         */
+        private final Queue<SendHandler> pending = new LinkedList<SendHandler>();
+
+        /**
+         * Whether sends are completed immediately, rather than by
+         * complete().
+         */
+        private boolean synchronous = false;
+
+        /**
+         * The exception to throw when a send is begun, or null if sends
+         * should begin normally.
+         */
+        private RuntimeException failure;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+
+            String name = method.getName();
+            assertTrue("Unexpected invocation of " + name + "().",
+                    name.equals("sendText") || name.equals("sendBinary"));
+
+            if (failure != null)
+                throw failure;
+
+            sent.add(args[0]);
+            SendHandler handler = (SendHandler) args[1];
+
+            if (synchronous)
+                handler.onResult(new SendResult());
+            else
+                pending.add(handler);
+
+            return null;
+
+        }
+
+        /**
+         * Completes the oldest send which has not yet completed.
+         *
+         * @param result
+         *     The result of the send.
+         */
+        public void complete(SendResult result) {
+            SendHandler handler = pending.poll();
+            assertNotNull("No send is in progress.", handler);
+            handler.onResult(result);
+        }
+
+        /**
+         * Returns a new RemoteEndpoint.Async backed by this handler.
+         *
+         * @return
+         *     A new RemoteEndpoint.Async backed by this handler.
+         */
+        public RemoteEndpoint.Async getRemote() {
+            return (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                    RemoteEndpoint.Async.class.getClassLoader(),
+                    new Class<?>[] { RemoteEndpoint.Async.class },
+                    this);
+        }
+
+    }
+
+    /**
+     * ByteBufferPool which records every buffer released to it.
+     */
+    private static class TestBufferPool extends ByteBufferPool {
+
+        /**
+         * All buffers released to this pool, in order.
+         */
+        private final List<ByteBuffer> released = new ArrayList<ByteBuffer>();
+
+        /**
+         * Creates a new TestBufferPool of four-byte buffers.
+         */
+        public TestBufferPool() {
+            super(4, 16);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            released.add(buffer);
+            super.release(buffer);
+        }
+
+    }
+
+    /**
+     * Task which counts the number of times it has run.
+     */
+    private static class CountingTask implements Runnable {
+
+        /**
+         * The number of times this task has run.
+         */
+        private int runs = 0;
+
+        @Override
+        public void run() {
+            runs++;
+        }
+
+    }
+
+    /**
+     * Test that producers are suspended only once the high-water mark is
+     * reached, and are resumed once the queue has drained to exactly half
+     * the high-water mark.
+     *
+     * @throws IOException
+     *     If a message cannot be queued.
+     */
+    @Test
+    public void testSuspendAndResume() throws IOException {
+
+        TestEndpoint endpoint = new TestEndpoint();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                endpoint.getRemote(), new TestBufferPool(), HIGH_WATER_MARK);
+        CountingTask task = new CountingTask();
+
+        // Below the high-water mark, producers need not stop
+        queue.sendText("aaaaa");
+        queue.sendText("bbbb");
+        assertEquals(9, queue.getQueuedSize());
+        assertFalse(queue.isFull());
+        assertFalse(queue.resumeWhenDrained(task));
+        assertFalse(queue.isSuspended());
+
+        // At the high-water mark, producers must wait
+        queue.sendText("c");
+        assertTrue(queue.isFull());
+        assertTrue(queue.resumeWhenDrained(task));
+        assertTrue(queue.isSuspended());
+
+        // Only one message is sent at a time
+        assertEquals(1, endpoint.sent.size());
+
+        // Draining to exactly half the high-water mark resumes the producer
+        endpoint.complete(new SendResult());
+        assertEquals(5, queue.getQueuedSize());
+        assertFalse(queue.isFull());
+        assertFalse(queue.isSuspended());
+        assertEquals(1, task.runs);
+
+        // Reaching the high-water mark again requires a new suspension,
+        // resumed only once below half the high-water mark
+        queue.sendText("dddddd");
+        assertTrue(queue.resumeWhenDrained(task));
+        endpoint.complete(new SendResult());
+        assertEquals(7, queue.getQueuedSize());
+        assertEquals(1, task.runs);
+        endpoint.complete(new SendResult());
+        assertEquals(6, queue.getQueuedSize());
+        assertEquals(1, task.runs);
+        endpoint.complete(new SendResult());
+        assertEquals(0, queue.getQueuedSize());
+        assertEquals(2, task.runs);
+
+        assertEquals(4, queue.getSentMessageCount());
+        assertEquals(11, queue.getMaxQueuedSize());
+
+    }
+
+    /**
+     * Test that the resume task runs exactly once, regardless of the number
+     * of sends which complete after the queue has drained.
+     *
+     * @throws IOException
+     *     If a message cannot be queued.
+     */
+    @Test
+    public void testResumeOnce() throws IOException {
+
+        TestEndpoint endpoint = new TestEndpoint();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                endpoint.getRemote(), new TestBufferPool(), HIGH_WATER_MARK);
+        CountingTask task = new CountingTask();
+
+        for (int i = 0; i < 10; i++)
+            queue.sendText("x");
+        assertTrue(queue.resumeWhenDrained(task));
+
+        // Sends continue to complete after the queue has drained to half
+        // the high-water mark
+        for (int i = 0; i < 10; i++)
+            endpoint.complete(new SendResult());
+
+        assertEquals(1, task.runs);
+        assertFalse(queue.isSuspended());
+        assertEquals(10, queue.getSentMessageCount());
+
+    }
+
+    /**
+     * Test that a send failing while other messages are queued discards and
+     * releases all remaining messages, resumes any waiting producer exactly
+     * once, and causes all further messages to be refused.
+     *
+     * @throws IOException
+     *     If a message cannot be queued before the failure.
+     */
+    @Test
+    public void testSendError() throws IOException {
+
+        TestEndpoint endpoint = new TestEndpoint();
+        TestBufferPool pool = new TestBufferPool();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                endpoint.getRemote(), pool, HIGH_WATER_MARK);
+        CountingTask task = new CountingTask();
+
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer buffer = pool.acquire();
+            buffer.put(new byte[] { 1, 2, 3, 4 }).flip();
+            buffers.add(buffer);
+            queue.sendBinary(buffer, true);
+        }
+
+        assertTrue(queue.resumeWhenDrained(task));
+
+        // The first message is sent and released normally
+        endpoint.complete(new SendResult());
+        assertEquals(buffers.subList(0, 1), pool.released);
+        assertEquals(0, task.runs);
+
+        // The second fails, taking the unsent third message with it
+        endpoint.complete(new SendResult(new IOException("Test failure.")));
+        assertEquals(buffers, pool.released);
+        assertEquals(2, endpoint.sent.size());
+        assertEquals(0, queue.getQueuedMessageCount());
+        assertEquals(0, queue.getQueuedSize());
+        assertEquals(1, queue.getSentMessageCount());
+
+        // The waiting producer is resumed such that it observes the failure
+        assertEquals(1, task.runs);
+        assertFalse(queue.isSuspended());
+        assertFalse(queue.resumeWhenDrained(task));
+
+        // Further messages are refused, with their buffers released
+        ByteBuffer refused = pool.acquire();
+        try {
+            queue.sendBinary(refused, true);
+            fail("Messages should be refused after a failed send.");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assertSame(refused, pool.released.get(pool.released.size() - 1));
+        assertEquals(2, endpoint.sent.size());
+        assertEquals(1, task.runs);
+
+    }
+
+    /**
+     * Test that a send which cannot even begin is treated as a failed send.
+     *
+     * @throws IOException
+     *     If the first message cannot be queued.
+     */
+    @Test
+    public void testSendNotStarted() throws IOException {
+
+        TestEndpoint endpoint = new TestEndpoint();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                endpoint.getRemote(), new TestBufferPool(), HIGH_WATER_MARK);
+
+        endpoint.failure = new IllegalStateException("Test failure.");
+        queue.sendText("a");
+        assertEquals(0, queue.getQueuedMessageCount());
+
+        try {
+            queue.sendText("b");
+            fail("Messages should be refused after a failed send.");
+        }
+        catch (IOException e) {
+            assertSame(endpoint.failure, e.getCause());
+        }
+
+    }
+
+    /**
+     * Test that sends completed by the container within the call which began
+     * them, as is permitted, still send every queued message exactly once and
+     * in order.
+     *
+     * @throws IOException
+     *     If a message cannot be queued.
+     */
+    @Test
+    public void testSynchronousCompletion() throws IOException {
+
+        TestEndpoint endpoint = new TestEndpoint();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                endpoint.getRemote(), new TestBufferPool(), HIGH_WATER_MARK);
+        CountingTask task = new CountingTask();
+
+        // Queue several messages behind an outstanding send
+        List<String> messages = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            String message = Integer.toString(i);
+            messages.add(message);
+            queue.sendText(message);
+        }
+
+        assertTrue(queue.resumeWhenDrained(task));
+
+        // Completing that send sends everything else from within the
+        // completion callbacks
+        endpoint.synchronous = true;
+        endpoint.complete(new SendResult());
+
+        assertEquals(messages, endpoint.sent);
+        assertEquals(0, queue.getQueuedMessageCount());
+        assertEquals(10, queue.getSentMessageCount());
+        assertEquals(1, task.runs);
+
+        // Messages queued while idle are likewise sent immediately
+        queue.sendText("done");
+        assertEquals(0, queue.getQueuedMessageCount());
+        assertEquals(11, queue.getSentMessageCount());
+
+    }
+
+}
@@ -67,6 +67,50 @@ public interface Environment {
 
     };
 
+    /**
+     * Whether connections to guacd should be serviced by a shared pool of
+     * threads using non-blocking I/O, rather than each connection having its
+     * own blocking socket. This property has no effect if SSL/TLS is used.
+     */
+    public static final BooleanGuacamoleProperty GUACD_MULTIPLEXED = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-multiplexed"; }
+
+    };
+
+    /**
+     * The maximum number of milliseconds that data written to guacd may be
+     * held such that it can be coalesced with subsequent writes. Writes are
+     * not coalesced if this is zero or unset. This property has no effect if
+     * connections to guacd are multiplexed.
+     */
+    public static final IntegerGuacamoleProperty GUACD_COALESCE_WINDOW = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-coalesce-window"; }
+
+    };
+
+    /**
+     * The number of bytes of coalesced data which causes that data to be sent
+     * to guacd immediately, if no threshold is provided within
+     * guacamole.properties. This is roughly the payload of a single TCP
+     * segment on Ethernet.
+     */
+    public static final int DEFAULT_GUACD_COALESCE_THRESHOLD = 1400;
+
+    /**
+     * The number of bytes of coalesced data which causes that data to be sent
+     * to guacd immediately, regardless of guacd-coalesce-window.
+     */
+    public static final IntegerGuacamoleProperty GUACD_COALESCE_THRESHOLD = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-coalesce-threshold"; }
+
+    };
+
     /**
      * Returns the Guacamole home directory as determined when this Environment
      * object was created. The Guacamole home directory is found by checking, in
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net.auth;
+
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * A ConnectionRecordSet which can be retrieved one page at a time. Each
+ * record returned by asCollection() has an associated cursor which can later
+ * be passed to after() to retrieve only the records which follow that record,
+ * without needing to retrieve or skip any records which precede it.
+ */
+public interface PageableConnectionRecordSet extends ConnectionRecordSet {
+
+    /**
+     * Returns the subset of connection history records which follow the
+     * record having the given cursor, according to the sort order of this
+     * set. Records having identical values for all sorted properties are
+     * ordered consistently, such that no record is skipped or repeated
+     * between pages. This function may also affect the contents of the
+     * current ConnectionRecordSet. The contents of the current
+     * ConnectionRecordSet should NOT be relied upon after this function is
+     * called.
+     *
+     * @param cursor
+     *     The cursor of the last record already retrieved, as returned by
+     *     getCursor().
+     *
+     * @return
+     *     The subset of connection history records which follow the record
+     *     having the given cursor.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while restricting the current subset, or if the
+     *     given cursor is invalid.
+     */
+    PageableConnectionRecordSet after(String cursor) throws GuacamoleException;
+
+    /**
+     * Returns the cursor of the given connection record, which must have
+     * been returned by asCollection(). The cursor may be passed to after() to
+     * retrieve the records which follow the given record.
+     *
+     * @param record
+     *     The record whose cursor should be returned.
+     *
+     * @return
+     *     The cursor of the given record, or null if the given record has no
+     *     cursor, such as a record of a connection which is still active.
+     */
+    String getCursor(ConnectionRecord record);
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net.auth;
+
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * A Directory which can efficiently list its contents one page at a time.
+ * The identifiers within a PageableDirectory have a consistent order defined
+ * by the implementation, such that the identifier of the last object within
+ * one page may be used to request the next.
+ *
+ * @param <ObjectType>
+ *     The type of objects stored within this PageableDirectory.
+ */
+public interface PageableDirectory<ObjectType extends Identifiable>
+        extends Directory<ObjectType> {
+
+    /**
+     * Returns the identifiers of the objects within this Directory which
+     * follow the given identifier, in order. At most <code>limit</code>
+     * identifiers are returned. If a prefix is given, only objects whose
+     * names begin with that prefix are included, where the name of an object
+     * is its human-readable name (or, for users, their username). Names are
+     * compared with the prefix without regard to case.
+     *
+     * @param after
+     *     The identifier that all returned identifiers must follow, or null
+     *     to return identifiers starting with the first.
+     *
+     * @param prefix
+     *     The value that the names of all objects whose identifiers are
+     *     returned must begin with, or null if names should not be filtered.
+     *
+     * @param limit
+     *     The maximum number of identifiers to return.
+     *
+     * @return
+     *     The identifiers of the requested page of objects, in order. If
+     *     fewer than <code>limit</code> identifiers are returned, no further
+     *     pages exist.
+     *
+     * @throws GuacamoleException
+     *     If the given identifier is not valid for this Directory, or an
+     *     error occurs while retrieving the identifiers.
+     */
+    List<String> getIdentifiers(String after, String prefix, int limit)
+            throws GuacamoleException;
+
+}
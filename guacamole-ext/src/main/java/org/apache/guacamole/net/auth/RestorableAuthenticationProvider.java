@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net.auth;
+
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * AuthenticationProvider which can rebuild the UserContext of a user from
+ * that user's identity alone, without the credentials originally used to
+ * authenticate. Sessions maintained within a SessionStore can be restored by
+ * another Guacamole instance only if every AuthenticationProvider which
+ * provided a UserContext for the original session implements this
+ * interface. Sessions involving any other AuthenticationProvider, including
+ * those which require a password to retrieve the user's data, are not
+ * restored, and the user must instead log in again on the new instance.
+ */
+public interface RestorableAuthenticationProvider extends AuthenticationProvider {
+
+    /**
+     * Returns a UserContext for the given user, whose session was originally
+     * created by another Guacamole instance. The user's identity has already
+     * been verified by that instance, but the user's credentials are not
+     * available, and the given AuthenticatedUser contains only the user's
+     * identifier and the AuthenticationProvider which originally
+     * authenticated the user. The credentials of the given AuthenticatedUser
+     * contain only the username.
+     *
+     * @param authenticatedUser
+     *     The restored user, which may have been originally authenticated by
+     *     this AuthenticationProvider or any other installed
+     *     AuthenticationProvider.
+     *
+     * @return
+     *     A UserContext equivalent to that which was provided for the
+     *     original session, or null if no such UserContext can be provided,
+     *     in which case the session is not restored.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while creating the UserContext.
+     */
+    UserContext restoreUserContext(AuthenticatedUser authenticatedUser)
+            throws GuacamoleException;
+
+}
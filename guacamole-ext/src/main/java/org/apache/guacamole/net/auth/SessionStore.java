@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.net.auth;
+
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * Storage for the metadata of authenticated sessions which may be shared by
+ * several Guacamole instances, allowing any instance to validate an auth
+ * token issued by another. Implementations are responsible for any
+ * serialization and for discarding sessions which have not been accessed
+ * within a reasonable amount of time, though the web application will also
+ * refuse to restore sessions beyond the session timeout.
+ */
+public interface SessionStore {
+
+    /**
+     * Stores the given session metadata under the given auth token,
+     * replacing any existing metadata for that token.
+     *
+     * @param authToken
+     *     The auth token associated with the session.
+     *
+     * @param session
+     *     The metadata of the session.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while storing the session.
+     */
+    void put(String authToken, StoredSession session) throws GuacamoleException;
+
+    /**
+     * Returns the session metadata stored under the given auth token, if
+     * any.
+     *
+     * @param authToken
+     *     The auth token associated with the session.
+     *
+     * @return
+     *     The metadata of the session, or null if no session is stored under
+     *     the given auth token.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the session.
+     */
+    StoredSession get(String authToken) throws GuacamoleException;
+
+    /**
+     * Updates the last access time of the session stored under the given
+     * auth token. If no such session is stored, this function has no effect.
+     *
+     * @param authToken
+     *     The auth token associated with the session.
+     *
+     * @param lastAccessedTime
+     *     The time the session was last accessed, in milliseconds since the
+     *     epoch.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while updating the session.
+     */
+    void touch(String authToken, long lastAccessedTime) throws GuacamoleException;
+
+    /**
+     * Removes the session metadata stored under the given auth token, if
+     * any.
+     *
+     * @param authToken
+     *     The auth token associated with the session.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while removing the session.
+     */
+    void remove(String authToken) throws GuacamoleException;
+
+    /**
+     * Releases any resources held by this store. The store will not be used
+     * after this function is invoked.
+     */
+    void shutdown();
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.net.auth;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The serializable metadata of an authenticated session, as maintained
+ * within a SessionStore. This metadata is sufficient to validate an auth
+ * token and rebuild the associated session on any node sharing the same
+ * SessionStore.
+ */
+public class StoredSession implements Serializable {
+
+    /**
+     * Unique identifier which identifies the version of this class for the
+     * sake of serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The identifier of the authenticated user.
+     */
+    private String identifier;
+
+    /**
+     * The identifier of the AuthenticationProvider that authenticated the
+     * user.
+     */
+    private String authProviderIdentifier;
+
+    /**
+     * The identifiers of all AuthenticationProviders that provided a
+     * UserContext for the session.
+     */
+    private ArrayList<String> userContextProviderIdentifiers;
+
+    /**
+     * The time the session was last accessed, in milliseconds since the
+     * epoch.
+     */
+    private long lastAccessedTime;
+
+    /**
+     * Creates a new, empty StoredSession.
+     */
+    public StoredSession() {
+    }
+
+    /**
+     * Creates a new StoredSession describing the session of the given user,
+     * last accessed at the given time.
+     *
+     * @param identifier
+     *     The identifier of the authenticated user.
+     *
+     * @param authProviderIdentifier
+     *     The identifier of the AuthenticationProvider that authenticated the
+     *     user.
+     *
+     * @param userContextProviderIdentifiers
+     *     The identifiers of all AuthenticationProviders that provided a
+     *     UserContext for the session.
+     *
+     * @param lastAccessedTime
+     *     The time the session was last accessed, in milliseconds since the
+     *     epoch.
+     */
+    public StoredSession(String identifier, String authProviderIdentifier,
+            List<String> userContextProviderIdentifiers, long lastAccessedTime) {
+        this.identifier = identifier;
+        this.authProviderIdentifier = authProviderIdentifier;
+        this.userContextProviderIdentifiers = new ArrayList<String>(userContextProviderIdentifiers);
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
+    /**
+     * Returns the identifier of the authenticated user.
+     *
+     * @return
+     *     The identifier of the authenticated user.
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Sets the identifier of the authenticated user.
+     *
+     * @param identifier
+     *     The identifier of the authenticated user.
+     */
+    public void setIdentifier(String identifier) {
+        this.identifier = identifier;
+    }
+
+    /**
+     * Returns the identifier of the AuthenticationProvider that
+     * authenticated the user.
+     *
+     * @return
+     *     The identifier of the AuthenticationProvider that authenticated the
+     *     user.
+     */
+    public String getAuthProviderIdentifier() {
+        return authProviderIdentifier;
+    }
+
+    /**
+     * Sets the identifier of the AuthenticationProvider that authenticated
+     * the user.
+     *
+     * @param authProviderIdentifier
+     *     The identifier of the AuthenticationProvider that authenticated the
+     *     user.
+     */
+    public void setAuthProviderIdentifier(String authProviderIdentifier) {
+        this.authProviderIdentifier = authProviderIdentifier;
+    }
+
+    /**
+     * Returns the identifiers of all AuthenticationProviders that provided a
+     * UserContext for the session. A session can be restored only if each
+     * of these AuthenticationProviders can provide that UserContext again.
+     *
+     * @return
+     *     The identifiers of all AuthenticationProviders that provided a
+     *     UserContext for the session, or null if unknown.
+     */
+    public List<String> getUserContextProviderIdentifiers() {
+        return userContextProviderIdentifiers;
+    }
+
+    /**
+     * Sets the identifiers of all AuthenticationProviders that provided a
+     * UserContext for the session.
+     *
+     * @param userContextProviderIdentifiers
+     *     The identifiers of all AuthenticationProviders that provided a
+     *     UserContext for the session, or null if unknown.
+     */
+    public void setUserContextProviderIdentifiers(List<String> userContextProviderIdentifiers) {
+        this.userContextProviderIdentifiers = userContextProviderIdentifiers == null
+                ? null : new ArrayList<String>(userContextProviderIdentifiers);
+    }
+
+    /**
+     * Returns the time the session was last accessed, in milliseconds since
+     * the epoch.
+     *
+     * @return
+     *     The time the session was last accessed.
+     */
+    public long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    /**
+     * Sets the time the session was last accessed, in milliseconds since the
+     * epoch.
+     *
+     * @param lastAccessedTime
+     *     The time the session was last accessed.
+     */
+    public void setLastAccessedTime(long lastAccessedTime) {
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
+}
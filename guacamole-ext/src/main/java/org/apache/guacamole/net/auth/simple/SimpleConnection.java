@@ -25,6 +25,7 @@ import java.util.Map;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
+import org.apache.guacamole.net.ChannelGuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.InetGuacamoleSocket;
@@ -115,19 +116,34 @@ public class SimpleConnection extends AbstractConnection {
         String hostname = env.getProperty(Environment.GUACD_HOSTNAME, DEFAULT_GUACD_HOSTNAME);
         int port = env.getProperty(Environment.GUACD_PORT, DEFAULT_GUACD_PORT);
 
+        // Get write coalescing parameters (disabled by default)
+        int coalesceWindow = env.getProperty(Environment.GUACD_COALESCE_WINDOW, 0);
+        int coalesceThreshold = env.getProperty(Environment.GUACD_COALESCE_THRESHOLD,
+                Environment.DEFAULT_GUACD_COALESCE_THRESHOLD);
+
         GuacamoleSocket socket;
         
         // If guacd requires SSL, use it
         if (env.getProperty(Environment.GUACD_SSL, false))
             socket = new ConfiguredGuacamoleSocket(
-                new SSLGuacamoleSocket(hostname, port),
+                new SSLGuacamoleSocket(hostname, port, coalesceWindow,
+                        coalesceThreshold),
+                config, info
+            );
+
+        // Share threads between connections using non-blocking I/O if
+        // requested
+        else if (env.getProperty(Environment.GUACD_MULTIPLEXED, false))
+            socket = new ConfiguredGuacamoleSocket(
+                new ChannelGuacamoleSocket(hostname, port),
                 config, info
             );
 
         // Otherwise, just connect directly via TCP
         else
             socket = new ConfiguredGuacamoleSocket(
-                new InetGuacamoleSocket(hostname, port),
+                new InetGuacamoleSocket(hostname, port, coalesceWindow,
+                        coalesceThreshold),
                 config, info
             );
 
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.net.auth.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.net.auth.SessionStore;
+import org.apache.guacamole.net.auth.StoredSession;
+import org.apache.guacamole.util.TimingWheel;
+
+/**
+ * In-memory SessionStore which stores each session in serialized form, as
+ * would a store shared between several Guacamole instances. Sessions which
+ * have not been accessed within the session timeout are discarded. This
+ * store is intended as a stand-in for a shared store, for testing or for a
+ * single Guacamole instance.
+ */
+public class SimpleSessionStore implements SessionStore {
+
+    /**
+     * The default session timeout, in milliseconds.
+     */
+    private static final long DEFAULT_SESSION_TIMEOUT = 3600000;
+
+    /**
+     * The precision with which the session timeout is enforced, in
+     * milliseconds.
+     */
+    private static final long EXPIRY_PRECISION = 1000;
+
+    /**
+     * All stored sessions in serialized form, indexed by auth token.
+     */
+    private final ConcurrentMap<String, byte[]> sessions =
+            new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * The amount of time after which a session which has not been accessed
+     * is discarded, in milliseconds.
+     */
+    private final long sessionTimeout;
+
+    /**
+     * Timing wheel which discards sessions which have not been accessed
+     * within the session timeout, scheduled by auth token.
+     */
+    private final TimingWheel<String> expiry;
+
+    /**
+     * Creates a new SimpleSessionStore which discards sessions which have not
+     * been accessed within the default session timeout of one hour.
+     */
+    public SimpleSessionStore() {
+        this(DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Creates a new SimpleSessionStore which discards sessions which have not
+     * been accessed within the given amount of time.
+     *
+     * @param sessionTimeout
+     *     The amount of time after which a session which has not been
+     *     accessed is discarded, in milliseconds.
+     */
+    public SimpleSessionStore(long sessionTimeout) {
+
+        this.sessionTimeout = sessionTimeout;
+        this.expiry = new TimingWheel<String>(EXPIRY_PRECISION, sessionTimeout) {
+
+            @Override
+            protected long expired(String authToken, long now) {
+
+                // Ignore sessions which have already been removed
+                byte[] data = sessions.get(authToken);
+                if (data == null)
+                    return 0;
+
+                // Discard sessions which cannot be read
+                long lastAccessedTime;
+                try {
+                    lastAccessedTime = deserialize(data).getLastAccessedTime();
+                }
+                catch (GuacamoleException e) {
+                    lastAccessedTime = 0;
+                }
+
+                // Check again later if the session has been accessed since
+                long deadline = lastAccessedTime + SimpleSessionStore.this.sessionTimeout;
+                if (deadline > now)
+                    return deadline;
+
+                sessions.remove(authToken, data);
+                return 0;
+
+            }
+
+        };
+
+    }
+
+    /**
+     * Serializes the given session.
+     *
+     * @param session
+     *     The session to serialize.
+     *
+     * @return
+     *     The serialized form of the given session.
+     *
+     * @throws GuacamoleException
+     *     If the session cannot be serialized.
+     */
+    private static byte[] serialize(StoredSession session)
+            throws GuacamoleException {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream output = new ObjectOutputStream(bytes);
+            output.writeObject(session);
+            output.close();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to serialize session.", e);
+        }
+
+    }
+
+    /**
+     * Deserializes the given session.
+     *
+     * @param data
+     *     The serialized form of the session.
+     *
+     * @return
+     *     The deserialized session.
+     *
+     * @throws GuacamoleException
+     *     If the session cannot be deserialized.
+     */
+    private static StoredSession deserialize(byte[] data)
+            throws GuacamoleException {
+
+        try {
+            ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(data));
+            return (StoredSession) input.readObject();
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to deserialize session.", e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new GuacamoleServerException("Unable to deserialize session.", e);
+        }
+
+    }
+
+    @Override
+    public void put(String authToken, StoredSession session)
+            throws GuacamoleException {
+        sessions.put(authToken, serialize(session));
+        expiry.schedule(authToken, session.getLastAccessedTime() + sessionTimeout);
+    }
+
+    @Override
+    public StoredSession get(String authToken) throws GuacamoleException {
+
+        byte[] data = sessions.get(authToken);
+        if (data == null)
+            return null;
+
+        return deserialize(data);
+
+    }
+
+    @Override
+    public void touch(String authToken, long lastAccessedTime)
+            throws GuacamoleException {
+
+        // Replace stored session only if unchanged since read
+        byte[] data;
+        byte[] updated;
+        do {
+
+            data = sessions.get(authToken);
+            if (data == null)
+                return;
+
+            StoredSession session = deserialize(data);
+            if (session.getLastAccessedTime() >= lastAccessedTime)
+                return;
+
+            session.setLastAccessedTime(lastAccessedTime);
+            updated = serialize(session);
+
+        } while (!sessions.replace(authToken, data, updated));
+
+    }
+
+    @Override
+    public void remove(String authToken) throws GuacamoleException {
+        sessions.remove(authToken);
+    }
+
+    @Override
+    public void shutdown() {
+        expiry.shutdown();
+    }
+
+}
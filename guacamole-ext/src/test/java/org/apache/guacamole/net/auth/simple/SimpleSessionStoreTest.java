@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.net.auth.simple;
+
+import java.util.Collections;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.StoredSession;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies the storage functionality of SimpleSessionStore.
+ */
+public class SimpleSessionStoreTest {
+
+    /**
+     * Verifies that sessions are stored as copies which may be retrieved,
+     * touched, and removed.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while accessing the store.
+     */
+    @Test
+    public void testStore() throws GuacamoleException {
+
+        SimpleSessionStore store = new SimpleSessionStore();
+
+        try {
+
+            long now = System.currentTimeMillis();
+            StoredSession session = new StoredSession("user", "provider",
+                    Collections.singletonList("provider"), now);
+            store.put("token", session);
+
+            // Stored sessions are copies of the original
+            StoredSession stored = store.get("token");
+            assertNotSame(session, stored);
+            assertEquals("user", stored.getIdentifier());
+            assertEquals("provider", stored.getAuthProviderIdentifier());
+            assertEquals(Collections.singletonList("provider"), stored.getUserContextProviderIdentifiers());
+            assertEquals(now, stored.getLastAccessedTime());
+
+            // Access times only move forward
+            store.touch("token", now + 2000);
+            store.touch("token", now + 1000);
+            assertEquals(now + 2000, store.get("token").getLastAccessedTime());
+
+            // Removed sessions are gone
+            store.remove("token");
+            assertNull(store.get("token"));
+            store.touch("token", now + 3000);
+            assertNull(store.get("token"));
+
+        }
+        finally {
+            store.shutdown();
+        }
+
+    }
+
+}
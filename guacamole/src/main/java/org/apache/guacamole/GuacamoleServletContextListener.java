@@ -24,14 +24,25 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Stage;
 import com.google.inject.servlet.GuiceServletContextListener;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.ServletContextEvent;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.extension.ExtensionModule;
+import org.apache.guacamole.io.WriteCoalescer;
 import org.apache.guacamole.log.LogModule;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
+import org.apache.guacamole.net.GuacamoleSocketMultiplexer;
 import org.apache.guacamole.rest.RESTServiceModule;
+import org.apache.guacamole.net.auth.SessionStore;
+import org.apache.guacamole.properties.StringGuacamoleProperty;
 import org.apache.guacamole.rest.auth.HashTokenSessionMap;
+import org.apache.guacamole.rest.auth.StoreBackedTokenSessionMap;
 import org.apache.guacamole.rest.auth.TokenSessionMap;
+import org.apache.guacamole.servlet.ClusterTunnelLocator;
+import org.apache.guacamole.servlet.TunnelLocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,17 +64,235 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
      */
     private Environment environment;
 
+    /**
+     * Module which loads all extensions within GUACAMOLE_HOME/extensions, and
+     * from which any configured SessionStore or TunnelLocator class is
+     * loaded.
+     */
+    private ExtensionModule extensionModule;
+
     /**
      * Singleton instance of a TokenSessionMap.
      */
     private TokenSessionMap sessionMap;
 
+    /**
+     * The TunnelLocator used to locate HTTP tunnels owned by other Guacamole
+     * instances, or null if HTTP tunnels are local to each instance.
+     */
+    private TunnelLocator tunnelLocator;
+
+    /**
+     * The class name of the SessionStore implementation which should maintain
+     * session metadata, allowing sessions to be shared between several
+     * Guacamole instances. The implementation may be provided by an
+     * extension within GUACAMOLE_HOME/extensions or a .jar within
+     * GUACAMOLE_HOME/lib, and must provide a public constructor which accepts
+     * an Environment, or a public constructor which accepts no arguments.
+     */
+    private static final StringGuacamoleProperty SESSION_STORE =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "session-store"; }
+
+    };
+
+    /**
+     * The class name of the TunnelLocator implementation which should record
+     * the node owning each HTTP tunnel, allowing HTTP tunnel requests to be
+     * received by any of several Guacamole instances. The implementation may
+     * be provided by an extension within GUACAMOLE_HOME/extensions or a .jar
+     * within GUACAMOLE_HOME/lib, and must provide a public constructor which
+     * accepts an Environment, or a public constructor which accepts no
+     * arguments.
+     */
+    private static final StringGuacamoleProperty TUNNEL_LOCATOR =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-locator"; }
+
+    };
+
+    /**
+     * Comma-separated list of the URLs of the HTTP tunnel servlets of all
+     * Guacamole instances sharing HTTP tunnels, used to locate HTTP tunnels
+     * if no other TunnelLocator is configured.
+     */
+    private static final StringGuacamoleProperty TUNNEL_NODES =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-nodes"; }
+
+    };
+
+    /**
+     * The URL of the HTTP tunnel servlet of this Guacamole instance, as
+     * listed within TUNNEL_NODES.
+     */
+    private static final StringGuacamoleProperty TUNNEL_NODE_URL =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-node-url"; }
+
+    };
+
+    /**
+     * Creates a new instance of the class specified by the given property,
+     * which must be an implementation of the given type. The class is loaded
+     * in the same manner as the classes of extensions, and thus may be
+     * provided by an extension, a .jar within GUACAMOLE_HOME/lib, or the web
+     * application itself. The class must provide a public constructor which
+     * accepts an Environment, or a public constructor which accepts no
+     * arguments.
+     *
+     * @param <T>
+     *     The type of object to create.
+     *
+     * @param environment
+     *     The environment to pass to the new object, and from which the given
+     *     property should be read.
+     *
+     * @param property
+     *     The property specifying the name of the class to instantiate.
+     *
+     * @param type
+     *     The type which the specified class must implement.
+     *
+     * @return
+     *     A new instance of the class specified by the given property, or
+     *     null if the property is not set.
+     *
+     * @throws GuacamoleException
+     *     If the property cannot be read, or the specified class cannot be
+     *     instantiated.
+     */
+    private <T> T createInstance(Environment environment,
+            StringGuacamoleProperty property, Class<T> type)
+            throws GuacamoleException {
+
+        String className = environment.getProperty(property);
+        if (className == null)
+            return null;
+
+        T instance;
+        try {
+
+            Class<? extends T> instanceClass =
+                    extensionModule.loadClass(className).asSubclass(type);
+
+            // Prefer constructor accepting the environment
+            try {
+                instance = instanceClass.getConstructor(Environment.class).newInstance(environment);
+            }
+            catch (NoSuchMethodException e) {
+                instance = instanceClass.getConstructor().newInstance();
+            }
+
+        }
+        catch (ClassNotFoundException e) {
+            throw new GuacamoleServerException("Class \"" + className + "\" not found.", e);
+        }
+        catch (ClassCastException e) {
+            throw new GuacamoleServerException("Class \"" + className + "\" is not a " + type.getSimpleName() + ".", e);
+        }
+        catch (NoSuchMethodException e) {
+            throw new GuacamoleServerException("Class \"" + className + "\" has no usable constructor.", e);
+        }
+        catch (InstantiationException e) {
+            throw new GuacamoleServerException("Unable to create instance of \"" + className + "\".", e);
+        }
+        catch (IllegalAccessException e) {
+            throw new GuacamoleServerException("Unable to create instance of \"" + className + "\".", e);
+        }
+        catch (InvocationTargetException e) {
+            throw new GuacamoleServerException("Unable to create instance of \"" + className + "\".", e.getCause());
+        }
+
+        logger.info("Using {} \"{}\".", type.getSimpleName(), className);
+        return instance;
+
+    }
+
+    /**
+     * Creates a new TokenSessionMap configured using the given environment.
+     * If a SessionStore is configured, session metadata is additionally
+     * maintained within that store.
+     *
+     * @param environment
+     *     The environment to use when configuring the token session map.
+     *
+     * @return
+     *     A new TokenSessionMap.
+     *
+     * @throws GuacamoleException
+     *     If the configured SessionStore cannot be created.
+     */
+    private TokenSessionMap createTokenSessionMap(Environment environment)
+            throws GuacamoleException {
+
+        // Sessions are local unless a store is configured
+        SessionStore store = createInstance(environment, SESSION_STORE, SessionStore.class);
+        if (store == null)
+            return new HashTokenSessionMap(environment);
+
+        return new StoreBackedTokenSessionMap(environment, store);
+
+    }
+
+    /**
+     * Creates a new TunnelLocator configured using the given environment. If
+     * no TunnelLocator implementation is configured, but the URLs of several
+     * Guacamole instances are listed, tunnels are located by querying those
+     * instances directly.
+     *
+     * @param environment
+     *     The environment to use when configuring the tunnel locator.
+     *
+     * @return
+     *     A new TunnelLocator, or null if HTTP tunnels are local to each
+     *     instance.
+     *
+     * @throws GuacamoleException
+     *     If the configured TunnelLocator cannot be created.
+     */
+    private TunnelLocator createTunnelLocator(Environment environment)
+            throws GuacamoleException {
+
+        // Prefer explicitly-configured implementation
+        TunnelLocator locator = createInstance(environment, TUNNEL_LOCATOR, TunnelLocator.class);
+        if (locator != null)
+            return locator;
+
+        // Tunnels are local unless other instances are listed
+        String nodeList = environment.getProperty(TUNNEL_NODES);
+        if (nodeList == null)
+            return null;
+
+        List<String> nodes = new ArrayList<String>();
+        for (String node : nodeList.split(",")) {
+            node = node.trim();
+            if (!node.isEmpty())
+                nodes.add(node);
+        }
+
+        String localNode = environment.getProperty(TUNNEL_NODE_URL);
+        logger.info("Locating HTTP tunnels within {} configured node(s).", nodes.size());
+        return new ClusterTunnelLocator(nodes, localNode == null ? null : localNode.trim());
+
+    }
+
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
 
         try {
             environment = new LocalEnvironment();
-            sessionMap = new HashTokenSessionMap(environment);
+            extensionModule = new ExtensionModule(environment);
+            sessionMap = createTokenSessionMap(environment);
+            tunnelLocator = createTunnelLocator(environment);
         }
         catch (GuacamoleException e) {
             logger.error("Unable to read guacamole.properties: {}", e.getMessage());
@@ -80,9 +309,9 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
         return Guice.createInjector(Stage.PRODUCTION,
             new EnvironmentModule(environment),
             new LogModule(environment),
-            new ExtensionModule(environment),
+            extensionModule,
             new RESTServiceModule(sessionMap),
-            new TunnelModule()
+            new TunnelModule(tunnelLocator)
         );
     }
 
@@ -95,6 +324,17 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
         if (sessionMap != null)
             sessionMap.shutdown();
 
+        // Stop threads used to locate HTTP tunnels, if any
+        if (tunnelLocator instanceof ClusterTunnelLocator)
+            ((ClusterTunnelLocator) tunnelLocator).shutdown();
+
+        // Unregister tunnel metrics from JMX
+        TunnelMetricsRegistry.shutdown();
+
+        // Stop threads servicing connections to guacd
+        GuacamoleSocketMultiplexer.shutdownDefault();
+        WriteCoalescer.shutdown();
+
     }
 
 }
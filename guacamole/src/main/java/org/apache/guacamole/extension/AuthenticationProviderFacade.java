@@ -122,6 +122,18 @@ public class AuthenticationProviderFacade implements AuthenticationProvider {
 
     }
 
+    /**
+     * Returns the underlying authentication provider, if it could be
+     * instantiated.
+     *
+     * @return
+     *     The underlying authentication provider, or null if the
+     *     authentication provider could not be instantiated.
+     */
+    protected AuthenticationProvider getDelegate() {
+        return authProvider;
+    }
+
     @Override
     public String getIdentifier() {
 
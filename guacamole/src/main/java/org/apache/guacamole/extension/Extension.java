@@ -490,6 +490,18 @@ public class Extension {
         return authenticationProviderClasses;
     }
 
+    /**
+     * Returns the classloader used to read classes and resources from this
+     * extension. Classes not within the extension itself are loaded from
+     * the parent classloader given when the extension was created.
+     *
+     * @return
+     *     The classloader of this extension.
+     */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
     /**
      * Returns the resource for the small favicon for the extension. If
      * provided, this will replace the default Guacamole icon.
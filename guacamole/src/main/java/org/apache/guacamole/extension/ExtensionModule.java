@@ -34,6 +34,7 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.RestorableAuthenticationProvider;
 import org.apache.guacamole.resource.Resource;
 import org.apache.guacamole.resource.ResourceServlet;
 import org.apache.guacamole.resource.SequenceResource;
@@ -102,6 +103,12 @@ public class ExtensionModule extends ServletModule {
      * Service for adding and retrieving HTML patch resources.
      */
     private final PatchResourceService patchResourceService;
+
+    /**
+     * All compatible extensions within GUACAMOLE_HOME/extensions, or null if
+     * those extensions have not yet been read.
+     */
+    private List<Extension> extensions;
     
     /**
      * Returns the classloader that should be used as the parent classloader
@@ -157,7 +164,13 @@ public class ExtensionModule extends ServletModule {
         // Bind authentication provider
         logger.debug("[{}] Binding AuthenticationProvider \"{}\".",
                 boundAuthenticationProviders.size(), authenticationProvider.getName());
-        boundAuthenticationProviders.add(new AuthenticationProviderFacade(authenticationProvider));
+
+        // Preserve the ability to restore sessions, if supported
+        if (RestorableAuthenticationProvider.class.isAssignableFrom(authenticationProvider))
+            boundAuthenticationProviders.add(new RestorableAuthenticationProviderFacade(
+                    authenticationProvider.asSubclass(RestorableAuthenticationProvider.class)));
+        else
+            boundAuthenticationProviders.add(new AuthenticationProviderFacade(authenticationProvider));
 
     }
 
@@ -266,24 +279,22 @@ public class ExtensionModule extends ServletModule {
     }
 
     /**
-     * Loads all extensions within the GUACAMOLE_HOME/extensions directory, if
-     * any, adding their static resource to the given resoure collections.
-     *
-     * @param javaScriptResources
-     *     A modifiable collection of static JavaScript resources which may
-     *     receive new JavaScript resources from extensions.
+     * Reads all extensions within the GUACAMOLE_HOME/extensions directory, if
+     * any. Extensions which cannot be read, or which are not compatible with
+     * this version of Guacamole, are skipped.
      *
-     * @param cssResources
-     *     A modifiable collection of static CSS resources which may receive
-     *     new CSS resources from extensions.
+     * @return
+     *     All compatible extensions within the GUACAMOLE_HOME/extensions
+     *     directory, in lexicographic order of filename.
      */
-    private void loadExtensions(Collection<Resource> javaScriptResources,
-            Collection<Resource> cssResources) {
+    private List<Extension> readExtensions() {
+
+        List<Extension> compatible = new ArrayList<Extension>();
 
         // Retrieve and validate extensions directory
         File extensionsDir = new File(environment.getGuacamoleHome(), EXTENSIONS_DIRECTORY);
         if (!extensionsDir.isDirectory())
-            return;
+            return compatible;
 
         // Retrieve list of all extension files within extensions directory
         File[] extensionFiles = extensionsDir.listFiles(new FileFilter() {
@@ -298,7 +309,7 @@ public class ExtensionModule extends ServletModule {
         // Verify contents are accessible
         if (extensionFiles == null) {
             logger.warn("Although GUACAMOLE_HOME/" + EXTENSIONS_DIRECTORY + " exists, its contents cannot be read.");
-            return;
+            return compatible;
         }
 
         // Sort files lexicographically
@@ -322,39 +333,124 @@ public class ExtensionModule extends ServletModule {
                             + "compatible with this version of Guacamole.");
                 }
 
-                // Add any JavaScript / CSS resources
-                javaScriptResources.addAll(extension.getJavaScriptResources().values());
-                cssResources.addAll(extension.getCSSResources().values());
+                compatible.add(extension);
+
+            }
+            catch (GuacamoleException e) {
+                logger.error("Extension \"{}\" could not be loaded: {}", extensionFile.getName(), e.getMessage());
+                logger.debug("Unable to load extension.", e);
+            }
 
-                // Attempt to load all authentication providers
-                bindAuthenticationProviders(extension.getAuthenticationProviderClasses());
+        }
 
-                // Add any translation resources
-                serveLanguageResources(extension.getTranslationResources());
+        return compatible;
 
-                // Add all HTML patch resources
-                patchResourceService.addPatchResources(extension.getHTMLResources().values());
+    }
 
-                // Add all static resources under namespace-derived prefix
-                String staticResourcePrefix = "/app/ext/" + extension.getNamespace() + "/";
-                serveStaticResources(staticResourcePrefix, extension.getStaticResources());
+    /**
+     * Returns all compatible extensions within the GUACAMOLE_HOME/extensions
+     * directory, reading those extensions if they have not yet been read.
+     * Each extension is read only once, such that classes loaded through
+     * loadClass() are the same classes used by the extensions bound by this
+     * module.
+     *
+     * @return
+     *     All compatible extensions within the GUACAMOLE_HOME/extensions
+     *     directory.
+     */
+    private synchronized List<Extension> getExtensions() {
 
-                // Serve up the small favicon if provided
-                if(extension.getSmallIcon() != null)
-                    serve("/images/logo-64.png").with(new ResourceServlet(extension.getSmallIcon()));
+        if (extensions == null)
+            extensions = readExtensions();
 
-                // Serve up the large favicon if provided
-                if(extension.getLargeIcon()!= null)
-                    serve("/images/logo-144.png").with(new ResourceServlet(extension.getLargeIcon()));
+        return extensions;
 
-                // Log successful loading of extension by name
-                logger.info("Extension \"{}\" loaded.", extension.getName());
+    }
 
+    /**
+     * Loads the class having the given name from the extensions within
+     * GUACAMOLE_HOME/extensions, from the .jar files within
+     * GUACAMOLE_HOME/lib, or from the web application itself, in that order.
+     * This allows implementations of pluggable services configured by class
+     * name within guacamole.properties to be provided in the same manner as
+     * authentication providers. This function may be invoked before this
+     * module is used to create an injector.
+     *
+     * @param className
+     *     The fully-qualified name of the class to load.
+     *
+     * @return
+     *     The class having the given name.
+     *
+     * @throws ClassNotFoundException
+     *     If no extension, .jar file within GUACAMOLE_HOME/lib, or the web
+     *     application itself contains the requested class.
+     *
+     * @throws GuacamoleException
+     *     If the classloader for GUACAMOLE_HOME/lib cannot be created.
+     */
+    public Class<?> loadClass(String className)
+            throws ClassNotFoundException, GuacamoleException {
+
+        // Prefer classes provided by extensions
+        for (Extension extension : getExtensions()) {
+            try {
+                return Class.forName(className, true, extension.getClassLoader());
             }
-            catch (GuacamoleException e) {
-                logger.error("Extension \"{}\" could not be loaded: {}", extensionFile.getName(), e.getMessage());
-                logger.debug("Unable to load extension.", e);
+            catch (ClassNotFoundException e) {
+                // Try next extension
             }
+        }
+
+        // Otherwise, search GUACAMOLE_HOME/lib and the web application
+        return Class.forName(className, true, getParentClassLoader());
+
+    }
+
+    /**
+     * Loads all extensions within the GUACAMOLE_HOME/extensions directory, if
+     * any, adding their static resource to the given resoure collections.
+     *
+     * @param javaScriptResources
+     *     A modifiable collection of static JavaScript resources which may
+     *     receive new JavaScript resources from extensions.
+     *
+     * @param cssResources
+     *     A modifiable collection of static CSS resources which may receive
+     *     new CSS resources from extensions.
+     */
+    private void loadExtensions(Collection<Resource> javaScriptResources,
+            Collection<Resource> cssResources) {
+
+        for (Extension extension : getExtensions()) {
+
+            // Add any JavaScript / CSS resources
+            javaScriptResources.addAll(extension.getJavaScriptResources().values());
+            cssResources.addAll(extension.getCSSResources().values());
+
+            // Attempt to load all authentication providers
+            bindAuthenticationProviders(extension.getAuthenticationProviderClasses());
+
+            // Add any translation resources
+            serveLanguageResources(extension.getTranslationResources());
+
+            // Add all HTML patch resources
+            patchResourceService.addPatchResources(extension.getHTMLResources().values());
+
+            // Add all static resources under namespace-derived prefix
+            String staticResourcePrefix = "/app/ext/" + extension.getNamespace() + "/";
+            serveStaticResources(staticResourcePrefix, extension.getStaticResources());
+
+            // Serve up the small favicon if provided
+            if(extension.getSmallIcon() != null)
+                serve("/images/logo-64.png").with(new ResourceServlet(extension.getSmallIcon()));
+
+            // Serve up the large favicon if provided
+            if(extension.getLargeIcon()!= null)
+                serve("/images/logo-144.png").with(new ResourceServlet(extension.getLargeIcon()));
+
+            // Log successful loading of extension by name
+            logger.info("Extension \"{}\" loaded.", extension.getName());
 
         }
 
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.extension;
+
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.RestorableAuthenticationProvider;
+import org.apache.guacamole.net.auth.UserContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AuthenticationProviderFacade which additionally delegates the restoring of
+ * sessions to an underlying RestorableAuthenticationProvider, such that
+ * wrapping a provider within a facade does not prevent its sessions from
+ * being restored.
+ */
+public class RestorableAuthenticationProviderFacade
+        extends AuthenticationProviderFacade
+        implements RestorableAuthenticationProvider {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(RestorableAuthenticationProviderFacade.class);
+
+    /**
+     * Creates a new RestorableAuthenticationProviderFacade which delegates
+     * all function calls to an instance of the given
+     * RestorableAuthenticationProvider subclass. As with
+     * AuthenticationProviderFacade, creation of this facade succeeds even if
+     * an instance of the given class cannot be created.
+     *
+     * @param authProviderClass
+     *     The RestorableAuthenticationProvider subclass to instantiate.
+     */
+    public RestorableAuthenticationProviderFacade(
+            Class<? extends RestorableAuthenticationProvider> authProviderClass) {
+        super(authProviderClass);
+    }
+
+    @Override
+    public UserContext restoreUserContext(AuthenticatedUser authenticatedUser)
+            throws GuacamoleException {
+
+        // Ignore restore attempts if no auth provider could be loaded
+        RestorableAuthenticationProvider authProvider = (RestorableAuthenticationProvider) getDelegate();
+        if (authProvider == null) {
+            logger.warn("Session restore attempt denied because the authentication system could not be loaded. Please check for errors earlier in the logs.");
+            return null;
+        }
+
+        // Delegate to underlying auth provider
+        return authProvider.restoreUserContext(authenticatedUser);
+
+    }
+
+}
@@ -37,6 +37,7 @@ import org.apache.guacamole.rest.auth.TokenSessionMap;
 import org.apache.guacamole.rest.connection.ConnectionModule;
 import org.apache.guacamole.rest.connectiongroup.ConnectionGroupModule;
 import org.apache.guacamole.rest.language.LanguageRESTService;
+import org.apache.guacamole.rest.metrics.MetricsRESTService;
 import org.apache.guacamole.rest.patch.PatchRESTService;
 import org.apache.guacamole.rest.session.SessionResourceFactory;
 import org.apache.guacamole.rest.sharingprofile.SharingProfileModule;
@@ -74,8 +75,9 @@ public class RESTServiceModule extends ServletModule {
     @Override
     protected void configureServlets() {
 
-        // Bind session map
+        // Bind session map, injecting any dependencies it may have
         bind(TokenSessionMap.class).toInstance(tokenSessionMap);
+        requestInjection(tokenSessionMap);
 
         // Bind low-level services
         bind(AuthenticationService.class);
@@ -88,6 +90,7 @@ public class RESTServiceModule extends ServletModule {
 
         // Set up the API endpoints
         bind(LanguageRESTService.class);
+        bind(MetricsRESTService.class);
         bind(PatchRESTService.class);
         bind(TokenRESTService.class);
 
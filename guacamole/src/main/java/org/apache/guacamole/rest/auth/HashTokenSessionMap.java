@@ -19,17 +19,13 @@
 
 package org.apache.guacamole.rest.auth;
 
-import java.util.Iterator;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.GuacamoleSession;
 import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.util.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,17 +42,18 @@ public class HashTokenSessionMap implements TokenSessionMap {
      */
     private static final Logger logger = LoggerFactory.getLogger(HashTokenSessionMap.class);
 
-    /**
-     * Executor service which runs the period session eviction task.
-     */
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
-    
     /**
      * Keeps track of the authToken to GuacamoleSession mapping.
      */
     private final ConcurrentMap<String, GuacamoleSession> sessionMap =
             new ConcurrentHashMap<String, GuacamoleSession>();
 
+    /**
+     * The maximum amount of time between checks of whether a session which
+     * has active tunnels has since become inactive, in milliseconds.
+     */
+    private static final long ACTIVE_SESSION_CHECK_INTERVAL = 60000;
+
     /**
      * The session timeout for the Guacamole REST API, in minutes.
      */
@@ -68,6 +65,28 @@ public class HashTokenSessionMap implements TokenSessionMap {
 
     };
 
+    /**
+     * The precision with which the session timeout is enforced, in seconds.
+     */
+    private final IntegerGuacamoleProperty API_SESSION_EXPIRY_PRECISION =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "api-session-expiry-precision"; }
+
+    };
+
+    /**
+     * The maximum allowed age of any inactive session, in milliseconds.
+     */
+    private final long sessionTimeout;
+
+    /**
+     * Timing wheel which evicts sessions beyond the session timeout,
+     * scheduled by auth token.
+     */
+    private final SessionEvictionWheel evictionWheel;
+
     /**
      * Create a new HashTokenSessionMap configured using the given environment.
      *
@@ -77,6 +96,7 @@ public class HashTokenSessionMap implements TokenSessionMap {
     public HashTokenSessionMap(Environment environment) {
         
         int sessionTimeoutValue;
+        int expiryPrecisionValue;
 
         // Read session timeout from guacamole.properties
         try {
@@ -87,72 +107,96 @@ public class HashTokenSessionMap implements TokenSessionMap {
             logger.debug("Error while reading session timeout value.", e);
             sessionTimeoutValue = 60;
         }
-        
-        // Check for expired sessions every minute
+
+        // Read expiry precision from guacamole.properties
+        try {
+            expiryPrecisionValue = environment.getProperty(API_SESSION_EXPIRY_PRECISION, 1);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read guacamole.properties: {}", e.getMessage());
+            logger.debug("Error while reading session expiry precision value.", e);
+            expiryPrecisionValue = 1;
+        }
+
+        // Check for expired sessions as their deadlines pass
         logger.info("Sessions will expire after {} minutes of inactivity.", sessionTimeoutValue);
-        executor.scheduleAtFixedRate(new SessionEvictionTask(sessionTimeoutValue * 60000l), 1, 1, TimeUnit.MINUTES);
+        sessionTimeout = sessionTimeoutValue * 60000l;
+        evictionWheel = new SessionEvictionWheel(Math.max(expiryPrecisionValue, 1) * 1000l);
         
     }
 
     /**
-     * Task which iterates through all active sessions, evicting those sessions
-     * which are beyond the session timeout.
+     * Timing wheel which evicts sessions which are beyond the session
+     * timeout. Only sessions whose deadlines have passed are examined, each
+     * being rescheduled if it has been accessed since or has active tunnels.
      */
-    private class SessionEvictionTask implements Runnable {
+    private class SessionEvictionWheel extends TimingWheel<String> {
 
         /**
-         * The maximum allowed age of any session, in milliseconds.
+         * Creates a new timing wheel which automatically evicts sessions
+         * which are older than the session timeout, to within the given
+         * precision.
+         *
+         * @param precision
+         *     The precision with which the session timeout is enforced, in
+         *     milliseconds.
          */
-        private final long sessionTimeout;
-
-        /**
-         * Creates a new task which automatically evicts sessions which are
-         * older than the specified timeout.
-         * 
-         * @param sessionTimeout The maximum age of any session, in
-         *                       milliseconds.
-         */
-        public SessionEvictionTask(long sessionTimeout) {
-            this.sessionTimeout = sessionTimeout;
+        public SessionEvictionWheel(long precision) {
+            super(precision, sessionTimeout);
         }
-        
-        @Override
-        public void run() {
 
-            // Get start time of session check time
-            long sessionCheckStart = System.currentTimeMillis();
-
-            logger.debug("Checking for expired sessions...");
-
-            // For each session, remove sesions which have expired
-            Iterator<Map.Entry<String, GuacamoleSession>> entries = sessionMap.entrySet().iterator();
-            while (entries.hasNext()) {
-
-                Map.Entry<String, GuacamoleSession> entry = entries.next();
-                GuacamoleSession session = entry.getValue();
-
-                // Do not expire sessions which are active
-                if (session.hasTunnels())
-                    continue;
+        @Override
+        protected long expired(String authToken, long now) {
+
+            // Ignore sessions which have already been removed
+            GuacamoleSession session = sessionMap.get(authToken);
+            if (session == null)
+                return 0;
+
+            // Do not expire sessions which are active
+            if (session.hasTunnels())
+                return now + Math.min(sessionTimeout, ACTIVE_SESSION_CHECK_INTERVAL);
+
+            // Check again later if the session has been accessed since
+            long deadline = session.getLastAccessedTime() + sessionTimeout;
+            if (deadline > now)
+                return deadline;
+
+            // Evict session, unless already removed or replaced
+            if (sessionMap.remove(authToken, session)) {
+                logger.debug("Session \"{}\" has timed out.", authToken);
+                session.invalidate();
+                sessionExpired(authToken, session);
+            }
 
-                // Get elapsed time since last access
-                long age = sessionCheckStart - session.getLastAccessedTime();
+            return 0;
 
-                // If session is too old, evict it and check the next one
-                if (age >= sessionTimeout) {
-                    logger.debug("Session \"{}\" has timed out.", entry.getKey());
-                    entries.remove();
-                    session.invalidate();
-                }
+        }
 
-            }
+    }
 
-            // Log completion and duration
-            logger.debug("Session check completed in {} ms.",
-                    System.currentTimeMillis() - sessionCheckStart);
-            
-        }
+    /**
+     * Returns the maximum allowed age of any inactive session, in
+     * milliseconds.
+     *
+     * @return
+     *     The maximum allowed age of any inactive session, in milliseconds.
+     */
+    protected long getSessionTimeout() {
+        return sessionTimeout;
+    }
 
+    /**
+     * Called after the given session has been evicted due to inactivity and
+     * invalidated. By default, this function has no effect.
+     *
+     * @param authToken
+     *     The auth token associated with the evicted session.
+     *
+     * @param session
+     *     The session which was evicted.
+     */
+    protected void sessionExpired(String authToken, GuacamoleSession session) {
     }
 
     @Override
@@ -174,6 +218,7 @@ public class HashTokenSessionMap implements TokenSessionMap {
     @Override
     public void put(String authToken, GuacamoleSession session) {
         sessionMap.put(authToken, session);
+        evictionWheel.schedule(authToken, session.getLastAccessedTime() + sessionTimeout);
     }
 
     @Override
@@ -190,7 +235,7 @@ public class HashTokenSessionMap implements TokenSessionMap {
 
     @Override
     public void shutdown() {
-        executor.shutdownNow();
+        evictionWheel.shutdown();
     }
 
 }
@@ -0,0 +1,518 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.rest.auth;
+
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleSession;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.auth.AbstractAuthenticatedUser;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.Credentials;
+import org.apache.guacamole.net.auth.RestorableAuthenticationProvider;
+import org.apache.guacamole.net.auth.SessionStore;
+import org.apache.guacamole.net.auth.StoredSession;
+import org.apache.guacamole.net.auth.UserContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HashTokenSessionMap which additionally maintains the metadata of each
+ * session within a SessionStore which may be shared with other Guacamole
+ * instances. The in-process map acts as a near-cache in front of that store.
+ * If a token is not found locally, its session is restored from the store,
+ * rebuilding the associated UserContexts from the identity of the
+ * authenticated user. As the user's credentials are never stored, a session
+ * is restored only if every AuthenticationProvider which provided a
+ * UserContext for the original session is a RestorableAuthenticationProvider
+ * and can provide that UserContext again. Other sessions remain usable only
+ * on the instance which created them. Locally-cached sessions
+ * are periodically revalidated against the store, such that a session
+ * removed by any instance, such as upon logout, is soon removed from all
+ * instances.
+ */
+public class StoreBackedTokenSessionMap extends HashTokenSessionMap {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StoreBackedTokenSessionMap.class);
+
+    /**
+     * The minimum amount of time between updates of the last access time
+     * of any one session within the store, in milliseconds.
+     */
+    private static final long STORE_ACCESS_INTERVAL = 30000;
+
+    /**
+     * The default maximum amount of time a locally-cached session may be
+     * used without verifying that the session is still present within the
+     * store, in milliseconds.
+     */
+    private static final long DEFAULT_REVALIDATION_INTERVAL = 5000;
+
+    /**
+     * The store containing the metadata of all sessions.
+     */
+    private final SessionStore sessionStore;
+
+    /**
+     * The time each locally-cached session was last marked as accessed
+     * within the store, indexed by auth token.
+     */
+    private final ConcurrentMap<String, Long> storedAccessTimes =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The time each locally-cached session was last verified to be present
+     * within the store, indexed by auth token.
+     */
+    private final ConcurrentMap<String, Long> validatedTimes =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The locks held while restoring sessions from the store, indexed by auth
+     * token. Each lock is present only while its session is being restored.
+     */
+    private final ConcurrentMap<String, Object> restoreLocks =
+            new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * All configured authentication providers which can be used to rebuild
+     * the UserContexts of restored sessions.
+     */
+    @Inject
+    private List<AuthenticationProvider> authProviders;
+
+    /**
+     * AuthenticatedUser restored from the identity stored within a
+     * SessionStore. As the user's original credentials are not stored, the
+     * credentials of a restored user contain only the username.
+     */
+    private static class RestoredAuthenticatedUser extends AbstractAuthenticatedUser {
+
+        /**
+         * The AuthenticationProvider that originally authenticated this user.
+         */
+        private final AuthenticationProvider authProvider;
+
+        /**
+         * The credentials of this user, containing only the username.
+         */
+        private final Credentials credentials;
+
+        /**
+         * Creates a new RestoredAuthenticatedUser having the given
+         * identifier, originally authenticated by the given
+         * AuthenticationProvider.
+         *
+         * @param authProvider
+         *     The AuthenticationProvider that originally authenticated the
+         *     user.
+         *
+         * @param identifier
+         *     The identifier of the user.
+         */
+        public RestoredAuthenticatedUser(AuthenticationProvider authProvider,
+                String identifier) {
+            this.authProvider = authProvider;
+            this.credentials = new Credentials();
+            this.credentials.setUsername(identifier);
+            setIdentifier(identifier);
+        }
+
+        @Override
+        public AuthenticationProvider getAuthenticationProvider() {
+            return authProvider;
+        }
+
+        @Override
+        public Credentials getCredentials() {
+            return credentials;
+        }
+
+    }
+
+    /**
+     * Creates a new StoreBackedTokenSessionMap configured using the given
+     * environment, which maintains session metadata within the given store.
+     *
+     * @param environment
+     *     The environment to use when configuring the token session map.
+     *
+     * @param sessionStore
+     *     The store which should contain the metadata of all sessions.
+     */
+    public StoreBackedTokenSessionMap(Environment environment,
+            SessionStore sessionStore) {
+        super(environment);
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Returns the AuthenticationProvider having the given identifier, if
+     * any.
+     *
+     * @param identifier
+     *     The identifier of the AuthenticationProvider to return.
+     *
+     * @return
+     *     The AuthenticationProvider having the given identifier, or null if
+     *     no such AuthenticationProvider is loaded.
+     */
+    private AuthenticationProvider getAuthenticationProvider(String identifier) {
+
+        for (AuthenticationProvider authProvider : authProviders) {
+            if (authProvider.getIdentifier().equals(identifier))
+                return authProvider;
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the maximum amount of time a locally-cached session may be used
+     * without verifying that the session is still present within the store.
+     * A session removed from the store by another instance remains usable
+     * locally for at most this long.
+     *
+     * @return
+     *     The maximum amount of time between verifications of any one
+     *     session, in milliseconds.
+     */
+    protected long getRevalidationInterval() {
+        return DEFAULT_REVALIDATION_INTERVAL;
+    }
+
+    /**
+     * Restores the session having the given auth token from the store,
+     * rebuilding its UserContexts and caching the result locally. Concurrent
+     * attempts to restore the same session wait for the first attempt to
+     * complete, while sessions having different auth tokens are restored
+     * independently.
+     *
+     * @param authToken
+     *     The auth token of the session to restore.
+     *
+     * @return
+     *     The restored session, or null if no valid session having the given
+     *     auth token is stored.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading the store or rebuilding the
+     *     session.
+     */
+    private GuacamoleSession restore(String authToken)
+            throws GuacamoleException {
+
+        // The lock is held before being published, such that other threads
+        // can wait on the lock only once this thread owns it
+        Object lock = new Object();
+        synchronized (lock) {
+
+            // Wait for any concurrent restore of the same session, using its
+            // result if successful
+            Object existing;
+            while ((existing = restoreLocks.putIfAbsent(authToken, lock)) != null) {
+
+                synchronized (existing) {
+                    // Owner releases only once its restore is complete
+                }
+
+                GuacamoleSession session = super.get(authToken);
+                if (session != null)
+                    return session;
+
+            }
+
+            try {
+
+                // Use session restored before the lock was acquired, if any
+                GuacamoleSession session = super.get(authToken);
+                if (session != null)
+                    return session;
+
+                return restoreFromStore(authToken);
+
+            }
+            finally {
+                restoreLocks.remove(authToken, lock);
+            }
+
+        }
+
+    }
+
+    /**
+     * Restores the session having the given auth token from the store,
+     * rebuilding its UserContexts and caching the result locally. The caller
+     * must hold the restore lock of the given auth token.
+     *
+     * @param authToken
+     *     The auth token of the session to restore.
+     *
+     * @return
+     *     The restored session, or null if no valid session having the given
+     *     auth token is stored.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading the store or rebuilding the
+     *     session.
+     */
+    private GuacamoleSession restoreFromStore(String authToken)
+            throws GuacamoleException {
+
+        // Ignore sessions which are not stored
+        StoredSession storedSession = sessionStore.get(authToken);
+        if (storedSession == null)
+            return null;
+
+        // Discard stored sessions beyond the session timeout
+        long now = System.currentTimeMillis();
+        if (storedSession.getLastAccessedTime() + getSessionTimeout() <= now) {
+            sessionStore.remove(authToken);
+            return null;
+        }
+
+        // Refuse to restore sessions from unknown providers
+        AuthenticationProvider origin = getAuthenticationProvider(storedSession.getAuthProviderIdentifier());
+        if (origin == null) {
+            logger.debug("Cannot restore session of user \"{}\": Authentication "
+                    + "provider \"{}\" is not loaded.", storedSession.getIdentifier(),
+                    storedSession.getAuthProviderIdentifier());
+            return null;
+        }
+
+        // Refuse to restore sessions whose data is unknown
+        List<String> providerIdentifiers = storedSession.getUserContextProviderIdentifiers();
+        if (providerIdentifiers == null || providerIdentifiers.isEmpty()) {
+            logger.debug("Cannot restore session of user \"{}\": The "
+                    + "session has no recorded data.", storedSession.getIdentifier());
+            return null;
+        }
+
+        AuthenticatedUser authenticatedUser = new RestoredAuthenticatedUser(origin, storedSession.getIdentifier());
+
+        // Rebuild the UserContext of each AuthenticationProvider of the
+        // original session, refusing to restore a session lacking any of
+        // its original data
+        List<UserContext> userContexts = new ArrayList<UserContext>(providerIdentifiers.size());
+        for (String providerIdentifier : providerIdentifiers) {
+
+            AuthenticationProvider authProvider = getAuthenticationProvider(providerIdentifier);
+            if (!(authProvider instanceof RestorableAuthenticationProvider)) {
+                logger.debug("Cannot restore session of user \"{}\": "
+                        + "Authentication provider \"{}\" is not loaded or "
+                        + "cannot restore sessions.", storedSession.getIdentifier(),
+                        providerIdentifier);
+                return null;
+            }
+
+            UserContext userContext = ((RestorableAuthenticationProvider) authProvider).restoreUserContext(authenticatedUser);
+            if (userContext == null) {
+                logger.debug("Cannot restore session of user \"{}\": "
+                        + "Authentication provider \"{}\" could not provide "
+                        + "data for the user.", storedSession.getIdentifier(),
+                        providerIdentifier);
+                return null;
+            }
+
+            userContexts.add(userContext);
+
+        }
+
+        // Cache restored session locally
+        GuacamoleSession session = new GuacamoleSession(environment, authenticatedUser, userContexts);
+        super.put(authToken, session);
+        storedAccessTimes.put(authToken, now);
+        validatedTimes.put(authToken, now);
+        sessionStore.touch(authToken, now);
+
+        logger.debug("Restored session of user \"{}\".", storedSession.getIdentifier());
+        return session;
+
+    }
+
+    @Override
+    public GuacamoleSession get(String authToken) {
+
+        // There are no null auth tokens
+        if (authToken == null)
+            return null;
+
+        try {
+
+            // Restore session from store if not cached locally
+            GuacamoleSession session = super.get(authToken);
+            if (session == null)
+                return restore(authToken);
+
+            long now = System.currentTimeMillis();
+
+            // Periodically verify that the session has not been removed by
+            // another instance, such as due to logout
+            Long validatedTime = validatedTimes.get(authToken);
+            if (validatedTime == null || now - validatedTime >= getRevalidationInterval()) {
+
+                if (sessionStore.get(authToken) == null) {
+                    evict(authToken, session);
+                    return null;
+                }
+
+                validatedTimes.put(authToken, now);
+
+            }
+
+            // Periodically update last access time within store
+            Long storedAccessTime = storedAccessTimes.get(authToken);
+            if (storedAccessTime == null || now - storedAccessTime >= STORE_ACCESS_INTERVAL) {
+                storedAccessTimes.put(authToken, now);
+                sessionStore.touch(authToken, now);
+            }
+
+            return session;
+
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Unable to retrieve session from session store: {}", e.getMessage());
+            logger.debug("Error accessing session store.", e);
+            return null;
+        }
+
+    }
+
+    @Override
+    public void put(String authToken, GuacamoleSession session) {
+
+        super.put(authToken, session);
+
+        // Record the source of each UserContext, noting any which other
+        // instances will be unable to rebuild
+        List<String> providerIdentifiers = new ArrayList<String>();
+        for (UserContext userContext : session.getUserContexts()) {
+
+            String providerIdentifier = userContext.getAuthenticationProvider().getIdentifier();
+            if (!(getAuthenticationProvider(providerIdentifier) instanceof RestorableAuthenticationProvider))
+                logger.debug("Session of user \"{}\" cannot be restored by "
+                        + "other instances: Authentication provider \"{}\" "
+                        + "cannot restore sessions.",
+                        session.getAuthenticatedUser().getIdentifier(),
+                        providerIdentifier);
+
+            providerIdentifiers.add(providerIdentifier);
+
+        }
+
+        // Store metadata of session, even if the session cannot be restored
+        // elsewhere, such that its removal is still visible to all instances
+        AuthenticatedUser authenticatedUser = session.getAuthenticatedUser();
+        long now = System.currentTimeMillis();
+        try {
+            sessionStore.put(authToken, new StoredSession(
+                authenticatedUser.getIdentifier(),
+                authenticatedUser.getAuthenticationProvider().getIdentifier(),
+                providerIdentifiers,
+                now
+            ));
+            storedAccessTimes.put(authToken, now);
+            validatedTimes.put(authToken, now);
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Unable to add session to session store: {}", e.getMessage());
+            logger.debug("Error accessing session store.", e);
+        }
+
+    }
+
+    @Override
+    public GuacamoleSession remove(String authToken) {
+
+        // There are no null auth tokens
+        if (authToken == null)
+            return null;
+
+        // Remove from store, such that other instances cannot restore and
+        // will remove their own copies upon revalidation
+        storedAccessTimes.remove(authToken);
+        validatedTimes.remove(authToken);
+        try {
+            sessionStore.remove(authToken);
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Unable to remove session from session store: {}", e.getMessage());
+            logger.debug("Error accessing session store.", e);
+        }
+
+        return super.remove(authToken);
+
+    }
+
+    /**
+     * Removes and invalidates the locally-cached copy of the given session,
+     * which has been removed from the store by another instance. The session
+     * is not removed from the store again.
+     *
+     * @param authToken
+     *     The auth token of the session to evict.
+     *
+     * @param session
+     *     The locally-cached session to evict.
+     */
+    private void evict(String authToken, GuacamoleSession session) {
+
+        storedAccessTimes.remove(authToken);
+        validatedTimes.remove(authToken);
+
+        // Invalidate only if not already removed locally
+        if (super.remove(authToken) != null) {
+            logger.debug("Session \"{}\" was removed by another instance.", authToken);
+            session.invalidate();
+        }
+
+    }
+
+    @Override
+    protected void sessionExpired(String authToken, GuacamoleSession session) {
+
+        // Only the local copy of the session has expired; the session may
+        // still be in use elsewhere
+        storedAccessTimes.remove(authToken);
+        validatedTimes.remove(authToken);
+
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        sessionStore.shutdown();
+    }
+
+}
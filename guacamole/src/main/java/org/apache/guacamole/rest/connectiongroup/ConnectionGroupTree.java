@@ -23,12 +23,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.ConnectionGroup;
 import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.Identifiable;
 import org.apache.guacamole.net.auth.SharingProfile;
 import org.apache.guacamole.net.auth.User;
 import org.apache.guacamole.net.auth.UserContext;
@@ -97,6 +100,166 @@ public class ConnectionGroupTree {
     private final Map<String, APIConnection> retrievedConnections =
             new HashMap<String, APIConnection>();
 
+    /**
+     * All connection groups visible to the user obtaining this tree, stored
+     * by their identifiers, or null if connection groups are to be retrieved
+     * from their directory only as needed.
+     */
+    private Map<String, ConnectionGroup> loadedConnectionGroups;
+
+    /**
+     * All connections visible to the user obtaining this tree, stored by
+     * their identifiers, or null if connections are to be retrieved from
+     * their directory only as needed.
+     */
+    private Map<String, Connection> loadedConnections;
+
+    /**
+     * All sharing profiles visible to the user obtaining this tree, stored by
+     * their identifiers, or null if sharing profiles are to be retrieved from
+     * their directory only as needed.
+     */
+    private Map<String, SharingProfile> loadedSharingProfiles;
+
+    /**
+     * The identifiers of all loaded connections for which the current user
+     * has any of the requested permissions, or null if connections were not
+     * loaded or are not being filtered by permission.
+     */
+    private Set<String> accessibleConnections;
+
+    /**
+     * The identifiers of all loaded sharing profiles for which the current
+     * user has any of the requested permissions, or null if sharing profiles
+     * were not loaded or are not being filtered by permission.
+     */
+    private Set<String> accessibleSharingProfiles;
+
+    /**
+     * Returns only those of the given identifiers which are present within
+     * the given set of accessible identifiers, if that set is available, and
+     * otherwise queries the given permission set.
+     *
+     * @param permissionSet
+     *     The permission set to query if the accessible identifiers are not
+     *     already known.
+     *
+     * @param accessible
+     *     The identifiers of all objects for which the current user has any
+     *     of the given permissions, or null if not already known.
+     *
+     * @param permissions
+     *     The permissions to filter the identifiers by.
+     *
+     * @param identifiers
+     *     The identifiers to filter.
+     *
+     * @return
+     *     The identifiers of all given objects for which the current user has
+     *     any of the given permissions.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while querying the permission set.
+     */
+    private static Collection<String> filterAccessible(
+            ObjectPermissionSet permissionSet, Set<String> accessible,
+            List<ObjectPermission.Type> permissions,
+            Collection<String> identifiers) throws GuacamoleException {
+
+        // Query the permission set if the accessible objects are not known
+        if (accessible == null)
+            return permissionSet.getAccessibleObjects(permissions, identifiers);
+
+        Collection<String> filtered = new ArrayList<String>(identifiers.size());
+        for (String identifier : identifiers) {
+            if (accessible.contains(identifier))
+                filtered.add(identifier);
+        }
+
+        return filtered;
+
+    }
+
+    /**
+     * Retrieves every object within the given directory, storing each
+     * retrieved object by its identifier. Only two requests are made of the
+     * directory, regardless of the number of objects retrieved.
+     *
+     * @param <ObjectType>
+     *     The type of object stored within the directory.
+     *
+     * @param directory
+     *     The directory whose objects should be retrieved.
+     *
+     * @return
+     *     A new map of all objects within the given directory, where each key
+     *     is the identifier of the corresponding object.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the objects.
+     */
+    private static <ObjectType extends Identifiable> Map<String, ObjectType>
+        loadAll(Directory<ObjectType> directory) throws GuacamoleException {
+
+        Map<String, ObjectType> objects = new HashMap<String, ObjectType>();
+
+        // Retrieve all objects at once
+        Collection<String> identifiers = directory.getIdentifiers();
+        if (!identifiers.isEmpty()) {
+            for (ObjectType object : directory.getAll(identifiers))
+                objects.put(object.getIdentifier(), object);
+        }
+
+        return objects;
+
+    }
+
+    /**
+     * Returns the objects having the given identifiers, using the given map
+     * of previously-loaded objects if available, and retrieving those objects
+     * from the given directory otherwise.
+     *
+     * @param <ObjectType>
+     *     The type of object being retrieved.
+     *
+     * @param directory
+     *     The directory to retrieve the objects from, if they have not already
+     *     been loaded.
+     *
+     * @param loaded
+     *     All objects which have already been loaded from the given directory,
+     *     stored by their identifiers, or null if no objects have been loaded.
+     *
+     * @param identifiers
+     *     The identifiers of the objects to retrieve.
+     *
+     * @return
+     *     All objects having the given identifiers which exist and are visible
+     *     to the user obtaining this tree.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the objects.
+     */
+    private static <ObjectType extends Identifiable> Collection<ObjectType> getAll(
+            Directory<ObjectType> directory, Map<String, ObjectType> loaded,
+            Collection<String> identifiers) throws GuacamoleException {
+
+        // Query the directory if nothing has been loaded
+        if (loaded == null)
+            return directory.getAll(identifiers);
+
+        // Otherwise, pull only those objects which were loaded
+        Collection<ObjectType> objects = new ArrayList<ObjectType>(identifiers.size());
+        for (String identifier : identifiers) {
+            ObjectType object = loaded.get(identifier);
+            if (object != null)
+                objects.add(object);
+        }
+
+        return objects;
+
+    }
+
     /**
      * Adds each of the provided connections to the current tree as children
      * of their respective parents. The parent connection groups must already
@@ -268,19 +431,21 @@ public class ConnectionGroupTree {
 
         // Filter identifiers based on permissions, if requested
         if (permissions != null && !permissions.isEmpty())
-            childConnectionIdentifiers = connectionPermissions.getAccessibleObjects(
-                    permissions, childConnectionIdentifiers);
+            childConnectionIdentifiers = filterAccessible(connectionPermissions,
+                    accessibleConnections, permissions, childConnectionIdentifiers);
         
         // Retrieve child connections
         if (!childConnectionIdentifiers.isEmpty()) {
-            Collection<Connection> childConnections = connectionDirectory.getAll(childConnectionIdentifiers);
+            Collection<Connection> childConnections = getAll(connectionDirectory,
+                    loadedConnections, childConnectionIdentifiers);
             addConnections(childConnections);
             addConnectionDescendants(childConnections, permissions);
         }
 
         // Retrieve child connection groups
         if (!childConnectionGroupIdentifiers.isEmpty()) {
-            Collection<ConnectionGroup> childConnectionGroups = connectionGroupDirectory.getAll(childConnectionGroupIdentifiers);
+            Collection<ConnectionGroup> childConnectionGroups = getAll(connectionGroupDirectory,
+                    loadedConnectionGroups, childConnectionGroupIdentifiers);
             addConnectionGroups(childConnectionGroups);
             addConnectionGroupDescendants(childConnectionGroups, permissions);
         }
@@ -318,12 +483,13 @@ public class ConnectionGroupTree {
 
         // Filter identifiers based on permissions, if requested
         if (permissions != null && !permissions.isEmpty())
-            identifiers = sharingProfilePermissions.getAccessibleObjects(
-                    permissions, identifiers);
+            identifiers = filterAccessible(sharingProfilePermissions,
+                    accessibleSharingProfiles, permissions, identifiers);
 
         // Retrieve and add all associated sharing profiles
         if (!identifiers.isEmpty()) {
-            Collection<SharingProfile> sharingProfiles = sharingProfileDirectory.getAll(identifiers);
+            Collection<SharingProfile> sharingProfiles = getAll(sharingProfileDirectory,
+                    loadedSharingProfiles, identifiers);
             addSharingProfiles(sharingProfiles);
         }
 
@@ -367,6 +533,26 @@ public class ConnectionGroupTree {
         this.connectionGroupDirectory = userContext.getConnectionGroupDirectory();
         this.sharingProfileDirectory = userContext.getSharingProfileDirectory();
 
+        // If the tree is rooted at the root group, it will likely contain
+        // everything visible, in which case a constant number of requests
+        // for everything is cheaper than a few requests per level
+        String rootIdentifier = userContext.getRootConnectionGroup().getIdentifier();
+        if (rootIdentifier != null && rootIdentifier.equals(root.getIdentifier())) {
+            loadedConnectionGroups = loadAll(connectionGroupDirectory);
+            loadedConnections = loadAll(connectionDirectory);
+            loadedSharingProfiles = loadAll(sharingProfileDirectory);
+
+            // Filter everything loaded by permission at once, rather than
+            // once per level of the tree
+            if (permissions != null && !permissions.isEmpty()) {
+                accessibleConnections = new HashSet<String>(connectionPermissions.getAccessibleObjects(
+                        permissions, loadedConnections.keySet()));
+                accessibleSharingProfiles = new HashSet<String>(sharingProfilePermissions.getAccessibleObjects(
+                        permissions, loadedSharingProfiles.keySet()));
+            }
+
+        }
+
         // Add all descendants
         addConnectionGroupDescendants(Collections.singleton(root), permissions);
         
@@ -19,10 +19,16 @@
 
 package org.apache.guacamole.rest.directory;
 
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -31,12 +37,15 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.GuacamoleUnsupportedException;
 import org.apache.guacamole.net.auth.Directory;
 import org.apache.guacamole.net.auth.Identifiable;
+import org.apache.guacamole.net.auth.PageableDirectory;
 import org.apache.guacamole.net.auth.User;
 import org.apache.guacamole.net.auth.UserContext;
 import org.apache.guacamole.net.auth.permission.ObjectPermission;
@@ -45,6 +54,10 @@ import org.apache.guacamole.net.auth.permission.SystemPermission;
 import org.apache.guacamole.net.auth.permission.SystemPermissionSet;
 import org.apache.guacamole.rest.APIPatch;
 import org.apache.guacamole.rest.PATCH;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.jaxrs.JacksonJsonProvider;
+import org.codehaus.jackson.map.ObjectMapper;
 
 /**
  * A REST resource which abstracts the operations available on all Guacamole
@@ -93,6 +106,25 @@ public abstract class DirectoryResource<InternalType extends Identifiable, Exter
      */
     private final DirectoryObjectResourceFactory<InternalType, ExternalType> resourceFactory;
 
+    /**
+     * The number of objects included within each page of objects if no
+     * limit is specified.
+     */
+    private static final int DEFAULT_PAGE_LENGTH = 100;
+
+    /**
+     * The maximum number of objects which may be included within a single
+     * page of objects. Larger limits are reduced to this value.
+     */
+    private static final int MAX_PAGE_LENGTH = 1000;
+
+    /**
+     * The JAX-RS provider which serializes all other JSON responses, and
+     * whose mapper is used to write each object within a page of objects.
+     */
+    @Inject
+    private JacksonJsonProvider jsonProvider;
+
     /**
      * Creates a new DirectoryResource which exposes the operations available
      * for the given Directory.
@@ -121,45 +153,239 @@ public abstract class DirectoryResource<InternalType extends Identifiable, Exter
     }
 
     /**
-     * Returns a map of all objects available within this DirectoryResource,
-     * filtering the returned map by the given permission, if specified.
+     * Returns the given identifiers, filtered by the given permissions, if
+     * specified. Identifiers are not filtered if the current user is an
+     * administrator, as administrators have access to all objects.
+     *
+     * @param identifiers
+     *     The identifiers to filter.
+     *
+     * @param permissions
+     *     The set of permissions to filter with. A user must have one or more
+     *     of these permissions for the affected objects to be included. If
+     *     null, no filtering will be performed.
+     *
+     * @return
+     *     The identifiers of all given objects for which the current user has
+     *     any of the given permissions.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the permissions of the current
+     *     user.
+     */
+    private Collection<String> filterIdentifiers(Collection<String> identifiers,
+            List<ObjectPermission.Type> permissions) throws GuacamoleException {
+
+        // Do not filter if no permissions were specified
+        if (permissions == null || permissions.isEmpty())
+            return identifiers;
+
+        // An admin user has access to all objects
+        User self = userContext.self();
+        SystemPermissionSet systemPermissions = self.getSystemPermissions();
+        if (systemPermissions.hasPermission(SystemPermission.Type.ADMINISTER))
+            return identifiers;
+
+        ObjectPermissionSet objectPermissions = self.getUserPermissions();
+        return objectPermissions.getAccessibleObjects(permissions, identifiers);
+
+    }
+
+    /**
+     * Returns the identifiers of the objects within the underlying Directory
+     * which follow the given identifier, in order. If the underlying
+     * Directory is a PageableDirectory, the requested page is retrieved
+     * directly. Otherwise, all identifiers are retrieved and sorted.
+     *
+     * @param after
+     *     The identifier that all returned identifiers must follow, or null
+     *     to return identifiers starting with the first.
+     *
+     * @param prefix
+     *     The value that the names of all objects whose identifiers are
+     *     returned must begin with, or null if names should not be filtered.
+     *
+     * @param limit
+     *     The maximum number of identifiers to return.
+     *
+     * @return
+     *     The identifiers of the requested page of objects, in order.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the identifiers, or if names
+     *     must be filtered but the underlying Directory does not support
+     *     this.
+     */
+    private List<String> getIdentifierPage(String after, String prefix,
+            int limit) throws GuacamoleException {
+
+        // Retrieve only the requested page, if possible
+        if (directory instanceof PageableDirectory)
+            return ((PageableDirectory<InternalType>) directory).getIdentifiers(after, prefix, limit);
+
+        // Names are not available without retrieving every object
+        if (prefix != null)
+            throw new GuacamoleUnsupportedException("Filtering by name is "
+                    + "not supported for this directory.");
+
+        // Otherwise, sort all identifiers, skipping those already seen
+        NavigableSet<String> identifiers = new TreeSet<String>(directory.getIdentifiers());
+        if (after != null)
+            identifiers = identifiers.tailSet(after, false);
+
+        // Include only the requested number of identifiers
+        List<String> page = new ArrayList<String>(Math.min(limit, identifiers.size()));
+        for (String identifier : identifiers) {
+            if (page.size() >= limit)
+                break;
+            page.add(identifier);
+        }
+
+        return page;
+
+    }
+
+    /**
+     * Returns the objects available within this DirectoryResource, filtering
+     * the returned objects by the given permission, if specified. The shape
+     * of the response depends on whether a page of objects is requested:
+     *
+     * <ul>
+     *     <li>If none of the "limit", "after", or "prefix" parameters are
+     *     given, all objects are returned as a JSON object mapping the
+     *     identifier of each object to that object, as in earlier versions
+     *     of the REST API.</li>
+     *
+     *     <li>If any of those parameters are given, the objects within the
+     *     requested page are returned as a JSON array, ordered by
+     *     identifier, such that the identifier of the last object may be
+     *     given as "after" to request the next page. A page shorter than the
+     *     requested limit is the last page.</li>
+     * </ul>
      *
      * @param permissions
      *     The set of permissions to filter with. A user must have one or more
      *     of these permissions for the affected objects to appear in the
      *     result. If null, no filtering will be performed.
      *
+     * @param limit
+     *     The maximum number of objects to return within the requested page,
+     *     or null if no page is requested or the default page length should
+     *     be used.
+     *
+     * @param after
+     *     The identifier that all objects within the requested page must
+     *     follow, or null if no page is requested or the requested page is
+     *     the first.
+     *
+     * @param prefix
+     *     The value that the names of all objects within the requested page
+     *     must begin with, or null if no page is requested or names should
+     *     not be filtered.
+     *
      * @return
-     *     A map of all visible objects. If a permission was specified, this
-     *     map will contain only those objects for which the current user has
-     *     that permission.
+     *     A response containing either a map of all visible objects or a
+     *     JSON array of the visible objects within the requested page. If a
+     *     permission was specified, only those objects for which the current
+     *     user has that permission are included.
      *
      * @throws GuacamoleException
-     *     If an error is encountered while retrieving the objects.
+     *     If an error is encountered while retrieving the objects, or if the
+     *     requested page is invalid.
      */
     @GET
-    public Map<String, ExternalType> getObjects(
-            @QueryParam("permission") List<ObjectPermission.Type> permissions)
+    public Response getObjects(
+            @QueryParam("permission") List<ObjectPermission.Type> permissions,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after,
+            @QueryParam("prefix") String prefix)
             throws GuacamoleException {
 
-        // An admin user has access to all objects
-        User self = userContext.self();
-        SystemPermissionSet systemPermissions = self.getSystemPermissions();
-        boolean isAdmin = systemPermissions.hasPermission(SystemPermission.Type.ADMINISTER);
+        // Return all objects at once if no page is requested
+        if (limit == null && after == null && prefix == null) {
+
+            // Filter objects, if requested
+            Collection<String> identifiers = filterIdentifiers(
+                    directory.getIdentifiers(), permissions);
+
+            // Translate each retrieved object into the corresponding external object
+            Map<String, ExternalType> apiObjects = new HashMap<String, ExternalType>();
+            for (InternalType object : directory.getAll(identifiers))
+                apiObjects.put(object.getIdentifier(), translator.toExternalObject(object));
+
+            return Response.ok(apiObjects).build();
+
+        }
+
+        // Validate requested page length
+        if (limit == null)
+            limit = DEFAULT_PAGE_LENGTH;
+        else if (limit <= 0)
+            throw new GuacamoleClientException("The page limit must be positive.");
+        else if (limit > MAX_PAGE_LENGTH)
+            limit = MAX_PAGE_LENGTH;
+
+        // Determine which objects are in the requested page, continuing past
+        // the end of each retrieved page if objects are filtered out
+        List<String> identifiers = new ArrayList<String>(limit);
+        String cursor = after;
+        while (identifiers.size() < limit) {
+
+            List<String> page = getIdentifierPage(cursor, prefix, limit);
+            if (page.isEmpty())
+                break;
+
+            for (String identifier : filterIdentifiers(page, permissions)) {
+                if (identifiers.size() >= limit)
+                    break;
+                identifiers.add(identifier);
+            }
+
+            // Stop once all pages have been retrieved
+            if (page.size() < limit)
+                break;
+
+            cursor = page.get(page.size() - 1);
 
-        // Filter objects, if requested
-        Collection<String> identifiers = directory.getIdentifiers();
-        if (!isAdmin && permissions != null && !permissions.isEmpty()) {
-            ObjectPermissionSet objectPermissions = self.getUserPermissions();
-            identifiers = objectPermissions.getAccessibleObjects(permissions, identifiers);
         }
 
-        // Translate each retrieved object into the corresponding external object
-        Map<String, ExternalType> apiObjects = new HashMap<String, ExternalType>();
+        // Retrieve and translate all objects within the page before the
+        // response is committed, such that any failure is reported as a
+        // normal error response. Retrieved objects may be in any order.
+        Map<String, InternalType> objects = new HashMap<String, InternalType>();
         for (InternalType object : directory.getAll(identifiers))
-            apiObjects.put(object.getIdentifier(), translator.toExternalObject(object));
+            objects.put(object.getIdentifier(), object);
+
+        // Order objects as defined by their identifiers
+        final List<ExternalType> apiObjects = new ArrayList<ExternalType>(objects.size());
+        for (String identifier : identifiers) {
+            InternalType object = objects.get(identifier);
+            if (object != null)
+                apiObjects.add(translator.toExternalObject(object));
+        }
+
+        // Write each object individually, rather than as a whole, using the
+        // same configuration as any other JSON response
+        final ObjectMapper mapper = jsonProvider.locateMapper(List.class,
+                MediaType.APPLICATION_JSON_TYPE);
+
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException {
+
+                JsonGenerator json = mapper.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+                json.writeStartArray();
+                for (ExternalType apiObject : apiObjects)
+                    mapper.writeValue(json, apiObject);
+                json.writeEndArray();
+                json.flush();
+
+            }
+
+        };
 
-        return apiObjects;
+        return Response.ok(stream, MediaType.APPLICATION_JSON).build();
 
     }
 
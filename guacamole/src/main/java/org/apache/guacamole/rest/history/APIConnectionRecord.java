@@ -75,6 +75,12 @@ public class APIConnectionRecord {
      */
     private final boolean active;
 
+    /**
+     * The cursor which may be used to retrieve the records following this
+     * record, or null if no such cursor is available.
+     */
+    private final String cursor;
+
     /**
      * Creates a new APIConnectionRecord, copying the data from the given
      * record.
@@ -83,6 +89,21 @@ public class APIConnectionRecord {
      *     The record to copy data from.
      */
     public APIConnectionRecord(ConnectionRecord record) {
+        this(record, null);
+    }
+
+    /**
+     * Creates a new APIConnectionRecord, copying the data from the given
+     * record and associating it with the given cursor.
+     *
+     * @param record
+     *     The record to copy data from.
+     *
+     * @param cursor
+     *     The cursor which may be used to retrieve the records following the
+     *     given record, or null if no such cursor is available.
+     */
+    public APIConnectionRecord(ConnectionRecord record, String cursor) {
         this.connectionIdentifier     = record.getConnectionIdentifier();
         this.connectionName           = record.getConnectionName();
         this.sharingProfileIdentifier = record.getSharingProfileIdentifier();
@@ -92,6 +113,7 @@ public class APIConnectionRecord {
         this.remoteHost               = record.getRemoteHost();
         this.username                 = record.getUsername();
         this.active                   = record.isActive();
+        this.cursor                   = cursor;
     }
 
     /**
@@ -195,4 +217,16 @@ public class APIConnectionRecord {
         return active;
     }
 
+    /**
+     * Returns the cursor which may be used to retrieve the records following
+     * this record, if available.
+     *
+     * @return
+     *     The cursor which may be used to retrieve the records following this
+     *     record, or null if no such cursor is available.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
 }
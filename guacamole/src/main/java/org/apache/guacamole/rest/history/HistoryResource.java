@@ -27,9 +27,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUnsupportedException;
 import org.apache.guacamole.net.auth.ConnectionRecord;
 import org.apache.guacamole.net.auth.ConnectionRecordSet;
+import org.apache.guacamole.net.auth.PageableConnectionRecordSet;
 import org.apache.guacamole.net.auth.UserContext;
 
 /**
@@ -79,18 +82,31 @@ public class HistoryResource {
      *     records, describing the properties involved and the sort order for
      *     those properties.
      *
+     * @param limit
+     *     The maximum number of records to return, or null to return the
+     *     maximum number of records allowed in any one response.
+     *
+     * @param after
+     *     The cursor of the last record already retrieved, such that only
+     *     records following that record are returned, or null if records
+     *     should be returned starting with the first.
+     *
      * @return
      *     A list of connection records, describing the start and end times of
      *     various usages of this connection.
      *
      * @throws GuacamoleException
-     *     If an error occurs while retrieving the connection history.
+     *     If an error occurs while retrieving the connection history, or if
+     *     a cursor is given but the connection history cannot be retrieved
+     *     one page at a time.
      */
     @GET
     @Path("connections")
     public List<APIConnectionRecord> getConnectionHistory(
             @QueryParam("contains") List<String> requiredContents,
-            @QueryParam("order") List<APIConnectionRecordSortPredicate> sortPredicates)
+            @QueryParam("order") List<APIConnectionRecordSortPredicate> sortPredicates,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after)
             throws GuacamoleException {
 
         // Retrieve overall connection history
@@ -106,13 +122,34 @@ public class HistoryResource {
         for (APIConnectionRecordSortPredicate predicate : sortPredicates)
             history = history.sort(predicate.getProperty(), predicate.isDescending());
 
-        // Limit to maximum result size
-        history = history.limit(MAXIMUM_HISTORY_SIZE);
+        // Continue from the given cursor, if any
+        PageableConnectionRecordSet pageableHistory = null;
+        if (history instanceof PageableConnectionRecordSet) {
+            pageableHistory = (PageableConnectionRecordSet) history;
+            if (after != null)
+                history = pageableHistory = pageableHistory.after(after);
+        }
+        else if (after != null)
+            throw new GuacamoleUnsupportedException("Connection history "
+                    + "cannot be retrieved one page at a time.");
 
-        // Convert record set to collection of API connection records
+        // Limit to requested result size, never exceeding the maximum
+        if (limit != null && limit <= 0)
+            throw new GuacamoleClientException("The history limit must be positive.");
+        else if (limit != null && limit < MAXIMUM_HISTORY_SIZE)
+            history = history.limit(limit);
+        else
+            history = history.limit(MAXIMUM_HISTORY_SIZE);
+
+        // Convert record set to collection of API connection records,
+        // including the cursor of each record if available
         List<APIConnectionRecord> apiRecords = new ArrayList<APIConnectionRecord>();
-        for (ConnectionRecord record : history.asCollection())
-            apiRecords.add(new APIConnectionRecord(record));
+        for (ConnectionRecord record : history.asCollection()) {
+            String cursor = null;
+            if (pageableHistory != null)
+                cursor = pageableHistory.getCursor(record);
+            apiRecords.add(new APIConnectionRecord(record, cursor));
+        }
 
         // Return the converted history
         return apiRecords;
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.rest.metrics;
+
+import java.util.Map;
+import org.apache.guacamole.metrics.TunnelMetricsMXBean;
+
+/**
+ * A snapshot of the metrics of a single tunnel, or of all tunnels, which may
+ * be freely serialized to JSON. All durations are in microseconds.
+ */
+public class APITunnelMetrics {
+
+    /**
+     * The UUID of the tunnel measured, or null if all tunnels were measured.
+     */
+    private final String tunnelUUID;
+
+    /**
+     * The time at which measurement began, in milliseconds since midnight of
+     * January 1, 1970 UTC.
+     */
+    private final long startTime;
+
+    /**
+     * The total amount of data sent to the client.
+     */
+    private final long bytesSent;
+
+    /**
+     * The amount of data sent to the client during the most recent complete
+     * second.
+     */
+    private final long bytesSentRate;
+
+    /**
+     * The total amount of data received from the client.
+     */
+    private final long bytesReceived;
+
+    /**
+     * The amount of data received from the client during the most recent
+     * complete second.
+     */
+    private final long bytesReceivedRate;
+
+    /**
+     * The total number of instructions sent to the client.
+     */
+    private final long instructionsSent;
+
+    /**
+     * The number of instructions sent to the client during the most recent
+     * complete second.
+     */
+    private final long instructionRate;
+
+    /**
+     * The total number of instructions sent to the client, by opcode.
+     */
+    private final Map<String, Long> instructionCounts;
+
+    /**
+     * The number of instructions sent to the client during the most recent
+     * complete second, by opcode.
+     */
+    private final Map<String, Long> instructionRates;
+
+    /**
+     * The number of times data was flushed to the client.
+     */
+    private final long flushes;
+
+    /**
+     * The mean time between data being read from guacd and that data being
+     * flushed to the client.
+     */
+    private final double flushLatencyMean;
+
+    /**
+     * The approximate 99th percentile of the time between data being read
+     * from guacd and that data being flushed to the client.
+     */
+    private final long flushLatency99;
+
+    /**
+     * The maximum time between data being read from guacd and that data
+     * being flushed to the client.
+     */
+    private final long flushLatencyMax;
+
+    /**
+     * The mean time spent waiting to acquire the tunnel for reading.
+     */
+    private final double readerWaitMean;
+
+    /**
+     * The maximum time spent waiting to acquire the tunnel for reading.
+     */
+    private final long readerWaitMax;
+
+    /**
+     * The mean time spent waiting to acquire the tunnel for writing.
+     */
+    private final double writerWaitMean;
+
+    /**
+     * The maximum time spent waiting to acquire the tunnel for writing.
+     */
+    private final long writerWaitMax;
+
+    /**
+     * Creates a new APITunnelMetrics containing the current values of the
+     * given metrics.
+     *
+     * @param metrics
+     *     The metrics to copy.
+     */
+    public APITunnelMetrics(TunnelMetricsMXBean metrics) {
+        this.tunnelUUID        = metrics.getTunnelUUID();
+        this.startTime         = metrics.getStartTime();
+        this.bytesSent         = metrics.getBytesSent();
+        this.bytesSentRate     = metrics.getBytesSentRate();
+        this.bytesReceived     = metrics.getBytesReceived();
+        this.bytesReceivedRate = metrics.getBytesReceivedRate();
+        this.instructionsSent  = metrics.getInstructionsSent();
+        this.instructionRate   = metrics.getInstructionRate();
+        this.instructionCounts = metrics.getInstructionCounts();
+        this.instructionRates  = metrics.getInstructionRates();
+        this.flushes           = metrics.getFlushes();
+        this.flushLatencyMean  = metrics.getFlushLatencyMean();
+        this.flushLatency99    = metrics.getFlushLatency99();
+        this.flushLatencyMax   = metrics.getFlushLatencyMax();
+        this.readerWaitMean    = metrics.getReaderWaitMean();
+        this.readerWaitMax     = metrics.getReaderWaitMax();
+        this.writerWaitMean    = metrics.getWriterWaitMean();
+        this.writerWaitMax     = metrics.getWriterWaitMax();
+    }
+
+    /**
+     * Returns the UUID of the tunnel measured.
+     *
+     * @return
+     *     The UUID of the tunnel measured, or null if all tunnels were
+     *     measured.
+     */
+    public String getTunnelUUID() {
+        return tunnelUUID;
+    }
+
+    /**
+     * Returns the time at which measurement began.
+     *
+     * @return
+     *     The time at which measurement began, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the total amount of data sent to the client.
+     *
+     * @return
+     *     The total amount of data sent to the client.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the amount of data sent to the client during the most recent
+     * complete second.
+     *
+     * @return
+     *     The amount of data sent to the client during the most recent
+     *     complete second.
+     */
+    public long getBytesSentRate() {
+        return bytesSentRate;
+    }
+
+    /**
+     * Returns the total amount of data received from the client.
+     *
+     * @return
+     *     The total amount of data received from the client.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the amount of data received from the client during the most
+     * recent complete second.
+     *
+     * @return
+     *     The amount of data received from the client during the most recent
+     *     complete second.
+     */
+    public long getBytesReceivedRate() {
+        return bytesReceivedRate;
+    }
+
+    /**
+     * Returns the total number of instructions sent to the client.
+     *
+     * @return
+     *     The total number of instructions sent to the client.
+     */
+    public long getInstructionsSent() {
+        return instructionsSent;
+    }
+
+    /**
+     * Returns the number of instructions sent to the client during the most
+     * recent complete second.
+     *
+     * @return
+     *     The number of instructions sent to the client during the most
+     *     recent complete second.
+     */
+    public long getInstructionRate() {
+        return instructionRate;
+    }
+
+    /**
+     * Returns the total number of instructions sent to the client, by
+     * opcode.
+     *
+     * @return
+     *     A map of opcode to the total number of instructions having that
+     *     opcode which were sent to the client.
+     */
+    public Map<String, Long> getInstructionCounts() {
+        return instructionCounts;
+    }
+
+    /**
+     * Returns the number of instructions sent to the client during the most
+     * recent complete second, by opcode.
+     *
+     * @return
+     *     A map of opcode to the number of instructions having that opcode
+     *     which were sent to the client during the most recent complete
+     *     second.
+     */
+    public Map<String, Long> getInstructionRates() {
+        return instructionRates;
+    }
+
+    /**
+     * Returns the number of times data was flushed to the client.
+     *
+     * @return
+     *     The number of times data was flushed to the client.
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Returns the mean time between data being read from guacd and that data
+     * being flushed to the client.
+     *
+     * @return
+     *     The mean time between data being read from guacd and that data
+     *     being flushed to the client, in microseconds.
+     */
+    public double getFlushLatencyMean() {
+        return flushLatencyMean;
+    }
+
+    /**
+     * Returns the approximate 99th percentile of the time between data being
+     * read from guacd and that data being flushed to the client.
+     *
+     * @return
+     *     The approximate 99th percentile of the time between data being read
+     *     from guacd and that data being flushed to the client, in
+     *     microseconds.
+     */
+    public long getFlushLatency99() {
+        return flushLatency99;
+    }
+
+    /**
+     * Returns the maximum time between data being read from guacd and that
+     * data being flushed to the client.
+     *
+     * @return
+     *     The maximum time between data being read from guacd and that data
+     *     being flushed to the client, in microseconds.
+     */
+    public long getFlushLatencyMax() {
+        return flushLatencyMax;
+    }
+
+    /**
+     * Returns the mean time spent waiting to acquire the tunnel for reading.
+     *
+     * @return
+     *     The mean time spent waiting to acquire the tunnel for reading, in
+     *     microseconds.
+     */
+    public double getReaderWaitMean() {
+        return readerWaitMean;
+    }
+
+    /**
+     * Returns the maximum time spent waiting to acquire the tunnel for
+     * reading.
+     *
+     * @return
+     *     The maximum time spent waiting to acquire the tunnel for reading,
+     *     in microseconds.
+     */
+    public long getReaderWaitMax() {
+        return readerWaitMax;
+    }
+
+    /**
+     * Returns the mean time spent waiting to acquire the tunnel for writing.
+     *
+     * @return
+     *     The mean time spent waiting to acquire the tunnel for writing, in
+     *     microseconds.
+     */
+    public double getWriterWaitMean() {
+        return writerWaitMean;
+    }
+
+    /**
+     * Returns the maximum time spent waiting to acquire the tunnel for
+     * writing.
+     *
+     * @return
+     *     The maximum time spent waiting to acquire the tunnel for writing,
+     *     in microseconds.
+     */
+    public long getWriterWaitMax() {
+        return writerWaitMax;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.rest.metrics;
+
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleSecurityException;
+import org.apache.guacamole.GuacamoleSession;
+import org.apache.guacamole.metrics.TunnelMetrics;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.net.auth.permission.SystemPermission;
+import org.apache.guacamole.rest.auth.AuthenticationService;
+
+/**
+ * A REST service which exposes the metrics of all tunnels open on this
+ * Guacamole instance. Only system administrators may retrieve these metrics.
+ */
+@Path("/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+public class MetricsRESTService {
+
+    /**
+     * A service for authenticating users from auth tokens.
+     */
+    @Inject
+    private AuthenticationService authenticationService;
+
+    /**
+     * Verifies that the user associated with the given authentication token
+     * has system administration permission within at least one of their
+     * user contexts.
+     *
+     * @param authToken
+     *     The authentication token of the user requesting metrics.
+     *
+     * @throws GuacamoleException
+     *     If the authentication token is invalid, or the user lacks
+     *     permission to retrieve metrics.
+     */
+    private void checkAdministrator(String authToken)
+            throws GuacamoleException {
+
+        GuacamoleSession session = authenticationService.getGuacamoleSession(authToken);
+
+        for (UserContext userContext : session.getUserContexts()) {
+            if (userContext.self().getSystemPermissions()
+                    .hasPermission(SystemPermission.Type.ADMINISTER))
+                return;
+        }
+
+        throw new GuacamoleSecurityException("Permission denied.");
+
+    }
+
+    /**
+     * Returns the metrics of all tunnels open on this Guacamole instance,
+     * combined.
+     *
+     * @param authToken
+     *     The authentication token that is used to authenticate the user
+     *     performing the operation.
+     *
+     * @return
+     *     The metrics of all tunnels combined.
+     *
+     * @throws GuacamoleException
+     *     If the user lacks permission to retrieve metrics.
+     */
+    @GET
+    public APITunnelMetrics getGlobalMetrics(@QueryParam("token") String authToken)
+            throws GuacamoleException {
+
+        checkAdministrator(authToken);
+        return new APITunnelMetrics(TunnelMetricsRegistry.getGlobalMetrics());
+
+    }
+
+    /**
+     * Returns the metrics of each tunnel open on this Guacamole instance,
+     * ordered by the amount of data sent to the client during the most recent
+     * complete second, busiest first.
+     *
+     * @param authToken
+     *     The authentication token that is used to authenticate the user
+     *     performing the operation.
+     *
+     * @return
+     *     The metrics of each open tunnel, busiest first.
+     *
+     * @throws GuacamoleException
+     *     If the user lacks permission to retrieve metrics.
+     */
+    @GET
+    @Path("tunnels")
+    public List<APITunnelMetrics> getTunnelMetrics(@QueryParam("token") String authToken)
+            throws GuacamoleException {
+
+        checkAdministrator(authToken);
+
+        // Snapshot metrics of all open tunnels
+        List<APITunnelMetrics> apiMetrics = new ArrayList<APITunnelMetrics>();
+        for (TunnelMetrics metrics : TunnelMetricsRegistry.getAllMetrics())
+            apiMetrics.add(new APITunnelMetrics(metrics));
+
+        // List busiest tunnels first
+        Collections.sort(apiMetrics, new Comparator<APITunnelMetrics>() {
+
+            @Override
+            public int compare(APITunnelMetrics a, APITunnelMetrics b) {
+                long difference = b.getBytesSentRate() - a.getBytesSentRate();
+                return difference > 0 ? 1 : (difference < 0 ? -1 : 0);
+            }
+
+        });
+
+        return apiMetrics;
+
+    }
+
+}
@@ -111,6 +111,10 @@ public class StreamResource {
         if (mediaType.equals(MediaType.APPLICATION_OCTET_STREAM))
             responseBuilder.header("Content-Disposition", "attachment");
 
+        // Intercepted streams can be read only once, from the beginning, and
+        // thus cannot be resumed
+        responseBuilder.header("Accept-Ranges", "none");
+
         return responseBuilder.build();
 
     }
@@ -24,6 +24,7 @@ import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -31,11 +32,13 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.metrics.TunnelMetricsRegistry;
 import org.apache.guacamole.net.auth.ActiveConnection;
 import org.apache.guacamole.net.auth.UserContext;
 import org.apache.guacamole.rest.activeconnection.APIActiveConnection;
 import org.apache.guacamole.rest.directory.DirectoryObjectResource;
 import org.apache.guacamole.rest.directory.DirectoryObjectResourceFactory;
+import org.apache.guacamole.rest.metrics.APITunnelMetrics;
 import org.apache.guacamole.tunnel.UserTunnel;
 
 /**
@@ -108,6 +111,19 @@ public class TunnelResource {
 
     }
 
+    /**
+     * Returns the current metrics of this tunnel, including throughput,
+     * latency and backlog measurements.
+     *
+     * @return
+     *     The current metrics of this tunnel.
+     */
+    @GET
+    @Path("metrics")
+    public APITunnelMetrics getMetrics() {
+        return new APITunnelMetrics(TunnelMetricsRegistry.getMetrics(tunnel));
+    }
+
     /**
      * Intercepts and returns the entire contents of a specific stream.
      *
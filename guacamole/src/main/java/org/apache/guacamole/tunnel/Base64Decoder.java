@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.tunnel;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decoder which decodes base64 data directly into a reusable internal
+ * buffer, avoiding the allocation of a new array for each decoded blob. Each
+ * Base64Decoder is intended for use by a single thread at a time.
+ */
+class Base64Decoder {
+
+    /**
+     * The value of each character of the base64 alphabet, indexed by
+     * character. Characters outside the alphabet have the value -1.
+     */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+
+        Arrays.fill(VALUES, (byte) -1);
+
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                        + "abcdefghijklmnopqrstuvwxyz"
+                        + "0123456789+/";
+
+        for (int i = 0; i < alphabet.length(); i++)
+            VALUES[alphabet.charAt(i)] = (byte) i;
+
+    }
+
+    /**
+     * The buffer into which data is decoded. This buffer grows as necessary
+     * and is reused for all subsequent decodes.
+     */
+    private byte[] buffer = new byte[0];
+
+    /**
+     * Returns the six-bit value of the given base64 character.
+     *
+     * @param c
+     *     The base64 character to decode.
+     *
+     * @return
+     *     The six-bit value of the given character.
+     *
+     * @throws IllegalArgumentException
+     *     If the given character is not part of the base64 alphabet.
+     */
+    private static int valueOf(char c) throws IllegalArgumentException {
+
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value == -1)
+            throw new IllegalArgumentException("Invalid base64 character: " + (int) c);
+
+        return value;
+
+    }
+
+    /**
+     * Decodes the given base64 data, returning a ByteBuffer containing the
+     * decoded bytes. The returned ByteBuffer is a view of the internal buffer
+     * of this Base64Decoder, and is thus valid only until the next call to
+     * decode().
+     *
+     * @param data
+     *     The base64 data to decode. Padding is optional.
+     *
+     * @return
+     *     A ByteBuffer containing the decoded bytes, positioned at the first
+     *     byte and limited to the number of bytes decoded.
+     *
+     * @throws IllegalArgumentException
+     *     If the given data is not valid base64.
+     */
+    public ByteBuffer decode(String data) throws IllegalArgumentException {
+
+        // Ignore padding, which carries no data
+        int end = data.length();
+        while (end > 0 && data.charAt(end - 1) == '=')
+            end--;
+
+        // A single trailing character cannot encode a full byte
+        if (end % 4 == 1)
+            throw new IllegalArgumentException("Truncated base64 data.");
+
+        // Grow buffer only if too small for the decoded data
+        int length = end / 4 * 3 + Math.max(0, end % 4 - 1);
+        if (buffer.length < length)
+            buffer = new byte[length];
+
+        int position = 0;
+        int i = 0;
+
+        // Decode each complete group of four characters
+        for (; i + 4 <= end; i += 4) {
+
+            int bits = (valueOf(data.charAt(i))     << 18)
+                     | (valueOf(data.charAt(i + 1)) << 12)
+                     | (valueOf(data.charAt(i + 2)) << 6)
+                     |  valueOf(data.charAt(i + 3));
+
+            buffer[position++] = (byte) (bits >> 16);
+            buffer[position++] = (byte) (bits >> 8);
+            buffer[position++] = (byte) bits;
+
+        }
+
+        // Decode any final partial group
+        int remaining = end - i;
+        if (remaining >= 2) {
+
+            int bits = (valueOf(data.charAt(i)) << 18)
+                     | (valueOf(data.charAt(i + 1)) << 12);
+
+            if (remaining == 3)
+                bits |= valueOf(data.charAt(i + 2)) << 6;
+
+            buffer[position++] = (byte) (bits >> 16);
+            if (remaining == 3)
+                buffer[position++] = (byte) (bits >> 8);
+
+        }
+
+        return ByteBuffer.wrap(buffer, 0, position);
+
+    }
+
+}
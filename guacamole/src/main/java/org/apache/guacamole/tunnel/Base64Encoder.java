@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.tunnel;
+
+/**
+ * Encoder which encodes data as base64 using a reusable internal buffer,
+ * avoiding the allocation of intermediate arrays for each encoded blob. Each
+ * Base64Encoder is intended for use by a single thread at a time.
+ */
+class Base64Encoder {
+
+    /**
+     * The characters of the base64 alphabet, indexed by value.
+     */
+    private static final char[] ALPHABET = (
+              "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz"
+            + "0123456789+/").toCharArray();
+
+    /**
+     * The buffer into which data is encoded. This buffer grows as necessary
+     * and is reused for all subsequent encodes.
+     */
+    private char[] buffer = new char[0];
+
+    /**
+     * Encodes the given range of bytes as padded base64.
+     *
+     * @param data
+     *     The array containing the bytes to encode.
+     *
+     * @param offset
+     *     The offset of the first byte to encode.
+     *
+     * @param length
+     *     The number of bytes to encode.
+     *
+     * @return
+     *     The base64 encoding of the given bytes.
+     */
+    public String encode(byte[] data, int offset, int length) {
+
+        // Grow buffer only if too small for the encoded data
+        int encodedLength = (length + 2) / 3 * 4;
+        if (buffer.length < encodedLength)
+            buffer = new char[encodedLength];
+
+        int position = 0;
+        int end = offset + length;
+        int i = offset;
+
+        // Encode each complete group of three bytes
+        for (; i + 3 <= end; i += 3) {
+
+            int bits = ((data[i] & 0xFF) << 16)
+                     | ((data[i + 1] & 0xFF) << 8)
+                     |  (data[i + 2] & 0xFF);
+
+            buffer[position++] = ALPHABET[(bits >> 18) & 0x3F];
+            buffer[position++] = ALPHABET[(bits >> 12) & 0x3F];
+            buffer[position++] = ALPHABET[(bits >> 6) & 0x3F];
+            buffer[position++] = ALPHABET[bits & 0x3F];
+
+        }
+
+        // Encode any final partial group, padding as necessary
+        int remaining = end - i;
+        if (remaining > 0) {
+
+            int bits = (data[i] & 0xFF) << 16;
+            if (remaining == 2)
+                bits |= (data[i + 1] & 0xFF) << 8;
+
+            buffer[position++] = ALPHABET[(bits >> 18) & 0x3F];
+            buffer[position++] = ALPHABET[(bits >> 12) & 0x3F];
+            buffer[position++] = remaining == 2 ? ALPHABET[(bits >> 6) & 0x3F] : '=';
+            buffer[position++] = '=';
+
+        }
+
+        return new String(buffer, 0, position);
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.guacamole.tunnel;
+
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.protocol.CoalescingGuacamoleReader;
+import org.apache.guacamole.protocol.FilteredGuacamoleWriter;
+import org.apache.guacamole.protocol.SyncLagTracker;
+
+/**
+ * GuacamoleTunnel implementation which drops superseded drawing instructions
+ * sent to clients which fall behind in acknowledging frames, allowing those
+ * clients to catch up with the current state of the remote display.
+ */
+public class CoalescingGuacamoleTunnel extends DelegatingGuacamoleTunnel {
+
+    /**
+     * The tracker which determines whether the client is lagging.
+     */
+    private final SyncLagTracker tracker;
+
+    /**
+     * The reader returned by all calls to acquireReader(). As instructions
+     * may be read ahead while the client is lagging, the same reader must be
+     * used for the lifetime of the tunnel.
+     */
+    private CoalescingGuacamoleReader reader;
+
+    /**
+     * Wraps the given tunnel, dropping superseded drawing instructions while
+     * the client lags by more than the given threshold.
+     *
+     * @param tunnel
+     *     The GuacamoleTunnel to wrap.
+     *
+     * @param threshold
+     *     The number of milliseconds that the client may lag behind the
+     *     server before superseded drawing instructions are dropped.
+     */
+    public CoalescingGuacamoleTunnel(GuacamoleTunnel tunnel, long threshold) {
+        super(tunnel);
+        this.tracker = new SyncLagTracker(threshold);
+    }
+
+    @Override
+    public GuacamoleReader acquireReader() {
+
+        GuacamoleReader acquired = super.acquireReader();
+
+        // Reuse the same reader for all subsequent reads. No further
+        // synchronization is needed, as only the current holder of the
+        // reader may reach this point.
+        if (reader == null)
+            reader = new CoalescingGuacamoleReader(acquired, tracker);
+
+        return reader;
+
+    }
+
+    @Override
+    public GuacamoleWriter acquireWriter() {
+
+        // Observe frames acknowledged by the client
+        return new FilteredGuacamoleWriter(super.acquireWriter(),
+                tracker.getClientFilter());
+
+    }
+
+}
@@ -21,9 +21,9 @@ package org.apache.guacamole.tunnel;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import javax.xml.bind.DatatypeConverter;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
@@ -35,7 +35,9 @@ import org.slf4j.LoggerFactory;
  * Filter which selectively intercepts "ack" instructions, automatically reading
  * from or closing the stream given with interceptStream(). The required "blob"
  * and "end" instructions denoting the content and boundary of the stream are
- * sent automatically.
+ * sent automatically. If an acknowledgement window larger than one blob is
+ * set, several blobs are sent before the first "ack" is awaited, and the
+ * "end" instruction is sent only once all blobs have been acknowledged.
  */
 public class InputStreamInterceptingFilter
         extends StreamInterceptingFilter<InputStream> {
@@ -46,6 +48,38 @@ public class InputStreamInterceptingFilter
     private static final Logger logger =
             LoggerFactory.getLogger(InputStreamInterceptingFilter.class);
 
+    /**
+     * The opcodes of all instructions which must be given to this filter.
+     */
+    private static final Set<String> OPCODES = Collections.singleton("ack");
+
+    /**
+     * The largest number of bytes which may be sent within a single blob.
+     * Larger blobs would exceed the maximum instruction length accepted by
+     * guacd once base64-encoded.
+     */
+    public static final int MAX_CHUNK_SIZE = 6048;
+
+    /**
+     * The number of bytes to read from an intercepted InputStream for each
+     * blob.
+     */
+    private volatile int chunkSize = MAX_CHUNK_SIZE;
+
+    /**
+     * The number of blobs which may be in flight for each intercepted
+     * stream, awaiting acknowledgement.
+     */
+    private volatile int window = 1;
+
+    /**
+     * Encoder used to encode each chunk of data without allocating
+     * intermediate arrays. Access to this encoder is synchronized on the
+     * encoder itself, and only for the duration of each encode, such that
+     * reading from one intercepted stream never delays another.
+     */
+    private final Base64Encoder encoder = new Base64Encoder();
+
     /**
      * Creates a new InputStreamInterceptingFilter which selectively intercepts
      * "ack" instructions. The required "blob" and "end" instructions will
@@ -60,6 +94,32 @@ public class InputStreamInterceptingFilter
         super(tunnel);
     }
 
+    /**
+     * Sets the number of bytes to send within each blob. Values outside the
+     * range of 1 through MAX_CHUNK_SIZE are clamped to that range.
+     *
+     * @param chunkSize
+     *     The number of bytes to read from intercepted InputStreams for each
+     *     blob.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * Sets the number of blobs which may be in flight for each intercepted
+     * stream, awaiting acknowledgement. With the default window of one blob,
+     * each blob is sent only after the previous blob has been acknowledged,
+     * requiring one round trip per blob.
+     *
+     * @param window
+     *     The number of blobs which may be in flight for each intercepted
+     *     stream. Values less than one are treated as one.
+     */
+    public void setAcknowledgementWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
     /**
      * Injects a "blob" instruction into the outbound Guacamole protocol
      * stream, as if sent by the connected client. "blob" instructions are used
@@ -69,13 +129,21 @@ public class InputStreamInterceptingFilter
      *     The index of the stream that this "blob" instruction relates to.
      *
      * @param blob
-     *     The chunk of data to send within the "blob" instruction.
+     *     The array containing the chunk of data to send within the "blob"
+     *     instruction.
+     *
+     * @param length
+     *     The number of bytes of the given array to send.
      */
-    private void sendBlob(String index, byte[] blob) {
+    private void sendBlob(String index, byte[] blob, int length) {
+
+        String data;
+        synchronized (encoder) {
+            data = encoder.encode(blob, 0, length);
+        }
 
         // Send "blob" containing provided data
-        sendInstruction(new GuacamoleInstruction("blob", index,
-            DatatypeConverter.printBase64Binary(blob)));
+        sendInstruction(new GuacamoleInstruction("blob", index, data));
 
     }
 
@@ -91,48 +159,93 @@ public class InputStreamInterceptingFilter
         sendInstruction(new GuacamoleInstruction("end", index));
     }
 
+    /**
+     * Reads from the given InputStream into the given buffer until the
+     * buffer is full or the end of the stream is reached.
+     *
+     * @param input
+     *     The InputStream to read from.
+     *
+     * @param buffer
+     *     The buffer to read into.
+     *
+     * @return
+     *     The number of bytes read, or -1 if the end of the stream was
+     *     reached before any bytes could be read.
+     *
+     * @throws IOException
+     *     If an error occurs while reading from the InputStream.
+     */
+    private int fill(InputStream input, byte[] buffer) throws IOException {
+
+        int size = buffer.length;
+        int length = 0;
+
+        // Read until chunk is full or no data remains
+        while (length < size) {
+            int read = input.read(buffer, length, size - length);
+            if (read == -1)
+                break;
+            length += read;
+        }
+
+        return length == 0 ? -1 : length;
+
+    }
+
     /**
      * Reads the next chunk of data from the InputStream associated with an
      * intercepted stream, sending that data as a "blob" instruction over the
      * GuacamoleTunnel associated with this filter. If the end of the
-     * InputStream is reached, an "end" instruction will automatically be sent.
+     * InputStream is reached and all sent blobs have been acknowledged, an
+     * "end" instruction will automatically be sent. Reads of the same stream
+     * are serialized, such that blobs are sent in order even if further
+     * blobs are requested while the stream is being read, but reads of
+     * different streams never wait for each other.
      *
      * @param stream
      *     The stream from which the next chunk of data should be read.
      */
     private void readNextBlob(InterceptedStream<InputStream> stream) {
 
-        // Read blob from stream if it exists
-        try {
+        synchronized (stream) {
 
-            // Read raw data from input stream
-            byte[] blob = new byte[6048];
-            int length = stream.getStream().read(blob);
+            // Read blob from stream if it exists
+            try {
 
-            // End stream if no more data
-            if (length == -1) {
+                // Read raw data from input stream, filling the chunk such
+                // that blobs are not fragmented by short reads
+                byte[] buffer = new byte[chunkSize];
+                int length = fill(stream.getStream(), buffer);
 
-                // Close stream, send end if the stream is still valid
-                if (closeInterceptedStream(stream))
-                    sendEnd(stream.getIndex());
+                // End stream if no more data and nothing remains in flight
+                if (length == -1) {
 
-                return;
+                    // Close stream, send end if the stream is still valid
+                    if (stream.getUnacknowledgedBlobs() == 0
+                            && closeInterceptedStream(stream))
+                        sendEnd(stream.getIndex());
 
-            }
+                    return;
 
-            // Inject corresponding "blob" instruction
-            sendBlob(stream.getIndex(), Arrays.copyOf(blob, length));
+                }
 
-        }
+                // Inject corresponding "blob" instruction
+                stream.blobSent();
+                sendBlob(stream.getIndex(), buffer, length);
 
-        // Terminate stream if it cannot be read
-        catch (IOException e) {
+            }
 
-            logger.debug("Unable to read data of intercepted input stream.", e);
+            // Terminate stream if it cannot be read
+            catch (IOException e) {
+
+                logger.debug("Unable to read data of intercepted input stream.", e);
+
+                // Close stream, send end if the stream is still valid
+                if (closeInterceptedStream(stream))
+                    sendEnd(stream.getIndex());
 
-            // Close stream, send end if the stream is still valid
-            if (closeInterceptedStream(stream))
-                sendEnd(stream.getIndex());
+            }
 
         }
 
@@ -185,11 +298,17 @@ public class InputStreamInterceptingFilter
 
         }
 
-        // Send next blob
+        // Send next blob, keeping the window full
+        stream.blobAcknowledged();
         readNextBlob(stream);
 
     }
 
+    @Override
+    public Set<String> getOpcodes() {
+        return OPCODES;
+    }
+
     @Override
     public GuacamoleInstruction filter(GuacamoleInstruction instruction)
             throws GuacamoleException {
@@ -206,9 +325,10 @@ public class InputStreamInterceptingFilter
     @Override
     protected void handleInterceptedStream(InterceptedStream<InputStream> stream) {
 
-        // Read the first blob. Note that future blobs will be read in response
-        // to received "ack" instructions.
-        readNextBlob(stream);
+        // Read the first blobs, filling the window. Note that future blobs
+        // will be read in response to received "ack" instructions.
+        for (int i = 0; i < window; i++)
+            readNextBlob(stream);
 
     }
 
@@ -20,6 +20,7 @@
 package org.apache.guacamole.tunnel;
 
 import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 
@@ -54,6 +55,18 @@ public class InterceptedStream<T extends Closeable> {
      */
     private GuacamoleException streamError = null;
 
+    /**
+     * The number of blobs sent along this stream which have not yet been
+     * acknowledged.
+     */
+    private int unacknowledgedBlobs = 0;
+
+    /**
+     * Latch which is released once this stream has been closed and
+     * interception has completed.
+     */
+    private final CountDownLatch completed = new CountDownLatch(1);
+
     /**
      * Creates a new InterceptedStream which associated the given Guacamole
      * stream index with the given stream object.
@@ -158,4 +171,70 @@ public class InterceptedStream<T extends Closeable> {
         return streamError;
     }
 
+    /**
+     * Records that a blob has been sent along this stream and is awaiting
+     * acknowledgement.
+     */
+    public synchronized void blobSent() {
+        unacknowledgedBlobs++;
+    }
+
+    /**
+     * Records that a blob sent along this stream has been acknowledged,
+     * returning the number of blobs still awaiting acknowledgement.
+     *
+     * @return
+     *     The number of blobs sent along this stream which have not yet been
+     *     acknowledged.
+     */
+    public synchronized int blobAcknowledged() {
+        if (unacknowledgedBlobs > 0)
+            unacknowledgedBlobs--;
+        return unacknowledgedBlobs;
+    }
+
+    /**
+     * Returns the number of blobs sent along this stream which have not yet
+     * been acknowledged.
+     *
+     * @return
+     *     The number of blobs sent along this stream which have not yet been
+     *     acknowledged.
+     */
+    public synchronized int getUnacknowledgedBlobs() {
+        return unacknowledgedBlobs;
+    }
+
+    /**
+     * Marks this stream as complete, unblocking all current and future calls
+     * to awaitCompletion().
+     */
+    public void complete() {
+        completed.countDown();
+    }
+
+    /**
+     * Blocks until this stream has been marked as complete via complete().
+     * Interruption does not abort the wait.
+     */
+    public void awaitCompletion() {
+
+        boolean interrupted = false;
+
+        // Wait for notification of completion
+        while (completed.getCount() > 0) {
+            try {
+                completed.await();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        // Restore interrupted status for the caller
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+    }
+
 }
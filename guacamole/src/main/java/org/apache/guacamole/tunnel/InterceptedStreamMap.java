@@ -42,12 +42,6 @@ public class InterceptedStreamMap<T extends Closeable> {
      */
     private static final Logger logger = LoggerFactory.getLogger(InterceptedStreamMap.class);
 
-    /**
-     * The maximum number of milliseconds to wait for notification that a
-     * stream has closed before explicitly checking for closure ourselves.
-     */
-    private static final long STREAM_WAIT_TIMEOUT = 1000;
-
     /**
      * Mapping of the indexes of all streams whose associated "blob" and "end"
      * instructions should be intercepted.
@@ -56,18 +50,19 @@ public class InterceptedStreamMap<T extends Closeable> {
             new ConcurrentHashMap<String, InterceptedStream<T>>();
 
     /**
-     * Closes the given stream, logging any errors that occur during closure.
-     * The monitor of the stream is notified via a single call to notify() once
-     * the attempt to close has been made.
+     * Closes the stream object of the given stream, logging any errors that
+     * occur during closure. The stream is marked as complete once the attempt
+     * to close has been made, unblocking any threads waiting within
+     * waitFor().
      *
      * @param stream
-     *     The stream to close and notify.
+     *     The stream to close and mark as complete.
      */
-    private void close(T stream) {
+    private void closeAndComplete(InterceptedStream<T> stream) {
 
         // Attempt to close stream
         try {
-            stream.close();
+            stream.getStream().close();
         }
         catch (IOException e) {
             logger.warn("Unable to close intercepted stream: {}", e.getMessage());
@@ -75,8 +70,8 @@ public class InterceptedStreamMap<T extends Closeable> {
         }
 
         // Notify waiting threads that the stream has ended
-        synchronized (stream) {
-            stream.notify();
+        finally {
+            stream.complete();
         }
 
     }
@@ -104,7 +99,7 @@ public class InterceptedStreamMap<T extends Closeable> {
             return null;
 
         // Close stream if it exists
-        close(stream.getStream());
+        closeAndComplete(stream);
         return stream;
 
     }
@@ -127,7 +122,7 @@ public class InterceptedStreamMap<T extends Closeable> {
         boolean wasRemoved = streams.remove(stream.getIndex(), stream);
 
         // Close provided stream
-        close(stream.getStream());
+        closeAndComplete(stream);
 
         return wasRemoved;
 
@@ -140,38 +135,22 @@ public class InterceptedStreamMap<T extends Closeable> {
      */
     public void closeAll() {
 
-        // Close any active streams
-        for (InterceptedStream<T> stream : streams.values())
-            close(stream.getStream());
-
-        // Remove now-useless references
-        streams.clear();
+        // Remove and close any active streams
+        for (String index : streams.keySet())
+            close(index);
 
     }
 
     /**
      * Blocks until the given stream is closed, or until another stream with
-     * the same index replaces it.
+     * the same index replaces it. The waiting thread is woken only when the
+     * stream is closed, without periodically polling for closure.
      *
      * @param stream
      *     The stream to wait for.
      */
     public void waitFor(InterceptedStream<T> stream) {
-
-        T underlyingStream = stream.getStream();
-
-        // Wait for stream to close
-        synchronized (underlyingStream) {
-            while (streams.get(stream.getIndex()) == stream) {
-                try {
-                    underlyingStream.wait(STREAM_WAIT_TIMEOUT);
-                }
-                catch (InterruptedException e) {
-                    // Ignore
-                }
-            }
-        }
-
+        stream.awaitCompletion();
     }
 
     /**
@@ -204,7 +183,7 @@ public class InterceptedStreamMap<T extends Closeable> {
 
         // If a previous stream DID exist, close it
         if (oldStream != null)
-            close(oldStream.getStream());
+            closeAndComplete(oldStream);
 
     }
 
@@ -21,8 +21,12 @@ package org.apache.guacamole.tunnel;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import javax.xml.bind.DatatypeConverter;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
@@ -34,7 +38,9 @@ import org.slf4j.LoggerFactory;
  * Filter which selectively intercepts "blob" and "end" instructions,
  * automatically writing to or closing the stream given with
  * interceptStream(). The required "ack" responses to received blobs are
- * sent automatically.
+ * sent automatically. If an acknowledgement window larger than one blob is
+ * set, several "ack" instructions are sent when interception begins, such
+ * that several blobs are in flight at any given time.
  *
  * @author Michael Jumper
  */
@@ -47,6 +53,12 @@ public class OutputStreamInterceptingFilter
     private static final Logger logger =
             LoggerFactory.getLogger(OutputStreamInterceptingFilter.class);
 
+    /**
+     * The opcodes of all instructions which must be given to this filter.
+     */
+    private static final Set<String> OPCODES = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("blob", "end", "sync")));
+
     /**
      * Whether this OutputStreamInterceptingFilter should respond to received
      * blobs with "ack" messages on behalf of the client. If false, blobs will
@@ -55,6 +67,18 @@ public class OutputStreamInterceptingFilter
      */
     private boolean acknowledgeBlobs = true;
 
+    /**
+     * The number of blobs which may be in flight for each intercepted
+     * stream, awaiting acknowledgement.
+     */
+    private volatile int window = 1;
+
+    /**
+     * Decoder used to decode the base64 data of received blobs without
+     * allocating a new array for each blob.
+     */
+    private final Base64Decoder decoder = new Base64Decoder();
+
     /**
      * Creates a new OutputStreamInterceptingFilter which selectively intercepts
      * "blob" and "end" instructions. The required "ack" responses will
@@ -68,6 +92,26 @@ public class OutputStreamInterceptingFilter
         super(tunnel);
     }
 
+    /**
+     * Sets the number of blobs which may be in flight for each intercepted
+     * stream, awaiting acknowledgement. With the default window of one blob,
+     * each blob is acknowledged only after the previous blob has been
+     * received, requiring one round trip per blob. Larger windows allow data
+     * to be received at closer to the full speed of the connection. No "ack"
+     * is sent once the stream has ended or is otherwise no longer
+     * intercepted, but up to one less than the window may already be in
+     * flight when the remote desktop server ends the stream. Larger windows
+     * should thus only be used if the remote desktop server ignores
+     * acknowledgements of streams which have ended.
+     *
+     * @param window
+     *     The number of blobs which may be in flight for each intercepted
+     *     stream. Values less than one are treated as one.
+     */
+    public void setAcknowledgementWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
     /**
      * Injects an "ack" instruction into the outbound Guacamole protocol
      * stream, as if sent by the connected client. "ack" instructions are used
@@ -97,6 +141,23 @@ public class OutputStreamInterceptingFilter
 
     }
 
+    /**
+     * Returns whether the given stream is still being intercepted by this
+     * filter. A stream is no longer intercepted once it has ended or has
+     * been closed, even if its index has since been reused by another
+     * intercepted stream.
+     *
+     * @param stream
+     *     The stream to test.
+     *
+     * @return
+     *     true if the given stream is still being intercepted, false
+     *     otherwise.
+     */
+    private boolean isIntercepted(InterceptedStream<OutputStream> stream) {
+        return getInterceptedStream(stream.getIndex()) == stream;
+    }
+
     /**
      * Handles a single "blob" instruction, decoding its base64 data,
      * sending that data to the associated OutputStream, and ultimately
@@ -125,11 +186,11 @@ public class OutputStreamInterceptingFilter
         if (stream == null)
             return instruction;
 
-        // Decode blob
-        byte[] blob;
+        // Decode blob into reusable buffer
+        ByteBuffer blob;
         try {
             String data = args.get(1);
-            blob = DatatypeConverter.parseBase64Binary(data);
+            blob = decoder.decode(data);
         }
         catch (IllegalArgumentException e) {
             logger.warn("Received base64 data for intercepted stream was invalid.");
@@ -140,7 +201,8 @@ public class OutputStreamInterceptingFilter
         try {
 
             // Attempt to write data to stream
-            stream.getStream().write(blob);
+            stream.getStream().write(blob.array(),
+                    blob.arrayOffset() + blob.position(), blob.remaining());
 
             // Force client to respond with their own "ack" if we need to
             // confirm that they are not falling behind with respect to the
@@ -150,8 +212,10 @@ public class OutputStreamInterceptingFilter
                 return new GuacamoleInstruction("blob", index, "");
             }
 
-            // Otherwise, acknowledge the blob on the client's behalf
-            sendAck(index, "OK", GuacamoleStatus.SUCCESS);
+            // Otherwise, acknowledge the blob on the client's behalf, unless
+            // the stream was closed while the blob was being written
+            if (isIntercepted(stream))
+                sendAck(index, "OK", GuacamoleStatus.SUCCESS);
 
         }
         catch (IOException e) {
@@ -195,6 +259,11 @@ public class OutputStreamInterceptingFilter
         acknowledgeBlobs = false;
     }
 
+    @Override
+    public Set<String> getOpcodes() {
+        return OPCODES;
+    }
+
     @Override
     public GuacamoleInstruction filter(GuacamoleInstruction instruction)
             throws GuacamoleException {
@@ -224,8 +293,14 @@ public class OutputStreamInterceptingFilter
     @Override
     protected void handleInterceptedStream(InterceptedStream<OutputStream> stream) {
 
-        // Acknowledge that the stream is ready to receive data
-        sendAck(stream.getIndex(), "OK", GuacamoleStatus.SUCCESS);
+        // Acknowledge that the stream is ready to receive data, allowing
+        // for as many blobs in flight as the window permits. Each received
+        // blob is acknowledged in turn, keeping the window full. As "end"
+        // may be received while these are being sent, stop once the stream
+        // is no longer intercepted, such that no "ack" is sent for a stream
+        // index which may already have been reused.
+        for (int i = 0; i < window && isIntercepted(stream); i++)
+            sendAck(stream.getIndex(), "OK", GuacamoleStatus.SUCCESS);
 
     }
 
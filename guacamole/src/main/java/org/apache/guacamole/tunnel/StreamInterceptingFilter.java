@@ -23,7 +23,7 @@ import java.io.Closeable;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
-import org.apache.guacamole.protocol.GuacamoleFilter;
+import org.apache.guacamole.protocol.GuacamoleOpcodeFilter;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +40,7 @@ import org.slf4j.LoggerFactory;
  *     or OutputStream.
  */
 public abstract class StreamInterceptingFilter<T extends Closeable>
-        implements GuacamoleFilter {
+        implements GuacamoleOpcodeFilter {
 
     /**
      * Logger for this class.
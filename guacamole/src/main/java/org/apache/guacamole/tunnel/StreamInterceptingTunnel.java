@@ -19,8 +19,6 @@
 
 package org.apache.guacamole.tunnel;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import org.apache.guacamole.GuacamoleException;
@@ -28,6 +26,7 @@ import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.protocol.FilteredGuacamoleReader;
+import org.apache.guacamole.protocol.GuacamoleFilterChain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,6 +71,47 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
     private final OutputStreamInterceptingFilter outputStreamFilter =
             new OutputStreamInterceptingFilter(this);
 
+    /**
+     * Sets the number of blobs which may be in flight for each intercepted
+     * output stream, awaiting acknowledgement. By default, only one blob may
+     * be in flight. See
+     * OutputStreamInterceptingFilter.setAcknowledgementWindow() for the
+     * implications of larger windows.
+     *
+     * @param window
+     *     The number of blobs which may be in flight for each intercepted
+     *     output stream.
+     */
+    public void setOutputStreamWindow(int window) {
+        outputStreamFilter.setAcknowledgementWindow(window);
+    }
+
+    /**
+     * Sets the number of blobs which may be in flight for each intercepted
+     * input stream, awaiting acknowledgement. By default, only one blob may
+     * be in flight.
+     *
+     * @param window
+     *     The number of blobs which may be in flight for each intercepted
+     *     input stream.
+     */
+    public void setInputStreamWindow(int window) {
+        inputStreamFilter.setAcknowledgementWindow(window);
+    }
+
+    /**
+     * Sets the number of bytes of each intercepted input stream to send
+     * within each blob. Blobs are never larger than
+     * InputStreamInterceptingFilter.MAX_CHUNK_SIZE bytes, which is also the
+     * default.
+     *
+     * @param chunkSize
+     *     The number of bytes to send within each blob.
+     */
+    public void setInputStreamChunkSize(int chunkSize) {
+        inputStreamFilter.setChunkSize(chunkSize);
+    }
+
     /**
      * Intercept all data received along the stream having the given index,
      * writing that data to the given OutputStream. The OutputStream will
@@ -98,7 +138,9 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
                 index, getUUID());
 
         try {
-            outputStreamFilter.interceptStream(index, new BufferedOutputStream(stream));
+            // Blobs are decoded into a reusable buffer and written in whole,
+            // so no further buffering is needed beyond that of the stream
+            outputStreamFilter.interceptStream(index, stream);
         }
 
         // Log end of intercepted stream
@@ -135,7 +177,9 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
                 index, getUUID());
 
         try {
-            inputStreamFilter.interceptStream(index, new BufferedInputStream(stream));
+            // Each blob is read directly into a reusable buffer, so no
+            // further buffering is needed beyond that of the stream
+            inputStreamFilter.interceptStream(index, stream);
         }
 
         // Log end of intercepted stream
@@ -151,9 +195,10 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
 
         GuacamoleReader reader = super.acquireReader();
 
-        // Filter both input and output streams
-        reader = new FilteredGuacamoleReader(reader, inputStreamFilter);
-        reader = new FilteredGuacamoleReader(reader, outputStreamFilter);
+        // Filter both input and output streams, passing through all other
+        // instructions untouched
+        reader = new FilteredGuacamoleReader(reader,
+                new GuacamoleFilterChain(inputStreamFilter, outputStreamFilter));
 
         return reader;
 
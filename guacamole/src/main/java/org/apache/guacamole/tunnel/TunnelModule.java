@@ -22,6 +22,7 @@ package org.apache.guacamole.tunnel;
 import org.apache.guacamole.tunnel.http.RestrictedGuacamoleHTTPTunnelServlet;
 import com.google.inject.servlet.ServletModule;
 import java.lang.reflect.InvocationTargetException;
+import org.apache.guacamole.servlet.TunnelLocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -87,11 +88,43 @@ public class TunnelModule extends ServletModule {
 
     }
 
+    /**
+     * The TunnelLocator used to locate HTTP tunnels owned by other Guacamole
+     * instances, or null if HTTP tunnels are local to this instance.
+     */
+    private final TunnelLocator tunnelLocator;
+
+    /**
+     * Creates a new TunnelModule which serves tunnels owned by this instance
+     * alone.
+     */
+    public TunnelModule() {
+        this(null);
+    }
+
+    /**
+     * Creates a new TunnelModule which additionally forwards HTTP tunnel
+     * requests to the instances owning the tunnels in question, as reported
+     * by the given TunnelLocator.
+     *
+     * @param tunnelLocator
+     *     The TunnelLocator to use to locate HTTP tunnels owned by other
+     *     Guacamole instances, or null if HTTP tunnels are local to this
+     *     instance.
+     */
+    public TunnelModule(TunnelLocator tunnelLocator) {
+        this.tunnelLocator = tunnelLocator;
+    }
+
     @Override
     protected void configureServlets() {
 
         bind(TunnelRequestService.class);
 
+        // Locate HTTP tunnels owned by other instances, if clustered
+        if (tunnelLocator != null)
+            bind(TunnelLocator.class).toInstance(tunnelLocator);
+
         // Set up HTTP tunnel
         serve("/tunnel").with(RestrictedGuacamoleHTTPTunnelServlet.class);
 
@@ -26,11 +26,13 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleSecurityException;
 import org.apache.guacamole.GuacamoleSession;
 import org.apache.guacamole.GuacamoleUnauthorizedException;
+import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.ConnectionGroup;
 import org.apache.guacamole.net.auth.Directory;
 import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.rest.auth.AuthenticationService;
 import org.apache.guacamole.protocol.GuacamoleClientInformation;
 import org.slf4j.Logger;
@@ -60,6 +62,94 @@ public class TunnelRequestService {
     @Inject
     private AuthenticationService authenticationService;
 
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The number of milliseconds that a client may lag behind the server in
+     * acknowledging frames before superseded drawing instructions are no
+     * longer sent to that client. Drawing instructions are never dropped if
+     * this is zero or unset.
+     */
+    private static final IntegerGuacamoleProperty FRAME_COALESCING_THRESHOLD =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "frame-coalescing-threshold"; }
+
+    };
+
+    /**
+     * The number of blobs of each intercepted download which may be in
+     * flight, awaiting acknowledgement, at any given time. Only one blob is
+     * in flight at a time if this is unset.
+     */
+    private static final IntegerGuacamoleProperty DOWNLOAD_WINDOW =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "download-window"; }
+
+    };
+
+    /**
+     * The number of blobs of each intercepted upload which may be in flight,
+     * awaiting acknowledgement, at any given time. Only one blob is in flight
+     * at a time if this is unset.
+     */
+    private static final IntegerGuacamoleProperty UPLOAD_WINDOW =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "upload-window"; }
+
+    };
+
+    /**
+     * The number of bytes of each intercepted upload to send within each
+     * blob. Blobs are never larger than
+     * InputStreamInterceptingFilter.MAX_CHUNK_SIZE bytes, which is also the
+     * default.
+     */
+    private static final IntegerGuacamoleProperty UPLOAD_CHUNK_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "upload-chunk-size"; }
+
+    };
+
+    /**
+     * Returns the value of the given integer property, as specified within
+     * guacamole.properties, falling back to the given default value if the
+     * property is unset or cannot be read.
+     *
+     * @param property
+     *     The property to read.
+     *
+     * @param defaultValue
+     *     The value to return if the property is unset or cannot be read.
+     *
+     * @return
+     *     The value of the given property, or the given default value if the
+     *     property is unset or cannot be read.
+     */
+    private int getProperty(IntegerGuacamoleProperty property, int defaultValue) {
+
+        try {
+            return environment.getProperty(property, defaultValue);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read guacamole.properties: {}", e.getMessage());
+            logger.debug("Error reading \"{}\" property.", property.getName(), e);
+            return defaultValue;
+        }
+
+    }
+
     /**
      * Reads and returns the client information provided within the given
      * request.
@@ -234,6 +324,11 @@ public class TunnelRequestService {
             final UserContext context, final TunnelRequest.Type type,
             final String id) throws GuacamoleException {
 
+        // Drop superseded drawing instructions for lagging clients, if enabled
+        int threshold = getProperty(FRAME_COALESCING_THRESHOLD, 0);
+        if (threshold > 0)
+            tunnel = new CoalescingGuacamoleTunnel(tunnel, threshold);
+
         // Monitor tunnel closure and data
         UserTunnel monitoredTunnel = new UserTunnel(context, tunnel) {
 
@@ -294,6 +389,12 @@ public class TunnelRequestService {
 
         };
 
+        // Allow several blobs of each transfer in flight, if configured
+        monitoredTunnel.setOutputStreamWindow(getProperty(DOWNLOAD_WINDOW, 1));
+        monitoredTunnel.setInputStreamWindow(getProperty(UPLOAD_WINDOW, 1));
+        monitoredTunnel.setInputStreamChunkSize(getProperty(UPLOAD_CHUNK_SIZE,
+                InputStreamInterceptingFilter.MAX_CHUNK_SIZE));
+
         // Associate tunnel with session
         session.addTunnel(monitoredTunnel);
         return monitoredTunnel;
@@ -24,9 +24,12 @@ import com.google.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.servlet.GuacamoleHTTPTunnelServlet;
+import org.apache.guacamole.servlet.TunnelLocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,12 +47,124 @@ public class RestrictedGuacamoleHTTPTunnelServlet extends GuacamoleHTTPTunnelSer
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * The TunnelLocator used to locate tunnels owned by other Guacamole
+     * instances, if any.
+     */
+    @Inject(optional = true)
+    private TunnelLocator tunnelLocator;
+
+    /**
+     * The minimum amount of time that a response to a read request should
+     * remain open before yielding to the next read request, in milliseconds.
+     */
+    private static final IntegerGuacamoleProperty HTTP_STREAMING_READ_DURATION =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-streaming-read-duration"; }
+
+    };
+
+    /**
+     * The minimum number of bytes that should be written in response to a
+     * read request before yielding to the next read request.
+     */
+    private static final IntegerGuacamoleProperty HTTP_STREAMING_READ_LENGTH =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-streaming-read-length"; }
+
+    };
+
+    /**
+     * The number of bytes which may be read ahead from each tunnel while no
+     * read request is in progress.
+     */
+    private static final IntegerGuacamoleProperty HTTP_PREFETCH_LENGTH =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-prefetch-length"; }
+
+    };
+
+    /**
+     * The number of bytes which may be read ahead across all tunnels.
+     */
+    private static final IntegerGuacamoleProperty HTTP_PREFETCH_LIMIT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "http-prefetch-limit"; }
+
+    };
     
     /**
      * Logger for this class.
      */
     private static final Logger logger = LoggerFactory.getLogger(RestrictedGuacamoleHTTPTunnelServlet.class);
 
+    /**
+     * Returns the value of the given integer property, or the given default
+     * value if the property is not set or cannot be read.
+     *
+     * @param property
+     *     The property to read.
+     *
+     * @param defaultValue
+     *     The value to return if the property is not set or cannot be read.
+     *
+     * @return
+     *     The value of the given property, or the given default value.
+     */
+    private int getProperty(IntegerGuacamoleProperty property,
+            int defaultValue) {
+
+        try {
+            return environment.getProperty(property, defaultValue);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read guacamole.properties: {}", e.getMessage());
+            logger.debug("Error while reading \"{}\".", property.getName(), e);
+            return defaultValue;
+        }
+
+    }
+
+    @Override
+    protected int getStreamingReadDuration() {
+        return getProperty(HTTP_STREAMING_READ_DURATION, DEFAULT_STREAMING_READ_DURATION);
+    }
+
+    @Override
+    protected int getStreamingReadLength() {
+        return getProperty(HTTP_STREAMING_READ_LENGTH, DEFAULT_STREAMING_READ_LENGTH);
+    }
+
+    @Override
+    protected int getPrefetchLength() {
+        return getProperty(HTTP_PREFETCH_LENGTH, DEFAULT_PREFETCH_LENGTH);
+    }
+
+    @Override
+    protected long getPrefetchLimit() {
+        return getProperty(HTTP_PREFETCH_LIMIT, (int) DEFAULT_PREFETCH_LIMIT);
+    }
+
+    @Override
+    protected TunnelLocator getTunnelLocator() {
+        return tunnelLocator;
+    }
+
     @Override
     protected GuacamoleTunnel doConnect(HttpServletRequest request) throws GuacamoleException {
 
@@ -27,10 +27,14 @@ import javax.websocket.Session;
 import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerEndpointConfig;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.tunnel.TunnelRequest;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 import org.apache.guacamole.websocket.GuacamoleWebSocketTunnelEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Tunnel implementation which uses WebSocket as a tunnel backend, rather than
@@ -50,6 +54,29 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
      */
     private static final String TUNNEL_REQUEST_SERVICE_PROPERTY = "WS_GUAC_TUNNEL_REQUEST_SERVICE";
 
+    /**
+     * Unique string which shall be used to store the high-water mark of the
+     * queue of messages being sent to the client.
+     */
+    private static final String HIGH_WATER_MARK_PROPERTY = "WS_GUAC_HIGH_WATER_MARK";
+
+    /**
+     * The amount of data which may be queued for sending to the client before
+     * reading from guacd is suspended.
+     */
+    private static final IntegerGuacamoleProperty WEBSOCKET_HIGH_WATER_MARK =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-high-water-mark"; }
+
+    };
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RestrictedGuacamoleWebSocketTunnelEndpoint.class);
+
     /**
      * Configurator implementation which stores the requested GuacamoleTunnel
      * within the user properties. The GuacamoleTunnel will be later retrieved
@@ -62,7 +89,12 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
          * tunnel requests.
          */
         private final Provider<TunnelRequestService> tunnelRequestServiceProvider;
-         
+
+        /**
+         * Provider which provides the Guacamole server environment.
+         */
+        private final Provider<Environment> environmentProvider;
+
         /**
          * Creates a new Configurator which uses the given tunnel request
          * service provider to retrieve the necessary service to handle new
@@ -71,9 +103,38 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
          * @param tunnelRequestServiceProvider
          *     The tunnel request service provider to use for all new
          *     connections.
+         *
+         * @param environmentProvider
+         *     The environment provider to use when reading the configuration
+         *     of new connections.
          */
-        public Configurator(Provider<TunnelRequestService> tunnelRequestServiceProvider) {
+        public Configurator(Provider<TunnelRequestService> tunnelRequestServiceProvider,
+                Provider<Environment> environmentProvider) {
             this.tunnelRequestServiceProvider = tunnelRequestServiceProvider;
+            this.environmentProvider = environmentProvider;
+        }
+
+        /**
+         * Returns the configured high-water mark of the queue of messages
+         * being sent to the client, or the default value if no high-water
+         * mark is configured or the configured value cannot be read.
+         *
+         * @return
+         *     The amount of data which may be queued for sending to the
+         *     client before reading from guacd is suspended.
+         */
+        private int getHighWaterMark() {
+
+            try {
+                return environmentProvider.get().getProperty(WEBSOCKET_HIGH_WATER_MARK,
+                        GuacamoleWebSocketTunnelEndpoint.DEFAULT_HIGH_WATER_MARK);
+            }
+            catch (GuacamoleException e) {
+                logger.error("Unable to read guacamole.properties: {}", e.getMessage());
+                logger.debug("Error while reading WebSocket high-water mark.", e);
+                return GuacamoleWebSocketTunnelEndpoint.DEFAULT_HIGH_WATER_MARK;
+            }
+
         }
         
         @Override
@@ -88,11 +149,24 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
             userProperties.clear();
             userProperties.put(TUNNEL_REQUEST_PROPERTY, new WebSocketTunnelRequest(request));
             userProperties.put(TUNNEL_REQUEST_SERVICE_PROPERTY, tunnelRequestServiceProvider.get());
+            userProperties.put(HIGH_WATER_MARK_PROPERTY, getHighWaterMark());
 
         }
         
     }
     
+    @Override
+    protected int getHighWaterMark(Session session, EndpointConfig config) {
+
+        // Use configured high-water mark, if any
+        Integer highWaterMark = (Integer) config.getUserProperties().get(HIGH_WATER_MARK_PROPERTY);
+        if (highWaterMark != null)
+            return highWaterMark;
+
+        return super.getHighWaterMark(session, config);
+
+    }
+
     @Override
     protected GuacamoleTunnel createTunnel(Session session,
             EndpointConfig config) throws GuacamoleException {
@@ -25,8 +25,10 @@ import java.util.Arrays;
 import javax.websocket.DeploymentException;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpointConfig;
+import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.tunnel.TunnelLoader;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.websocket.GuacamoleWebSocketTunnelEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,12 +80,17 @@ public class WebSocketTunnelModule extends ServletModule implements TunnelLoader
         }
 
         Provider<TunnelRequestService> tunnelRequestServiceProvider = getProvider(TunnelRequestService.class);
+        Provider<Environment> environmentProvider = getProvider(Environment.class);
 
-        // Build configuration for WebSocket tunnel
+        // Build configuration for WebSocket tunnel, allowing clients to
+        // negotiate the exchange of raw UTF-8 protocol data as binary messages
         ServerEndpointConfig config =
                 ServerEndpointConfig.Builder.create(RestrictedGuacamoleWebSocketTunnelEndpoint.class, "/websocket-tunnel")
-                                            .configurator(new RestrictedGuacamoleWebSocketTunnelEndpoint.Configurator(tunnelRequestServiceProvider))
-                                            .subprotocols(Arrays.asList(new String[]{"guacamole"}))
+                                            .configurator(new RestrictedGuacamoleWebSocketTunnelEndpoint.Configurator(tunnelRequestServiceProvider, environmentProvider))
+                                            .subprotocols(Arrays.asList(new String[]{
+                                                "guacamole",
+                                                GuacamoleWebSocketTunnelEndpoint.BINARY_SUBPROTOCOL
+                                            }))
                                             .build();
 
         try {
@@ -72,6 +72,11 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
     @Override
     public WebSocket doWebSocketConnect(HttpServletRequest request, String protocol) {
 
+        // Only text messages are supported, thus refuse the binary
+        // subprotocol such that another subprotocol is selected
+        if ("guacamole-binary".equals(protocol))
+            return null;
+
         final TunnelRequest tunnelRequest = new HTTPTunnelRequest(request);
 
         // Return new WebSocket which communicates through tunnel
@@ -295,10 +295,11 @@ angular.module('client').factory('ManagedClient', ['$rootScope', '$injector',
 
         var tunnel;
 
-        // If WebSocket available, try to use it.
+        // If WebSocket available, try to use it, exchanging binary messages
+        // if supported by the server
         if ($window.WebSocket)
             tunnel = new Guacamole.ChainedTunnel(
-                new Guacamole.WebSocketTunnel('websocket-tunnel'),
+                new Guacamole.WebSocketTunnel('websocket-tunnel', true),
                 new Guacamole.HTTPTunnel('tunnel')
             );
         
@@ -44,7 +44,10 @@ angular.module('rest').factory('activeConnectionService', ['$injector',
      * @returns {Promise.<Object.<String, ActiveConnection>>}
      *     A promise which will resolve with a map of @link{ActiveConnection}
      *     objects, where each key is the identifier of the corresponding
-     *     active connection.
+     *     active connection. The REST API returns a map only if no page of
+     *     active connections is requested; if any of the "limit", "after", or
+     *     "prefix" parameters are given, an array of active connections
+     *     ordered by identifier is returned instead.
      */
     service.getActiveConnections = function getActiveConnections(dataSource, permissionTypes) {
 
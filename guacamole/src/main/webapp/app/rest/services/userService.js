@@ -53,7 +53,10 @@ angular.module('rest').factory('userService', ['$injector',
      * @returns {Promise.<Object.<String, User>>}
      *     A promise which will resolve with a map of @link{User} objects
      *     where each key is the identifier (username) of the corresponding
-     *     user.
+     *     user. The REST API returns a map only if no page of users is
+     *     requested; if any of the "limit", "after", or "prefix" parameters
+     *     are given, an array of users ordered by username is returned
+     *     instead.
      */
     service.getUsers = function getUsers(dataSource, permissionTypes) {
 
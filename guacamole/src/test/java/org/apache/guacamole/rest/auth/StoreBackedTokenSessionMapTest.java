@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.auth;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.TypeLiteral;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleSession;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.environment.LocalEnvironment;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.Credentials;
+import org.apache.guacamole.net.auth.RestorableAuthenticationProvider;
+import org.apache.guacamole.net.auth.SessionStore;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.net.auth.simple.SimpleAuthenticationProvider;
+import org.apache.guacamole.net.auth.simple.SimpleSessionStore;
+import org.apache.guacamole.protocol.GuacamoleConfiguration;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the StoreBackedTokenSessionMap class, simulating several Guacamole
+ * instances which share a single SessionStore.
+ */
+public class StoreBackedTokenSessionMapTest {
+
+    /**
+     * The username of the user whose session cannot be restored until
+     * restoreBlocked is released.
+     */
+    private static final String BLOCKED_USERNAME = "blocked";
+
+    /**
+     * The username of the user whose data is no longer available when their
+     * session is restored, as if the user had been deleted.
+     */
+    private static final String DELETED_USERNAME = "deleted";
+
+    /**
+     * Latch which is released once the restore of the session of the user
+     * having BLOCKED_USERNAME has begun.
+     */
+    private final CountDownLatch restoreStarted = new CountDownLatch(1);
+
+    /**
+     * Latch which blocks the restore of the session of the user having
+     * BLOCKED_USERNAME until released.
+     */
+    private final CountDownLatch restoreBlocked = new CountDownLatch(1);
+
+    /**
+     * The number of times the UserContext of any user has been created.
+     */
+    private int userContextsCreated = 0;
+
+    /**
+     * The Guacamole server environment.
+     */
+    private Environment environment;
+
+    /**
+     * The store shared by all simulated instances.
+     */
+    private SessionStore store;
+
+    /**
+     * The authentication provider shared by all simulated instances, which
+     * authorizes any user and can restore sessions.
+     */
+    private AuthenticationProvider authProvider;
+
+    /**
+     * An authentication provider shared by all simulated instances which
+     * authorizes any user but cannot restore sessions.
+     */
+    private AuthenticationProvider localAuthProvider;
+
+    /**
+     * AuthenticationProvider which authorizes any user, providing an empty
+     * set of configurations, and which can restore the sessions of any user
+     * other than the user having DELETED_USERNAME. Providing the UserContext
+     * of the user having BLOCKED_USERNAME blocks until restoreBlocked is
+     * released if that user is being restored, and thus has no password.
+     */
+    private class TestAuthenticationProvider extends SimpleAuthenticationProvider
+            implements RestorableAuthenticationProvider {
+
+        @Override
+        public String getIdentifier() {
+            return "test";
+        }
+
+        @Override
+        public UserContext restoreUserContext(AuthenticatedUser authenticatedUser)
+                throws GuacamoleException {
+
+            if (DELETED_USERNAME.equals(authenticatedUser.getIdentifier()))
+                return null;
+
+            return getUserContext(authenticatedUser);
+
+        }
+
+        @Override
+        public Map<String, GuacamoleConfiguration>
+            getAuthorizedConfigurations(Credentials credentials)
+            throws GuacamoleException {
+
+            synchronized (StoreBackedTokenSessionMapTest.this) {
+                userContextsCreated++;
+            }
+
+            // Simulate a slow authentication backend while restoring the
+            // blocked user
+            if (BLOCKED_USERNAME.equals(credentials.getUsername())
+                    && credentials.getPassword() == null) {
+                restoreStarted.countDown();
+                try {
+                    restoreBlocked.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return new HashMap<String, GuacamoleConfiguration>();
+
+        }
+
+    }
+
+    /**
+     * AuthenticationProvider which authorizes any user having a password,
+     * providing an empty set of configurations. Sessions involving this
+     * AuthenticationProvider cannot be restored.
+     */
+    private class LocalAuthenticationProvider extends SimpleAuthenticationProvider {
+
+        @Override
+        public String getIdentifier() {
+            return "local";
+        }
+
+        @Override
+        public Map<String, GuacamoleConfiguration>
+            getAuthorizedConfigurations(Credentials credentials)
+            throws GuacamoleException {
+
+            if (credentials.getPassword() == null)
+                return null;
+
+            return new HashMap<String, GuacamoleConfiguration>();
+
+        }
+
+    }
+
+    /**
+     * Creates a new StoreBackedTokenSessionMap representing a single
+     * Guacamole instance which uses the shared store. Each session is
+     * revalidated against the store upon every access.
+     *
+     * @return
+     *     A new StoreBackedTokenSessionMap.
+     */
+    private StoreBackedTokenSessionMap createInstance() {
+
+        StoreBackedTokenSessionMap sessionMap =
+                new StoreBackedTokenSessionMap(environment, store) {
+
+            @Override
+            protected long getRevalidationInterval() {
+                return 0;
+            }
+
+        };
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(Environment.class).toInstance(environment);
+                bind(new TypeLiteral<List<AuthenticationProvider>>() {})
+                        .toInstance(Arrays.asList(authProvider, localAuthProvider));
+            }
+
+        });
+
+        injector.injectMembers(sessionMap);
+        return sessionMap;
+
+    }
+
+    /**
+     * Authenticates the user having the given username using the given
+     * authentication provider and creates a new session for that user
+     * containing data from each of the given authentication providers, as
+     * would occur upon login.
+     *
+     * @param username
+     *     The username of the user to authenticate.
+     *
+     * @param providers
+     *     The authentication providers which should provide data for the
+     *     session, the first of which authenticates the user.
+     *
+     * @return
+     *     A new session for the given user.
+     *
+     * @throws GuacamoleException
+     *     If the user cannot be authenticated.
+     */
+    private GuacamoleSession login(String username,
+            AuthenticationProvider... providers) throws GuacamoleException {
+
+        Credentials credentials = new Credentials();
+        credentials.setUsername(username);
+        credentials.setPassword("password");
+
+        AuthenticatedUser authenticatedUser = providers[0].authenticateUser(credentials);
+
+        List<UserContext> userContexts = new ArrayList<UserContext>(providers.length);
+        for (AuthenticationProvider provider : providers)
+            userContexts.add(provider.getUserContext(authenticatedUser));
+
+        return new GuacamoleSession(environment, authenticatedUser, userContexts);
+
+    }
+
+    /**
+     * Authenticates the user having the given username and creates a new
+     * session for that user using only the authentication provider which
+     * can restore sessions, as would occur upon login.
+     *
+     * @param username
+     *     The username of the user to authenticate.
+     *
+     * @return
+     *     A new session for the given user.
+     *
+     * @throws GuacamoleException
+     *     If the user cannot be authenticated.
+     */
+    private GuacamoleSession login(String username) throws GuacamoleException {
+        return login(username, authProvider);
+    }
+
+    /**
+     * Creates the environment, store and authentication provider shared by
+     * all simulated instances.
+     *
+     * @throws GuacamoleException
+     *     If the environment cannot be created.
+     */
+    @Before
+    public void setUp() throws GuacamoleException {
+        environment = new LocalEnvironment();
+        store = new SimpleSessionStore();
+        authProvider = new TestAuthenticationProvider();
+        localAuthProvider = new LocalAuthenticationProvider();
+    }
+
+    /**
+     * Releases any restore which is still blocked and shuts down the shared
+     * store.
+     */
+    @After
+    public void tearDown() {
+        restoreBlocked.countDown();
+        store.shutdown();
+    }
+
+    /**
+     * Test that a session created by one instance is restored by another
+     * instance from the store, and that the restored session is then cached
+     * locally rather than being restored again.
+     *
+     * @throws GuacamoleException
+     *     If the session cannot be created.
+     */
+    @Test
+    public void testRestore() throws GuacamoleException {
+
+        StoreBackedTokenSessionMap first = createInstance();
+        StoreBackedTokenSessionMap second = createInstance();
+
+        first.put("token", login("user"));
+        assertNull(second.get("unknown"));
+
+        GuacamoleSession restored = second.get("token");
+        assertNotNull(restored);
+        assertEquals("user", restored.getAuthenticatedUser().getIdentifier());
+        assertSame(authProvider, restored.getAuthenticatedUser().getAuthenticationProvider());
+        assertEquals(1, restored.getUserContexts().size());
+
+        // Restored session must be cached
+        int created = userContextsCreated;
+        assertSame(restored, second.get("token"));
+        assertEquals(created, userContextsCreated);
+
+        first.shutdown();
+        second.shutdown();
+
+    }
+
+    /**
+     * Test that a slow restore of one session neither delays the restore of
+     * a different session nor results in the same session being restored
+     * twice.
+     *
+     * @throws Exception
+     *     If the sessions cannot be created, or the test is interrupted.
+     */
+    @Test(timeout = 10000)
+    public void testConcurrentRestore() throws Exception {
+
+        StoreBackedTokenSessionMap first = createInstance();
+        final StoreBackedTokenSessionMap second = createInstance();
+
+        first.put("blocked-token", login(BLOCKED_USERNAME));
+        first.put("token", login("user"));
+
+        // Begin restoring the blocked session from two threads
+        final GuacamoleSession[] restored = new GuacamoleSession[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    restored[index] = second.get("blocked-token");
+                }
+
+            };
+            threads[i].start();
+        }
+
+        assertTrue(restoreStarted.await(5, TimeUnit.SECONDS));
+
+        // Another session must be restorable while the first is blocked
+        assertNotNull(second.get("token"));
+
+        // Once unblocked, both threads must receive the same session, with
+        // the session having been restored only once
+        int created = userContextsCreated;
+        restoreBlocked.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNotNull(restored[0]);
+        assertSame(restored[0], restored[1]);
+        assertEquals(created, userContextsCreated);
+
+        first.shutdown();
+        second.shutdown();
+
+    }
+
+    /**
+     * Test that a session removed by one instance, as occurs upon logout, is
+     * also removed from every other instance which cached that session,
+     * rather than remaining usable until it times out.
+     *
+     * @throws GuacamoleException
+     *     If the session cannot be created.
+     */
+    @Test
+    public void testCrossInstanceRemoval() throws GuacamoleException {
+
+        StoreBackedTokenSessionMap first = createInstance();
+        StoreBackedTokenSessionMap second = createInstance();
+
+        first.put("token", login("user"));
+        assertNotNull(second.get("token"));
+
+        // Removal elsewhere must take effect upon revalidation
+        first.remove("token");
+        assertNull(first.get("token"));
+        assertNull(second.get("token"));
+
+        // Sessions which remain stored must remain available
+        first.put("other-token", login("user"));
+        GuacamoleSession session = second.get("other-token");
+        assertNotNull(session);
+        assertSame(session, second.get("other-token"));
+
+        first.shutdown();
+        second.shutdown();
+
+    }
+
+    /**
+     * Test that sessions are not restored by other instances if any of their
+     * data cannot be rebuilt, either because an authentication provider of
+     * the original session cannot restore sessions, or because the user's
+     * data is no longer available, while remaining usable on the instance
+     * which created them.
+     *
+     * @throws GuacamoleException
+     *     If the sessions cannot be created.
+     */
+    @Test
+    public void testUnrestorable() throws GuacamoleException {
+
+        StoreBackedTokenSessionMap first = createInstance();
+        StoreBackedTokenSessionMap second = createInstance();
+
+        // Provider which cannot restore sessions
+        first.put("local-token", login("user", localAuthProvider));
+        assertNull(second.get("local-token"));
+        assertNotNull(first.get("local-token"));
+
+        // Session containing data from such a provider
+        first.put("mixed-token", login("user", authProvider, localAuthProvider));
+        assertNull(second.get("mixed-token"));
+        assertNotNull(first.get("mixed-token"));
+
+        // Provider which can no longer provide data for the user
+        first.put("deleted-token", login(DELETED_USERNAME));
+        assertNull(second.get("deleted-token"));
+        assertNotNull(first.get("deleted-token"));
+
+        // Logout from the original instance must still be visible
+        first.remove("local-token");
+        assertNull(second.get("local-token"));
+
+        first.shutdown();
+        second.shutdown();
+
+    }
+
+}
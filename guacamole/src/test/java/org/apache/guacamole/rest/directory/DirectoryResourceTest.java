@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.directory;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUnsupportedException;
+import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.Identifiable;
+import org.apache.guacamole.net.auth.PageableDirectory;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.net.auth.permission.ObjectPermission;
+import org.apache.guacamole.net.auth.permission.ObjectPermissionSet;
+import org.apache.guacamole.net.auth.permission.SystemPermissionSet;
+import org.codehaus.jackson.jaxrs.JacksonJsonProvider;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies the paging of objects by DirectoryResource, both for
+ * directories which support paging and for those which do not.
+ */
+public class DirectoryResourceTest {
+
+    /**
+     * The permissions used to filter objects when a test requires that the
+     * objects returned be filtered.
+     */
+    private static final List<ObjectPermission.Type> READ =
+            Collections.singletonList(ObjectPermission.Type.READ);
+
+    /**
+     * Trivial Identifiable implementation which is translated to its
+     * identifier when exposed through the REST API.
+     */
+    private static class TestObject implements Identifiable {
+
+        /**
+         * The identifier of this object.
+         */
+        private String identifier;
+
+        /**
+         * Creates a new TestObject having the given identifier.
+         *
+         * @param identifier
+         *     The identifier of the new object.
+         */
+        public TestObject(String identifier) {
+            this.identifier = identifier;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        @Override
+        public void setIdentifier(String identifier) {
+            this.identifier = identifier;
+        }
+
+    }
+
+    /**
+     * Translator which exposes each TestObject as its identifier.
+     */
+    private static final DirectoryObjectTranslator<TestObject, String> TRANSLATOR =
+            new DirectoryObjectTranslator<TestObject, String>() {
+
+        @Override
+        public String toExternalObject(TestObject object) {
+            return object.getIdentifier();
+        }
+
+        @Override
+        public TestObject toInternalObject(String object) {
+            return new TestObject(object);
+        }
+
+        @Override
+        public void applyExternalChanges(TestObject existingObject,
+                String object) {
+            existingObject.setIdentifier(object);
+        }
+
+    };
+
+    /**
+     * Handler for stubbed directories, which contain the given objects,
+     * optionally supporting retrieval of those objects one page at a time.
+     */
+    private static class TestDirectory implements InvocationHandler {
+
+        /**
+         * The identifiers of all objects within the directory, in order.
+         */
+        private final NavigableSet<String> identifiers;
+
+        /**
+         * The number of pages of identifiers retrieved so far.
+         */
+        private int pages = 0;
+
+        /**
+         * Creates a new TestDirectory containing objects having the given
+         * identifiers.
+         *
+         * @param identifiers
+         *     The identifiers of all objects within the directory.
+         */
+        public TestDirectory(String... identifiers) {
+            this.identifiers = new TreeSet<String>(Arrays.asList(identifiers));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+
+            String name = method.getName();
+
+            // Retrieve all identifiers
+            if (name.equals("getIdentifiers") && args == null)
+                return new TreeSet<String>(identifiers);
+
+            // Retrieve one page of identifiers
+            if (name.equals("getIdentifiers")) {
+
+                pages++;
+                NavigableSet<String> remaining = identifiers;
+                if (args[0] != null)
+                    remaining = identifiers.tailSet((String) args[0], false);
+
+                List<String> page = new ArrayList<String>();
+                for (String identifier : remaining) {
+                    if (page.size() >= (Integer) args[2])
+                        break;
+                    page.add(identifier);
+                }
+
+                return page;
+
+            }
+
+            // Retrieve objects in an arbitrary order
+            if (name.equals("getAll")) {
+                List<TestObject> objects = new ArrayList<TestObject>();
+                for (Object identifier : (Collection<?>) args[0])
+                    objects.add(new TestObject((String) identifier));
+                Collections.reverse(objects);
+                return objects;
+            }
+
+            fail("Unexpected invocation of " + name + "().");
+            return null;
+
+        }
+
+        /**
+         * Returns a new Directory backed by this handler.
+         *
+         * @param pageable
+         *     Whether the returned Directory should be a PageableDirectory.
+         *
+         * @return
+         *     A new Directory backed by this handler.
+         */
+        @SuppressWarnings("unchecked")
+        public Directory<TestObject> getDirectory(boolean pageable) {
+            return (Directory<TestObject>) Proxy.newProxyInstance(
+                    Directory.class.getClassLoader(),
+                    new Class<?>[] { pageable ? PageableDirectory.class : Directory.class },
+                    this);
+        }
+
+    }
+
+    /**
+     * Returns a UserContext for a non-administrative user who has permission
+     * to read only the objects having the given identifiers.
+     *
+     * @param readable
+     *     The identifiers of the objects that the user may read.
+     *
+     * @return
+     *     A UserContext for a user who may read only the given objects.
+     */
+    private static UserContext getUserContext(String... readable) {
+
+        final List<String> accessible = Arrays.asList(readable);
+
+        final SystemPermissionSet systemPermissions = (SystemPermissionSet) Proxy.newProxyInstance(
+                SystemPermissionSet.class.getClassLoader(),
+                new Class<?>[] { SystemPermissionSet.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("hasPermission", method.getName());
+                return false;
+            }
+
+        });
+
+        final ObjectPermissionSet objectPermissions = (ObjectPermissionSet) Proxy.newProxyInstance(
+                ObjectPermissionSet.class.getClassLoader(),
+                new Class<?>[] { ObjectPermissionSet.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("getAccessibleObjects", method.getName());
+                List<String> identifiers = new ArrayList<String>((Collection<String>) args[1]);
+                identifiers.retainAll(accessible);
+                return identifiers;
+            }
+
+        });
+
+        final User self = (User) Proxy.newProxyInstance(
+                User.class.getClassLoader(),
+                new Class<?>[] { User.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getSystemPermissions"))
+                    return systemPermissions;
+                assertEquals("getUserPermissions", method.getName());
+                return objectPermissions;
+            }
+
+        });
+
+        return (UserContext) Proxy.newProxyInstance(
+                UserContext.class.getClassLoader(),
+                new Class<?>[] { UserContext.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("self", method.getName());
+                return self;
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns a new DirectoryResource exposing the given directory, as would
+     * be created through injection.
+     *
+     * @param userContext
+     *     The UserContext associated with the given directory.
+     *
+     * @param directory
+     *     The directory to expose.
+     *
+     * @return
+     *     A new DirectoryResource exposing the given directory.
+     *
+     * @throws Exception
+     *     If the JSON provider of the new DirectoryResource cannot be set.
+     */
+    private static DirectoryResource<TestObject, String> getResource(
+            UserContext userContext, Directory<TestObject> directory)
+            throws Exception {
+
+        DirectoryResource<TestObject, String> resource =
+                new DirectoryResource<TestObject, String>(userContext,
+                        directory, TRANSLATOR, null) {};
+
+        Field field = DirectoryResource.class.getDeclaredField("jsonProvider");
+        field.setAccessible(true);
+        field.set(resource, new JacksonJsonProvider());
+
+        return resource;
+
+    }
+
+    /**
+     * Returns the JSON written for the given page of objects.
+     *
+     * @param response
+     *     The response returned for a page of objects.
+     *
+     * @return
+     *     The JSON written for the given page of objects.
+     *
+     * @throws Exception
+     *     If the page cannot be written.
+     */
+    private static String getJSON(Response response) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        return output.toString("UTF-8");
+    }
+
+    /**
+     * Verifies that pages of a PageableDirectory are retrieved until the
+     * requested page is full, even if the objects within those pages are
+     * filtered out by permission, and that retrieval stops at the last page.
+     *
+     * @throws Exception
+     *     If the DirectoryResource cannot be created, or the requested pages
+     *     cannot be retrieved or written.
+     */
+    @Test
+    public void testPageFilled() throws Exception {
+
+        TestDirectory directory = new TestDirectory("01", "02", "03", "04",
+                "05", "06", "07", "08", "09", "10");
+
+        DirectoryResource<TestObject, String> resource = getResource(
+                getUserContext("02", "05", "09", "10"),
+                directory.getDirectory(true));
+
+        // Pages [01, 02], [03, 04] and [05, 06] are needed for two objects
+        assertEquals("[\"02\",\"05\"]", getJSON(resource.getObjects(READ, 2, null, null)));
+        assertEquals(3, directory.pages);
+
+        // The short page [10] is the last page
+        assertEquals("[\"09\",\"10\"]", getJSON(resource.getObjects(READ, 2, "05", null)));
+        assertEquals(6, directory.pages);
+
+        // No further objects follow the last page
+        assertEquals("[]", getJSON(resource.getObjects(READ, 2, "10", null)));
+        assertEquals(7, directory.pages);
+
+    }
+
+    /**
+     * Verifies that directories which do not support paging are paged in
+     * memory, in order of identifier, and that filtering such directories by
+     * name is refused.
+     *
+     * @throws Exception
+     *     If the DirectoryResource cannot be created, or the requested pages
+     *     cannot be retrieved or written.
+     */
+    @Test
+    public void testInMemoryPaging() throws Exception {
+
+        DirectoryResource<TestObject, String> resource = getResource(
+                getUserContext("a", "c", "d"),
+                new TestDirectory("d", "b", "c", "a").getDirectory(false));
+
+        // Unfiltered pages include every object, in order
+        assertEquals("[\"a\",\"b\"]", getJSON(resource.getObjects(null, 2, null, null)));
+        assertEquals("[\"c\",\"d\"]", getJSON(resource.getObjects(null, 2, "b", null)));
+
+        // Filtered pages are still filled where possible
+        assertEquals("[\"a\",\"c\"]", getJSON(resource.getObjects(READ, 2, null, null)));
+        assertEquals("[\"d\"]", getJSON(resource.getObjects(READ, 2, "c", null)));
+
+        // Names cannot be filtered without retrieving every object
+        try {
+            resource.getObjects(null, 2, null, "a");
+            fail("Filtering by name should not be supported.");
+        }
+        catch (GuacamoleUnsupportedException e) {
+            // Expected
+        }
+
+    }
+
+    /**
+     * Verifies that all readable objects are returned as a map of identifier
+     * to object if no page is requested.
+     *
+     * @throws Exception
+     *     If the DirectoryResource cannot be created, or the objects cannot
+     *     be retrieved.
+     */
+    @Test
+    public void testAllObjects() throws Exception {
+
+        DirectoryResource<TestObject, String> resource = getResource(
+                getUserContext("a", "c"),
+                new TestDirectory("a", "b", "c").getDirectory(false));
+
+        Map<?, ?> objects = (Map<?, ?>) resource.getObjects(READ, null, null, null).getEntity();
+        assertEquals(2, objects.size());
+        assertEquals("a", objects.get("a"));
+        assertEquals("c", objects.get("c"));
+
+    }
+
+}
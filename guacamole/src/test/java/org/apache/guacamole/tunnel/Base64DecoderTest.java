@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the Base64Decoder class, validating its output against the test
+ * vectors of RFC 4648 and against data encoded by Base64Encoder.
+ */
+public class Base64DecoderTest {
+
+    /**
+     * Returns the bytes within the given ByteBuffer as a new array, without
+     * modifying the ByteBuffer.
+     *
+     * @param buffer
+     *     The ByteBuffer whose remaining bytes should be returned.
+     *
+     * @return
+     *     A new array containing the remaining bytes of the given ByteBuffer.
+     */
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Test of decoding the test vectors of RFC 4648, section 10, both with
+     * and without padding.
+     *
+     * @throws Exception
+     *     If the test data cannot be encoded as UTF-8.
+     */
+    @Test
+    public void testVectors() throws Exception {
+
+        Base64Decoder decoder = new Base64Decoder();
+
+        String[][] vectors = {
+            { "",       ""         },
+            { "f",      "Zg=="     },
+            { "fo",     "Zm8="     },
+            { "foo",    "Zm9v"     },
+            { "foob",   "Zm9vYg==" },
+            { "fooba",  "Zm9vYmE=" },
+            { "foobar", "Zm9vYmFy" }
+        };
+
+        for (String[] vector : vectors) {
+
+            byte[] expected = vector[0].getBytes("UTF-8");
+            assertArrayEquals(expected, toArray(decoder.decode(vector[1])));
+
+            // Padding is optional
+            String unpadded = vector[1].replace("=", "");
+            assertArrayEquals(expected, toArray(decoder.decode(unpadded)));
+
+        }
+
+    }
+
+    /**
+     * Test of round-tripping data split into chunks of every size from one
+     * byte to several groups, as when a stream is sent as a series of blobs.
+     * Unless the chunk size is a multiple of three, chunks end in the middle
+     * of a group of three bytes, and each blob thus ends with padding which
+     * must not leak into the data decoded from the following blob.
+     */
+    @Test
+    public void testChunkedRoundTrip() {
+
+        Base64Encoder encoder = new Base64Encoder();
+        Base64Decoder decoder = new Base64Decoder();
+
+        byte[] data = new byte[1000];
+        new Random(0).nextBytes(data);
+
+        for (int chunkSize = 1; chunkSize <= 16; chunkSize++) {
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+
+                int length = Math.min(chunkSize, data.length - offset);
+                String blob = encoder.encode(data, offset, length);
+
+                // Each blob carries padding exactly when the chunk ends
+                // within a group
+                assertEquals(length % 3 != 0, blob.endsWith("="));
+
+                ByteBuffer chunk = decoder.decode(blob);
+                assertEquals(length, chunk.remaining());
+                decoded.write(chunk.array(), chunk.arrayOffset() + chunk.position(),
+                        chunk.remaining());
+
+            }
+
+            assertArrayEquals("Chunk size " + chunkSize, data, decoded.toByteArray());
+
+        }
+
+    }
+
+    /**
+     * Test of decoding data larger than all previously-decoded data,
+     * followed by smaller data, verifying that the reused internal buffer
+     * never affects the result.
+     *
+     * @throws Exception
+     *     If the test data cannot be encoded as UTF-8.
+     */
+    @Test
+    public void testBufferReuse() throws Exception {
+
+        Base64Decoder decoder = new Base64Decoder();
+
+        assertArrayEquals("foobar".getBytes("UTF-8"),
+                toArray(decoder.decode("Zm9vYmFy")));
+
+        assertArrayEquals("f".getBytes("UTF-8"),
+                toArray(decoder.decode("Zg==")));
+
+    }
+
+    /**
+     * Test that invalid base64 is rejected, including padding within the
+     * data, truncated groups, and characters outside the base64 alphabet.
+     */
+    @Test
+    public void testInvalid() {
+
+        Base64Decoder decoder = new Base64Decoder();
+
+        String[] invalid = {
+            "Zg=a",
+            "Zg==Zm8=",
+            "Z",
+            "Zm9vY",
+            "Z===",
+            "Zm9v!A==",
+            "Zm9véA=="
+        };
+
+        for (String data : invalid) {
+            try {
+                decoder.decode(data);
+                fail("Invalid base64 accepted: " + data);
+            }
+            catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import java.util.Arrays;
+import java.util.Random;
+import javax.xml.bind.DatatypeConverter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the Base64Encoder class, validating its output against the test
+ * vectors of RFC 4648 and against the base64 encoding provided by the JDK.
+ */
+public class Base64EncoderTest {
+
+    /**
+     * Test of encoding the test vectors of RFC 4648, section 10, covering
+     * every possible amount of padding.
+     *
+     * @throws Exception
+     *     If the test data cannot be encoded as UTF-8.
+     */
+    @Test
+    public void testVectors() throws Exception {
+
+        Base64Encoder encoder = new Base64Encoder();
+
+        String[][] vectors = {
+            { "",       ""         },
+            { "f",      "Zg=="     },
+            { "fo",     "Zm8="     },
+            { "foo",    "Zm9v"     },
+            { "foob",   "Zm9vYg==" },
+            { "fooba",  "Zm9vYmE=" },
+            { "foobar", "Zm9vYmFy" }
+        };
+
+        for (String[] vector : vectors) {
+            byte[] data = vector[0].getBytes("UTF-8");
+            assertEquals(vector[1], encoder.encode(data, 0, data.length));
+        }
+
+    }
+
+    /**
+     * Test of encoding ranges of every length within a larger array,
+     * verifying that only the requested range is encoded and that the
+     * reused internal buffer never affects the result, including when the
+     * buffer is larger than necessary.
+     */
+    @Test
+    public void testRanges() {
+
+        Base64Encoder encoder = new Base64Encoder();
+
+        byte[] data = new byte[256];
+        new Random(0).nextBytes(data);
+
+        // Encode lengths in decreasing order, such that the buffer is always
+        // left larger than necessary by the previous encode
+        for (int length = 200; length >= 0; length--) {
+            for (int offset = 0; offset < 3; offset++) {
+                String expected = DatatypeConverter.printBase64Binary(
+                        Arrays.copyOfRange(data, offset, offset + length));
+                assertEquals(expected, encoder.encode(data, offset, length));
+            }
+        }
+
+    }
+
+}
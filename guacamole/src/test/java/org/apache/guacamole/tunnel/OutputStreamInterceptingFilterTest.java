@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the OutputStreamInterceptingFilter class, validating that the "ack"
+ * instructions which keep the acknowledgement window full are sent only
+ * while the stream remains intercepted.
+ */
+public class OutputStreamInterceptingFilterTest {
+
+    /**
+     * Stubbed tunnel which records every instruction written to it, allowing
+     * the test to react to each written "ack" as guacd would.
+     */
+    private abstract static class TestTunnel implements InvocationHandler {
+
+        /**
+         * All "ack" instructions written to the tunnel, in order.
+         */
+        protected final List<GuacamoleInstruction> acks =
+                new ArrayList<GuacamoleInstruction>();
+
+        /**
+         * The writer of the tunnel, which records each instruction written.
+         */
+        private final GuacamoleWriter writer = (GuacamoleWriter) Proxy.newProxyInstance(
+                GuacamoleWriter.class.getClassLoader(),
+                new Class<?>[] { GuacamoleWriter.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+                    throws GuacamoleException {
+
+                assertEquals("writeInstruction", method.getName());
+                GuacamoleInstruction instruction = (GuacamoleInstruction) args[0];
+                assertEquals("ack", instruction.getOpcode());
+
+                acks.add(instruction);
+                acknowledged(instruction);
+                return null;
+
+            }
+
+        });
+
+        /**
+         * Called after each "ack" instruction is written to the tunnel.
+         *
+         * @param ack
+         *     The "ack" instruction written.
+         *
+         * @throws GuacamoleException
+         *     If the instructions sent in response cannot be filtered.
+         */
+        protected abstract void acknowledged(GuacamoleInstruction ack)
+                throws GuacamoleException;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+
+            String name = method.getName();
+            if (name.equals("acquireWriter"))
+                return writer;
+            if (name.equals("isOpen"))
+                return true;
+
+            assertEquals("releaseWriter", name);
+            return null;
+
+        }
+
+        /**
+         * Returns a new GuacamoleTunnel backed by this handler.
+         *
+         * @return
+         *     A new GuacamoleTunnel backed by this handler.
+         */
+        public GuacamoleTunnel getTunnel() {
+            return (GuacamoleTunnel) Proxy.newProxyInstance(
+                    GuacamoleTunnel.class.getClassLoader(),
+                    new Class<?>[] { GuacamoleTunnel.class },
+                    this);
+        }
+
+    }
+
+    /**
+     * Test that, once the initial "ack" instructions of the window have been
+     * sent, each received blob is written and acknowledged, and that no
+     * instruction of an ended stream is intercepted further.
+     *
+     * @throws GuacamoleException
+     *     If the stream cannot be intercepted.
+     */
+    @Test
+    public void testWindow() throws GuacamoleException {
+
+        final OutputStreamInterceptingFilter[] filter = new OutputStreamInterceptingFilter[1];
+        TestTunnel tunnel = new TestTunnel() {
+
+            @Override
+            protected void acknowledged(GuacamoleInstruction ack)
+                    throws GuacamoleException {
+
+                // Once the window is full, send one blob and end the stream
+                if (acks.size() == 3) {
+                    assertNull(filter[0].filter(new GuacamoleInstruction("blob", "0", "YWJj")));
+                    filter[0].filter(new GuacamoleInstruction("end", "0"));
+                }
+
+            }
+
+        };
+
+        filter[0] = new OutputStreamInterceptingFilter(tunnel.getTunnel());
+        filter[0].setAcknowledgementWindow(3);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        filter[0].interceptStream(0, output);
+
+        assertEquals("abc", new String(output.toByteArray()));
+        assertEquals(4, tunnel.acks.size());
+
+        // Blobs for streams which have ended are passed through
+        GuacamoleInstruction blob = new GuacamoleInstruction("blob", "0", "YWJj");
+        assertSame(blob, filter[0].filter(blob));
+        assertEquals(4, tunnel.acks.size());
+
+    }
+
+    /**
+     * Test that no further "ack" instructions of the initial window are sent
+     * if the stream ends while those instructions are being sent, as the
+     * index of the ended stream may be reused by guacd for another stream.
+     *
+     * @throws GuacamoleException
+     *     If the stream cannot be intercepted.
+     */
+    @Test
+    public void testNoAckAfterEnd() throws GuacamoleException {
+
+        final OutputStreamInterceptingFilter[] filter = new OutputStreamInterceptingFilter[1];
+        TestTunnel tunnel = new TestTunnel() {
+
+            @Override
+            protected void acknowledged(GuacamoleInstruction ack)
+                    throws GuacamoleException {
+
+                // End the stream as soon as the first "ack" is received
+                if (acks.size() == 1)
+                    filter[0].filter(new GuacamoleInstruction("end", "0"));
+
+            }
+
+        };
+
+        filter[0] = new OutputStreamInterceptingFilter(tunnel.getTunnel());
+        filter[0].setAcknowledgementWindow(4);
+        filter[0].interceptStream(0, new ByteArrayOutputStream());
+
+        assertEquals(1, tunnel.acks.size());
+
+    }
+
+}